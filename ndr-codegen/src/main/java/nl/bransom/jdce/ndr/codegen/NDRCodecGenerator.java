@@ -0,0 +1,287 @@
+package nl.bransom.jdce.ndr.codegen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Composes the Java source of a generated NDR codec. Consecutive members with a fixed layout are merged into a block,
+ * which is read or written in one go; the alignment of each member within the block is computed here, so the generated
+ * code only decodes and encodes numbers at constant offsets.
+ * 
+ * A block is aligned to its first member, so a member only joins the block if its alignment is no greater than that;
+ * NDR alignments are powers of two, so the padding within the block is then the same as in the stream. A member with
+ * a greater alignment starts a new block.
+ * 
+ * @author Rob
+ */
+final class NDRCodecGenerator {
+
+  private static final String INDENT = "  ";
+
+  private final String packageName;
+  private final String structTypeName;
+  private final String codecName;
+  private final List<NDRMember> members;
+  private final boolean instantiable;
+  private final StringBuilder source;
+
+  /**
+   * Constructor.
+   * 
+   * @param packageName
+   *          package of both the NDRStruct and the codec
+   * @param structTypeName
+   *          qualified name of the NDRStruct
+   * @param codecName
+   *          simple name of the codec class
+   * @param members
+   *          members of the NDRStruct, in NDR order
+   * @param instantiable
+   *          {@code true} if the codec can create instances of the NDRStruct via its no-arg constructor
+   */
+  NDRCodecGenerator(final String packageName, final String structTypeName, final String codecName,
+      final List<NDRMember> members, final boolean instantiable) {
+    this.packageName = packageName;
+    this.structTypeName = structTypeName;
+    this.codecName = codecName;
+    this.members = members;
+    this.instantiable = instantiable;
+    this.source = new StringBuilder();
+  }
+
+  /**
+   * @return Java source code of the codec
+   */
+  public String generate() {
+    final List<List<NDRMember>> blocks = mergeBlocks();
+    source.setLength(0);
+    line(0, "// Generated by " + NDRCodecProcessor.class.getName() + "; do not edit.");
+    if (packageName.length() > 0) {
+      line(0, "package " + packageName + ";");
+    }
+    line(0, "");
+    line(0, "import java.io.IOException;");
+    line(0, "");
+    line(0, "import nl.bransom.jdce.ndr.IntegerCodec;");
+    line(0, "import nl.bransom.jdce.ndr.NDRCodec;");
+    if (instantiable) {
+      line(0, "import nl.bransom.jdce.ndr.NDRFactory;");
+    }
+    line(0, "import nl.bransom.jdce.ndr.NDRReader;");
+    line(0, "import nl.bransom.jdce.ndr.NDRWriter;");
+    line(0, "");
+    line(0, "/**");
+    line(0, " * Generated {@link NDRCodec} for {@link " + structTypeName + "}.");
+    line(0, " */");
+    if (instantiable) {
+      line(0, "public final class " + codecName + " implements NDRCodec<" + structTypeName + ">,");
+      line(2, "NDRFactory<" + structTypeName + "> {");
+    } else {
+      line(0, "public final class " + codecName + " implements NDRCodec<" + structTypeName + "> {");
+    }
+    line(0, "");
+    line(1, "/** Singleton instance. */");
+    line(1, "public static final " + codecName + " INSTANCE = new " + codecName + "();");
+    line(0, "");
+    line(1, "private " + codecName + "() {");
+    line(1, "}");
+    line(0, "");
+    if (instantiable) {
+      line(1, "@Override");
+      line(1, "public " + structTypeName + " newInstance() {");
+      line(2, "return new " + structTypeName + "();");
+      line(1, "}");
+      line(0, "");
+    }
+    line(1, "@Override");
+    line(1, "public void encode(final " + structTypeName + " value, final NDRWriter ndrWriter) throws IOException {");
+    for (int i = 0; i < blocks.size(); i++) {
+      generateEncode(blocks.get(i), i);
+    }
+    line(1, "}");
+    line(0, "");
+    line(1, "@Override");
+    line(1, "public void decode(final " + structTypeName + " value, final NDRReader ndrReader) throws IOException {");
+    for (int i = 0; i < blocks.size(); i++) {
+      generateDecode(blocks.get(i), i);
+    }
+    line(1, "}");
+    line(0, "}");
+    return source.toString();
+  }
+
+  /**
+   * Groups consecutive blockable members and computes their offsets within the block. Other members end up in a
+   * singleton list.
+   * 
+   * Only the alignment of the first member of a block is known in the stream, so a member with a greater alignment
+   * starts a new block; merging it would put padding before the first member that NDR doesn't allow.
+   */
+  private List<List<NDRMember>> mergeBlocks() {
+    final List<List<NDRMember>> blocks = new ArrayList<List<NDRMember>>();
+    List<NDRMember> block = null;
+    int offset = 0;
+    for (NDRMember member : members) {
+      if (!member.getKind().isBlockable()) {
+        final List<NDRMember> singleton = new ArrayList<NDRMember>(1);
+        singleton.add(member);
+        blocks.add(singleton);
+        block = null;
+        continue;
+      }
+      final int alignment = member.getKind().getAlignment();
+      if (block == null || alignment > blockAlignment(block)) {
+        block = new ArrayList<NDRMember>();
+        blocks.add(block);
+        offset = 0;
+      }
+      offset = (offset + alignment - 1) / alignment * alignment;
+      member.setBlockOffset(offset);
+      offset += member.getSizeInBytes();
+      block.add(member);
+    }
+    return blocks;
+  }
+
+  private void generateEncode(final List<NDRMember> block, final int index) {
+    final NDRMember first = block.get(0);
+    if (!first.getKind().isBlockable()) {
+      final String field = "value." + first.getName();
+      switch (first.getKind()) {
+      case FLOAT:
+        line(2, "ndrWriter.writeFloat(" + field + ");");
+        break;
+      case DOUBLE:
+        line(2, "ndrWriter.writeDouble(" + field + ");");
+        break;
+      default:
+        line(2, "ndrWriter.write(" + field + ");");
+        break;
+      }
+      return;
+    }
+    final String blockName = "block" + index;
+    final String codecVar = "integerCodec" + index;
+    if (needsIntegerCodec(block)) {
+      line(2, "final IntegerCodec " + codecVar + " = ndrWriter.getIntegerCodec();");
+    }
+    line(2, "final byte[] " + blockName + " = ndrWriter.getBlock(" + blockLength(block) + ");");
+    for (NDRMember member : block) {
+      final String field = "value." + member.getName();
+      final int offset = member.getBlockOffset();
+      switch (member.getKind()) {
+      case BOOLEAN:
+        line(2, blockName + "[" + offset + "] = " + field + " ? (byte) 0x01 : (byte) 0x00;");
+        break;
+      case BYTE:
+        line(2, blockName + "[" + offset + "] = " + field + ";");
+        break;
+      case SHORT:
+        line(2, codecVar + ".encodeShort(" + field + ", " + blockName + ", " + offset + ");");
+        break;
+      case INT:
+        line(2, codecVar + ".encodeInt(" + field + ", " + blockName + ", " + offset + ");");
+        break;
+      case LONG:
+        line(2, codecVar + ".encodeLong(" + field + ", " + blockName + ", " + offset + ");");
+        break;
+      default:
+        line(2, "if (" + field + ".length != " + member.getLength() + ") {");
+        line(3, "throw new IllegalArgumentException(\"Length of field '" + member.getName() + "' must be "
+            + member.getLength() + " instead of \" + " + field + ".length + \".\");");
+        line(2, "}");
+        line(2, "System.arraycopy(" + field + ", 0, " + blockName + ", " + offset + ", " + member.getLength() + ");");
+        break;
+      }
+    }
+    line(2, "ndrWriter.writeBlock(" + blockAlignment(block) + ", " + blockLength(block) + ");");
+  }
+
+  private void generateDecode(final List<NDRMember> block, final int index) {
+    final NDRMember first = block.get(0);
+    if (!first.getKind().isBlockable()) {
+      final String field = "value." + first.getName();
+      switch (first.getKind()) {
+      case FLOAT:
+        line(2, field + " = ndrReader.readFloat();");
+        break;
+      case DOUBLE:
+        line(2, field + " = ndrReader.readDouble();");
+        break;
+      default:
+        // An existing instance is reused, so pooled object graphs are decoded in place.
+        if (first.isGenerated()) {
+          // No reflection required; the nested codec is invoked via ndrDeserialize().
+          line(2, "if (" + field + " == null) {");
+          line(3, field + " = new " + first.getTypeName() + "();");
+          line(2, "}");
+          line(2, "ndrReader.read(" + field + ");");
+        } else {
+          line(2, field + " = ndrReader.read(" + first.getTypeName() + ".class, " + field + ");");
+        }
+        break;
+      }
+      return;
+    }
+    final String blockName = "block" + index;
+    final String codecVar = "integerCodec" + index;
+    if (needsIntegerCodec(block)) {
+      line(2, "final IntegerCodec " + codecVar + " = ndrReader.getIntegerCodec();");
+    }
+    line(2, "final byte[] " + blockName + " = ndrReader.readBlock(" + blockAlignment(block) + ", "
+        + blockLength(block) + ");");
+    for (NDRMember member : block) {
+      final String field = "value." + member.getName();
+      final int offset = member.getBlockOffset();
+      switch (member.getKind()) {
+      case BOOLEAN:
+        line(2, field + " = " + blockName + "[" + offset + "] != 0x00;");
+        break;
+      case BYTE:
+        line(2, field + " = " + blockName + "[" + offset + "];");
+        break;
+      case SHORT:
+        line(2, field + " = " + codecVar + ".decodeShort(" + blockName + ", " + offset + ");");
+        break;
+      case INT:
+        line(2, field + " = " + codecVar + ".decodeInt(" + blockName + ", " + offset + ");");
+        break;
+      case LONG:
+        line(2, field + " = " + codecVar + ".decodeLong(" + blockName + ", " + offset + ");");
+        break;
+      default:
+        line(2, "if (" + field + " == null || " + field + ".length != " + member.getLength() + ") {");
+        line(3, field + " = new byte[" + member.getLength() + "];");
+        line(2, "}");
+        line(2, "System.arraycopy(" + blockName + ", " + offset + ", " + field + ", 0, " + member.getLength() + ");");
+        break;
+      }
+    }
+  }
+
+  private static boolean needsIntegerCodec(final List<NDRMember> block) {
+    for (NDRMember member : block) {
+      final NDRMember.Kind kind = member.getKind();
+      if (kind == NDRMember.Kind.SHORT || kind == NDRMember.Kind.INT || kind == NDRMember.Kind.LONG) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int blockAlignment(final List<NDRMember> block) {
+    return block.get(0).getKind().getAlignment();
+  }
+
+  private static int blockLength(final List<NDRMember> block) {
+    final NDRMember last = block.get(block.size() - 1);
+    return last.getBlockOffset() + last.getSizeInBytes();
+  }
+
+  private void line(final int indentLevel, final String text) {
+    for (int i = 0; i < indentLevel; i++) {
+      source.append(INDENT);
+    }
+    source.append(text).append('\n');
+  }
+}
@@ -0,0 +1,218 @@
+package nl.bransom.jdce.ndr.codegen;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Annotation processor that generates an {@link nl.bransom.jdce.ndr.NDRCodec} for every class that is annotated with
+ * {@link nl.bransom.jdce.ndr.NDRStruct}. The generated code reads and writes the fields directly, in straight lines,
+ * and merges consecutive fixed-layout fields into a single block read or write; see {@link NDRCodecGenerator}.
+ * 
+ * The processor is only needed at compile-time, so it lives in a module of its own that is put on the processor path
+ * and never shipped. It refers to the annotations by name, so it doesn't depend on the jDCE classes.
+ * 
+ * @author Rob
+ */
+@SupportedAnnotationTypes(NDRCodecProcessor.NDR_STRUCT)
+public class NDRCodecProcessor extends AbstractProcessor {
+
+  /** Simple class name suffix of generated codecs. */
+  public static final String CODEC_SUFFIX = "NDRCodec";
+
+  static final String NDR_STRUCT = "nl.bransom.jdce.ndr.NDRStruct";
+  private static final String NDR_FIXED_LENGTH = "nl.bransom.jdce.ndr.NDRFixedLength";
+  private static final String NDR_SERIALIZABLE = "nl.bransom.jdce.ndr.NDRSerializable";
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+    final TypeElement ndrStruct = processingEnv.getElementUtils().getTypeElement(NDR_STRUCT);
+    if (ndrStruct == null) {
+      return false;
+    }
+    for (Element element : roundEnv.getElementsAnnotatedWith(ndrStruct)) {
+      if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.PRIVATE)) {
+        error(element, "@NDRStruct is only supported on non-private classes.");
+        continue;
+      }
+      final TypeElement structType = (TypeElement) element;
+      final List<NDRMember> members = collectMembers(structType);
+      if (members != null) {
+        writeCodec(structType, members);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return members in order of declaration, or {@code null} if any of the fields is not supported
+   */
+  private List<NDRMember> collectMembers(final TypeElement structType) {
+    final List<NDRMember> members = new ArrayList<NDRMember>();
+    boolean isValid = true;
+    for (VariableElement field : ElementFilter.fieldsIn(structType.getEnclosedElements())) {
+      final Set<Modifier> modifiers = field.getModifiers();
+      if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+        continue;
+      }
+      if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL)) {
+        error(field, "Members of an @NDRStruct must not be private or final.");
+        isValid = false;
+        continue;
+      }
+      final NDRMember member = toMember(field);
+      if (member == null) {
+        isValid = false;
+      } else {
+        members.add(member);
+      }
+    }
+    return isValid ? members : null;
+  }
+
+  private NDRMember toMember(final VariableElement field) {
+    final String name = field.getSimpleName().toString();
+    final TypeMirror type = field.asType();
+    switch (type.getKind()) {
+    case BOOLEAN:
+      return new NDRMember(name, NDRMember.Kind.BOOLEAN, 1, null, false);
+    case BYTE:
+      return new NDRMember(name, NDRMember.Kind.BYTE, 1, null, false);
+    case SHORT:
+      return new NDRMember(name, NDRMember.Kind.SHORT, 1, null, false);
+    case INT:
+      return new NDRMember(name, NDRMember.Kind.INT, 1, null, false);
+    case LONG:
+      return new NDRMember(name, NDRMember.Kind.LONG, 1, null, false);
+    case FLOAT:
+      return new NDRMember(name, NDRMember.Kind.FLOAT, 1, null, false);
+    case DOUBLE:
+      return new NDRMember(name, NDRMember.Kind.DOUBLE, 1, null, false);
+    case ARRAY:
+      final Integer length = getFixedLength(field);
+      if (((ArrayType) type).getComponentType().getKind() != TypeKind.BYTE || length == null || length < 0) {
+        error(field, "Array members of an @NDRStruct must be byte arrays, annotated with @NDRFixedLength.");
+        return null;
+      }
+      return new NDRMember(name, NDRMember.Kind.FIXED_BYTES, length, null, false);
+    case DECLARED:
+      final TypeElement ndrSerializable = processingEnv.getElementUtils().getTypeElement(NDR_SERIALIZABLE);
+      final TypeMirror erasure = processingEnv.getTypeUtils().erasure(type);
+      if (ndrSerializable != null && processingEnv.getTypeUtils().isAssignable(erasure, ndrSerializable.asType())) {
+        final TypeElement typeElement = (TypeElement) processingEnv.getTypeUtils().asElement(type);
+        final boolean isGenerated = getAnnotation(typeElement, NDR_STRUCT) != null && isInstantiable(typeElement);
+        return new NDRMember(name, NDRMember.Kind.STRUCT, 1, erasure.toString(), isGenerated);
+      }
+      break;
+    default:
+      break;
+    }
+    error(field, "Unsupported type of @NDRStruct member: " + type);
+    return null;
+  }
+
+  /**
+   * @return {@code true} if generated code can instantiate {@code typeElement} via its no-arg constructor
+   */
+  private static boolean isInstantiable(final TypeElement typeElement) {
+    final Set<Modifier> modifiers = typeElement.getModifiers();
+    if (modifiers.contains(Modifier.ABSTRACT)
+        || (typeElement.getNestingKind() == NestingKind.MEMBER && !modifiers.contains(Modifier.STATIC))) {
+      return false;
+    }
+    for (ExecutableElement constructor : ElementFilter.constructorsIn(typeElement.getEnclosedElements())) {
+      if (constructor.getParameters().isEmpty()) {
+        return !constructor.getModifiers().contains(Modifier.PRIVATE);
+      }
+    }
+    // No no-arg constructor; javac only adds a default constructor if there are no others.
+    return false;
+  }
+
+  private Integer getFixedLength(final VariableElement field) {
+    final AnnotationMirror fixedLength = getAnnotation(field, NDR_FIXED_LENGTH);
+    if (fixedLength == null) {
+      return null;
+    }
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : fixedLength.getElementValues()
+        .entrySet()) {
+      if (entry.getKey().getSimpleName().contentEquals("value")) {
+        return (Integer) entry.getValue().getValue();
+      }
+    }
+    return null;
+  }
+
+  private static AnnotationMirror getAnnotation(final Element element, final String annotationTypeName) {
+    for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+      final Element annotationType = annotation.getAnnotationType().asElement();
+      if (((TypeElement) annotationType).getQualifiedName().contentEquals(annotationTypeName)) {
+        return annotation;
+      }
+    }
+    return null;
+  }
+
+  private void writeCodec(final TypeElement structType, final List<NDRMember> members) {
+    final String packageName = processingEnv.getElementUtils().getPackageOf(structType).getQualifiedName()
+        .toString();
+    final String codecName = getCodecName(structType);
+    final String qualifiedCodecName = packageName.length() > 0 ? packageName + "." + codecName : codecName;
+    final String source = new NDRCodecGenerator(packageName, structType.getQualifiedName().toString(), codecName,
+        members, isInstantiable(structType)).generate();
+    try {
+      final Writer writer = processingEnv.getFiler().createSourceFile(qualifiedCodecName, structType).openWriter();
+      try {
+        writer.write(source);
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      error(structType, "Error generating " + qualifiedCodecName + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Names the codec after the struct; nested classes are prefixed with the names of their enclosing classes.
+   */
+  private static String getCodecName(final TypeElement structType) {
+    final StringBuilder codecName = new StringBuilder(structType.getSimpleName()).append(CODEC_SUFFIX);
+    Element element = structType;
+    while (element instanceof TypeElement && ((TypeElement) element).getNestingKind() == NestingKind.MEMBER) {
+      element = element.getEnclosingElement();
+      codecName.insert(0, '_').insert(0, element.getSimpleName());
+    }
+    return codecName.toString();
+  }
+
+  private void error(final Element element, final String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+}
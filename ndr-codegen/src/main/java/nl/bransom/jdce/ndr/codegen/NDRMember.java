@@ -0,0 +1,121 @@
+package nl.bransom.jdce.ndr.codegen;
+
+/**
+ * Describes one member (field) of an NDR structure, as far as code generation is concerned.
+ * 
+ * @author Rob
+ */
+final class NDRMember {
+
+  /**
+   * Supported kinds of members.
+   */
+  enum Kind {
+    /** boolean, one byte */
+    BOOLEAN(1, true),
+    /** byte */
+    BYTE(1, true),
+    /** short, two bytes */
+    SHORT(2, true),
+    /** int, four bytes */
+    INT(4, true),
+    /** long, eight bytes */
+    LONG(8, true),
+    /** float, four bytes; delegated to the NDRReader/NDRWriter because of the float format */
+    FLOAT(4, false),
+    /** double, eight bytes; delegated to the NDRReader/NDRWriter because of the float format */
+    DOUBLE(8, false),
+    /** byte array of fixed length */
+    FIXED_BYTES(1, true),
+    /** nested NDRSerializable */
+    STRUCT(0, false);
+
+    private int alignment;
+    private boolean blockable;
+
+    /**
+     * Hidden constructor.
+     * 
+     * @param alignment
+     *          alignment in bytes
+     * @param blockable
+     *          {@code true} if the member has a fixed layout, so it can be part of a block
+     */
+    private Kind(final int alignment, final boolean blockable) {
+      this.alignment = alignment;
+      this.blockable = blockable;
+    }
+
+    public int getAlignment() {
+      return alignment;
+    }
+
+    public boolean isBlockable() {
+      return blockable;
+    }
+  }
+
+  private final String name;
+  private final Kind kind;
+  private final int length;
+  private final String typeName;
+  private final boolean generated;
+  private int blockOffset;
+
+  /**
+   * Constructor.
+   * 
+   * @param name
+   *          name of the field
+   * @param kind
+   *          kind of member
+   * @param length
+   *          number of elements of a {@link Kind#FIXED_BYTES} member, 1 otherwise
+   * @param typeName
+   *          qualified name of the type of a {@link Kind#STRUCT} member, {@code null} otherwise
+   * @param generated
+   *          {@code true} if the type of a {@link Kind#STRUCT} member is an NDRStruct itself
+   */
+  NDRMember(final String name, final Kind kind, final int length, final String typeName, final boolean generated) {
+    this.name = name;
+    this.kind = kind;
+    this.length = length;
+    this.typeName = typeName;
+    this.generated = generated;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  public String getTypeName() {
+    return typeName;
+  }
+
+  public boolean isGenerated() {
+    return generated;
+  }
+
+  /**
+   * @return number of bytes in the NDR byte stream; only defined for blockable members
+   */
+  public int getSizeInBytes() {
+    return kind.getAlignment() * length;
+  }
+
+  public int getBlockOffset() {
+    return blockOffset;
+  }
+
+  public void setBlockOffset(final int blockOffset) {
+    this.blockOffset = blockOffset;
+  }
+}
@@ -0,0 +1,123 @@
+package nl.bransom.jdce.ndr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Base class for NDR byte sources. Implementations keep track of the number of bytes that are read, so they can skip
+ * alignment bytes if required.
+ * 
+ * @author Rob
+ */
+public abstract class AlignedInput {
+
+  /**
+   * Reads a single byte from the NDR byte source.
+   * 
+   * @return a single byte that was read
+   * @throws IOException
+   *           when errors occur while reading data from the NDR byte source
+   */
+  public abstract byte read() throws IOException;
+
+  /**
+   * Reads bytes from the NDR byte source.
+   * 
+   * @param dataBytes
+   *          byte array into which the data will be stored that is read from the NDR byte source
+   * @return the number of bytes that were read
+   * @throws IOException
+   *           when errors occur while reading data from the NDR byte source
+   */
+  public int read(final byte[] dataBytes) throws IOException {
+    return read(dataBytes, 0, dataBytes.length);
+  }
+
+  /**
+   * Reads bytes from the NDR byte source.
+   * 
+   * @param dataBytes
+   *          byte array into which the data will be stored that is read from the NDR byte source
+   * @param dataOffset
+   *          storing data into {@code dataBytes} must start at this byte offset
+   * @param dataLength
+   *          number of bytes to read from {@code dataBytes}
+   * @return number of bytes read into {@code dataBytes}. Note that this can be less than {@code dataLength} if EOF is
+   *         reached.
+   * @throws IOException
+   *           when errors occur while reading data from the NDR byte source
+   */
+  public abstract int read(byte[] dataBytes, int dataOffset, int dataLength) throws IOException;
+
+  /**
+   * Reads {@code length} bytes from the NDR byte source and returns them as a buffer. This implementation copies the
+   * bytes into a new array; sources that hold their data in memory return a view of that data instead, without copying.
+   * The returned buffer must not be modified.
+   * 
+   * @param length
+   *          number of bytes to read
+   * @return buffer holding exactly {@code length} bytes between its position and limit
+   * @throws IOException
+   *           when fewer than {@code length} bytes are available or errors occur while reading data from the NDR byte
+   *           source
+   */
+  public ByteBuffer slice(final int length) throws IOException {
+    if (length < 0) {
+      throw new IllegalArgumentException("Length must not be negative.");
+    }
+    final byte[] dataBytes = new byte[length];
+    int numBytesRead = 0;
+    while (numBytesRead < length) {
+      final int numBytes = read(dataBytes, numBytesRead, length - numBytesRead);
+      if (numBytes <= 0) {
+        throw new IOException("Expected to read " + length + " bytes, but only " + numBytesRead
+            + " bytes have been read.");
+      }
+      numBytesRead += numBytes;
+    }
+    return ByteBuffer.wrap(dataBytes);
+  }
+
+  /**
+   * Reads bytes until the alignment of the given {@code fieldSizeInBytes} is reached.
+   * 
+   * @param fieldSizeInBytes
+   *          size in bytes of the field that must be aligned
+   * @throws IOException
+   *           when errors occur while reading data from the NDR byte source
+   */
+  public abstract void skipAlignment(int fieldSizeInBytes) throws IOException;
+
+  /**
+   * Reads two bytes and converts them to a short, using the given {@code integerCodec}.
+   * 
+   * @param integerCodec
+   *          strategy to decode the NDR data
+   * @return short value
+   * @throws IOException
+   *           when errors occur while reading data from the NDR byte source
+   */
+  public abstract short readShort(IntegerCodec integerCodec) throws IOException;
+
+  /**
+   * Reads four bytes and converts them to an int, using the given {@code integerCodec}.
+   * 
+   * @param integerCodec
+   *          strategy to decode the NDR data
+   * @return int value
+   * @throws IOException
+   *           when errors occur while reading data from the NDR byte source
+   */
+  public abstract int readInt(IntegerCodec integerCodec) throws IOException;
+
+  /**
+   * Reads eight bytes and converts them to a long, using the given {@code integerCodec}.
+   * 
+   * @param integerCodec
+   *          strategy to decode the NDR data
+   * @return long value
+   * @throws IOException
+   *           when errors occur while reading data from the NDR byte source
+   */
+  public abstract long readLong(IntegerCodec integerCodec) throws IOException;
+}
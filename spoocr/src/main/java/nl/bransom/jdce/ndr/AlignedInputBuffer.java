@@ -0,0 +1,120 @@
+package nl.bransom.jdce.ndr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * This is a wrapper for a (heap or direct) ByteBuffer. Primitives are decoded straight from the buffer with absolute
+ * get-methods; alignment is computed from the read position, relative to the position the buffer had when it was
+ * wrapped.
+ * 
+ * Note that the wrapped buffer itself is not modified: neither its position nor its byte order is changed.
+ * 
+ * @author Rob
+ */
+public class AlignedInputBuffer extends AlignedInput {
+
+  private static final String NO_MORE_DATA_ERROR = "No more data available in input buffer.";
+
+  private ByteBuffer byteBuffer;
+  private int startPosition;
+  private int position;
+
+  /**
+   * @param byteBuffer
+   *          NDR byte buffer; reading starts at its current position and stops at its limit
+   */
+  public AlignedInputBuffer(final ByteBuffer byteBuffer) {
+    this.byteBuffer = byteBuffer.duplicate();
+    this.startPosition = byteBuffer.position();
+    this.position = startPosition;
+  }
+
+  /**
+   * @return the absolute index in the wrapped buffer of the next byte to be read
+   */
+  public int getPosition() {
+    return position;
+  }
+
+  @Override
+  public byte read() throws IOException {
+    verifyAvailable(1);
+    return byteBuffer.get(position++);
+  }
+
+  @Override
+  public int read(final byte[] dataBytes, final int dataOffset, final int dataLength) throws IOException {
+    final int numBytesAvailable = byteBuffer.limit() - position;
+    if (numBytesAvailable <= 0 && dataLength > 0) {
+      return -1;
+    }
+    final int numBytesRead = Math.min(numBytesAvailable, dataLength);
+    byteBuffer.position(position);
+    byteBuffer.get(dataBytes, dataOffset, numBytesRead);
+    position += numBytesRead;
+    return numBytesRead;
+  }
+
+  /**
+   * Returns a view of the next {@code length} bytes of the wrapped buffer, sharing its content.
+   */
+  @Override
+  public ByteBuffer slice(final int length) throws IOException {
+    if (length < 0) {
+      throw new IllegalArgumentException("Length must not be negative.");
+    }
+    verifyAvailable(length);
+    final ByteBuffer view = byteBuffer.duplicate();
+    view.limit(position + length).position(position);
+    position += length;
+    return view.slice();
+  }
+
+  @Override
+  public void skipAlignment(final int fieldSizeInBytes) throws IOException {
+    final int alignError = (position - startPosition) % fieldSizeInBytes;
+    if (alignError > 0) {
+      verifyAvailable(fieldSizeInBytes - alignError);
+      position += fieldSizeInBytes - alignError;
+    }
+  }
+
+  @Override
+  public short readShort(final IntegerCodec integerCodec) throws IOException {
+    verifyAvailable(Short.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    final short value = applyByteOrder(integerCodec.getByteOrder()).getShort(position);
+    position += Short.SIZE / NDRConstants.NUM_BITS_PER_BYTE;
+    return value;
+  }
+
+  @Override
+  public int readInt(final IntegerCodec integerCodec) throws IOException {
+    verifyAvailable(Integer.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    final int value = applyByteOrder(integerCodec.getByteOrder()).getInt(position);
+    position += Integer.SIZE / NDRConstants.NUM_BITS_PER_BYTE;
+    return value;
+  }
+
+  @Override
+  public long readLong(final IntegerCodec integerCodec) throws IOException {
+    verifyAvailable(Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    final long value = applyByteOrder(integerCodec.getByteOrder()).getLong(position);
+    position += Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE;
+    return value;
+  }
+
+  private ByteBuffer applyByteOrder(final ByteOrder byteOrder) {
+    if (byteBuffer.order() != byteOrder) {
+      byteBuffer.order(byteOrder);
+    }
+    return byteBuffer;
+  }
+
+  private void verifyAvailable(final int numBytes) throws IOException {
+    if (byteBuffer.limit() - position < numBytes) {
+      throw new IOException(NO_MORE_DATA_ERROR);
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package nl.bransom.jdce.ndr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * NDR byte source that is fed with chunks of input as they arrive, for instance from a non-blocking channel. Reading
+ * beyond the bytes that have arrived so far throws an {@link NDRUnderflowException}; the reader can then
+ * {@link #rollback()} to the last {@link #commit()} and try again when more bytes have been appended. Bytes before the
+ * last commit are discarded as soon as room is needed for new input.
+ * 
+ * Alignment is computed relative to the first byte that was ever appended, so consecutive objects in one NDR stream
+ * are aligned like they would be in an {@link AlignedInputStream}.
+ * 
+ * This class is not thread-safe.
+ * 
+ * @author Rob
+ */
+public class AlignedInputChunks extends AlignedInput {
+
+  private static final int INITIAL_CAPACITY = 1 << 10;
+
+  private byte[] dataBytes = new byte[INITIAL_CAPACITY];
+  // Index of the first byte after the last commit; bytes before it may be discarded.
+  private int committedPosition;
+  private int position;
+  private int limit;
+  // Number of bytes that were discarded from the start of dataBytes, so alignment can be computed.
+  private long numDiscardedBytes;
+  // Index that limit must reach before reading can get further than the last underflow.
+  private int requiredLimit;
+
+  /**
+   * Copies the remaining bytes of {@code chunk} and advances its position to its limit.
+   * 
+   * @param chunk
+   *          bytes that have arrived
+   */
+  public void append(final ByteBuffer chunk) {
+    final int numBytes = chunk.remaining();
+    ensureRoom(numBytes);
+    chunk.get(dataBytes, limit, numBytes);
+    limit += numBytes;
+  }
+
+  /**
+   * Reads as many bytes from {@code channel} as it provides without blocking (if it's a non-blocking channel), straight
+   * into the internal storage.
+   * 
+   * @param channel
+   *          channel to read from
+   * @return number of bytes read, possibly zero, or -1 if the channel has reached end-of-stream
+   * @throws IOException
+   *           when errors occur while reading from {@code channel}
+   */
+  public int append(final ReadableByteChannel channel) throws IOException {
+    int numBytesRead = 0;
+    while (true) {
+      ensureRoom(1);
+      final int numBytes = channel.read(ByteBuffer.wrap(dataBytes, limit, dataBytes.length - limit));
+      if (numBytes < 0) {
+        return (numBytesRead > 0) ? numBytesRead : -1;
+      }
+      limit += numBytes;
+      numBytesRead += numBytes;
+      if (numBytes == 0 || limit < dataBytes.length) {
+        return numBytesRead;
+      }
+    }
+  }
+
+  /**
+   * @return number of bytes that have arrived, but have not been read yet
+   */
+  public int available() {
+    return limit - position;
+  }
+
+  /**
+   * @return {@code true} if enough bytes have arrived since the last {@link NDRUnderflowException} to get any further,
+   *         assuming the reader starts again at the last commit
+   */
+  public boolean isRetryUseful() {
+    return limit >= requiredLimit;
+  }
+
+  /**
+   * Marks all bytes read so far as consumed; a later {@link #rollback()} returns to this point.
+   */
+  public void commit() {
+    committedPosition = position;
+    requiredLimit = position;
+  }
+
+  /**
+   * Returns to the last {@link #commit()}, so the bytes read since then will be read again.
+   */
+  public void rollback() {
+    position = committedPosition;
+  }
+
+  @Override
+  public byte read() throws IOException {
+    verifyAvailable(1);
+    return dataBytes[position++];
+  }
+
+  /**
+   * Reads exactly {@code dataLength} bytes, or throws an {@link NDRUnderflowException} if they haven't all arrived yet.
+   */
+  @Override
+  public int read(final byte[] targetBytes, final int dataOffset, final int dataLength) throws IOException {
+    verifyAvailable(dataLength);
+    System.arraycopy(dataBytes, position, targetBytes, dataOffset, dataLength);
+    position += dataLength;
+    return dataLength;
+  }
+
+  /**
+   * Returns a copy of the next {@code length} bytes, since the internal storage is reused when more input arrives.
+   */
+  @Override
+  public ByteBuffer slice(final int length) throws IOException {
+    if (length < 0) {
+      throw new IllegalArgumentException("Length must not be negative.");
+    }
+    final byte[] sliceBytes = new byte[length];
+    read(sliceBytes, 0, length);
+    return ByteBuffer.wrap(sliceBytes);
+  }
+
+  @Override
+  public void skipAlignment(final int fieldSizeInBytes) throws IOException {
+    final int alignError = (int) ((numDiscardedBytes + position) % fieldSizeInBytes);
+    if (alignError > 0) {
+      verifyAvailable(fieldSizeInBytes - alignError);
+      position += fieldSizeInBytes - alignError;
+    }
+  }
+
+  @Override
+  public short readShort(final IntegerCodec integerCodec) throws IOException {
+    verifyAvailable(Short.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    final short value = integerCodec.decodeShort(dataBytes, position);
+    position += Short.SIZE / NDRConstants.NUM_BITS_PER_BYTE;
+    return value;
+  }
+
+  @Override
+  public int readInt(final IntegerCodec integerCodec) throws IOException {
+    verifyAvailable(Integer.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    final int value = integerCodec.decodeInt(dataBytes, position);
+    position += Integer.SIZE / NDRConstants.NUM_BITS_PER_BYTE;
+    return value;
+  }
+
+  @Override
+  public long readLong(final IntegerCodec integerCodec) throws IOException {
+    verifyAvailable(Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    final long value = integerCodec.decodeLong(dataBytes, position);
+    position += Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE;
+    return value;
+  }
+
+  /**
+   * Makes room for {@code numBytes} more bytes after the limit, discarding committed bytes or growing the storage.
+   */
+  private void ensureRoom(final int numBytes) {
+    if (dataBytes.length - limit >= numBytes) {
+      return;
+    }
+    final int numRetainedBytes = limit - committedPosition;
+    final byte[] targetBytes;
+    if (dataBytes.length - numRetainedBytes >= numBytes) {
+      targetBytes = dataBytes;
+    } else {
+      targetBytes = new byte[Math.max(2 * dataBytes.length, numRetainedBytes + numBytes)];
+    }
+    System.arraycopy(dataBytes, committedPosition, targetBytes, 0, numRetainedBytes);
+    dataBytes = targetBytes;
+    numDiscardedBytes += committedPosition;
+    position -= committedPosition;
+    limit -= committedPosition;
+    requiredLimit -= committedPosition;
+    committedPosition = 0;
+  }
+
+  private void verifyAvailable(final int numBytes) throws NDRUnderflowException {
+    if (numBytes < 0) {
+      throw new IllegalArgumentException("Length must not be negative.");
+    }
+    if (limit - position < numBytes) {
+      requiredLimit = position + numBytes;
+      throw new NDRUnderflowException(numBytes - (limit - position));
+    }
+  }
+}
@@ -7,10 +7,12 @@ import java.io.InputStream;
  * This is a wrapper for class InputStream. It keeps track of the number of bytes that are read, so it can skip
  * alignment bytes if required.
  */
-public class AlignedInputStream {
+public class AlignedInputStream extends AlignedInput {
 
   private InputStream inputStream;
-  private int totalBytesRead;
+  private long totalBytesRead;
+  // Reusable storage for the bytes of a single primitive, so decoding numbers doesn't produce garbage.
+  private final byte[] scratchBytes = new byte[Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE];
 
   /**
    * @param inputStream
@@ -27,8 +29,9 @@ public class AlignedInputStream {
    * @throws IOException
    *           when errors occur while reading data from the NDR byte stream
    */
+  @Override
   public byte read() throws IOException {
-    final int dataRead = (byte) inputStream.read();
+    final int dataRead = inputStream.read();
     if (dataRead == -1) {
       throw new IOException("No more data available on input stream.");
     }
@@ -36,19 +39,6 @@ public class AlignedInputStream {
     return (byte) (dataRead & NDRConstants.BYTE_MASK);
   }
 
-  /**
-   * Delegates reading bytes from the wrapped InputStream object.
-   * 
-   * @param dataBytes
-   *          byte array into which the data will be stored that is read from the NDR byte stream
-   * @return the number of bytes that were read
-   * @throws IOException
-   *           when errors occur while reading data from the NDR byte stream
-   */
-  public int read(final byte[] dataBytes) throws IOException {
-    return read(dataBytes, 0, dataBytes.length);
-  }
-
   /**
    * Delegates reading bytes from the wrapped InputStream object.
    * 
@@ -63,9 +53,12 @@ public class AlignedInputStream {
    * @throws IOException
    *           when errors occur while reading data from the NDR byte stream
    */
+  @Override
   public int read(final byte[] dataBytes, final int dataOffset, final int dataLength) throws IOException {
     final int numBytesRead = inputStream.read(dataBytes, dataOffset, dataLength);
-    totalBytesRead += numBytesRead;
+    if (numBytesRead > 0) {
+      totalBytesRead += numBytesRead;
+    }
     return numBytesRead;
   }
 
@@ -77,12 +70,51 @@ public class AlignedInputStream {
    * @throws IOException
    *           when errors occur while reading data from the NDR byte stream
    */
+  @Override
   public void skipAlignment(final int fieldSizeInBytes) throws IOException {
-    final int alignError = totalBytesRead % fieldSizeInBytes;
-    final int numAlignBytes = (alignError > 0) ? fieldSizeInBytes - alignError : 0;
-    for (int i = 0; i < numAlignBytes; i++) {
-      inputStream.read();
-      totalBytesRead++;
+    final int alignError = (int) (totalBytesRead % fieldSizeInBytes);
+    int numAlignBytes = (alignError > 0) ? fieldSizeInBytes - alignError : 0;
+    while (numAlignBytes > 0) {
+      // Skip in bulk; fall back to reading a single byte if the stream doesn't skip, so EOF can be detected.
+      final long numBytesSkipped = inputStream.skip(numAlignBytes);
+      if (numBytesSkipped > 0) {
+        numAlignBytes -= numBytesSkipped;
+        totalBytesRead += numBytesSkipped;
+      } else if (inputStream.read() >= 0) {
+        numAlignBytes--;
+        totalBytesRead++;
+      } else {
+        throw new IOException("Unexpected end of input stream while skipping alignment bytes.");
+      }
+    }
+  }
+
+  @Override
+  public short readShort(final IntegerCodec integerCodec) throws IOException {
+    readFully(Short.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    return integerCodec.decodeShort(scratchBytes, 0);
+  }
+
+  @Override
+  public int readInt(final IntegerCodec integerCodec) throws IOException {
+    readFully(Integer.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    return integerCodec.decodeInt(scratchBytes, 0);
+  }
+
+  @Override
+  public long readLong(final IntegerCodec integerCodec) throws IOException {
+    readFully(Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    return integerCodec.decodeLong(scratchBytes, 0);
+  }
+
+  private void readFully(final int sizeInBytes) throws IOException {
+    int numBytesRead = 0;
+    while (numBytesRead < sizeInBytes) {
+      final int numBytes = read(scratchBytes, numBytesRead, sizeInBytes - numBytesRead);
+      if (numBytes < 0) {
+        throw new IOException("Could not read the required " + sizeInBytes + " bytes from the NDR byte stream.");
+      }
+      numBytesRead += numBytes;
     }
   }
 }
@@ -0,0 +1,119 @@
+package nl.bransom.jdce.ndr;
+
+import java.io.IOException;
+
+/**
+ * Base class for NDR byte targets. Implementations keep track of the number of bytes that are written, so they can add
+ * alignment bytes if required.
+ * 
+ * @author Rob
+ */
+public abstract class AlignedOutput {
+
+  // Shared block of null-bytes, so alignment and fill bytes can be written in bulk.
+  private static final byte[] ZERO_BYTES = new byte[8 * NDRConstants.MAX_NUM_ALIGNMENT_BYTES];
+
+  /**
+   * Writes a single byte to the NDR byte target.
+   * 
+   * @param aByte
+   *          single byte to write
+   * @throws IOException
+   *           when errors occur while writing data to the NDR byte target
+   */
+  public abstract void write(byte aByte) throws IOException;
+
+  /**
+   * Writes bytes to the NDR byte target.
+   * 
+   * @param dataBytes
+   *          byte array containing the data that must be written to the NDR byte target
+   * @param dataOffset
+   *          copying data from {@code dataBytes} must start at this byte offset
+   * @param dataLength
+   *          number of bytes to write
+   * @throws IOException
+   *           when errors occur while writing data to the NDR byte target
+   */
+  public abstract void write(byte[] dataBytes, int dataOffset, int dataLength) throws IOException;
+
+  /**
+   * Writes bytes from an array that the caller reuses afterwards, so the NDR byte target must not keep a reference to
+   * it. By default this is the same as {@link #write(byte[], int, int)}.
+   * 
+   * @param dataBytes
+   *          byte array containing the data that must be written to the NDR byte target
+   * @param dataOffset
+   *          copying data from {@code dataBytes} must start at this byte offset
+   * @param dataLength
+   *          number of bytes to write
+   * @throws IOException
+   *           when errors occur while writing data to the NDR byte target
+   */
+  void writeTransient(final byte[] dataBytes, final int dataOffset, final int dataLength) throws IOException {
+    write(dataBytes, dataOffset, dataLength);
+  }
+
+  /**
+   * Writes null-bytes until the given {@code fieldSizeInBytes} is aligned.
+   * 
+   * @param fieldSizeInBytes
+   *          size in bytes of the field that must be aligned
+   * @throws IOException
+   *           when errors occur while writing data to the NDR byte target
+   */
+  public abstract void writeAlignment(int fieldSizeInBytes) throws IOException;
+
+  /**
+   * Writes {@code numBytes} null-bytes, using as few bulk writes as possible.
+   * 
+   * @param numBytes
+   *          number of null-bytes to write
+   * @throws IOException
+   *           when errors occur while writing data to the NDR byte target
+   */
+  public void writeZeros(final int numBytes) throws IOException {
+    int numBytesToWrite = numBytes;
+    while (numBytesToWrite > 0) {
+      final int blockLength = Math.min(numBytesToWrite, ZERO_BYTES.length);
+      write(ZERO_BYTES, 0, blockLength);
+      numBytesToWrite -= blockLength;
+    }
+  }
+
+  /**
+   * Converts {@code value} to two bytes and writes them in one go.
+   * 
+   * @param value
+   *          short value
+   * @param integerCodec
+   *          strategy to encode the NDR data
+   * @throws IOException
+   *           when errors occur while writing data to the NDR byte target
+   */
+  public abstract void writeShort(short value, IntegerCodec integerCodec) throws IOException;
+
+  /**
+   * Converts {@code value} to four bytes and writes them in one go.
+   * 
+   * @param value
+   *          int value
+   * @param integerCodec
+   *          strategy to encode the NDR data
+   * @throws IOException
+   *           when errors occur while writing data to the NDR byte target
+   */
+  public abstract void writeInt(int value, IntegerCodec integerCodec) throws IOException;
+
+  /**
+   * Converts {@code value} to eight bytes and writes them in one go.
+   * 
+   * @param value
+   *          long value
+   * @param integerCodec
+   *          strategy to encode the NDR data
+   * @throws IOException
+   *           when errors occur while writing data to the NDR byte target
+   */
+  public abstract void writeLong(long value, IntegerCodec integerCodec) throws IOException;
+}
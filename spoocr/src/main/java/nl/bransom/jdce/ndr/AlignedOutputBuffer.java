@@ -0,0 +1,184 @@
+package nl.bransom.jdce.ndr;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * NDR byte target that writes into a growable ByteBuffer taken from an {@link NDRBufferPool}. The composed content can
+ * be handed straight to a channel, without copying it to an intermediate byte array first.
+ * 
+ * Typical use is to keep one instance per connection or thread, {@link #clear()} it before each message and
+ * {@link #release()} it when done, so the encode path runs without allocating memory.
+ * 
+ * @author Rob
+ */
+public class AlignedOutputBuffer extends AlignedOutput {
+
+  private static final String RELEASED_ERROR = "The output buffer has already been released.";
+
+  private NDRBufferPool bufferPool;
+  private ByteBuffer byteBuffer;
+
+  /**
+   * @param bufferPool
+   *          pool that provides the underlying buffers
+   * @param initialCapacity
+   *          expected size in bytes of the NDR content; the buffer grows automatically if required
+   */
+  public AlignedOutputBuffer(final NDRBufferPool bufferPool, final int initialCapacity) {
+    this.bufferPool = bufferPool;
+    this.byteBuffer = bufferPool.acquire(initialCapacity);
+  }
+
+  /**
+   * @return number of bytes written since construction or since the last call to {@link #clear()}
+   */
+  public int size() {
+    return getByteBuffer().position();
+  }
+
+  /**
+   * Discards all content, so the buffer can be reused for composing a new NDR message.
+   */
+  public void clear() {
+    getByteBuffer().clear();
+  }
+
+  /**
+   * Returns a read-only view of the content. The view shares the underlying memory, so it is only valid until this
+   * buffer is cleared, grows or is released.
+   * 
+   * @return read-only buffer positioned at the first byte, with its limit set after the last byte
+   */
+  public ByteBuffer getContent() {
+    final ByteBuffer content = getByteBuffer().asReadOnlyBuffer();
+    content.flip();
+    return content;
+  }
+
+  /**
+   * Writes the full content to {@code channel}, for instance a {@link java.nio.channels.SocketChannel} or a connected
+   * {@link DatagramChannel}. The content is kept, so it can be written again, e.g. when a request must be
+   * retransmitted.
+   * 
+   * @param channel
+   *          blocking channel to write to
+   * @return number of bytes written
+   * @throws IOException
+   *           when errors occur while writing to the channel
+   */
+  public int writeTo(final WritableByteChannel channel) throws IOException {
+    final ByteBuffer buffer = getByteBuffer();
+    final int size = buffer.position();
+    buffer.flip();
+    try {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } finally {
+      buffer.limit(buffer.capacity());
+      buffer.position(size);
+    }
+    return size;
+  }
+
+  /**
+   * Sends the full content as a single datagram via an unconnected {@code channel}. The content is kept, so it can be
+   * sent again.
+   * 
+   * @param channel
+   *          datagram channel to send with
+   * @param target
+   *          address of the receiver
+   * @return number of bytes sent; zero if a non-blocking channel had no room for the datagram
+   * @throws IOException
+   *           when errors occur while sending the datagram
+   */
+  public int sendTo(final DatagramChannel channel, final SocketAddress target) throws IOException {
+    final ByteBuffer buffer = getByteBuffer();
+    final int size = buffer.position();
+    buffer.flip();
+    try {
+      return channel.send(buffer, target);
+    } finally {
+      buffer.limit(buffer.capacity());
+      buffer.position(size);
+    }
+  }
+
+  /**
+   * Returns the underlying buffer to the pool. This instance must not be used anymore afterwards.
+   */
+  public void release() {
+    if (byteBuffer != null) {
+      bufferPool.release(byteBuffer);
+      byteBuffer = null;
+    }
+  }
+
+  @Override
+  public void write(final byte aByte) throws IOException {
+    ensureCapacity(1).put(aByte);
+  }
+
+  @Override
+  public void write(final byte[] dataBytes, final int dataOffset, final int dataLength) throws IOException {
+    ensureCapacity(dataLength).put(dataBytes, dataOffset, dataLength);
+  }
+
+  @Override
+  public void writeAlignment(final int fieldSizeInBytes) throws IOException {
+    final int alignError = getByteBuffer().position() % fieldSizeInBytes;
+    if (alignError > 0) {
+      writeZeros(fieldSizeInBytes - alignError);
+    }
+  }
+
+  @Override
+  public void writeShort(final short value, final IntegerCodec integerCodec) throws IOException {
+    applyByteOrder(ensureCapacity(Short.SIZE / NDRConstants.NUM_BITS_PER_BYTE), integerCodec).putShort(value);
+  }
+
+  @Override
+  public void writeInt(final int value, final IntegerCodec integerCodec) throws IOException {
+    applyByteOrder(ensureCapacity(Integer.SIZE / NDRConstants.NUM_BITS_PER_BYTE), integerCodec).putInt(value);
+  }
+
+  @Override
+  public void writeLong(final long value, final IntegerCodec integerCodec) throws IOException {
+    applyByteOrder(ensureCapacity(Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE), integerCodec).putLong(value);
+  }
+
+  private ByteBuffer ensureCapacity(final int numBytes) {
+    final ByteBuffer buffer = getByteBuffer();
+    if (buffer.remaining() >= numBytes) {
+      return buffer;
+    }
+    // Move the content to a bigger buffer and return the old one to the pool.
+    final ByteBuffer biggerBuffer = bufferPool.acquire(Math.max(2 * buffer.capacity(), buffer.position() + numBytes));
+    buffer.flip();
+    biggerBuffer.put(buffer);
+    bufferPool.release(buffer);
+    byteBuffer = biggerBuffer;
+    return biggerBuffer;
+  }
+
+  private ByteBuffer applyByteOrder(final ByteBuffer buffer, final IntegerCodec integerCodec) {
+    final ByteOrder byteOrder = integerCodec.getByteOrder();
+    if (buffer.order() != byteOrder) {
+      buffer.order(byteOrder);
+    }
+    return buffer;
+  }
+
+  private ByteBuffer getByteBuffer() {
+    if (byteBuffer == null) {
+      throw new IllegalStateException(RELEASED_ERROR);
+    }
+    return byteBuffer;
+  }
+}
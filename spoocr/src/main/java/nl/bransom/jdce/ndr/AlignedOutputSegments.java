@@ -0,0 +1,238 @@
+package nl.bransom.jdce.ndr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * NDR byte target that composes its content as a sequence of segments, for a single
+ * {@link GatheringByteChannel#write(ByteBuffer[])}. Small writes, such as the fields of a PDU header, are copied into
+ * buffers taken from an {@link NDRBufferPool}; byte arrays of at least a given length, such as a large stub body, are
+ * referenced as separate segments without copying them.
+ * 
+ * Referenced byte arrays must not be modified until the content has been written. The internal arrays that an
+ * {@link NDRWriter} reuses, e.g. for strings and number arrays, are always copied. Typical use is to keep one instance
+ * per connection or thread, {@link #clear()} it before each message and {@link #release()} it when done.
+ * 
+ * @author Rob
+ */
+public class AlignedOutputSegments extends AlignedOutput {
+
+  private static final String RELEASED_ERROR = "The output segments have already been released.";
+
+  private final NDRBufferPool bufferPool;
+  private final int bufferCapacity;
+  private final int minReferencedLength;
+  // Pooled buffers holding the copied bytes; the last one is being filled.
+  private final List<ByteBuffer> pooledBuffers = new ArrayList<ByteBuffer>();
+  private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+  private ByteBuffer buffer;
+  // Position in the current buffer where the segment that is being filled starts.
+  private int segmentStart;
+  private int size;
+
+  /**
+   * @param bufferPool
+   *          pool that provides the buffers for copied bytes
+   * @param bufferCapacity
+   *          minimum capacity of each pooled buffer, e.g. the expected size of a PDU header
+   * @param minReferencedLength
+   *          minimum length of a byte array that is referenced instead of copied
+   */
+  public AlignedOutputSegments(final NDRBufferPool bufferPool, final int bufferCapacity,
+      final int minReferencedLength) {
+    if (bufferCapacity < 0 || minReferencedLength < 0) {
+      throw new IllegalArgumentException("The buffer capacity and minimum referenced length must not be negative.");
+    }
+    this.bufferPool = bufferPool;
+    this.bufferCapacity = bufferCapacity;
+    this.minReferencedLength = minReferencedLength;
+    this.buffer = acquireBuffer();
+  }
+
+  /**
+   * @return number of bytes written since construction or since the last call to {@link #clear()}
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Discards all content, so a new NDR message can be composed. Only the first pooled buffer is kept.
+   */
+  public void clear() {
+    getBuffer();
+    for (int i = 1; i < pooledBuffers.size(); i++) {
+      bufferPool.release(pooledBuffers.get(i));
+    }
+    buffer = pooledBuffers.get(0);
+    buffer.clear();
+    pooledBuffers.clear();
+    pooledBuffers.add(buffer);
+    segments.clear();
+    segmentStart = 0;
+    size = 0;
+  }
+
+  /**
+   * Returns the content as a sequence of buffers, ready for {@link GatheringByteChannel#write(ByteBuffer[])}. Each
+   * buffer is a new view, so writing them doesn't affect this instance and the content can be written again, e.g.
+   * when a request must be retransmitted. The views are only valid until this instance is cleared or released.
+   * 
+   * @return read-only buffers, each positioned at its first byte and with its limit set after its last byte
+   */
+  public ByteBuffer[] getSegments() {
+    closeSegment();
+    final ByteBuffer[] views = new ByteBuffer[segments.size()];
+    for (int i = 0; i < views.length; i++) {
+      views[i] = segments.get(i).asReadOnlyBuffer();
+    }
+    return views;
+  }
+
+  /**
+   * Writes the full content to {@code channel}, normally with a single gathering write.
+   * 
+   * @param channel
+   *          blocking channel to write to
+   * @return number of bytes written
+   * @throws IOException
+   *           when errors occur while writing to the channel
+   */
+  public long writeTo(final GatheringByteChannel channel) throws IOException {
+    final ByteBuffer[] views = getSegments();
+    long numBytesWritten = 0;
+    while (numBytesWritten < size) {
+      numBytesWritten += channel.write(views);
+    }
+    return numBytesWritten;
+  }
+
+  /**
+   * Returns the pooled buffers to the pool. This instance must not be used anymore afterwards.
+   */
+  public void release() {
+    if (buffer != null) {
+      for (ByteBuffer pooledBuffer : pooledBuffers) {
+        bufferPool.release(pooledBuffer);
+      }
+      pooledBuffers.clear();
+      segments.clear();
+      buffer = null;
+    }
+  }
+
+  @Override
+  public void write(final byte aByte) throws IOException {
+    ensureCapacity(1).put(aByte);
+    size++;
+  }
+
+  /**
+   * Copies the given bytes, or references them as a separate segment if there are at least as many as the minimum
+   * referenced length.
+   */
+  @Override
+  public void write(final byte[] dataBytes, final int dataOffset, final int dataLength) throws IOException {
+    if (dataLength > 0 && dataLength >= minReferencedLength) {
+      closeSegment();
+      segments.add(ByteBuffer.wrap(dataBytes, dataOffset, dataLength).slice());
+      size += dataLength;
+    } else {
+      writeTransient(dataBytes, dataOffset, dataLength);
+    }
+  }
+
+  /**
+   * Always copies the given bytes.
+   */
+  @Override
+  void writeTransient(final byte[] dataBytes, final int dataOffset, final int dataLength) throws IOException {
+    int numBytesCopied = 0;
+    while (numBytesCopied < dataLength) {
+      final ByteBuffer target = ensureCapacity(1);
+      final int numBytes = Math.min(target.remaining(), dataLength - numBytesCopied);
+      target.put(dataBytes, dataOffset + numBytesCopied, numBytes);
+      numBytesCopied += numBytes;
+    }
+    size += dataLength;
+  }
+
+  @Override
+  public void writeAlignment(final int fieldSizeInBytes) throws IOException {
+    final int alignError = size % fieldSizeInBytes;
+    if (alignError > 0) {
+      writeZeros(fieldSizeInBytes - alignError);
+    }
+  }
+
+  @Override
+  public void writeShort(final short value, final IntegerCodec integerCodec) throws IOException {
+    applyByteOrder(ensureCapacity(Short.SIZE / NDRConstants.NUM_BITS_PER_BYTE), integerCodec).putShort(value);
+    size += Short.SIZE / NDRConstants.NUM_BITS_PER_BYTE;
+  }
+
+  @Override
+  public void writeInt(final int value, final IntegerCodec integerCodec) throws IOException {
+    applyByteOrder(ensureCapacity(Integer.SIZE / NDRConstants.NUM_BITS_PER_BYTE), integerCodec).putInt(value);
+    size += Integer.SIZE / NDRConstants.NUM_BITS_PER_BYTE;
+  }
+
+  @Override
+  public void writeLong(final long value, final IntegerCodec integerCodec) throws IOException {
+    applyByteOrder(ensureCapacity(Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE), integerCodec).putLong(value);
+    size += Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE;
+  }
+
+  /**
+   * Adds the bytes copied since the last segment, if any, as a segment of their own.
+   */
+  private void closeSegment() {
+    final ByteBuffer currentBuffer = getBuffer();
+    if (currentBuffer.position() > segmentStart) {
+      final ByteBuffer segment = currentBuffer.duplicate();
+      segment.limit(currentBuffer.position()).position(segmentStart);
+      segments.add(segment.slice());
+      segmentStart = currentBuffer.position();
+    }
+  }
+
+  /**
+   * Returns the current buffer if it has room for {@code numBytes} bytes, or else continues in a new pooled buffer.
+   * Numbers are never split across buffers.
+   */
+  private ByteBuffer ensureCapacity(final int numBytes) {
+    final ByteBuffer currentBuffer = getBuffer();
+    if (currentBuffer.remaining() >= numBytes) {
+      return currentBuffer;
+    }
+    closeSegment();
+    buffer = acquireBuffer();
+    segmentStart = 0;
+    return buffer;
+  }
+
+  private ByteBuffer acquireBuffer() {
+    final ByteBuffer pooledBuffer = bufferPool.acquire(bufferCapacity);
+    pooledBuffers.add(pooledBuffer);
+    return pooledBuffer;
+  }
+
+  private ByteBuffer applyByteOrder(final ByteBuffer target, final IntegerCodec integerCodec) {
+    final ByteOrder byteOrder = integerCodec.getByteOrder();
+    if (target.order() != byteOrder) {
+      target.order(byteOrder);
+    }
+    return target;
+  }
+
+  private ByteBuffer getBuffer() {
+    if (buffer == null) {
+      throw new IllegalStateException(RELEASED_ERROR);
+    }
+    return buffer;
+  }
+}
@@ -7,10 +7,12 @@ import java.io.OutputStream;
  * This is a wrapper for class OutputStream. It keeps track of the number of bytes that are written, so it can add
  * alignment bytes if required.
  */
-public class AlignedOutputStream {
+public class AlignedOutputStream extends AlignedOutput {
 
   private OutputStream outputStream;
-  private int numBytesWritten;
+  private long numBytesWritten;
+  // Reusable storage for the bytes of a single primitive, so that each number is written with one bulk write.
+  private final byte[] scratchBytes = new byte[Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE];
 
   /**
    * @param outputStream
@@ -28,6 +30,7 @@ public class AlignedOutputStream {
    * @throws IOException
    *           when errors occur while writing data to the NDR byte stream
    */
+  @Override
   public void write(final byte aByte) throws IOException {
     outputStream.write(aByte);
     numBytesWritten++;
@@ -45,11 +48,60 @@ public class AlignedOutputStream {
    * @throws IOException
    *           when errors occur while writing data to the NDR byte stream
    */
+  @Override
   public void write(final byte[] dataBytes, final int dataOffset, final int dataLength) throws IOException {
     outputStream.write(dataBytes, dataOffset, dataLength);
     numBytesWritten += dataLength;
   }
 
+  /**
+   * Converts {@code value} to two bytes and writes them with a single bulk write.
+   * 
+   * @param value
+   *          short value
+   * @param integerCodec
+   *          strategy to encode the NDR data
+   * @throws IOException
+   *           when errors occur while writing data to the NDR byte stream
+   */
+  @Override
+  public void writeShort(final short value, final IntegerCodec integerCodec) throws IOException {
+    integerCodec.encodeShort(value, scratchBytes, 0);
+    write(scratchBytes, 0, Short.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+  }
+
+  /**
+   * Converts {@code value} to four bytes and writes them with a single bulk write.
+   * 
+   * @param value
+   *          int value
+   * @param integerCodec
+   *          strategy to encode the NDR data
+   * @throws IOException
+   *           when errors occur while writing data to the NDR byte stream
+   */
+  @Override
+  public void writeInt(final int value, final IntegerCodec integerCodec) throws IOException {
+    integerCodec.encodeInt(value, scratchBytes, 0);
+    write(scratchBytes, 0, Integer.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+  }
+
+  /**
+   * Converts {@code value} to eight bytes and writes them with a single bulk write.
+   * 
+   * @param value
+   *          long value
+   * @param integerCodec
+   *          strategy to encode the NDR data
+   * @throws IOException
+   *           when errors occur while writing data to the NDR byte stream
+   */
+  @Override
+  public void writeLong(final long value, final IntegerCodec integerCodec) throws IOException {
+    integerCodec.encodeLong(value, scratchBytes, 0);
+    write(scratchBytes, 0, Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+  }
+
   /**
    * Writes null-bytes until the given {@code fieldSizeInBytes} is aligned.
    * 
@@ -58,12 +110,11 @@ public class AlignedOutputStream {
    * @throws IOException
    *           when errors occur while writing data to the NDR byte stream
    */
+  @Override
   public void writeAlignment(final int fieldSizeInBytes) throws IOException {
-    final int alignError = numBytesWritten % fieldSizeInBytes;
-    final int numAlignBytes = (alignError > 0) ? fieldSizeInBytes - alignError : 0;
-    for (int i = 0; i < numAlignBytes; i++) {
-      outputStream.write((byte) 0x00);
-      numBytesWritten++;
+    final int alignError = (int) (numBytesWritten % fieldSizeInBytes);
+    if (alignError > 0) {
+      writeZeros(fieldSizeInBytes - alignError);
     }
   }
 }
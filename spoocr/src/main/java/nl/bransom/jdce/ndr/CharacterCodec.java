@@ -0,0 +1,133 @@
+package nl.bransom.jdce.ndr;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.Arrays;
+
+/**
+ * Strategy to convert NDR character bytes to chars and vice versa for one specific single-byte character set. Both
+ * directions are table-driven: the tables are derived from the {@link Charset} once, so coding a string needs no
+ * CharsetEncoder or CharsetDecoder and produces the same result as {@link String#getBytes(Charset)} and
+ * {@link String#String(byte[], Charset)}.
+ * 
+ * Instances are immutable and thread-safe.
+ * 
+ * @author Rob
+ */
+final class CharacterCodec {
+
+  private static final int NUM_BYTE_VALUES = 1 << NDRConstants.NUM_BITS_PER_BYTE;
+  private static final char UNMAPPABLE = '\ufffd';
+
+  private final Charset charset;
+  private final char[] decodeTable = new char[NUM_BYTE_VALUES];
+  // Encoded bytes of all chars, indexed by their high and low byte. Pages without any mappable char are null.
+  private final byte[][] encodePages = new byte[NUM_BYTE_VALUES][];
+  private final byte replacement;
+
+  /**
+   * Constructor.
+   * 
+   * @param charset
+   *          single-byte character set
+   * @throws IllegalArgumentException
+   *           if {@code charset} is not a single-byte character set
+   */
+  CharacterCodec(final Charset charset) {
+    final CharsetEncoder encoder = charset.newEncoder();
+    if (encoder.maxBytesPerChar() > 1 || encoder.replacement().length != 1) {
+      throw new IllegalArgumentException(charset + " is not a single-byte character set.");
+    }
+    this.charset = charset;
+    this.replacement = encoder.replacement()[0];
+    for (int b = 0; b < NUM_BYTE_VALUES; b++) {
+      final String decoded = new String(new byte[] { (byte) b }, charset);
+      decodeTable[b] = (decoded.length() == 1) ? decoded.charAt(0) : UNMAPPABLE;
+    }
+    for (char c : decodeTable) {
+      if (c != UNMAPPABLE) {
+        // Use the encoding of the charset itself, in case several bytes decode to the same char.
+        page(c)[c & NDRConstants.BYTE_MASK] = String.valueOf(c).getBytes(charset)[0];
+      }
+    }
+  }
+
+  public Charset getCharset() {
+    return charset;
+  }
+
+  /**
+   * @param encodedByte
+   *          encoded character
+   * @return decoded character, or U+FFFD if {@code encodedByte} does not represent a character
+   */
+  char decode(final byte encodedByte) {
+    return decodeTable[encodedByte & NDRConstants.BYTE_MASK];
+  }
+
+  /**
+   * Decodes all bytes between the position and the limit of {@code encodedBytes}, without changing its position.
+   * 
+   * @param encodedBytes
+   *          encoded characters
+   * @return decoded String
+   */
+  String decode(final ByteBuffer encodedBytes) {
+    final int length = encodedBytes.remaining();
+    final int position = encodedBytes.position();
+    final char[] chars = new char[length];
+    if (encodedBytes.hasArray()) {
+      final byte[] array = encodedBytes.array();
+      final int offset = encodedBytes.arrayOffset() + position;
+      for (int i = 0; i < length; i++) {
+        chars[i] = decodeTable[array[offset + i] & NDRConstants.BYTE_MASK];
+      }
+    } else {
+      for (int i = 0; i < length; i++) {
+        chars[i] = decodeTable[encodedBytes.get(position + i) & NDRConstants.BYTE_MASK];
+      }
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Encodes {@code text} into {@code encodedBytes}. Characters that cannot be encoded are replaced by the replacement
+   * byte of the charset; a surrogate pair counts as a single character. At most {@code text.length()} bytes are
+   * written.
+   * 
+   * @param text
+   *          characters to encode
+   * @param encodedBytes
+   *          array to write the encoded characters to
+   * @param offset
+   *          index in {@code encodedBytes} of the first encoded character
+   * @return number of bytes written
+   */
+  int encode(final CharSequence text, final byte[] encodedBytes, final int offset) {
+    final int length = text.length();
+    int index = offset;
+    for (int i = 0; i < length; i++) {
+      final char c = text.charAt(i);
+      final byte[] page = encodePages[c >>> NDRConstants.NUM_BITS_PER_BYTE];
+      if (page != null) {
+        encodedBytes[index++] = page[c & NDRConstants.BYTE_MASK];
+      } else {
+        encodedBytes[index++] = replacement;
+        if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+          i++;
+        }
+      }
+    }
+    return index - offset;
+  }
+
+  private byte[] page(final char c) {
+    final int pageIndex = c >>> NDRConstants.NUM_BITS_PER_BYTE;
+    if (encodePages[pageIndex] == null) {
+      encodePages[pageIndex] = new byte[NUM_BYTE_VALUES];
+      Arrays.fill(encodePages[pageIndex], replacement);
+    }
+    return encodePages[pageIndex];
+  }
+}
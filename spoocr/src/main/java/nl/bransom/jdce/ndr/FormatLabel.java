@@ -1,17 +1,49 @@
 package nl.bransom.jdce.ndr;
 
+import java.io.IOException;
+
 /**
  * This class deals with the NDR Format Label. Use it to serialize/deserialize Format Label data in NDR byte streams.
  * 
+ * Only a handful of Format Labels exist, so {@link #parse(byte[], int)} and {@link #valueOf(FormatLabelInteger,
+ * FormatLabelCharacter, FormatLabelFloat)} return shared canonical instances instead of creating new ones. Canonical
+ * instances cannot be changed; {@link #set(FormatLabelInteger, FormatLabelCharacter, FormatLabelFloat)} throws an
+ * UnsupportedOperationException on them, so classes that let callers change a Format Label in place hand out a copy
+ * made with {@link #toModifiable()}. Each Format Label resolves the strategies to encode and decode data once,
+ * so {@link NDRReader} and {@link NDRWriter} don't need to inspect the three enums for every field they process.
+ * 
  * @author Rob
  */
 public class FormatLabel {
 
   private static final int HASH_PRIME = 31;
+  private static final int NUM_CHARACTER_FORMATS = FormatLabelCharacter.values().length;
+  private static final int NUM_FLOAT_FORMATS = FormatLabelFloat.values().length;
+  private static final FormatLabel[] CANONICAL_INSTANCES = new FormatLabel[FormatLabelInteger.values().length
+      * NUM_CHARACTER_FORMATS * NUM_FLOAT_FORMATS];
+
+  static {
+    for (FormatLabelInteger formatLabelInteger : FormatLabelInteger.values()) {
+      for (FormatLabelCharacter formatLabelCharacter : FormatLabelCharacter.values()) {
+        for (FormatLabelFloat formatLabelFloat : FormatLabelFloat.values()) {
+          final FormatLabel formatLabel = new FormatLabel(formatLabelInteger, formatLabelCharacter, formatLabelFloat);
+          formatLabel.isCanonical = true;
+          formatLabel.canonicalBytes = formatLabel.toByteArray(NDRConstants.FORMAT_LABEL_LENGTH);
+          CANONICAL_INSTANCES[indexOf(formatLabelInteger, formatLabelCharacter, formatLabelFloat)] = formatLabel;
+        }
+      }
+    }
+  }
 
   private FormatLabelInteger formatLabelInteger;
   private FormatLabelCharacter formatLabelCharacter;
   private FormatLabelFloat formatLabelFloat;
+  private boolean isCanonical;
+  // Strategies resolved from the enums whenever these are set.
+  private IntegerCodec integerCodec;
+  private CharacterCodec characterCodec;
+  // Serialized form of canonical instances.
+  private byte[] canonicalBytes;
 
   /**
    * Default constructor for uninitialized instances.
@@ -31,9 +63,26 @@ public class FormatLabel {
    */
   public FormatLabel(final FormatLabelInteger formatLabelInteger, final FormatLabelCharacter formatLabelCharacter,
       final FormatLabelFloat formatLabelFloat) {
-    this.formatLabelInteger = formatLabelInteger;
-    this.formatLabelCharacter = formatLabelCharacter;
-    this.formatLabelFloat = formatLabelFloat;
+    assign(formatLabelInteger, formatLabelCharacter, formatLabelFloat);
+  }
+
+  /**
+   * Returns the canonical instance of the given Format Label.
+   * 
+   * @param formatLabelInteger
+   *          describes the FormatLabel for integer numbers
+   * @param formatLabelCharacter
+   *          describes the FormatLabel for character strings
+   * @param formatLabelFloat
+   *          describes the FormatLabel for floating point numbers
+   * @return shared, unmodifiable instance
+   */
+  public static FormatLabel valueOf(final FormatLabelInteger formatLabelInteger,
+      final FormatLabelCharacter formatLabelCharacter, final FormatLabelFloat formatLabelFloat) {
+    if (formatLabelInteger == null || formatLabelCharacter == null || formatLabelFloat == null) {
+      throw new IllegalArgumentException("All parts of the NDR Format Label must be specified.");
+    }
+    return CANONICAL_INSTANCES[indexOf(formatLabelInteger, formatLabelCharacter, formatLabelFloat)];
   }
 
   public FormatLabelInteger getFormatLabelInteger() {
@@ -60,9 +109,67 @@ public class FormatLabel {
    */
   public void set(final FormatLabelInteger formatLabelInteger, final FormatLabelCharacter formatLabelCharacter,
       final FormatLabelFloat formatLabelFloat) {
+    if (isCanonical) {
+      throw new UnsupportedOperationException("A canonical NDR Format Label cannot be changed.");
+    }
+    assign(formatLabelInteger, formatLabelCharacter, formatLabelFloat);
+  }
+
+  private void assign(final FormatLabelInteger formatLabelInteger, final FormatLabelCharacter formatLabelCharacter,
+      final FormatLabelFloat formatLabelFloat) {
     this.formatLabelInteger = formatLabelInteger;
     this.formatLabelCharacter = formatLabelCharacter;
     this.formatLabelFloat = formatLabelFloat;
+    this.integerCodec = (formatLabelInteger != null) ? formatLabelInteger.getIntegerCodec() : null;
+    this.characterCodec = (formatLabelCharacter != null) ? formatLabelCharacter.getCharacterCodec() : null;
+  }
+
+  /**
+   * @return {@code true} if this is the shared, unmodifiable instance of its Format Label
+   */
+  public boolean isCanonical() {
+    return isCanonical;
+  }
+
+  /**
+   * @return the canonical instance that equals this Format Label, or this instance if it is not initialized
+   */
+  public FormatLabel toCanonical() {
+    if (isCanonical || !isInitialized()) {
+      return this;
+    }
+    return CANONICAL_INSTANCES[indexOf(formatLabelInteger, formatLabelCharacter, formatLabelFloat)];
+  }
+
+  /**
+   * @return this instance if it can be changed, or else a new, modifiable copy of this canonical instance
+   */
+  public FormatLabel toModifiable() {
+    if (!isCanonical) {
+      return this;
+    }
+    return new FormatLabel(formatLabelInteger, formatLabelCharacter, formatLabelFloat);
+  }
+
+  /**
+   * @return strategy to encode and decode integers, or {@code null} if not specified
+   */
+  IntegerCodec getIntegerCodec() {
+    return integerCodec;
+  }
+
+  /**
+   * @return strategy to encode and decode strings, or {@code null} if not specified
+   */
+  CharacterCodec getCharacterCodec() {
+    return characterCodec;
+  }
+
+  /**
+   * @return {@code true} if floating point numbers are in IEEE format, the only one Java can decode
+   */
+  boolean isFloatSupported() {
+    return formatLabelFloat == FormatLabelFloat.IEEE;
   }
 
   /**
@@ -87,6 +194,18 @@ public class FormatLabel {
     return formatLabelBytes;
   }
 
+  /**
+   * Writes the first {@code numBytes} bytes of the NDR Format Label to {@code alignedOutput}, without creating a byte
+   * array if this is a canonical instance.
+   */
+  void write(final AlignedOutput alignedOutput, final int numBytes) throws IOException {
+    if (canonicalBytes != null && numBytes <= canonicalBytes.length) {
+      alignedOutput.write(canonicalBytes, 0, numBytes);
+    } else {
+      alignedOutput.write(toByteArray(numBytes), 0, numBytes);
+    }
+  }
+
   /**
    * Writes the NDR Format Label as a byte sequence to {@code formatLabelBytes}.
    * 
@@ -143,10 +262,64 @@ public class FormatLabel {
    *          byte array containing NDR serialized Format Label data
    * @param byteOffset
    *          byte offset to take into account when reading data from {@code formatLabelBytes}
-   * @return newly created FormatLabel instance
+   * @return canonical FormatLabel instance
    */
   public static FormatLabel parse(final byte[] formatLabelBytes, final int byteOffset) {
-    return new FormatLabel(FormatLabelInteger.parse(formatLabelBytes, byteOffset), FormatLabelCharacter.parse(
+    return valueOf(FormatLabelInteger.parse(formatLabelBytes, byteOffset), FormatLabelCharacter.parse(
         formatLabelBytes, byteOffset), FormatLabelFloat.parse(formatLabelBytes, byteOffset));
   }
+
+  /**
+   * Parses the first two bytes of an NDR Format Label, which hold all of its information.
+   * 
+   * @param formatLabelByte0
+   *          first byte of NDR serialized Format Label data
+   * @param formatLabelByte1
+   *          second byte of NDR serialized Format Label data
+   * @return canonical FormatLabel instance
+   * @throws UnsupportedOperationException
+   *           if the bytes contain an unsupported code
+   */
+  public static FormatLabel parse(final byte formatLabelByte0, final byte formatLabelByte1) {
+    final FormatLabel formatLabel = lookup(formatLabelByte0, formatLabelByte1);
+    if (formatLabel == null) {
+      throw new UnsupportedOperationException("Unsupported NDR format label code '" + formatLabelByte0 + "', '"
+          + formatLabelByte1 + "'.");
+    }
+    return formatLabel;
+  }
+
+  /**
+   * Parses the byte sequence like {@link #parse(byte[], int)}, but returns {@code null} instead of throwing if the byte
+   * sequence is too short or contains an unsupported code.
+   * 
+   * @param formatLabelBytes
+   *          byte array containing NDR serialized Format Label data
+   * @param byteOffset
+   *          byte offset to take into account when reading data from {@code formatLabelBytes}
+   * @return canonical FormatLabel instance, or {@code null} if the Format Label is malformed
+   */
+  public static FormatLabel lookup(final byte[] formatLabelBytes, final int byteOffset) {
+    if (formatLabelBytes == null || byteOffset < 0
+        || formatLabelBytes.length < byteOffset + NDRConstants.MIN_FORMAT_LABEL_LENGTH) {
+      return null;
+    }
+    return lookup(formatLabelBytes[byteOffset], formatLabelBytes[byteOffset + 1]);
+  }
+
+  private static FormatLabel lookup(final byte formatLabelByte0, final byte formatLabelByte1) {
+    final FormatLabelInteger formatLabelInteger = FormatLabelInteger.lookup(formatLabelByte0);
+    final FormatLabelCharacter formatLabelCharacter = FormatLabelCharacter.lookup(formatLabelByte0);
+    final FormatLabelFloat formatLabelFloat = FormatLabelFloat.lookup(formatLabelByte1);
+    if (formatLabelInteger == null || formatLabelCharacter == null || formatLabelFloat == null) {
+      return null;
+    }
+    return CANONICAL_INSTANCES[indexOf(formatLabelInteger, formatLabelCharacter, formatLabelFloat)];
+  }
+
+  private static int indexOf(final FormatLabelInteger formatLabelInteger,
+      final FormatLabelCharacter formatLabelCharacter, final FormatLabelFloat formatLabelFloat) {
+    return (formatLabelInteger.ordinal() * NUM_CHARACTER_FORMATS + formatLabelCharacter.ordinal())
+        * NUM_FLOAT_FORMATS + formatLabelFloat.ordinal();
+  }
 }
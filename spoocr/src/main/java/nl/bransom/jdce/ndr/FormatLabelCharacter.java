@@ -14,11 +14,19 @@ public enum FormatLabelCharacter {
   EBCDIC(0x01, "CP1047");
 
   private static final int BYTE_MASK = 0x0f;
+  private static final FormatLabelCharacter[] BY_VALUE = new FormatLabelCharacter[BYTE_MASK + 1];
   private static final String INVALID_FORMAT_LABEL_ERROR = "NDR format label must be at least "
       + NDRConstants.MIN_FORMAT_LABEL_LENGTH + " bytes long.";
 
+  static {
+    for (FormatLabelCharacter enumValue : values()) {
+      BY_VALUE[enumValue.value & BYTE_MASK] = enumValue;
+    }
+  }
+
   private byte value;
   private Charset charset;
+  private CharacterCodec characterCodec;
 
   /**
    * Hidden constructor.
@@ -34,12 +42,17 @@ public enum FormatLabelCharacter {
       throw new IllegalArgumentException("Unsupported characterset: " + charsetName);
     }
     this.charset = Charset.forName(charsetName);
+    this.characterCodec = new CharacterCodec(charset);
   }
 
   public Charset getCharset() {
     return charset;
   }
 
+  CharacterCodec getCharacterCodec() {
+    return characterCodec;
+  }
+
   /**
    * Apply the NDR format label to the given byte array.
    * 
@@ -70,13 +83,23 @@ public enum FormatLabelCharacter {
       throw new IllegalArgumentException(INVALID_FORMAT_LABEL_ERROR);
     }
 
-    final byte maskByte = (byte) (formatLabelBytes[byteOffset] & BYTE_MASK);
-    for (FormatLabelCharacter enumValue : values()) {
-      if (enumValue.value == maskByte) {
-        return enumValue;
-      }
+    final FormatLabelCharacter enumValue = lookup(formatLabelBytes[byteOffset]);
+    if (enumValue == null) {
+      throw new UnsupportedOperationException("Unsupported NDR format label code '" + formatLabelBytes[byteOffset]
+          + "'.");
     }
-    throw new UnsupportedOperationException("Unsupported NDR format label code '" + formatLabelBytes[byteOffset] + "'.");
+    return enumValue;
+  }
+
+  /**
+   * Looks up the format label enum of the first byte of an NDR format label, without throwing on unsupported codes.
+   * 
+   * @param formatLabelByte
+   *          first byte of NDR serialized Format Label data
+   * @return format label enum, or {@code null} if the code is not supported
+   */
+  public static FormatLabelCharacter lookup(final byte formatLabelByte) {
+    return BY_VALUE[formatLabelByte & BYTE_MASK];
   }
 
 }
@@ -15,9 +15,17 @@ public enum FormatLabelFloat {
   /** format according to IBM */
   IBM(0x03);
 
+  private static final int BYTE_MASK = 0xff;
+  private static final FormatLabelFloat[] BY_VALUE = new FormatLabelFloat[BYTE_MASK + 1];
   private static final String INVALID_FORMAT_LABEL_ERROR = "NDR format label must be at least "
       + NDRConstants.MIN_FORMAT_LABEL_LENGTH + " bytes long.";
 
+  static {
+    for (FormatLabelFloat enumValue : values()) {
+      BY_VALUE[enumValue.value & BYTE_MASK] = enumValue;
+    }
+  }
+
   private byte value;
 
   /**
@@ -60,12 +68,22 @@ public enum FormatLabelFloat {
       throw new IllegalArgumentException(INVALID_FORMAT_LABEL_ERROR);
     }
 
-    for (FormatLabelFloat enumValue : values()) {
-      if (enumValue.value == formatLabelBytes[byteOffset + 1]) {
-        return enumValue;
-      }
+    final FormatLabelFloat enumValue = lookup(formatLabelBytes[byteOffset + 1]);
+    if (enumValue == null) {
+      throw new UnsupportedOperationException("Unsupported NDR format label code '" + formatLabelBytes[byteOffset + 1]
+          + "'.");
     }
-    throw new UnsupportedOperationException("Unsupported NDR format label code '" + formatLabelBytes[byteOffset + 1]
-        + "'.");
+    return enumValue;
+  }
+
+  /**
+   * Looks up the format label enum of the second byte of an NDR format label, without throwing on unsupported codes.
+   * 
+   * @param formatLabelByte
+   *          second byte of NDR serialized Format Label data
+   * @return format label enum, or {@code null} if the code is not supported
+   */
+  public static FormatLabelFloat lookup(final byte formatLabelByte) {
+    return BY_VALUE[formatLabelByte & BYTE_MASK];
   }
 }
@@ -1,5 +1,7 @@
 package nl.bransom.jdce.ndr;
 
+import java.nio.ByteOrder;
+
 /**
  * Enumeration to specify the NDR format label for integers.
  * 
@@ -7,24 +9,45 @@ package nl.bransom.jdce.ndr;
  */
 public enum FormatLabelInteger {
   /** Big-endian format */
-  BIG_ENDIAN(0x00),
+  BIG_ENDIAN(0x00, IntegerCodec.BIG_ENDIAN),
   /** Little-endian format */
-  LITTLE_ENDIAN(0x10);
+  LITTLE_ENDIAN(0x10, IntegerCodec.LITTLE_ENDIAN);
 
   private static final int SIGNIFICANT_BITS_MASK = 0xf0;
+  private static final int SIGNIFICANT_BITS_SHIFT = 4;
+  private static final FormatLabelInteger[] BY_VALUE = new FormatLabelInteger[(SIGNIFICANT_BITS_MASK
+      >>> SIGNIFICANT_BITS_SHIFT) + 1];
   private static final String INVALID_FORMAT_LABEL_ERROR = "NDR format label must be at least "
       + NDRConstants.MIN_FORMAT_LABEL_LENGTH + " bytes long.";
 
+  static {
+    for (FormatLabelInteger enumValue : values()) {
+      BY_VALUE[(enumValue.value & SIGNIFICANT_BITS_MASK) >>> SIGNIFICANT_BITS_SHIFT] = enumValue;
+    }
+  }
+
   private byte value;
+  private IntegerCodec integerCodec;
 
   /**
    * Hidden constructor.
    * 
    * @param value
    *          NDR binary value
+   * @param integerCodec
+   *          strategy to encode and decode integers in this format
    */
-  private FormatLabelInteger(final int value) {
+  private FormatLabelInteger(final int value, final IntegerCodec integerCodec) {
     this.value = (byte) value;
+    this.integerCodec = integerCodec;
+  }
+
+  public IntegerCodec getIntegerCodec() {
+    return integerCodec;
+  }
+
+  public ByteOrder getByteOrder() {
+    return integerCodec.getByteOrder();
   }
 
   /**
@@ -57,12 +80,32 @@ public enum FormatLabelInteger {
       throw new IllegalArgumentException(INVALID_FORMAT_LABEL_ERROR);
     }
 
-    final byte maskByte = (byte) (formatLabelBytes[byteOffset] & SIGNIFICANT_BITS_MASK);
-    for (FormatLabelInteger enumValue : values()) {
-      if (enumValue.value == maskByte) {
-        return enumValue;
-      }
+    return parse(formatLabelBytes[byteOffset]);
+  }
+
+  /**
+   * Parse the first byte of an NDR format label to obtain the format label enum.
+   * 
+   * @param formatLabelByte
+   *          first byte of NDR serialized Format Label data
+   * @return format label enum. An UnsupportedOperationException is thrown if no match was found.
+   */
+  public static FormatLabelInteger parse(final byte formatLabelByte) {
+    final FormatLabelInteger enumValue = lookup(formatLabelByte);
+    if (enumValue == null) {
+      throw new UnsupportedOperationException("Unsupported NDR format label code '" + formatLabelByte + "'.");
     }
-    throw new UnsupportedOperationException("Unsupported NDR format label code '" + formatLabelBytes[byteOffset] + "'.");
+    return enumValue;
+  }
+
+  /**
+   * Looks up the format label enum of the first byte of an NDR format label, without throwing on unsupported codes.
+   * 
+   * @param formatLabelByte
+   *          first byte of NDR serialized Format Label data
+   * @return format label enum, or {@code null} if the code is not supported
+   */
+  public static FormatLabelInteger lookup(final byte formatLabelByte) {
+    return BY_VALUE[(formatLabelByte & SIGNIFICANT_BITS_MASK) >>> SIGNIFICANT_BITS_SHIFT];
   }
 }
@@ -0,0 +1,179 @@
+package nl.bransom.jdce.ndr;
+
+import java.nio.ByteOrder;
+
+/**
+ * Strategy to convert NDR integer bytes to primitives and vice versa for one specific byte order. Readers and writers
+ * resolve the codec once, when the NDR Format Label is set, so coding a number never has to inspect the Format Label
+ * again.
+ * 
+ * @author Rob
+ */
+public enum IntegerCodec {
+  /** Big-endian (most significant byte first) */
+  BIG_ENDIAN(ByteOrder.BIG_ENDIAN) {
+    @Override
+    public short decodeShort(final byte[] bytes, final int offset) {
+      return (short) ((bytes[offset] << BITS_1) | (bytes[offset + 1] & NDRConstants.BYTE_MASK));
+    }
+
+    @Override
+    public int decodeInt(final byte[] bytes, final int offset) {
+      return (bytes[offset] << BITS_3) | ((bytes[offset + 1] & NDRConstants.BYTE_MASK) << BITS_2)
+          | ((bytes[offset + 2] & NDRConstants.BYTE_MASK) << BITS_1) | (bytes[offset + 3] & NDRConstants.BYTE_MASK);
+    }
+
+    @Override
+    public long decodeLong(final byte[] bytes, final int offset) {
+      return ((long) decodeInt(bytes, offset) << Integer.SIZE) | (decodeInt(bytes, offset + 4) & INT_MASK);
+    }
+
+    @Override
+    public void encodeShort(final short value, final byte[] bytes, final int offset) {
+      bytes[offset] = (byte) (value >>> BITS_1);
+      bytes[offset + 1] = (byte) value;
+    }
+
+    @Override
+    public void encodeInt(final int value, final byte[] bytes, final int offset) {
+      bytes[offset] = (byte) (value >>> BITS_3);
+      bytes[offset + 1] = (byte) (value >>> BITS_2);
+      bytes[offset + 2] = (byte) (value >>> BITS_1);
+      bytes[offset + 3] = (byte) value;
+    }
+
+    @Override
+    public void encodeLong(final long value, final byte[] bytes, final int offset) {
+      encodeInt((int) (value >>> Integer.SIZE), bytes, offset);
+      encodeInt((int) value, bytes, offset + 4);
+    }
+  },
+  /** Little-endian (least significant byte first) */
+  LITTLE_ENDIAN(ByteOrder.LITTLE_ENDIAN) {
+    @Override
+    public short decodeShort(final byte[] bytes, final int offset) {
+      return (short) ((bytes[offset + 1] << BITS_1) | (bytes[offset] & NDRConstants.BYTE_MASK));
+    }
+
+    @Override
+    public int decodeInt(final byte[] bytes, final int offset) {
+      return (bytes[offset + 3] << BITS_3) | ((bytes[offset + 2] & NDRConstants.BYTE_MASK) << BITS_2)
+          | ((bytes[offset + 1] & NDRConstants.BYTE_MASK) << BITS_1) | (bytes[offset] & NDRConstants.BYTE_MASK);
+    }
+
+    @Override
+    public long decodeLong(final byte[] bytes, final int offset) {
+      return ((long) decodeInt(bytes, offset + 4) << Integer.SIZE) | (decodeInt(bytes, offset) & INT_MASK);
+    }
+
+    @Override
+    public void encodeShort(final short value, final byte[] bytes, final int offset) {
+      bytes[offset] = (byte) value;
+      bytes[offset + 1] = (byte) (value >>> BITS_1);
+    }
+
+    @Override
+    public void encodeInt(final int value, final byte[] bytes, final int offset) {
+      bytes[offset] = (byte) value;
+      bytes[offset + 1] = (byte) (value >>> BITS_1);
+      bytes[offset + 2] = (byte) (value >>> BITS_2);
+      bytes[offset + 3] = (byte) (value >>> BITS_3);
+    }
+
+    @Override
+    public void encodeLong(final long value, final byte[] bytes, final int offset) {
+      encodeInt((int) value, bytes, offset);
+      encodeInt((int) (value >>> Integer.SIZE), bytes, offset + 4);
+    }
+  };
+
+  private static final int BITS_1 = NDRConstants.NUM_BITS_PER_BYTE;
+  private static final int BITS_2 = 2 * NDRConstants.NUM_BITS_PER_BYTE;
+  private static final int BITS_3 = 3 * NDRConstants.NUM_BITS_PER_BYTE;
+  private static final long INT_MASK = 0xffffffffL;
+
+  private ByteOrder byteOrder;
+
+  /**
+   * Hidden constructor.
+   * 
+   * @param byteOrder
+   *          NIO byte order handled by this codec
+   */
+  private IntegerCodec(final ByteOrder byteOrder) {
+    this.byteOrder = byteOrder;
+  }
+
+  public ByteOrder getByteOrder() {
+    return byteOrder;
+  }
+
+  /**
+   * Converts two bytes to a short.
+   * 
+   * @param bytes
+   *          NDR data bytes
+   * @param offset
+   *          byte offset of the value in {@code bytes}
+   * @return short value
+   */
+  public abstract short decodeShort(byte[] bytes, int offset);
+
+  /**
+   * Converts four bytes to an int.
+   * 
+   * @param bytes
+   *          NDR data bytes
+   * @param offset
+   *          byte offset of the value in {@code bytes}
+   * @return int value
+   */
+  public abstract int decodeInt(byte[] bytes, int offset);
+
+  /**
+   * Converts eight bytes to a long.
+   * 
+   * @param bytes
+   *          NDR data bytes
+   * @param offset
+   *          byte offset of the value in {@code bytes}
+   * @return long value
+   */
+  public abstract long decodeLong(byte[] bytes, int offset);
+
+  /**
+   * Converts a short to two bytes.
+   * 
+   * @param value
+   *          short value
+   * @param bytes
+   *          byte array to which the NDR data is written
+   * @param offset
+   *          byte offset of the value in {@code bytes}
+   */
+  public abstract void encodeShort(short value, byte[] bytes, int offset);
+
+  /**
+   * Converts an int to four bytes.
+   * 
+   * @param value
+   *          int value
+   * @param bytes
+   *          byte array to which the NDR data is written
+   * @param offset
+   *          byte offset of the value in {@code bytes}
+   */
+  public abstract void encodeInt(int value, byte[] bytes, int offset);
+
+  /**
+   * Converts a long to eight bytes.
+   * 
+   * @param value
+   *          long value
+   * @param bytes
+   *          byte array to which the NDR data is written
+   * @param offset
+   *          byte offset of the value in {@code bytes}
+   */
+  public abstract void encodeLong(long value, byte[] bytes, int offset);
+}
@@ -0,0 +1,122 @@
+package nl.bransom.jdce.ndr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thread-safe pool of ByteBuffers for composing NDR messages. Buffer capacities are rounded up to a power of two, so a
+ * released buffer can serve any later request of the same size class. Once the pool is warmed up, acquiring and
+ * releasing buffers does not allocate any memory.
+ * 
+ * Use direct buffers if the content is handed to NIO channels; the JDK would otherwise copy heap buffers to a
+ * temporary direct buffer on every write.
+ * 
+ * @author Rob
+ */
+public class NDRBufferPool {
+
+  /** Smallest buffer capacity handed out by the pool. */
+  public static final int MIN_BUFFER_SIZE = 1 << 8;
+  /** Largest buffer capacity that is kept in the pool; bigger buffers are allocated and discarded on demand. */
+  public static final int MAX_POOLED_BUFFER_SIZE = 1 << 24;
+  /** Default maximum number of idle buffers that is kept per size class. */
+  public static final int DEFAULT_MAX_IDLE_BUFFERS = 16;
+
+  private final boolean direct;
+  private final int maxIdleBuffers;
+  private final List<ArrayDeque<ByteBuffer>> idleBuffers;
+
+  /**
+   * Constructor.
+   * 
+   * @param direct
+   *          {@code true} if the pool must hand out direct buffers, {@code false} for heap buffers
+   */
+  public NDRBufferPool(final boolean direct) {
+    this(direct, DEFAULT_MAX_IDLE_BUFFERS);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param direct
+   *          {@code true} if the pool must hand out direct buffers, {@code false} for heap buffers
+   * @param maxIdleBuffers
+   *          maximum number of idle buffers to keep per size class
+   */
+  public NDRBufferPool(final boolean direct, final int maxIdleBuffers) {
+    this.direct = direct;
+    this.maxIdleBuffers = maxIdleBuffers;
+    final int numSizeClasses = sizeClassOf(MAX_POOLED_BUFFER_SIZE) + 1;
+    this.idleBuffers = new ArrayList<ArrayDeque<ByteBuffer>>(numSizeClasses);
+    for (int i = 0; i < numSizeClasses; i++) {
+      idleBuffers.add(new ArrayDeque<ByteBuffer>(maxIdleBuffers));
+    }
+  }
+
+  public boolean isDirect() {
+    return direct;
+  }
+
+  /**
+   * Hands out a cleared, big-endian buffer with a capacity of at least {@code minCapacity} bytes. Pass it to
+   * {@link #release(ByteBuffer)} when done.
+   * 
+   * @param minCapacity
+   *          minimum required capacity
+   * @return a pooled or newly allocated buffer
+   */
+  public ByteBuffer acquire(final int minCapacity) {
+    if (minCapacity < 0) {
+      throw new IllegalArgumentException("Negative buffer capacity: " + minCapacity);
+    }
+    final int sizeClass = sizeClassOf(minCapacity);
+    ByteBuffer byteBuffer = null;
+    if (sizeClass < idleBuffers.size()) {
+      final ArrayDeque<ByteBuffer> deque = idleBuffers.get(sizeClass);
+      synchronized (deque) {
+        byteBuffer = deque.pollFirst();
+      }
+    }
+    if (byteBuffer == null) {
+      final int capacity = (sizeClass < idleBuffers.size()) ? MIN_BUFFER_SIZE << sizeClass : minCapacity;
+      byteBuffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+    byteBuffer.clear();
+    byteBuffer.order(ByteOrder.BIG_ENDIAN);
+    return byteBuffer;
+  }
+
+  /**
+   * Returns {@code byteBuffer} to the pool. Buffers that were not handed out by a pool like this one are ignored, as
+   * are buffers that exceed the maximum number of idle buffers. The caller must not use {@code byteBuffer} anymore.
+   * 
+   * @param byteBuffer
+   *          buffer obtained from {@link #acquire(int)}
+   */
+  public void release(final ByteBuffer byteBuffer) {
+    final int capacity = byteBuffer.capacity();
+    if (byteBuffer.isDirect() != direct || byteBuffer.isReadOnly() || Integer.bitCount(capacity) != 1
+        || capacity < MIN_BUFFER_SIZE || capacity > MAX_POOLED_BUFFER_SIZE) {
+      return;
+    }
+    final ArrayDeque<ByteBuffer> deque = idleBuffers.get(sizeClassOf(capacity));
+    synchronized (deque) {
+      if (deque.size() < maxIdleBuffers) {
+        deque.offerFirst(byteBuffer);
+      }
+    }
+  }
+
+  private static int sizeClassOf(final int capacity) {
+    if (capacity <= MIN_BUFFER_SIZE) {
+      return 0;
+    }
+    // Index of the smallest power of two that is greater than or equal to capacity, relative to MIN_BUFFER_SIZE.
+    return (Integer.SIZE - Integer.numberOfLeadingZeros(capacity - 1))
+        - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+  }
+}
@@ -0,0 +1,38 @@
+package nl.bransom.jdce.ndr;
+
+import java.io.IOException;
+
+/**
+ * Strategy to (de)serialize the state of objects of one specific class. Implementations are generated at compile-time
+ * for all classes annotated with {@link NDRStruct}; they access the fields directly, without any reflection.
+ * 
+ * @param <T>
+ *          class whose objects are (de)serialized
+ * @author Rob
+ */
+public interface NDRCodec<T> {
+
+  /**
+   * Uses {@code ndrWriter} to write the state of {@code value} to an NDR byte stream.
+   * 
+   * @param value
+   *          object to serialize
+   * @param ndrWriter
+   *          helper to write data to the NDR byte stream
+   * @throws IOException
+   *           if errors occur while writing the NDR byte stream
+   */
+  void encode(T value, NDRWriter ndrWriter) throws IOException;
+
+  /**
+   * Uses {@code ndrReader} to read data from an NDR byte stream and set the state of {@code value} accordingly.
+   * 
+   * @param value
+   *          object to deserialize into
+   * @param ndrReader
+   *          helper to read data from the NDR byte stream
+   * @throws IOException
+   *           if errors occur while reading the NDR byte stream
+   */
+  void decode(T value, NDRReader ndrReader) throws IOException;
+}
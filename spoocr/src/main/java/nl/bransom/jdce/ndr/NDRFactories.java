@@ -0,0 +1,154 @@
+package nl.bransom.jdce.ndr;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Thread-safe registry of {@link NDRFactory}s per {@link NDRSerializable} class. The factory of a class is resolved
+ * once and cached:
+ * <ol>
+ * <li>a factory that was registered explicitly;</li>
+ * <li>the generated {@link NDRCodec} of an {@link NDRStruct};</li>
+ * <li>a factory that invokes the no-arg constructor, which is looked up only once.</li>
+ * </ol>
+ * 
+ * @author Rob
+ */
+public final class NDRFactories {
+
+  // Simple class name suffix of generated codecs, as used by nl.bransom.jdce.ndr.codegen.NDRCodecProcessor.
+  private static final String CODEC_SUFFIX = "NDRCodec";
+  private static final ConcurrentMap<Class<?>, NDRFactory<?>> FACTORIES //
+  = new ConcurrentHashMap<Class<?>, NDRFactory<?>>();
+
+  /**
+   * Hidden constructor.
+   */
+  private NDRFactories() {
+  }
+
+  /**
+   * Registers the factory of {@code ndrSerializableClass}, replacing any factory that was used before.
+   * 
+   * @param <T>
+   *          subclass of NDRSerializable
+   * @param ndrSerializableClass
+   *          class of the instances to create
+   * @param factory
+   *          factory of {@code ndrSerializableClass} instances
+   */
+  public static <T extends NDRSerializable> void register(final Class<T> ndrSerializableClass,
+      final NDRFactory<? extends T> factory) {
+    if (ndrSerializableClass == null || factory == null) {
+      throw new IllegalArgumentException("Class and factory may not be null.");
+    }
+    FACTORIES.put(ndrSerializableClass, factory);
+  }
+
+  /**
+   * Returns the factory of {@code ndrSerializableClass}, resolving it on first use.
+   * 
+   * @param <T>
+   *          subclass of NDRSerializable
+   * @param ndrSerializableClass
+   *          class of the instances to create
+   * @return factory of {@code ndrSerializableClass} instances
+   * @throws IllegalArgumentException
+   *           if {@code ndrSerializableClass} has no factory, nor an accessible no-arg constructor
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends NDRSerializable> NDRFactory<T> get(final Class<T> ndrSerializableClass) {
+    NDRFactory<?> factory = FACTORIES.get(ndrSerializableClass);
+    if (factory == null) {
+      factory = resolve(ndrSerializableClass);
+      final NDRFactory<?> registeredFactory = FACTORIES.putIfAbsent(ndrSerializableClass, factory);
+      if (registeredFactory != null) {
+        factory = registeredFactory;
+      }
+    }
+    return (NDRFactory<T>) factory;
+  }
+
+  private static <T> NDRFactory<?> resolve(final Class<T> ndrSerializableClass) {
+    final NDRFactory<?> generatedFactory = getGeneratedFactory(ndrSerializableClass);
+    if (generatedFactory != null) {
+      return generatedFactory;
+    }
+    final Constructor<T> constructor;
+    try {
+      constructor = ndrSerializableClass.getDeclaredConstructor();
+      constructor.setAccessible(true);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException("Error instantiating class " + ndrSerializableClass.getName(), e);
+    } catch (SecurityException e) {
+      throw new IllegalArgumentException("Insufficient privileges to instantiate class "
+          + ndrSerializableClass.getName(), e);
+    }
+    return new ConstructorFactory<T>(constructor);
+  }
+
+  /**
+   * @return the generated codec of {@code ndrSerializableClass}, or {@code null} if it has no (instantiating) codec
+   */
+  private static NDRFactory<?> getGeneratedFactory(final Class<?> ndrSerializableClass) {
+    // The codec is named after the class, nested classes being prefixed with the names of their enclosing classes.
+    final StringBuilder codecName = new StringBuilder(ndrSerializableClass.getSimpleName())
+        .append(CODEC_SUFFIX);
+    Class<?> enclosingClass = ndrSerializableClass.getEnclosingClass();
+    while (enclosingClass != null) {
+      codecName.insert(0, '_').insert(0, enclosingClass.getSimpleName());
+      enclosingClass = enclosingClass.getEnclosingClass();
+    }
+    final Package classPackage = ndrSerializableClass.getPackage();
+    if (classPackage != null && classPackage.getName().length() > 0) {
+      codecName.insert(0, '.').insert(0, classPackage.getName());
+    }
+    try {
+      final Class<?> codecClass = Class.forName(codecName.toString(), true, ndrSerializableClass.getClassLoader());
+      final Object codec = codecClass.getField("INSTANCE").get(null);
+      return (codec instanceof NDRFactory) ? (NDRFactory<?>) codec : null;
+    } catch (ClassNotFoundException e) {
+      return null;
+    } catch (NoSuchFieldException e) {
+      return null;
+    } catch (IllegalAccessException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Fallback factory that invokes the no-arg constructor of a class.
+   */
+  private static final class ConstructorFactory<T> implements NDRFactory<T> {
+
+    private final Constructor<T> constructor;
+
+    /**
+     * Constructor.
+     * 
+     * @param constructor
+     *          accessible no-arg constructor
+     */
+    ConstructorFactory(final Constructor<T> constructor) {
+      this.constructor = constructor;
+    }
+
+    @Override
+    public T newInstance() {
+      try {
+        return constructor.newInstance();
+      } catch (InstantiationException e) {
+        throw new IllegalArgumentException("Error instantiating class " + constructor.getDeclaringClass().getName(), e);
+      } catch (IllegalAccessException e) {
+        throw new IllegalArgumentException("Insufficient privileges to instantiate class "
+            + constructor.getDeclaringClass().getName(), e);
+      } catch (InvocationTargetException e) {
+        throw new IllegalArgumentException("Error instantiating class " + constructor.getDeclaringClass().getName(),
+            e.getCause());
+      }
+    }
+  }
+}
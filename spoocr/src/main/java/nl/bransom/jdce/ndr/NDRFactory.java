@@ -0,0 +1,18 @@
+package nl.bransom.jdce.ndr;
+
+/**
+ * Creates new instances of one specific {@link NDRSerializable} class, so {@link NDRReader#read(Class)} doesn't need
+ * reflection. Generated {@link NDRCodec}s implement this interface as well; other classes can provide their factory via
+ * {@link NDRFactories#register(Class, NDRFactory)}.
+ * 
+ * @param <T>
+ *          class of the instances
+ * @author Rob
+ */
+public interface NDRFactory<T> {
+
+  /**
+   * @return a new instance, ready to be deserialized
+   */
+  T newInstance();
+}
@@ -0,0 +1,23 @@
+package nl.bransom.jdce.ndr;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the length of a fixed size {@code byte[]} member of an {@link NDRStruct}.
+ * 
+ * @author Rob
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface NDRFixedLength {
+
+  /**
+   * @return number of bytes in the array
+   */
+  int value();
+}
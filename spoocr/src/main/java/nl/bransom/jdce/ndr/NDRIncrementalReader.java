@@ -0,0 +1,111 @@
+package nl.bransom.jdce.ndr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Use this class to unmarshal NDR data that arrives in chunks, for instance from a non-blocking channel, without ever
+ * blocking the thread. Append each chunk as it arrives and then call {@link #read(NDRSerializable)}; it returns
+ * {@code false} if the object is still incomplete, and can be called again with the same object once more input has
+ * arrived.
+ * 
+ * {@link NDRCodec}s and {@link NDRSerializable}s read their fields in straight-line code, which cannot be suspended
+ * halfway. Instead, the bytes of an incomplete object are kept and it is read again from its start when more input
+ * arrives. That is only attempted once the bytes are available that the previous attempt ran out of, so each attempt
+ * gets further than the one before. Each attempt does re-read everything before that point, though: an object of
+ * {@code n} bytes that arrives in chunks of {@code c} bytes may be decoded about {@code n / c} times, so the total work
+ * is quadratic in the size of the object in the worst case. Append input in chunks as large as possible, e.g.
+ * everything a channel has available, and expect slow peers that send large objects to cost CPU time. Objects that
+ * are read completely are consumed, so only the current object is ever read again.
+ * 
+ * Each object is read as one NDR message, which is the scope of full pointers (see
+ * {@link NDRReader#clearEmbeddedReferents()}): a pointer cannot refer to a referent of an earlier object. The writer
+ * must therefore call {@link NDRWriter#clearEmbeddedReferents()} after each object.
+ * 
+ * This class is not thread-safe.
+ * 
+ * @author Rob
+ */
+public class NDRIncrementalReader {
+
+  private final AlignedInputChunks alignedInput = new AlignedInputChunks();
+  private final NDRReader ndrReader = new NDRReader(alignedInput);
+
+  /**
+   * Constructor.
+   * 
+   * @param formatLabel
+   *          NDR Format Label to be applied when reading data
+   */
+  public NDRIncrementalReader(final FormatLabel formatLabel) {
+    ndrReader.setFormatLabel(formatLabel);
+  }
+
+  /**
+   * Sets the NDR Format Label, see {@link NDRReader#setFormatLabel(FormatLabel)}.
+   * 
+   * @param formatLabel
+   *          NDR Format Label to be applied when reading data
+   */
+  public void setFormatLabel(final FormatLabel formatLabel) {
+    ndrReader.setFormatLabel(formatLabel);
+  }
+
+  /**
+   * Appends a chunk of input. The remaining bytes of {@code chunk} are copied, so the caller can reuse it right away.
+   * 
+   * @param chunk
+   *          bytes that have arrived
+   */
+  public void append(final ByteBuffer chunk) {
+    alignedInput.append(chunk);
+  }
+
+  /**
+   * Appends whatever input {@code channel} provides without blocking, see
+   * {@link AlignedInputChunks#append(ReadableByteChannel)}.
+   * 
+   * @param channel
+   *          (non-blocking) channel to read from
+   * @return number of bytes read, possibly zero, or -1 if the channel has reached end-of-stream
+   * @throws IOException
+   *           when errors occur while reading from {@code channel}
+   */
+  public int append(final ReadableByteChannel channel) throws IOException {
+    return alignedInput.append(channel);
+  }
+
+  /**
+   * @return number of bytes that have arrived, but have not been consumed by a complete object yet
+   */
+  public int available() {
+    return alignedInput.available();
+  }
+
+  /**
+   * Tries to read {@code ndrSerializable}, including the referents of its embedded pointers, from the input that has
+   * arrived so far. If the input is incomplete, the object may have been modified partially; pass it again when more
+   * input has arrived.
+   * 
+   * @param ndrSerializable
+   *          object to which the reading and parsing of NDR data is delegated
+   * @return {@code true} if the object has been read completely, {@code false} if more input is required
+   * @throws IOException
+   *           if the NDR data is corrupt
+   */
+  public boolean read(final NDRSerializable ndrSerializable) throws IOException {
+    if (!alignedInput.isRetryUseful()) {
+      return false;
+    }
+    ndrReader.clearEmbeddedReferents();
+    try {
+      ndrReader.read(ndrSerializable);
+    } catch (NDRUnderflowException e) {
+      alignedInput.rollback();
+      return false;
+    }
+    alignedInput.commit();
+    return true;
+  }
+}
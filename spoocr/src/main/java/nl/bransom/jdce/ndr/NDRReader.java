@@ -2,6 +2,10 @@ package nl.bransom.jdce.ndr;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
@@ -19,9 +23,19 @@ import org.slf4j.LoggerFactory;
 public class NDRReader {
 
   private static final Logger LOG = LoggerFactory.getLogger(NDRReader.class);
+  private static final int INITIAL_BLOCK_SIZE = 64;
 
-  private AlignedInputStream alignedInputStream;
+  private AlignedInput alignedInput;
   private FormatLabel formatLabel;
+  // Integer decoding strategy, resolved from the formatLabel whenever that is set.
+  private IntegerCodec integerCodec;
+  // Reusable storage for blocks of fixed-layout fields, see readBlock().
+  private byte[] blockBytes = new byte[INITIAL_BLOCK_SIZE];
+  // Referents of embedded pointers in this NDR stream, and the ones that are yet to be read.
+  private final ReferentTable<NDRSerializable> embeddedReferents = new ReferentTable<NDRSerializable>();
+  private final List<NDRSerializable> deferredReferents = new ArrayList<NDRSerializable>();
+  private int nestingDepth;
+  private boolean isReadingDeferredReferents;
 
   /**
    * Constructor.
@@ -30,15 +44,67 @@ public class NDRReader {
    *          NDR byte stream to be used for reading
    */
   public NDRReader(final InputStream inputStream) {
-    this.alignedInputStream = new AlignedInputStream(inputStream);
+    this.alignedInput = new AlignedInputStream(inputStream);
   }
 
+  /**
+   * Constructor to decode NDR data directly from a (heap or direct) buffer, without any stream wrappers. Reading starts
+   * at the current position of {@code byteBuffer}; the buffer itself is not modified.
+   * 
+   * @param byteBuffer
+   *          NDR byte buffer to be used for reading
+   */
+  public NDRReader(final ByteBuffer byteBuffer) {
+    this.alignedInput = new AlignedInputBuffer(byteBuffer);
+  }
+
+  /**
+   * Constructor to read from any NDR byte source, for instance {@link AlignedInputChunks} that are fed as input
+   * arrives.
+   * 
+   * @param alignedInput
+   *          NDR byte source to be used for reading
+   */
+  public NDRReader(final AlignedInput alignedInput) {
+    this.alignedInput = alignedInput;
+  }
+
+  /**
+   * @return NDR Format Label applied when reading data; if initialized, this is the shared, unmodifiable canonical
+   *         instance (see {@link FormatLabel#toModifiable()})
+   */
   public FormatLabel getFormatLabel() {
     return formatLabel;
   }
 
+  /**
+   * Sets the NDR Format Label and resolves the matching decoding strategies. An initialized {@code formatLabel} is
+   * replaced by its canonical instance (see {@link FormatLabel#toCanonical()}), so changes made to {@code formatLabel}
+   * afterwards are not picked up; call this method again to apply them.
+   * 
+   * @param formatLabel
+   *          NDR Format Label to be applied when reading data
+   */
   public void setFormatLabel(final FormatLabel formatLabel) {
-    this.formatLabel = formatLabel;
+    this.formatLabel = (formatLabel != null) ? formatLabel.toCanonical() : null;
+    if (formatLabel != null && formatLabel.isInitialized()) {
+      integerCodec = this.formatLabel.getIntegerCodec();
+    } else {
+      integerCodec = null;
+    }
+  }
+
+  /**
+   * Returns the integer decoding strategy of the current NDR Format Label, so generated {@link NDRCodec}s can decode
+   * the numbers of a block read by {@link #readBlock(int, int)}.
+   * 
+   * @return integer decoding strategy
+   */
+  public IntegerCodec getIntegerCodec() {
+    if (integerCodec == null) {
+      verifyFormatLabel();
+    }
+    return integerCodec;
   }
 
   /**
@@ -50,13 +116,17 @@ public class NDRReader {
    *           if errors occur while reading the NDR stream
    */
   public void readFormatLabel(final int numBytes) throws IOException {
-    final byte[] formatLabelBytes = new byte[numBytes];
-    alignedInputStream.read(formatLabelBytes);
-    formatLabel = FormatLabel.parse(formatLabelBytes, 0);
+    if (numBytes < NDRConstants.MIN_FORMAT_LABEL_LENGTH) {
+      throw new IllegalArgumentException("NDR format label must be at least " + NDRConstants.MIN_FORMAT_LABEL_LENGTH
+          + " bytes long.");
+    }
+    final byte[] formatLabelBytes = readBlock(1, numBytes);
+    setFormatLabel(FormatLabel.parse(formatLabelBytes[0], formatLabelBytes[1]));
   }
 
   /**
-   * Instantiates {@code ndrSerializableClass} and delegates reading to the new instance.
+   * Instantiates {@code ndrSerializableClass} and delegates reading to the new instance. Instances are created by the
+   * {@link NDRFactory} of the class, see {@link NDRFactories}.
    * 
    * @param <T>
    *          subclass of NDRSerializable
@@ -67,23 +137,32 @@ public class NDRReader {
    *           if errors occur while reading the NDR stream
    */
   public <T extends NDRSerializable> T read(final Class<T> ndrSerializableClass) throws IOException {
-    final T ndrSerializable;
-    // Instantiate the object...
-    try {
-      ndrSerializable = (T) ndrSerializableClass.newInstance();
-    } catch (InstantiationException e) {
-      throw new IllegalArgumentException("Error instantiating class " + ndrSerializableClass.getName(), e);
-    } catch (IllegalAccessException e) {
-      throw new IllegalArgumentException("Insufficient privileges to instantiate class "
-          + ndrSerializableClass.getName(), e);
-    }
-    // ...and delegate the reading to it.
+    return read(ndrSerializableClass, null);
+  }
+
+  /**
+   * Delegates reading to {@code reusable}, or to a new instance of {@code ndrSerializableClass} if {@code reusable} is
+   * {@code null}. This allows pooled object graphs to be decoded without creating any objects.
+   * 
+   * @param <T>
+   *          subclass of NDRSerializable
+   * @param ndrSerializableClass
+   *          class to which the reading and parsing of NDR data is delegated
+   * @param reusable
+   *          instance to overwrite with the NDR data; may be {@code null}
+   * @return {@code reusable}, or a newly created instance of given {@code ndrSerializableClass}
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public <T extends NDRSerializable> T read(final Class<T> ndrSerializableClass, final T reusable) throws IOException {
+    final T ndrSerializable = (reusable != null) ? reusable : NDRFactories.get(ndrSerializableClass).newInstance();
     read(ndrSerializable);
     return ndrSerializable;
   }
 
   /**
-   * Delegates reading to the given {@code ndrSerializable}.
+   * Delegates reading to the given {@code ndrSerializable}. If this is the outermost object being read, then the
+   * referents of any embedded pointers are read next, see {@link #readDeferredReferents()}.
    * 
    * @param <T>
    *          subclass of NDRSerializable
@@ -93,7 +172,15 @@ public class NDRReader {
    *           if errors occur while reading the NDR stream
    */
   public <T extends NDRSerializable> void read(final T ndrSerializable) throws IOException {
-    ndrSerializable.ndrDeserialize(this);
+    nestingDepth++;
+    try {
+      ndrSerializable.ndrDeserialize(this);
+      if (nestingDepth == 1) {
+        readDeferredReferents();
+      }
+    } finally {
+      nestingDepth--;
+    }
   }
 
   /**
@@ -104,7 +191,7 @@ public class NDRReader {
    *           if errors occur while reading the NDR stream
    */
   public boolean readBoolean() throws IOException {
-    return alignedInputStream.read() != 0x00;
+    return alignedInput.read() != 0x00;
   }
 
   /**
@@ -115,7 +202,7 @@ public class NDRReader {
    *           if errors occur while reading the NDR stream
    */
   public byte readByte() throws IOException {
-    return (byte) alignedInputStream.read();
+    return (byte) alignedInput.read();
   }
 
   /**
@@ -126,7 +213,8 @@ public class NDRReader {
    *           if errors occur while reading the NDR stream
    */
   public short readShort() throws IOException {
-    return (short) readNumber(Short.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    alignNumber(Short.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    return alignedInput.readShort(integerCodec);
   }
 
   /**
@@ -137,7 +225,8 @@ public class NDRReader {
    *           if errors occur while reading the NDR stream
    */
   public int readInt() throws IOException {
-    return (int) readNumber(Integer.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    alignNumber(Integer.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    return alignedInput.readInt(integerCodec);
   }
 
   /**
@@ -148,7 +237,8 @@ public class NDRReader {
    *           if errors occur while reading the NDR stream
    */
   public long readLong() throws IOException {
-    return readNumber(Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    alignNumber(Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    return alignedInput.readLong(integerCodec);
   }
 
   /**
@@ -160,7 +250,7 @@ public class NDRReader {
    */
   public float readFloat() throws IOException {
     verifyFormatLabelFloat();
-    return Float.intBitsToFloat((int) readNumber(Float.SIZE / NDRConstants.NUM_BITS_PER_BYTE));
+    return Float.intBitsToFloat(readInt());
   }
 
   /**
@@ -172,7 +262,7 @@ public class NDRReader {
    */
   public double readDouble() throws IOException {
     verifyFormatLabelFloat();
-    return Double.longBitsToDouble(readNumber(Double.SIZE / NDRConstants.NUM_BITS_PER_BYTE));
+    return Double.longBitsToDouble(readLong());
   }
 
   /**
@@ -197,7 +287,7 @@ public class NDRReader {
       throws IOException {
     verifyBufferLength(fixedBytes.length, storeOffset + expectedLength);
 
-    final int numBytesRead = alignedInputStream.read(fixedBytes, storeOffset, expectedLength);
+    final int numBytesRead = alignedInput.read(fixedBytes, storeOffset, expectedLength);
     if (numBytesRead < expectedLength) {
       throw new IOException("Expected to read " + expectedLength + " bytes, but only " + numBytesRead
           + " bytes have been read.");
@@ -255,7 +345,7 @@ public class NDRReader {
     verifyBufferLength(varyingBytes.length, storeOffset + ndrOffset + ndrActualLength);
 
     // Read the data bytes.
-    final int numBytesRead = alignedInputStream.read(varyingBytes, storeOffset + ndrOffset, ndrActualLength);
+    final int numBytesRead = alignedInput.read(varyingBytes, storeOffset + ndrOffset, ndrActualLength);
     if (numBytesRead < ndrActualLength) {
       throw new IOException("Read only " + numBytesRead + " bytes, but expected to read " + ndrActualLength + ".");
     }
@@ -294,32 +384,415 @@ public class NDRReader {
   }
 
   /**
-   * Reads a byte array in <i>varying</i> NDR format and converts it to a String.
+   * Reads shorts in the NDR <i>conformant</i> format, like {@link #readBytesConformant(byte[], int)}. The values are
+   * aligned once and then copied in bulk.
    * 
-   * Note that the resulting String will contain single-byte characters (ASCII or EBCDIC) that are encoded with the
-   * {@link #formatLabelCharacter} specified in the constructor or in {@link #readFormatLabel()}.
+   * @param values
+   *          array into which the values will be copied, starting at position {@code storeOffset}. The length of this
+   *          array must be at least {@code storeOffset + ndrMaxLength}.
+   * @param storeOffset
+   *          offset to be taken into account when storing values in {@code values}
+   * @return number of values read
+   * @throws IllegalArgumentException
+   *           if the length of {@code values} is insufficient to store the values that will be read
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public int readShortsConformant(final short[] values, final int storeOffset) throws IOException {
+    final int ndrMaxLength = readInt();
+    verifyBufferLength(values.length, storeOffset + ndrMaxLength);
+    readShorts(values, storeOffset, ndrMaxLength);
+    return ndrMaxLength;
+  }
+
+  /**
+   * Reads shorts in the NDR <i>varying</i> format, like {@link #readBytesVarying(byte[], int)}. The values are aligned
+   * once and then copied in bulk.
    * 
-   * @return String value
+   * @param values
+   *          array into which the values will be copied, starting at position {@code storeOffset}. The length of this
+   *          array must be at least {@code storeOffset + ndrOffset + ndrActualLength}.
+   * @param storeOffset
+   *          offset to be taken into account when storing values in {@code values}
+   * @return number of values read (ndrOffset + ndrActualLength)
+   * @throws IllegalArgumentException
+   *           if the length of {@code values} is insufficient to store the values that will be read
    * @throws IOException
    *           if errors occur while reading the NDR stream
    */
-  public String readStringVarying() throws IOException {
-    verifyFormatLabel();
+  public int readShortsVarying(final short[] values, final int storeOffset) throws IOException {
+    final int ndrOffset = readInt();
+    final int ndrActualLength = readInt();
+    verifyBufferLength(values.length, storeOffset + ndrOffset + ndrActualLength);
+    readShorts(values, storeOffset + ndrOffset, ndrActualLength);
+    return ndrOffset + ndrActualLength;
+  }
+
+  /**
+   * Reads shorts in the NDR <i>conformant and varying</i> format, like
+   * {@link #readBytesConformantVarying(byte[], int)}. The values are aligned once and then copied in bulk.
+   * 
+   * @param values
+   *          array into which the values will be copied, starting at position {@code storeOffset}. The length of this
+   *          array must be at least {@code storeOffset + ndrMaxLength}.
+   * @param storeOffset
+   *          offset to be taken into account when storing values in {@code values}
+   * @return number of values read (ndrOffset + ndrActualLength)
+   * @throws IllegalArgumentException
+   *           if the length of {@code values} is insufficient to store the values that will be read
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public int readShortsConformantVarying(final short[] values, final int storeOffset) throws IOException {
+    final int ndrMaxLength = readInt();
+    verifyBufferLength(values.length, storeOffset + ndrMaxLength);
+    final int numValuesRead = readShortsVarying(values, storeOffset);
+    if (numValuesRead > ndrMaxLength) {
+      throw new IOException("The NDR offset and actualLength exceed the specified ndrMaxLength.");
+    }
+    return numValuesRead;
+  }
+
+  /**
+   * Reads ints in the NDR <i>conformant</i> format, like {@link #readBytesConformant(byte[], int)}. The values are
+   * aligned once and then copied in bulk.
+   * 
+   * @param values
+   *          array into which the values will be copied, starting at position {@code storeOffset}. The length of this
+   *          array must be at least {@code storeOffset + ndrMaxLength}.
+   * @param storeOffset
+   *          offset to be taken into account when storing values in {@code values}
+   * @return number of values read
+   * @throws IllegalArgumentException
+   *           if the length of {@code values} is insufficient to store the values that will be read
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public int readIntsConformant(final int[] values, final int storeOffset) throws IOException {
+    final int ndrMaxLength = readInt();
+    verifyBufferLength(values.length, storeOffset + ndrMaxLength);
+    readInts(values, storeOffset, ndrMaxLength);
+    return ndrMaxLength;
+  }
+
+  /**
+   * Reads ints in the NDR <i>varying</i> format, like {@link #readBytesVarying(byte[], int)}. The values are aligned
+   * once and then copied in bulk.
+   * 
+   * @param values
+   *          array into which the values will be copied, starting at position {@code storeOffset}. The length of this
+   *          array must be at least {@code storeOffset + ndrOffset + ndrActualLength}.
+   * @param storeOffset
+   *          offset to be taken into account when storing values in {@code values}
+   * @return number of values read (ndrOffset + ndrActualLength)
+   * @throws IllegalArgumentException
+   *           if the length of {@code values} is insufficient to store the values that will be read
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public int readIntsVarying(final int[] values, final int storeOffset) throws IOException {
+    final int ndrOffset = readInt();
+    final int ndrActualLength = readInt();
+    verifyBufferLength(values.length, storeOffset + ndrOffset + ndrActualLength);
+    readInts(values, storeOffset + ndrOffset, ndrActualLength);
+    return ndrOffset + ndrActualLength;
+  }
+
+  /**
+   * Reads ints in the NDR <i>conformant and varying</i> format, like
+   * {@link #readBytesConformantVarying(byte[], int)}. The values are aligned once and then copied in bulk.
+   * 
+   * @param values
+   *          array into which the values will be copied, starting at position {@code storeOffset}. The length of this
+   *          array must be at least {@code storeOffset + ndrMaxLength}.
+   * @param storeOffset
+   *          offset to be taken into account when storing values in {@code values}
+   * @return number of values read (ndrOffset + ndrActualLength)
+   * @throws IllegalArgumentException
+   *           if the length of {@code values} is insufficient to store the values that will be read
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public int readIntsConformantVarying(final int[] values, final int storeOffset) throws IOException {
+    final int ndrMaxLength = readInt();
+    verifyBufferLength(values.length, storeOffset + ndrMaxLength);
+    final int numValuesRead = readIntsVarying(values, storeOffset);
+    if (numValuesRead > ndrMaxLength) {
+      throw new IOException("The NDR offset and actualLength exceed the specified ndrMaxLength.");
+    }
+    return numValuesRead;
+  }
+
+  /**
+   * Reads longs in the NDR <i>conformant</i> format, like {@link #readBytesConformant(byte[], int)}. The values are
+   * aligned once and then copied in bulk.
+   * 
+   * @param values
+   *          array into which the values will be copied, starting at position {@code storeOffset}. The length of this
+   *          array must be at least {@code storeOffset + ndrMaxLength}.
+   * @param storeOffset
+   *          offset to be taken into account when storing values in {@code values}
+   * @return number of values read
+   * @throws IllegalArgumentException
+   *           if the length of {@code values} is insufficient to store the values that will be read
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public int readLongsConformant(final long[] values, final int storeOffset) throws IOException {
+    final int ndrMaxLength = readInt();
+    verifyBufferLength(values.length, storeOffset + ndrMaxLength);
+    readLongs(values, storeOffset, ndrMaxLength);
+    return ndrMaxLength;
+  }
+
+  /**
+   * Reads longs in the NDR <i>varying</i> format, like {@link #readBytesVarying(byte[], int)}. The values are aligned
+   * once and then copied in bulk.
+   * 
+   * @param values
+   *          array into which the values will be copied, starting at position {@code storeOffset}. The length of this
+   *          array must be at least {@code storeOffset + ndrOffset + ndrActualLength}.
+   * @param storeOffset
+   *          offset to be taken into account when storing values in {@code values}
+   * @return number of values read (ndrOffset + ndrActualLength)
+   * @throws IllegalArgumentException
+   *           if the length of {@code values} is insufficient to store the values that will be read
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public int readLongsVarying(final long[] values, final int storeOffset) throws IOException {
+    final int ndrOffset = readInt();
+    final int ndrActualLength = readInt();
+    verifyBufferLength(values.length, storeOffset + ndrOffset + ndrActualLength);
+    readLongs(values, storeOffset + ndrOffset, ndrActualLength);
+    return ndrOffset + ndrActualLength;
+  }
+
+  /**
+   * Reads longs in the NDR <i>conformant and varying</i> format, like
+   * {@link #readBytesConformantVarying(byte[], int)}. The values are aligned once and then copied in bulk.
+   * 
+   * @param values
+   *          array into which the values will be copied, starting at position {@code storeOffset}. The length of this
+   *          array must be at least {@code storeOffset + ndrMaxLength}.
+   * @param storeOffset
+   *          offset to be taken into account when storing values in {@code values}
+   * @return number of values read (ndrOffset + ndrActualLength)
+   * @throws IllegalArgumentException
+   *           if the length of {@code values} is insufficient to store the values that will be read
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public int readLongsConformantVarying(final long[] values, final int storeOffset) throws IOException {
+    final int ndrMaxLength = readInt();
+    verifyBufferLength(values.length, storeOffset + ndrMaxLength);
+    final int numValuesRead = readLongsVarying(values, storeOffset);
+    if (numValuesRead > ndrMaxLength) {
+      throw new IOException("The NDR offset and actualLength exceed the specified ndrMaxLength.");
+    }
+    return numValuesRead;
+  }
+
+  /**
+   * Reads floats in the NDR <i>conformant</i> format, like {@link #readBytesConformant(byte[], int)}. The values are
+   * aligned once and then copied in bulk.
+   * 
+   * @param values
+   *          array into which the values will be copied, starting at position {@code storeOffset}. The length of this
+   *          array must be at least {@code storeOffset + ndrMaxLength}.
+   * @param storeOffset
+   *          offset to be taken into account when storing values in {@code values}
+   * @return number of values read
+   * @throws IllegalArgumentException
+   *           if the length of {@code values} is insufficient to store the values that will be read
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public int readFloatsConformant(final float[] values, final int storeOffset) throws IOException {
+    final int ndrMaxLength = readInt();
+    verifyBufferLength(values.length, storeOffset + ndrMaxLength);
+    readFloats(values, storeOffset, ndrMaxLength);
+    return ndrMaxLength;
+  }
 
-    // Read the offset and the actual byte length.
+  /**
+   * Reads floats in the NDR <i>varying</i> format, like {@link #readBytesVarying(byte[], int)}. The values are aligned
+   * once and then copied in bulk.
+   * 
+   * @param values
+   *          array into which the values will be copied, starting at position {@code storeOffset}. The length of this
+   *          array must be at least {@code storeOffset + ndrOffset + ndrActualLength}.
+   * @param storeOffset
+   *          offset to be taken into account when storing values in {@code values}
+   * @return number of values read (ndrOffset + ndrActualLength)
+   * @throws IllegalArgumentException
+   *           if the length of {@code values} is insufficient to store the values that will be read
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public int readFloatsVarying(final float[] values, final int storeOffset) throws IOException {
     final int ndrOffset = readInt();
     final int ndrActualLength = readInt();
-    if (ndrOffset > 0) {
-      throw new UnsupportedOperationException("Non-zero NDR String offsets are not supported.");
+    verifyBufferLength(values.length, storeOffset + ndrOffset + ndrActualLength);
+    readFloats(values, storeOffset + ndrOffset, ndrActualLength);
+    return ndrOffset + ndrActualLength;
+  }
+
+  /**
+   * Reads floats in the NDR <i>conformant and varying</i> format, like
+   * {@link #readBytesConformantVarying(byte[], int)}. The values are aligned once and then copied in bulk.
+   * 
+   * @param values
+   *          array into which the values will be copied, starting at position {@code storeOffset}. The length of this
+   *          array must be at least {@code storeOffset + ndrMaxLength}.
+   * @param storeOffset
+   *          offset to be taken into account when storing values in {@code values}
+   * @return number of values read (ndrOffset + ndrActualLength)
+   * @throws IllegalArgumentException
+   *           if the length of {@code values} is insufficient to store the values that will be read
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public int readFloatsConformantVarying(final float[] values, final int storeOffset) throws IOException {
+    final int ndrMaxLength = readInt();
+    verifyBufferLength(values.length, storeOffset + ndrMaxLength);
+    final int numValuesRead = readFloatsVarying(values, storeOffset);
+    if (numValuesRead > ndrMaxLength) {
+      throw new IOException("The NDR offset and actualLength exceed the specified ndrMaxLength.");
     }
+    return numValuesRead;
+  }
 
-    // Read the data bytes, including the terminator.
-    final byte[] buffer = new byte[ndrOffset + ndrActualLength];
-    final int numBytesRead = alignedInputStream.read(buffer);
-    if ((numBytesRead == 0) || (buffer[numBytesRead - 1] != 0x00)) {
-      throw new IOException("A string terminator was expected but has not been read.");
+  /**
+   * Reads doubles in the NDR <i>conformant</i> format, like {@link #readBytesConformant(byte[], int)}. The values are
+   * aligned once and then copied in bulk.
+   * 
+   * @param values
+   *          array into which the values will be copied, starting at position {@code storeOffset}. The length of this
+   *          array must be at least {@code storeOffset + ndrMaxLength}.
+   * @param storeOffset
+   *          offset to be taken into account when storing values in {@code values}
+   * @return number of values read
+   * @throws IllegalArgumentException
+   *           if the length of {@code values} is insufficient to store the values that will be read
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public int readDoublesConformant(final double[] values, final int storeOffset) throws IOException {
+    final int ndrMaxLength = readInt();
+    verifyBufferLength(values.length, storeOffset + ndrMaxLength);
+    readDoubles(values, storeOffset, ndrMaxLength);
+    return ndrMaxLength;
+  }
+
+  /**
+   * Reads doubles in the NDR <i>varying</i> format, like {@link #readBytesVarying(byte[], int)}. The values are aligned
+   * once and then copied in bulk.
+   * 
+   * @param values
+   *          array into which the values will be copied, starting at position {@code storeOffset}. The length of this
+   *          array must be at least {@code storeOffset + ndrOffset + ndrActualLength}.
+   * @param storeOffset
+   *          offset to be taken into account when storing values in {@code values}
+   * @return number of values read (ndrOffset + ndrActualLength)
+   * @throws IllegalArgumentException
+   *           if the length of {@code values} is insufficient to store the values that will be read
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public int readDoublesVarying(final double[] values, final int storeOffset) throws IOException {
+    final int ndrOffset = readInt();
+    final int ndrActualLength = readInt();
+    verifyBufferLength(values.length, storeOffset + ndrOffset + ndrActualLength);
+    readDoubles(values, storeOffset + ndrOffset, ndrActualLength);
+    return ndrOffset + ndrActualLength;
+  }
+
+  /**
+   * Reads doubles in the NDR <i>conformant and varying</i> format, like
+   * {@link #readBytesConformantVarying(byte[], int)}. The values are aligned once and then copied in bulk.
+   * 
+   * @param values
+   *          array into which the values will be copied, starting at position {@code storeOffset}. The length of this
+   *          array must be at least {@code storeOffset + ndrMaxLength}.
+   * @param storeOffset
+   *          offset to be taken into account when storing values in {@code values}
+   * @return number of values read (ndrOffset + ndrActualLength)
+   * @throws IllegalArgumentException
+   *           if the length of {@code values} is insufficient to store the values that will be read
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public int readDoublesConformantVarying(final double[] values, final int storeOffset) throws IOException {
+    final int ndrMaxLength = readInt();
+    verifyBufferLength(values.length, storeOffset + ndrMaxLength);
+    final int numValuesRead = readDoublesVarying(values, storeOffset);
+    if (numValuesRead > ndrMaxLength) {
+      throw new IOException("The NDR offset and actualLength exceed the specified ndrMaxLength.");
+    }
+    return numValuesRead;
+  }
+
+  /**
+   * Reads bytes in the NDR <i>conformant</i> format, like {@link #readBytesConformant(byte[], int)}, but returns them
+   * as a read-only view instead of copying them. If this reader was created for a ByteBuffer, the view shares the
+   * content of that buffer, so large payloads can be forwarded or hashed without ever being copied.
+   * 
+   * @return read-only buffer holding the {@code ndrMaxLength} bytes between its position and limit
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public ByteBuffer readBytesConformant() throws IOException {
+    final int ndrMaxLength = readInt();
+    return sliceBytes(ndrMaxLength).asReadOnlyBuffer();
+  }
+
+  /**
+   * Reads bytes in the NDR <i>varying</i> format, like {@link #readBytesVarying(byte[], int)}, but returns them as a
+   * read-only view instead of copying them. See {@link #readBytesConformant()}.
+   * 
+   * @return read-only buffer holding the {@code ndrActualLength} bytes between its position and limit
+   * @throws UnsupportedOperationException
+   *           if the NDR offset is not zero
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public ByteBuffer readBytesVarying() throws IOException {
+    return sliceVarying().asReadOnlyBuffer();
+  }
+
+  /**
+   * Reads bytes in the NDR <i>conformant and varying</i> format, like
+   * {@link #readBytesConformantVarying(byte[], int)}, but returns them as a read-only view instead of copying them. See
+   * {@link #readBytesConformant()}.
+   * 
+   * @return read-only buffer holding the {@code ndrActualLength} bytes between its position and limit
+   * @throws UnsupportedOperationException
+   *           if the NDR offset is not zero
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public ByteBuffer readBytesConformantVarying() throws IOException {
+    final int ndrMaxLength = readInt();
+    final ByteBuffer bytes = sliceVarying();
+    if (bytes.remaining() > ndrMaxLength) {
+      throw new IOException("The NDR offset and actualLength exceed the specified ndrMaxLength.");
     }
-    return new String(buffer, 0, ndrOffset + ndrActualLength - 1, formatLabel.getFormatLabelCharacter().getCharset());
+    return bytes.asReadOnlyBuffer();
+  }
+
+  /**
+   * Reads a byte array in <i>varying</i> NDR format and converts it to a String.
+   * 
+   * Note that the resulting String will contain single-byte characters (ASCII or EBCDIC) that are encoded with the
+   * {@link #formatLabelCharacter} specified in the constructor or in {@link #readFormatLabel()}.
+   * 
+   * @return String value
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public String readStringVarying() throws IOException {
+    return readCharsVarying().toString();
   }
 
   /**
@@ -333,15 +806,157 @@ public class NDRReader {
    *           if errors occur while reading the NDR stream
    */
   public String readStringConformantVarying() throws IOException {
-    // Read the ndrMaxLength and delegate the rest of the work to readStringVarying().
+    return readCharsConformantVarying().toString();
+  }
+
+  /**
+   * Reads a string in <i>varying</i> NDR format, like {@link #readStringVarying()}, but defers decoding its characters
+   * until they are accessed. See {@link NDRString}.
+   * 
+   * @return lazily decoded string, excluding the terminator
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public NDRString readCharsVarying() throws IOException {
+    verifyFormatLabel();
+    final ByteBuffer bytes = sliceVarying();
+    // Strip the terminator.
+    final int length = bytes.remaining();
+    if ((length == 0) || (bytes.get(bytes.position() + length - 1) != 0x00)) {
+      throw new IOException("A string terminator was expected but has not been read.");
+    }
+    bytes.limit(bytes.limit() - 1);
+    return new NDRString(bytes, formatLabel.getCharacterCodec());
+  }
+
+  /**
+   * Reads a string in <i>conformant-varying</i> NDR format, like {@link #readStringConformantVarying()}, but defers
+   * decoding its characters until they are accessed. See {@link NDRString}.
+   * 
+   * @return lazily decoded string, excluding the terminator
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public NDRString readCharsConformantVarying() throws IOException {
+    // Read the ndrMaxLength and delegate the rest of the work to readCharsVarying().
     final int ndrMaxLength = readInt();
-    final String result = readStringVarying();
+    final NDRString result = readCharsVarying();
     if (result.length() > ndrMaxLength) {
-      throw new IOException("Too many bytes (" + result.length() + ") have been read; maximum is " + ndrMaxLength + ".");
+      throw new IOException("Too many bytes (" + result.length() + ") have been read; maximum is " + ndrMaxLength
+          + ".");
     }
     return result;
   }
 
+  /**
+   * Reads a full pointer, like {@link #readReference(Map, int)}, but keeps the referents in a {@link ReferentTable}.
+   * If it's a null-pointer, this method returns an empty byte array. If the reference ID is in {@code referents}, its
+   * referent is returned. Otherwise the referent is read from the NDR data stream, added to {@code referents} and
+   * returned.
+   * 
+   * @param referents
+   *          referents read so far from the same NDR stream
+   * @param expectedReferentSize
+   *          size in bytes of the (NDR serialized) referent
+   * @return referent
+   * @throws IOException
+   *           if errors occur while reading NDR bytes
+   */
+  public byte[] readReference(final ReferentTable<byte[]> referents, final int expectedReferentSize)
+      throws IOException {
+    final int referenceID = readInt();
+    if (referenceID == 0x00) {
+      return new byte[0];
+    }
+    final byte[] knownReferent = referents.get(referenceID);
+    if (knownReferent != null) {
+      return knownReferent;
+    }
+    final byte[] referent = new byte[expectedReferentSize];
+    readBytesFixed(referent, 0, expectedReferentSize);
+    referents.put(referenceID, referent);
+    return referent;
+  }
+
+  /**
+   * Reads an <i>embedded</i> full pointer, i.e. a pointer within a structure or array. NDR puts the referent of an
+   * embedded pointer after the outermost object that contains the pointer, so the referent cannot be read yet. Instead,
+   * a new instance of {@code referentClass} is created and returned right away; its state is read by
+   * {@link #readDeferredReferents()}, which is called automatically when {@link #read(NDRSerializable)} finishes the
+   * outermost object. A pointer to a referent that was read before in the same message returns that same referent, see
+   * {@link #clearEmbeddedReferents()}.
+   * 
+   * @param <T>
+   *          subclass of NDRSerializable
+   * @param referentClass
+   *          class of the referent
+   * @return referent, which may not have been read yet, or {@code null} for a null pointer
+   * @throws IOException
+   *           if errors occur while reading the NDR stream, or if the pointer refers to a referent of another class
+   */
+  public <T extends NDRSerializable> T readEmbeddedReference(final Class<T> referentClass) throws IOException {
+    final int referenceID = readInt();
+    if (referenceID == 0x00) {
+      return null;
+    }
+    final NDRSerializable knownReferent = embeddedReferents.get(referenceID);
+    if (knownReferent != null) {
+      if (!referentClass.isInstance(knownReferent)) {
+        throw new IOException("Reference ID " + referenceID + " refers to a " + knownReferent.getClass().getName()
+            + ", not to a " + referentClass.getName() + ".");
+      }
+      return referentClass.cast(knownReferent);
+    }
+    final T referent = NDRFactories.get(referentClass).newInstance();
+    embeddedReferents.put(referenceID, referent);
+    deferredReferents.add(referent);
+    return referent;
+  }
+
+  /**
+   * Reads the referents of the pointers that were read by {@link #readEmbeddedReference(Class)}, in the
+   * order in which the pointers were read. The referents of pointers embedded in a referent are read right after that
+   * referent, before its next sibling, as prescribed by NDR. The queue is processed without recursion, so long linked
+   * lists do not exhaust the call stack.
+   * 
+   * Objects read with {@link #read(NDRSerializable)} do this automatically; call this method after reading embedded
+   * pointers by any other means.
+   * 
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public void readDeferredReferents() throws IOException {
+    if (isReadingDeferredReferents || deferredReferents.isEmpty()) {
+      return;
+    }
+    isReadingDeferredReferents = true;
+    try {
+      // Use the queue as a stack, with the first referent on top.
+      Collections.reverse(deferredReferents);
+      while (!deferredReferents.isEmpty()) {
+        final NDRSerializable referent = deferredReferents.remove(deferredReferents.size() - 1);
+        final int numPending = deferredReferents.size();
+        referent.ndrDeserialize(this);
+        // Put the referents that were queued by this referent on top, the first one uppermost.
+        Collections.reverse(deferredReferents.subList(numPending, deferredReferents.size()));
+      }
+    } finally {
+      deferredReferents.clear();
+      isReadingDeferredReferents = false;
+    }
+  }
+
+  /**
+   * Forgets all referents of embedded pointers, including the ones that are yet to be read. Full pointers are scoped to
+   * one NDR message, i.e. the stub data of one call, which may consist of several objects. Call this method before
+   * reading the next message with the same reader, just like the writer calls
+   * {@link NDRWriter#clearEmbeddedReferents()}.
+   */
+  public void clearEmbeddedReferents() {
+    embeddedReferents.clear();
+    deferredReferents.clear();
+  }
+
   /**
    * Reads a reference value (pointer) from the NDR buffer. If it's a null-pointer, this method will return an empty
    * byte array. Otherwise the reference that was read is looked-up in {@code referentMap}. If found, the method returns
@@ -355,7 +970,9 @@ public class NDRReader {
    * @return referent
    * @throws IOException
    *           if errors occur while reading NDR bytes
+   * @deprecated use {@link #readReference(ReferentTable, int)}, which doesn't box reference IDs
    */
+  @Deprecated
   public byte[] readReference(final Map<Integer, byte[]> referentMap, final int expectedReferentSize)
       throws IOException {
     // Read the reference.
@@ -378,34 +995,97 @@ public class NDRReader {
     return referent;
   }
 
-  private long readNumber(final int sizeInBytes) throws IOException {
-    verifyFormatLabel();
-
-    // Skip any alignment bytes.
-    alignedInputStream.skipAlignment(Math.min(NDRConstants.MAX_NUM_ALIGNMENT_BYTES, sizeInBytes));
-
-    final byte[] buffer = new byte[sizeInBytes];
-    final int numBytesread = alignedInputStream.read(buffer);
-    if (numBytesread < sizeInBytes) {
-      throw new IOException("Could not read the required " + sizeInBytes + " bytes from the NDR byte stream.");
-    }
-
-    long value = 0;
-    // Now write the primitive data bytes.
-    for (int i = 0; i < sizeInBytes; i++) {
-      switch (formatLabel.getFormatLabelInteger()) {
-      case BIG_ENDIAN:
-        value |= (((long) buffer[i] & NDRConstants.BYTE_MASK) << ((sizeInBytes - i - 1) * NDRConstants.NUM_BITS_PER_BYTE));
-        break;
-      case LITTLE_ENDIAN:
-        value |= (((long) buffer[i] & NDRConstants.BYTE_MASK) << (i * NDRConstants.NUM_BITS_PER_BYTE));
-        break;
-      default:
-        throw new UnsupportedOperationException("Unsupported NDR format label '" + formatLabel.getFormatLabelInteger()
-            + "'.");
+  /**
+   * Skips any alignment bytes and then reads a block of {@code length} bytes in one go. Generated {@link NDRCodec}s use
+   * this to read a run of fixed-layout fields, which they decode at precomputed offsets. Note that the returned array
+   * is reused by the next call, so its content must be decoded right away.
+   * 
+   * @param alignment
+   *          alignment in bytes of the block, i.e. the size of its largest number
+   * @param length
+   *          number of bytes to read
+   * @return internal byte array, holding the data in its first {@code length} bytes
+   * @throws IOException
+   *           if errors occur while reading the NDR stream
+   */
+  public byte[] readBlock(final int alignment, final int length) throws IOException {
+    alignedInput.skipAlignment(Math.min(NDRConstants.MAX_NUM_ALIGNMENT_BYTES, alignment));
+    if (blockBytes.length < length) {
+      blockBytes = new byte[length];
+    }
+    int numBytesRead = 0;
+    while (numBytesRead < length) {
+      final int numBytes = alignedInput.read(blockBytes, numBytesRead, length - numBytesRead);
+      if (numBytes <= 0) {
+        throw new IOException("Expected to read " + length + " bytes, but only " + numBytesRead
+            + " bytes have been read.");
       }
+      numBytesRead += numBytes;
+    }
+    return blockBytes;
+  }
+
+  private void readShorts(final short[] values, final int storeOffset, final int count) throws IOException {
+    sliceNumbers(count, Short.SIZE / NDRConstants.NUM_BITS_PER_BYTE).asShortBuffer().get(values, storeOffset, count);
+  }
+
+  private void readInts(final int[] values, final int storeOffset, final int count) throws IOException {
+    sliceNumbers(count, Integer.SIZE / NDRConstants.NUM_BITS_PER_BYTE).asIntBuffer().get(values, storeOffset, count);
+  }
+
+  private void readLongs(final long[] values, final int storeOffset, final int count) throws IOException {
+    sliceNumbers(count, Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE).asLongBuffer().get(values, storeOffset, count);
+  }
+
+  private void readFloats(final float[] values, final int storeOffset, final int count) throws IOException {
+    verifyFormatLabelFloat();
+    sliceNumbers(count, Float.SIZE / NDRConstants.NUM_BITS_PER_BYTE).asFloatBuffer().get(values, storeOffset, count);
+  }
+
+  private void readDoubles(final double[] values, final int storeOffset, final int count) throws IOException {
+    verifyFormatLabelFloat();
+    sliceNumbers(count, Double.SIZE / NDRConstants.NUM_BITS_PER_BYTE).asDoubleBuffer().get(values, storeOffset, count);
+  }
+
+  /**
+   * Skips any alignment bytes and then slices {@code count} numbers of {@code sizeInBytes} each, in the byte order of
+   * the NDR Format Label. Bulk getters of NIO views copy such a slice as fast as the platform allows, which is a plain
+   * memory copy if the byte order matches the native order.
+   */
+  private ByteBuffer sliceNumbers(final int count, final int sizeInBytes) throws IOException {
+    alignNumber(sizeInBytes);
+    if (count < 0 || count > Integer.MAX_VALUE / sizeInBytes) {
+      throw new IOException("Invalid NDR length " + count + ".");
+    }
+    return alignedInput.slice(count * sizeInBytes).order(integerCodec.getByteOrder());
+  }
+
+  /**
+   * Reads the offset and actual length of <i>varying</i> NDR data, followed by the data itself.
+   */
+  private ByteBuffer sliceVarying() throws IOException {
+    final int ndrOffset = readInt();
+    final int ndrActualLength = readInt();
+    if (ndrOffset != 0) {
+      throw new UnsupportedOperationException("Non-zero NDR offsets are not supported.");
+    }
+    return sliceBytes(ndrActualLength);
+  }
+
+  private ByteBuffer sliceBytes(final int length) throws IOException {
+    if (length < 0) {
+      throw new IOException("Invalid NDR length " + length + ".");
     }
-    return value;
+    return alignedInput.slice(length);
+  }
+
+  private void alignNumber(final int sizeInBytes) throws IOException {
+    if (integerCodec == null) {
+      verifyFormatLabel();
+    }
+
+    // Skip any alignment bytes.
+    alignedInput.skipAlignment(Math.min(NDRConstants.MAX_NUM_ALIGNMENT_BYTES, sizeInBytes));
   }
 
   private void verifyBufferLength(final int bufferLength, final int dataLength) {
@@ -423,7 +1103,7 @@ public class NDRReader {
 
   private void verifyFormatLabelFloat() {
     verifyFormatLabel();
-    if (formatLabel.getFormatLabelFloat() != FormatLabelFloat.IEEE) {
+    if (!formatLabel.isFloatSupported()) {
       throw new UnsupportedOperationException("Unsupported float format label: "
           + formatLabel.getFormatLabelFloat().name());
     }
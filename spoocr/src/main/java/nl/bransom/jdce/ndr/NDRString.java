@@ -0,0 +1,81 @@
+package nl.bransom.jdce.ndr;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Character string read from an NDR byte stream that is decoded only when its characters are accessed. Until then it
+ * merely refers to the encoded bytes, so strings that are forwarded, compared or hashed as bytes are never decoded.
+ * The NDR character sets (ASCII and EBCDIC) encode each character in a single byte, so {@link #length()} is known
+ * without decoding.
+ * 
+ * Note that the encoded bytes may be shared with the buffer the string was read from, so that buffer must not change
+ * while the string is in use. Instances are not thread-safe until {@link #toString()} has been called.
+ * 
+ * @author Rob
+ */
+public final class NDRString implements CharSequence {
+
+  private final ByteBuffer encodedBytes;
+  private final CharacterCodec characterCodec;
+  private String decoded;
+
+  /**
+   * Constructor.
+   * 
+   * @param encodedBytes
+   *          encoded characters between the position and the limit of the buffer, excluding any terminator
+   * @param characterCodec
+   *          strategy to decode the characters
+   */
+  NDRString(final ByteBuffer encodedBytes, final CharacterCodec characterCodec) {
+    this.encodedBytes = encodedBytes;
+    this.characterCodec = characterCodec;
+  }
+
+  /**
+   * @return read-only view of the encoded characters, excluding the terminator
+   */
+  public ByteBuffer getEncodedBytes() {
+    return encodedBytes.asReadOnlyBuffer();
+  }
+
+  public Charset getCharset() {
+    return characterCodec.getCharset();
+  }
+
+  @Override
+  public int length() {
+    return (decoded != null) ? decoded.length() : encodedBytes.remaining();
+  }
+
+  /**
+   * Decodes just the requested character if the string hasn't been decoded yet.
+   */
+  @Override
+  public char charAt(final int index) {
+    if (decoded != null) {
+      return decoded.charAt(index);
+    }
+    if (index < 0 || index >= encodedBytes.remaining()) {
+      throw new StringIndexOutOfBoundsException(index);
+    }
+    return characterCodec.decode(encodedBytes.get(encodedBytes.position() + index));
+  }
+
+  @Override
+  public CharSequence subSequence(final int start, final int end) {
+    return toString().subSequence(start, end);
+  }
+
+  /**
+   * Decodes the characters on the first call; later calls return the same String.
+   */
+  @Override
+  public String toString() {
+    if (decoded == null) {
+      decoded = characterCodec.decode(encodedBytes);
+    }
+    return decoded;
+  }
+}
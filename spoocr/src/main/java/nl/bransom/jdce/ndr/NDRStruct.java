@@ -0,0 +1,42 @@
+package nl.bransom.jdce.ndr;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class as an NDR structure, so {@code nl.bransom.jdce.ndr.codegen.NDRCodecProcessor} generates an
+ * {@link NDRCodec} for it at compile-time. The generated codec is named after the class, with suffix "NDRCodec", and
+ * lives in the same package. The annotated class typically implements {@link NDRSerializable} by delegating to it:
+ * 
+ * <pre>
+ * &#064;NDRStruct
+ * public class Example implements NDRSerializable {
+ *   int count;
+ *   &#064;NDRFixedLength(6)
+ *   byte[] node;
+ * 
+ *   public void ndrSerialize(final NDRWriter ndrWriter) throws IOException {
+ *     ExampleNDRCodec.INSTANCE.encode(this, ndrWriter);
+ *   }
+ * 
+ *   public void ndrDeserialize(final NDRReader ndrReader) throws IOException {
+ *     ExampleNDRCodec.INSTANCE.decode(this, ndrReader);
+ *   }
+ * }
+ * </pre>
+ * 
+ * All non-static, non-transient fields are (de)serialized in order of declaration, like the members of an IDL struct.
+ * They must not be private or final. Supported field types are {@code boolean}, {@code byte}, {@code short},
+ * {@code int}, {@code long}, {@code float}, {@code double}, {@code byte[]} annotated with {@link NDRFixedLength} and
+ * any {@link NDRSerializable} type.
+ * 
+ * @author Rob
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface NDRStruct {
+}
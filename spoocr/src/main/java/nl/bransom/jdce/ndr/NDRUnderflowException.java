@@ -0,0 +1,30 @@
+package nl.bransom.jdce.ndr;
+
+import java.io.EOFException;
+
+/**
+ * Signals that NDR data is incomplete because the remaining bytes haven't arrived yet, as opposed to corrupt data.
+ * 
+ * @author Rob
+ */
+public class NDRUnderflowException extends EOFException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int numMissingBytes;
+
+  /**
+   * Constructor.
+   * 
+   * @param numMissingBytes
+   *          number of bytes that must arrive before reading can continue
+   */
+  public NDRUnderflowException(final int numMissingBytes) {
+    super("Another " + numMissingBytes + " bytes of NDR data are required.");
+    this.numMissingBytes = numMissingBytes;
+  }
+
+  public int getNumMissingBytes() {
+    return numMissingBytes;
+  }
+}
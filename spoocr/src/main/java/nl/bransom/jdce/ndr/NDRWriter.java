@@ -2,7 +2,11 @@ package nl.bransom.jdce.ndr;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
@@ -19,9 +23,21 @@ import org.slf4j.LoggerFactory;
 public class NDRWriter {
 
   private static final Logger LOG = LoggerFactory.getLogger(NDRWriter.class);
+  private static final int INITIAL_BLOCK_SIZE = 64;
+  // Maximum number of bytes that is encoded in the block storage at once when writing arrays of numbers.
+  private static final int MAX_BULK_BLOCK_SIZE = 8192;
 
-  private AlignedOutputStream alignedOutputStream;
+  private AlignedOutput alignedOutput;
   private FormatLabel formatLabel;
+  // Integer encoding strategy, resolved from the formatLabel whenever that is set.
+  private IntegerCodec integerCodec;
+  // Reusable storage for blocks of fixed-layout fields, see getBlock().
+  private byte[] blockBytes = new byte[INITIAL_BLOCK_SIZE];
+  // Referents of embedded pointers in the current NDR message, and the ones that are yet to be written.
+  private final ReferentTable<NDRSerializable> embeddedReferents = new ReferentTable<NDRSerializable>();
+  private final List<NDRSerializable> deferredReferents = new ArrayList<NDRSerializable>();
+  private int nestingDepth;
+  private boolean isWritingDeferredReferents;
 
   /**
    * Constructor.
@@ -30,11 +46,48 @@ public class NDRWriter {
    *          NDR byte stream to be used for writing
    */
   public NDRWriter(final OutputStream outputStream) {
-    this.alignedOutputStream = new AlignedOutputStream(outputStream);
+    this.alignedOutput = new AlignedOutputStream(outputStream);
   }
 
+  /**
+   * Constructor to write to any NDR byte target, for instance an {@link AlignedOutputBuffer} that can hand its content
+   * straight to a channel.
+   * 
+   * @param alignedOutput
+   *          NDR byte target to be used for writing
+   */
+  public NDRWriter(final AlignedOutput alignedOutput) {
+    this.alignedOutput = alignedOutput;
+  }
+
+  /**
+   * Sets the NDR Format Label and resolves the matching encoding strategies. An initialized {@code formatLabel} is
+   * replaced by its canonical instance (see {@link FormatLabel#toCanonical()}), so changes made to {@code formatLabel}
+   * afterwards are not picked up; call this method again to apply them.
+   * 
+   * @param formatLabel
+   *          NDR Format Label to be applied when writing data
+   */
   public void setFormatLabel(final FormatLabel formatLabel) {
-    this.formatLabel = formatLabel;
+    this.formatLabel = (formatLabel != null) ? formatLabel.toCanonical() : null;
+    if (formatLabel != null && formatLabel.isInitialized()) {
+      integerCodec = this.formatLabel.getIntegerCodec();
+    } else {
+      integerCodec = null;
+    }
+  }
+
+  /**
+   * Returns the integer encoding strategy of the current NDR Format Label, so generated {@link NDRCodec}s can encode
+   * numbers into a block obtained from {@link #getBlock(int)}.
+   * 
+   * @return integer encoding strategy
+   */
+  public IntegerCodec getIntegerCodec() {
+    if (integerCodec == null) {
+      verifyFormatLabel();
+    }
+    return integerCodec;
   }
 
   /**
@@ -47,11 +100,12 @@ public class NDRWriter {
    */
   public void writeFormatLabel(final int numBytes) throws IOException {
     verifyFormatLabel();
-    alignedOutputStream.write(formatLabel.toByteArray(numBytes), 0, numBytes);
+    formatLabel.write(alignedOutput, numBytes);
   }
 
   /**
-   * Delegates writing to the given {@code ndrSerializable}.
+   * Delegates writing to the given {@code ndrSerializable}. If this is the outermost object being written, then the
+   * referents of any embedded pointers are written next, see {@link #writeDeferredReferents()}.
    * 
    * @param ndrSerializable
    *          object to which serialization of the NDR data is delegated.
@@ -59,7 +113,15 @@ public class NDRWriter {
    *           if errors occur while writing data to the NDR byte stream
    */
   public void write(final NDRSerializable ndrSerializable) throws IOException {
-    ndrSerializable.ndrSerialize(this);
+    nestingDepth++;
+    try {
+      ndrSerializable.ndrSerialize(this);
+      if (nestingDepth == 1) {
+        writeDeferredReferents();
+      }
+    } finally {
+      nestingDepth--;
+    }
   }
 
   /**
@@ -73,7 +135,7 @@ public class NDRWriter {
    *           if errors occur while writing data to the NDR byte stream
    */
   public void writeBoolean(final boolean value) throws IOException {
-    alignedOutputStream.write((byte) (value ? 0x01 : 0x00));
+    alignedOutput.write((byte) (value ? 0x01 : 0x00));
   }
 
   /**
@@ -87,7 +149,7 @@ public class NDRWriter {
    *           if errors occur while writing data to the NDR byte stream
    */
   public void writeByte(final byte value) throws IOException {
-    alignedOutputStream.write(value);
+    alignedOutput.write(value);
   }
 
   /**
@@ -101,7 +163,8 @@ public class NDRWriter {
    *           if errors occur while writing data to the NDR byte stream
    */
   public void writeShort(final short value) throws IOException {
-    writeNumber(value, Short.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    alignNumber(Short.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    alignedOutput.writeShort(value, integerCodec);
   }
 
   /**
@@ -115,7 +178,8 @@ public class NDRWriter {
    *           if errors occur while writing data to the NDR byte stream
    */
   public void writeInt(final int value) throws IOException {
-    writeNumber(value, Integer.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    alignNumber(Integer.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    alignedOutput.writeInt(value, integerCodec);
   }
 
   /**
@@ -129,7 +193,8 @@ public class NDRWriter {
    *           if errors occur while writing data to the NDR byte stream
    */
   public void writeLong(final long value) throws IOException {
-    writeNumber(value, Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    alignNumber(Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    alignedOutput.writeLong(value, integerCodec);
   }
 
   /**
@@ -143,7 +208,7 @@ public class NDRWriter {
    *           if errors occur while writing data to the NDR byte stream
    */
   public void writeFloat(final float value) throws IOException {
-    writeNumber(Float.floatToRawIntBits(value), Float.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    writeInt(Float.floatToRawIntBits(value));
   }
 
   /**
@@ -157,7 +222,7 @@ public class NDRWriter {
    *           if errors occur while writing data to the NDR byte stream
    */
   public void writeDouble(final double value) throws IOException {
-    writeNumber(Double.doubleToRawLongBits(value), Double.SIZE / NDRConstants.NUM_BITS_PER_BYTE);
+    writeLong(Double.doubleToRawLongBits(value));
   }
 
   /**
@@ -176,7 +241,7 @@ public class NDRWriter {
    *           if errors occur while writing data to the NDR byte stream
    */
   public void writeBytesFixed(final byte[] fixedBytes, final int dataOffset, final int dataLength) throws IOException {
-    alignedOutputStream.write(fixedBytes, dataOffset, dataLength);
+    alignedOutput.write(fixedBytes, dataOffset, dataLength);
   }
 
   /**
@@ -207,12 +272,10 @@ public class NDRWriter {
     writeInt(ndrMaxLength);
 
     // Now write the data bytes.
-    alignedOutputStream.write(conformantBytes, dataOffset, dataLength);
+    alignedOutput.write(conformantBytes, dataOffset, dataLength);
 
     // Fill the remaining (unused) positions.
-    for (int i = conformantBytes.length; i < ndrMaxLength; i++) {
-      alignedOutputStream.write((byte) 0x00);
-    }
+    alignedOutput.writeZeros(ndrMaxLength - dataLength);
   }
 
   /**
@@ -240,7 +303,7 @@ public class NDRWriter {
     writeInt(dataLength);
 
     // Now write the data bytes.
-    alignedOutputStream.write(varyingBytes, dataOffset, dataLength);
+    alignedOutput.write(varyingBytes, dataOffset, dataLength);
   }
 
   /**
@@ -275,7 +338,392 @@ public class NDRWriter {
     writeInt(dataLength);
 
     // Now write the data bytes.
-    alignedOutputStream.write(conformantVaryingBytes, dataOffset, dataLength);
+    alignedOutput.write(conformantVaryingBytes, dataOffset, dataLength);
+  }
+
+  /**
+   * Writes shorts in a <i>conformant</i> format, like {@link #writeBytesConformant(byte[], int, int, int)}. Any
+   * remaining positions are filled with zeros up to {@code ndrMaxLength}. The values are aligned once and then copied
+   * in bulk.
+   * 
+   * @param values
+   *          array from which the values will be copied to the NDR byte stream, starting at position
+   *          {@code dataOffset}. The length of this array must be at least {@code dataOffset + dataLength}.
+   * @param dataOffset
+   *          offset to be taken into account when copying values from {@code values}
+   * @param dataLength
+   *          number of values to be written to the NDR byte stream
+   * @param ndrMaxLength
+   *          maximum number of values of the content
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeShortsConformant(final short[] values, final int dataOffset, final int dataLength,
+      final int ndrMaxLength) throws IOException {
+    verifyDataLength(values.length, dataOffset, dataLength, ndrMaxLength, null);
+    writeInt(ndrMaxLength);
+    writeShorts(values, dataOffset, dataLength);
+    alignedOutput.writeZeros((ndrMaxLength - dataLength) * (Short.SIZE / NDRConstants.NUM_BITS_PER_BYTE));
+  }
+
+  /**
+   * Writes shorts in a <i>varying</i> format, like {@link #writeBytesVarying(byte[], int, int, int)}. The values are
+   * aligned once and then copied in bulk.
+   * 
+   * @param values
+   *          array from which the values will be copied to the NDR byte stream, starting at position
+   *          {@code dataOffset}. The length of this array must be at least {@code dataOffset + dataLength}.
+   * @param dataOffset
+   *          offset to be taken into account when copying values from {@code values}
+   * @param dataLength
+   *          number of values to be written to the NDR byte stream
+   * @param ndrOffset
+   *          offset of the content written to the NDR byte stream
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeShortsVarying(final short[] values, final int dataOffset, final int dataLength, final int ndrOffset)
+      throws IOException {
+    verifyDataLength(values.length, dataOffset, dataLength, dataLength, null);
+    writeInt(ndrOffset);
+    writeInt(dataLength);
+    writeShorts(values, dataOffset, dataLength);
+  }
+
+  /**
+   * Writes shorts in a <i>conformant-varying</i> format, like
+   * {@link #writeBytesConformantVarying(byte[], int, int, int, int)}. The values are aligned once and then copied in
+   * bulk.
+   * 
+   * @param values
+   *          array from which the values will be copied to the NDR byte stream, starting at position
+   *          {@code dataOffset}. The length of this array must be at least {@code dataOffset + dataLength}.
+   * @param dataOffset
+   *          offset to be taken into account when copying values from {@code values}
+   * @param dataLength
+   *          number of values to be written to the NDR byte stream
+   * @param ndrMaxLength
+   *          maximum number of values of the content
+   * @param ndrOffset
+   *          offset of the content written to the NDR byte stream
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeShortsConformantVarying(final short[] values, final int dataOffset, final int dataLength,
+      final int ndrMaxLength, final int ndrOffset) throws IOException {
+    verifyDataLength(values.length, dataOffset, dataLength, ndrMaxLength, "including offset");
+    writeInt(ndrMaxLength);
+    writeInt(ndrOffset);
+    writeInt(dataLength);
+    writeShorts(values, dataOffset, dataLength);
+  }
+
+  /**
+   * Writes ints in a <i>conformant</i> format, like {@link #writeBytesConformant(byte[], int, int, int)}. Any
+   * remaining positions are filled with zeros up to {@code ndrMaxLength}. The values are aligned once and then copied
+   * in bulk.
+   * 
+   * @param values
+   *          array from which the values will be copied to the NDR byte stream, starting at position
+   *          {@code dataOffset}. The length of this array must be at least {@code dataOffset + dataLength}.
+   * @param dataOffset
+   *          offset to be taken into account when copying values from {@code values}
+   * @param dataLength
+   *          number of values to be written to the NDR byte stream
+   * @param ndrMaxLength
+   *          maximum number of values of the content
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeIntsConformant(final int[] values, final int dataOffset, final int dataLength,
+      final int ndrMaxLength) throws IOException {
+    verifyDataLength(values.length, dataOffset, dataLength, ndrMaxLength, null);
+    writeInt(ndrMaxLength);
+    writeInts(values, dataOffset, dataLength);
+    alignedOutput.writeZeros((ndrMaxLength - dataLength) * (Integer.SIZE / NDRConstants.NUM_BITS_PER_BYTE));
+  }
+
+  /**
+   * Writes ints in a <i>varying</i> format, like {@link #writeBytesVarying(byte[], int, int, int)}. The values are
+   * aligned once and then copied in bulk.
+   * 
+   * @param values
+   *          array from which the values will be copied to the NDR byte stream, starting at position
+   *          {@code dataOffset}. The length of this array must be at least {@code dataOffset + dataLength}.
+   * @param dataOffset
+   *          offset to be taken into account when copying values from {@code values}
+   * @param dataLength
+   *          number of values to be written to the NDR byte stream
+   * @param ndrOffset
+   *          offset of the content written to the NDR byte stream
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeIntsVarying(final int[] values, final int dataOffset, final int dataLength, final int ndrOffset)
+      throws IOException {
+    verifyDataLength(values.length, dataOffset, dataLength, dataLength, null);
+    writeInt(ndrOffset);
+    writeInt(dataLength);
+    writeInts(values, dataOffset, dataLength);
+  }
+
+  /**
+   * Writes ints in a <i>conformant-varying</i> format, like
+   * {@link #writeBytesConformantVarying(byte[], int, int, int, int)}. The values are aligned once and then copied in
+   * bulk.
+   * 
+   * @param values
+   *          array from which the values will be copied to the NDR byte stream, starting at position
+   *          {@code dataOffset}. The length of this array must be at least {@code dataOffset + dataLength}.
+   * @param dataOffset
+   *          offset to be taken into account when copying values from {@code values}
+   * @param dataLength
+   *          number of values to be written to the NDR byte stream
+   * @param ndrMaxLength
+   *          maximum number of values of the content
+   * @param ndrOffset
+   *          offset of the content written to the NDR byte stream
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeIntsConformantVarying(final int[] values, final int dataOffset, final int dataLength,
+      final int ndrMaxLength, final int ndrOffset) throws IOException {
+    verifyDataLength(values.length, dataOffset, dataLength, ndrMaxLength, "including offset");
+    writeInt(ndrMaxLength);
+    writeInt(ndrOffset);
+    writeInt(dataLength);
+    writeInts(values, dataOffset, dataLength);
+  }
+
+  /**
+   * Writes longs in a <i>conformant</i> format, like {@link #writeBytesConformant(byte[], int, int, int)}. Any
+   * remaining positions are filled with zeros up to {@code ndrMaxLength}. The values are aligned once and then copied
+   * in bulk.
+   * 
+   * @param values
+   *          array from which the values will be copied to the NDR byte stream, starting at position
+   *          {@code dataOffset}. The length of this array must be at least {@code dataOffset + dataLength}.
+   * @param dataOffset
+   *          offset to be taken into account when copying values from {@code values}
+   * @param dataLength
+   *          number of values to be written to the NDR byte stream
+   * @param ndrMaxLength
+   *          maximum number of values of the content
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeLongsConformant(final long[] values, final int dataOffset, final int dataLength,
+      final int ndrMaxLength) throws IOException {
+    verifyDataLength(values.length, dataOffset, dataLength, ndrMaxLength, null);
+    writeInt(ndrMaxLength);
+    writeLongs(values, dataOffset, dataLength);
+    alignedOutput.writeZeros((ndrMaxLength - dataLength) * (Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE));
+  }
+
+  /**
+   * Writes longs in a <i>varying</i> format, like {@link #writeBytesVarying(byte[], int, int, int)}. The values are
+   * aligned once and then copied in bulk.
+   * 
+   * @param values
+   *          array from which the values will be copied to the NDR byte stream, starting at position
+   *          {@code dataOffset}. The length of this array must be at least {@code dataOffset + dataLength}.
+   * @param dataOffset
+   *          offset to be taken into account when copying values from {@code values}
+   * @param dataLength
+   *          number of values to be written to the NDR byte stream
+   * @param ndrOffset
+   *          offset of the content written to the NDR byte stream
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeLongsVarying(final long[] values, final int dataOffset, final int dataLength, final int ndrOffset)
+      throws IOException {
+    verifyDataLength(values.length, dataOffset, dataLength, dataLength, null);
+    writeInt(ndrOffset);
+    writeInt(dataLength);
+    writeLongs(values, dataOffset, dataLength);
+  }
+
+  /**
+   * Writes longs in a <i>conformant-varying</i> format, like
+   * {@link #writeBytesConformantVarying(byte[], int, int, int, int)}. The values are aligned once and then copied in
+   * bulk.
+   * 
+   * @param values
+   *          array from which the values will be copied to the NDR byte stream, starting at position
+   *          {@code dataOffset}. The length of this array must be at least {@code dataOffset + dataLength}.
+   * @param dataOffset
+   *          offset to be taken into account when copying values from {@code values}
+   * @param dataLength
+   *          number of values to be written to the NDR byte stream
+   * @param ndrMaxLength
+   *          maximum number of values of the content
+   * @param ndrOffset
+   *          offset of the content written to the NDR byte stream
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeLongsConformantVarying(final long[] values, final int dataOffset, final int dataLength,
+      final int ndrMaxLength, final int ndrOffset) throws IOException {
+    verifyDataLength(values.length, dataOffset, dataLength, ndrMaxLength, "including offset");
+    writeInt(ndrMaxLength);
+    writeInt(ndrOffset);
+    writeInt(dataLength);
+    writeLongs(values, dataOffset, dataLength);
+  }
+
+  /**
+   * Writes floats in a <i>conformant</i> format, like {@link #writeBytesConformant(byte[], int, int, int)}. Any
+   * remaining positions are filled with zeros up to {@code ndrMaxLength}. The values are aligned once and then copied
+   * in bulk.
+   * 
+   * @param values
+   *          array from which the values will be copied to the NDR byte stream, starting at position
+   *          {@code dataOffset}. The length of this array must be at least {@code dataOffset + dataLength}.
+   * @param dataOffset
+   *          offset to be taken into account when copying values from {@code values}
+   * @param dataLength
+   *          number of values to be written to the NDR byte stream
+   * @param ndrMaxLength
+   *          maximum number of values of the content
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeFloatsConformant(final float[] values, final int dataOffset, final int dataLength,
+      final int ndrMaxLength) throws IOException {
+    verifyDataLength(values.length, dataOffset, dataLength, ndrMaxLength, null);
+    writeInt(ndrMaxLength);
+    writeFloats(values, dataOffset, dataLength);
+    alignedOutput.writeZeros((ndrMaxLength - dataLength) * (Float.SIZE / NDRConstants.NUM_BITS_PER_BYTE));
+  }
+
+  /**
+   * Writes floats in a <i>varying</i> format, like {@link #writeBytesVarying(byte[], int, int, int)}. The values are
+   * aligned once and then copied in bulk.
+   * 
+   * @param values
+   *          array from which the values will be copied to the NDR byte stream, starting at position
+   *          {@code dataOffset}. The length of this array must be at least {@code dataOffset + dataLength}.
+   * @param dataOffset
+   *          offset to be taken into account when copying values from {@code values}
+   * @param dataLength
+   *          number of values to be written to the NDR byte stream
+   * @param ndrOffset
+   *          offset of the content written to the NDR byte stream
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeFloatsVarying(final float[] values, final int dataOffset, final int dataLength, final int ndrOffset)
+      throws IOException {
+    verifyDataLength(values.length, dataOffset, dataLength, dataLength, null);
+    writeInt(ndrOffset);
+    writeInt(dataLength);
+    writeFloats(values, dataOffset, dataLength);
+  }
+
+  /**
+   * Writes floats in a <i>conformant-varying</i> format, like
+   * {@link #writeBytesConformantVarying(byte[], int, int, int, int)}. The values are aligned once and then copied in
+   * bulk.
+   * 
+   * @param values
+   *          array from which the values will be copied to the NDR byte stream, starting at position
+   *          {@code dataOffset}. The length of this array must be at least {@code dataOffset + dataLength}.
+   * @param dataOffset
+   *          offset to be taken into account when copying values from {@code values}
+   * @param dataLength
+   *          number of values to be written to the NDR byte stream
+   * @param ndrMaxLength
+   *          maximum number of values of the content
+   * @param ndrOffset
+   *          offset of the content written to the NDR byte stream
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeFloatsConformantVarying(final float[] values, final int dataOffset, final int dataLength,
+      final int ndrMaxLength, final int ndrOffset) throws IOException {
+    verifyDataLength(values.length, dataOffset, dataLength, ndrMaxLength, "including offset");
+    writeInt(ndrMaxLength);
+    writeInt(ndrOffset);
+    writeInt(dataLength);
+    writeFloats(values, dataOffset, dataLength);
+  }
+
+  /**
+   * Writes doubles in a <i>conformant</i> format, like {@link #writeBytesConformant(byte[], int, int, int)}. Any
+   * remaining positions are filled with zeros up to {@code ndrMaxLength}. The values are aligned once and then copied
+   * in bulk.
+   * 
+   * @param values
+   *          array from which the values will be copied to the NDR byte stream, starting at position
+   *          {@code dataOffset}. The length of this array must be at least {@code dataOffset + dataLength}.
+   * @param dataOffset
+   *          offset to be taken into account when copying values from {@code values}
+   * @param dataLength
+   *          number of values to be written to the NDR byte stream
+   * @param ndrMaxLength
+   *          maximum number of values of the content
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeDoublesConformant(final double[] values, final int dataOffset, final int dataLength,
+      final int ndrMaxLength) throws IOException {
+    verifyDataLength(values.length, dataOffset, dataLength, ndrMaxLength, null);
+    writeInt(ndrMaxLength);
+    writeDoubles(values, dataOffset, dataLength);
+    alignedOutput.writeZeros((ndrMaxLength - dataLength) * (Double.SIZE / NDRConstants.NUM_BITS_PER_BYTE));
+  }
+
+  /**
+   * Writes doubles in a <i>varying</i> format, like {@link #writeBytesVarying(byte[], int, int, int)}. The values are
+   * aligned once and then copied in bulk.
+   * 
+   * @param values
+   *          array from which the values will be copied to the NDR byte stream, starting at position
+   *          {@code dataOffset}. The length of this array must be at least {@code dataOffset + dataLength}.
+   * @param dataOffset
+   *          offset to be taken into account when copying values from {@code values}
+   * @param dataLength
+   *          number of values to be written to the NDR byte stream
+   * @param ndrOffset
+   *          offset of the content written to the NDR byte stream
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeDoublesVarying(final double[] values, final int dataOffset, final int dataLength,
+      final int ndrOffset) throws IOException {
+    verifyDataLength(values.length, dataOffset, dataLength, dataLength, null);
+    writeInt(ndrOffset);
+    writeInt(dataLength);
+    writeDoubles(values, dataOffset, dataLength);
+  }
+
+  /**
+   * Writes doubles in a <i>conformant-varying</i> format, like
+   * {@link #writeBytesConformantVarying(byte[], int, int, int, int)}. The values are aligned once and then copied in
+   * bulk.
+   * 
+   * @param values
+   *          array from which the values will be copied to the NDR byte stream, starting at position
+   *          {@code dataOffset}. The length of this array must be at least {@code dataOffset + dataLength}.
+   * @param dataOffset
+   *          offset to be taken into account when copying values from {@code values}
+   * @param dataLength
+   *          number of values to be written to the NDR byte stream
+   * @param ndrMaxLength
+   *          maximum number of values of the content
+   * @param ndrOffset
+   *          offset of the content written to the NDR byte stream
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeDoublesConformantVarying(final double[] values, final int dataOffset, final int dataLength,
+      final int ndrMaxLength, final int ndrOffset) throws IOException {
+    verifyDataLength(values.length, dataOffset, dataLength, ndrMaxLength, "including offset");
+    writeInt(ndrMaxLength);
+    writeInt(ndrOffset);
+    writeInt(dataLength);
+    writeDoubles(values, dataOffset, dataLength);
   }
 
   /**
@@ -296,9 +744,10 @@ public class NDRWriter {
    */
   public void writeStringVarying(final String text, final int ndrOffset) throws IOException {
     verifyFormatLabel();
-    final byte[] textBytes = text.getBytes(formatLabel.getFormatLabelCharacter().getCharset());
-    final int dataLength = textBytes.length + 1;
-    writeBytesVarying(Arrays.copyOf(textBytes, dataLength), 0, dataLength, ndrOffset);
+    final int dataLength = encodeTerminated(text);
+    writeInt(ndrOffset);
+    writeInt(dataLength);
+    alignedOutput.writeTransient(blockBytes, 0, dataLength);
   }
 
   /**
@@ -322,10 +771,111 @@ public class NDRWriter {
   public void writeStringConformantVarying(final String text, final int ndrMaxLength, final int ndrOffset)
       throws IOException {
     verifyFormatLabel();
-    final byte[] textBytes = text.getBytes(formatLabel.getFormatLabelCharacter().getCharset());
-    final byte[] ndrBytes = Arrays.copyOf(textBytes, textBytes.length + 1);
-    verifyDataLength(ndrBytes, 0, ndrBytes.length, ndrMaxLength, "including offset and terminator");
-    writeBytesConformantVarying(ndrBytes, 0, ndrBytes.length, ndrMaxLength, ndrOffset);
+    final int dataLength = encodeTerminated(text);
+    verifyDataLength(blockBytes, 0, dataLength, ndrMaxLength, "including offset and terminator");
+    writeInt(ndrMaxLength);
+    writeInt(ndrOffset);
+    writeInt(dataLength);
+    alignedOutput.writeTransient(blockBytes, 0, dataLength);
+  }
+
+  /**
+   * Writes a full pointer to {@code referent}, like {@link #writeReference(Map, byte[])}, but finds the reference ID in
+   * constant time. If {@code referents} does not contain {@code referent} yet, it is added with a new reference ID and
+   * the caller must write the referent next; otherwise the ID of the earlier occurrence is written. A null
+   * {@code referent} is written as a null pointer.
+   * 
+   * @param referents
+   *          referents written so far to the same NDR stream
+   * @param referent
+   *          (NDR serialized) referent; may be {@code null}
+   * @return {@code true} if {@code referent} is new, so its content must be written next
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public boolean writeReference(final ReferentTable<byte[]> referents, final byte[] referent) throws IOException {
+    if (referent == null) {
+      writeInt(0);
+      return false;
+    }
+    final int referenceID = referents.getReferenceID(referent);
+    if (referenceID != 0) {
+      writeInt(referenceID);
+      return false;
+    }
+    writeInt(referents.add(referent));
+    return true;
+  }
+
+  /**
+   * Writes an <i>embedded</i> full pointer to {@code referent}, i.e. a pointer within a structure or array. NDR puts
+   * the referent of an embedded pointer after the outermost object that contains the pointer, so a new
+   * {@code referent} is queued; it is written by {@link #writeDeferredReferents()}, which is called automatically when
+   * {@link #write(NDRSerializable)} finishes the outermost object. A referent that was pointed to before in the same
+   * message is not written again, see {@link #clearEmbeddedReferents()}. A null {@code referent} is written as a null
+   * pointer.
+   * 
+   * @param referent
+   *          object to point to; may be {@code null}
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeEmbeddedReference(final NDRSerializable referent) throws IOException {
+    if (referent == null) {
+      writeInt(0);
+      return;
+    }
+    int referenceID = embeddedReferents.getReferenceID(referent);
+    if (referenceID == 0) {
+      referenceID = embeddedReferents.add(referent);
+      deferredReferents.add(referent);
+    }
+    writeInt(referenceID);
+  }
+
+  /**
+   * Writes the referents that were queued by {@link #writeEmbeddedReference(NDRSerializable)}, in the
+   * order in which their pointers were written. The referents of pointers embedded in a referent are written right
+   * after that referent, before its next sibling, as prescribed by NDR. The queue is processed without recursion, so
+   * long linked lists do not exhaust the call stack.
+   * 
+   * Objects written with {@link #write(NDRSerializable)} do this automatically; call this method after writing
+   * embedded pointers by any other means.
+   * 
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeDeferredReferents() throws IOException {
+    if (isWritingDeferredReferents || deferredReferents.isEmpty()) {
+      return;
+    }
+    isWritingDeferredReferents = true;
+    try {
+      // Use the queue as a stack, with the first referent on top.
+      Collections.reverse(deferredReferents);
+      while (!deferredReferents.isEmpty()) {
+        final NDRSerializable referent = deferredReferents.remove(deferredReferents.size() - 1);
+        final int numPending = deferredReferents.size();
+        referent.ndrSerialize(this);
+        // Put the referents that were queued by this referent on top, the first one uppermost.
+        Collections.reverse(deferredReferents.subList(numPending, deferredReferents.size()));
+      }
+    } finally {
+      deferredReferents.clear();
+      isWritingDeferredReferents = false;
+    }
+  }
+
+  /**
+   * Forgets all referents of embedded pointers, including the ones that are yet to be written. Full pointers are
+   * scoped to one NDR message, i.e. the stub data of one call, which may consist of several objects. Call this method
+   * before writing the next message with the same writer, so its referents are written in full instead of as
+   * reference IDs that the peer has never seen. The reader does the same with
+   * {@link NDRReader#clearEmbeddedReferents()}.
+   */
+  public void clearEmbeddedReferents() {
+    embeddedReferents.clear();
+    deferredReferents.clear();
   }
 
   /**
@@ -346,7 +896,10 @@ public class NDRWriter {
    *          (NDR serialized) referent
    * @throws IOException
    *           if errors occur while writing data to the NDR byte stream
+   * @deprecated finding {@code referent} in {@code referentMap} takes linear time; use
+   *             {@link #writeReference(ReferentTable, byte[])} instead
    */
+  @Deprecated
   public void writeReference(final Map<Integer, byte[]> referentMap, final byte[] referent) throws IOException {
     if (referent == null) {
       LOG.debug("Writing NULL pointer.");
@@ -377,40 +930,146 @@ public class NDRWriter {
     }
   }
 
-  private void writeNumber(long value, final int sizeInBytes) throws IOException {
-    verifyFormatLabel();
+  /**
+   * Provides a zero-filled block of {@code length} bytes. Generated {@link NDRCodec}s use this to encode a run of
+   * fixed-layout fields at precomputed offsets, and then write the block in one go with {@link #writeBlock(int, int)}.
+   * Note that the returned array is reused by the next call.
+   * 
+   * @param length
+   *          number of bytes required
+   * @return internal byte array, of which the first {@code length} bytes are zero
+   */
+  public byte[] getBlock(final int length) {
+    if (blockBytes.length < length) {
+      blockBytes = new byte[length];
+    } else {
+      Arrays.fill(blockBytes, 0, length, (byte) 0x00);
+    }
+    return blockBytes;
+  }
 
-    // Fill any alignment bytes.
-    alignedOutputStream.writeAlignment(Math.min(NDRConstants.MAX_NUM_ALIGNMENT_BYTES, sizeInBytes));
-
-    // Now write the primitive data bytes.
-    for (int i = 0; i < sizeInBytes; i++) {
-      switch (formatLabel.getFormatLabelInteger()) {
-      case BIG_ENDIAN:
-        alignedOutputStream.write((byte) (value >>> ((sizeInBytes - i - 1) * NDRConstants.NUM_BITS_PER_BYTE)));
-        break;
-      case LITTLE_ENDIAN:
-        alignedOutputStream.write((byte) (value >>> (i * NDRConstants.NUM_BITS_PER_BYTE)));
-        break;
-      default:
-        throw new UnsupportedOperationException("Unsupported NDR format label '" + formatLabel.getFormatLabelInteger()
-            + "'.");
-      }
+  /**
+   * Writes any alignment bytes and then the first {@code length} bytes of the block that was obtained from
+   * {@link #getBlock(int)}.
+   * 
+   * @param alignment
+   *          alignment in bytes of the block, i.e. the size of its largest number
+   * @param length
+   *          number of bytes to write
+   * @throws IOException
+   *           if errors occur while writing data to the NDR byte stream
+   */
+  public void writeBlock(final int alignment, final int length) throws IOException {
+    alignedOutput.writeAlignment(Math.min(NDRConstants.MAX_NUM_ALIGNMENT_BYTES, alignment));
+    alignedOutput.writeTransient(blockBytes, 0, length);
+  }
+
+  /**
+   * Encodes {@code text} into the block storage, followed by a terminator byte.
+   * 
+   * @return number of encoded bytes, including the terminator
+   */
+  private int encodeTerminated(final String text) {
+    // The character sets of NDR need at most one byte per char.
+    if (blockBytes.length < text.length() + 1) {
+      blockBytes = new byte[text.length() + 1];
+    }
+    final int numBytes = formatLabel.getCharacterCodec().encode(text, blockBytes, 0);
+    blockBytes[numBytes] = 0x00;
+    return numBytes + 1;
+  }
+
+  private void writeShorts(final short[] values, final int dataOffset, final int dataLength) throws IOException {
+    final int sizeInBytes = Short.SIZE / NDRConstants.NUM_BITS_PER_BYTE;
+    alignNumber(sizeInBytes);
+    for (int numWritten = 0; numWritten < dataLength;) {
+      final int numValues = Math.min(dataLength - numWritten, MAX_BULK_BLOCK_SIZE / sizeInBytes);
+      getNumberBlock(numValues * sizeInBytes).asShortBuffer().put(values, dataOffset + numWritten, numValues);
+      alignedOutput.writeTransient(blockBytes, 0, numValues * sizeInBytes);
+      numWritten += numValues;
+    }
+  }
+
+  private void writeInts(final int[] values, final int dataOffset, final int dataLength) throws IOException {
+    final int sizeInBytes = Integer.SIZE / NDRConstants.NUM_BITS_PER_BYTE;
+    alignNumber(sizeInBytes);
+    for (int numWritten = 0; numWritten < dataLength;) {
+      final int numValues = Math.min(dataLength - numWritten, MAX_BULK_BLOCK_SIZE / sizeInBytes);
+      getNumberBlock(numValues * sizeInBytes).asIntBuffer().put(values, dataOffset + numWritten, numValues);
+      alignedOutput.writeTransient(blockBytes, 0, numValues * sizeInBytes);
+      numWritten += numValues;
+    }
+  }
+
+  private void writeLongs(final long[] values, final int dataOffset, final int dataLength) throws IOException {
+    final int sizeInBytes = Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE;
+    alignNumber(sizeInBytes);
+    for (int numWritten = 0; numWritten < dataLength;) {
+      final int numValues = Math.min(dataLength - numWritten, MAX_BULK_BLOCK_SIZE / sizeInBytes);
+      getNumberBlock(numValues * sizeInBytes).asLongBuffer().put(values, dataOffset + numWritten, numValues);
+      alignedOutput.writeTransient(blockBytes, 0, numValues * sizeInBytes);
+      numWritten += numValues;
     }
   }
 
+  private void writeFloats(final float[] values, final int dataOffset, final int dataLength) throws IOException {
+    final int sizeInBytes = Float.SIZE / NDRConstants.NUM_BITS_PER_BYTE;
+    alignNumber(sizeInBytes);
+    for (int numWritten = 0; numWritten < dataLength;) {
+      final int numValues = Math.min(dataLength - numWritten, MAX_BULK_BLOCK_SIZE / sizeInBytes);
+      getNumberBlock(numValues * sizeInBytes).asFloatBuffer().put(values, dataOffset + numWritten, numValues);
+      alignedOutput.writeTransient(blockBytes, 0, numValues * sizeInBytes);
+      numWritten += numValues;
+    }
+  }
+
+  private void writeDoubles(final double[] values, final int dataOffset, final int dataLength) throws IOException {
+    final int sizeInBytes = Double.SIZE / NDRConstants.NUM_BITS_PER_BYTE;
+    alignNumber(sizeInBytes);
+    for (int numWritten = 0; numWritten < dataLength;) {
+      final int numValues = Math.min(dataLength - numWritten, MAX_BULK_BLOCK_SIZE / sizeInBytes);
+      getNumberBlock(numValues * sizeInBytes).asDoubleBuffer().put(values, dataOffset + numWritten, numValues);
+      alignedOutput.writeTransient(blockBytes, 0, numValues * sizeInBytes);
+      numWritten += numValues;
+    }
+  }
+
+  /**
+   * Provides the block storage as a buffer of at least {@code length} bytes, in the byte order of the NDR Format Label.
+   */
+  private ByteBuffer getNumberBlock(final int length) {
+    if (blockBytes.length < length) {
+      blockBytes = new byte[length];
+    }
+    return ByteBuffer.wrap(blockBytes).order(integerCodec.getByteOrder());
+  }
+
+  private void alignNumber(final int sizeInBytes) throws IOException {
+    if (integerCodec == null) {
+      verifyFormatLabel();
+    }
+
+    // Fill any alignment bytes.
+    alignedOutput.writeAlignment(Math.min(NDRConstants.MAX_NUM_ALIGNMENT_BYTES, sizeInBytes));
+  }
+
   private void verifyDataLength(final byte[] dataBuffer, final int dataOffset, final int dataLength,
       final int ndrMaxLength, final String remark) {
     if (dataBuffer == null) {
       throw new IllegalArgumentException("Illegal input: dataBuffer is null.");
     }
+    verifyDataLength(dataBuffer.length, dataOffset, dataLength, ndrMaxLength, remark);
+  }
+
+  private void verifyDataLength(final int bufferLength, final int dataOffset, final int dataLength,
+      final int ndrMaxLength, final String remark) {
     if (dataLength > ndrMaxLength) {
       throw new IllegalArgumentException("Length of data (" + dataLength + (remark == null ? "" : ", " + remark)
           + ") is more than the given maximum (" + ndrMaxLength + ").");
     }
-    if (dataOffset + dataLength > dataBuffer.length) {
+    if (dataOffset + dataLength > bufferLength) {
       throw new IllegalArgumentException("The specified position and length of data (" + (dataOffset + dataLength)
-          + (remark == null ? "" : ", " + remark) + ") exceeds the size of the buffer (" + dataBuffer.length + ").");
+          + (remark == null ? "" : ", " + remark) + ") exceeds the size of the buffer (" + bufferLength + ").");
     }
   }
 
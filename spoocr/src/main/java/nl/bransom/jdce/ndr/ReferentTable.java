@@ -0,0 +1,184 @@
+package nl.bransom.jdce.ndr;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of the referents of NDR <i>full pointers</i> in one NDR stream. A writer looks up the reference ID of a
+ * referent by identity, to decide whether to write a new referent or just a link to one it has written before; a
+ * reader looks up the referent of a reference ID. Both lookups take constant time, so encoding or decoding N pointers
+ * takes linear time.
+ * 
+ * Internally the table consists of two open-addressing hash tables with linear probing: one keyed by the identity of
+ * the referent, one keyed by the primitive reference ID. Nothing is boxed. Reference IDs assigned by
+ * {@link #add(Object)} start at 1 and increase by 1, as required by NDR; IDs registered with {@link #put(int, Object)}
+ * can be any non-zero value chosen by the peer.
+ * 
+ * This class is not thread-safe.
+ * 
+ * @param <T>
+ *          type of the referents
+ * @author Rob
+ */
+public final class ReferentTable<T> {
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int HASH_MULTIPLIER = 0x9e3779b9;
+
+  private int size;
+  private int nextReferenceID = 1;
+  // Identity table: referent -> reference ID.
+  private Object[] referentKeys = new Object[INITIAL_CAPACITY];
+  private int[] referentIDs = new int[INITIAL_CAPACITY];
+  // ID table: reference ID -> referent. An ID of 0 marks an empty slot, since 0 denotes the null pointer.
+  private int[] idKeys = new int[INITIAL_CAPACITY];
+  private Object[] idReferents = new Object[INITIAL_CAPACITY];
+
+  /**
+   * @return number of referents in the table
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the reference ID of {@code referent}, comparing referents by identity.
+   * 
+   * @param referent
+   *          referent to look up
+   * @return reference ID, or 0 if the table does not contain {@code referent}
+   */
+  public int getReferenceID(final T referent) {
+    final int mask = referentKeys.length - 1;
+    for (int i = identityIndex(referent, mask);; i = (i + 1) & mask) {
+      final Object key = referentKeys[i];
+      if (key == null) {
+        return 0;
+      }
+      if (key == referent) {
+        return referentIDs[i];
+      }
+    }
+  }
+
+  /**
+   * Returns the referent of {@code referenceID}.
+   * 
+   * @param referenceID
+   *          reference ID to look up
+   * @return referent, or {@code null} if the table does not contain {@code referenceID}
+   */
+  @SuppressWarnings("unchecked")
+  public T get(final int referenceID) {
+    if (referenceID == 0) {
+      return null;
+    }
+    final int mask = idKeys.length - 1;
+    for (int i = idIndex(referenceID, mask);; i = (i + 1) & mask) {
+      final int key = idKeys[i];
+      if (key == referenceID) {
+        return (T) idReferents[i];
+      }
+      if (key == 0) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Adds {@code referent} with the next free reference ID. Use this when writing NDR data.
+   * 
+   * @param referent
+   *          referent that is not yet in the table
+   * @return the new reference ID
+   * @throws IllegalArgumentException
+   *           if {@code referent} is null or already in the table
+   */
+  public int add(final T referent) {
+    while (get(nextReferenceID) != null) {
+      nextReferenceID++;
+    }
+    put(nextReferenceID, referent);
+    return nextReferenceID++;
+  }
+
+  /**
+   * Adds {@code referent} with the given reference ID. Use this when reading NDR data.
+   * 
+   * @param referenceID
+   *          non-zero reference ID that is not yet in the table
+   * @param referent
+   *          referent that is not yet in the table
+   * @throws IllegalArgumentException
+   *           if {@code referenceID} is zero or {@code referent} is null, or if either is already in the table
+   */
+  public void put(final int referenceID, final T referent) {
+    if (referenceID == 0 || referent == null) {
+      throw new IllegalArgumentException("Referents must be non-null and have a non-zero reference ID.");
+    }
+    if (get(referenceID) != null) {
+      throw new IllegalArgumentException("Reference ID " + referenceID + " is already in use.");
+    }
+    final int existingReferenceID = getReferenceID(referent);
+    if (existingReferenceID != 0) {
+      throw new IllegalArgumentException("The referent already has reference ID " + existingReferenceID + ".");
+    }
+    // Keep the load factor at most 50%.
+    if (2 * (size + 1) > referentKeys.length) {
+      resize(2 * referentKeys.length);
+    }
+    insert(referenceID, referent);
+    size++;
+  }
+
+  /**
+   * Removes all referents, so the table can be reused for another NDR stream.
+   */
+  public void clear() {
+    Arrays.fill(referentKeys, null);
+    Arrays.fill(idKeys, 0);
+    Arrays.fill(idReferents, null);
+    size = 0;
+    nextReferenceID = 1;
+  }
+
+  private void insert(final int referenceID, final Object referent) {
+    int mask = referentKeys.length - 1;
+    int i = identityIndex(referent, mask);
+    while (referentKeys[i] != null) {
+      i = (i + 1) & mask;
+    }
+    referentKeys[i] = referent;
+    referentIDs[i] = referenceID;
+
+    mask = idKeys.length - 1;
+    i = idIndex(referenceID, mask);
+    while (idKeys[i] != 0) {
+      i = (i + 1) & mask;
+    }
+    idKeys[i] = referenceID;
+    idReferents[i] = referent;
+  }
+
+  private void resize(final int capacity) {
+    final int[] oldIDKeys = idKeys;
+    final Object[] oldIDReferents = idReferents;
+    referentKeys = new Object[capacity];
+    referentIDs = new int[capacity];
+    idKeys = new int[capacity];
+    idReferents = new Object[capacity];
+    for (int i = 0; i < oldIDKeys.length; i++) {
+      if (oldIDKeys[i] != 0) {
+        insert(oldIDKeys[i], oldIDReferents[i]);
+      }
+    }
+  }
+
+  private static int identityIndex(final Object referent, final int mask) {
+    return idIndex(System.identityHashCode(referent), mask);
+  }
+
+  private static int idIndex(final int hash, final int mask) {
+    final int h = hash * HASH_MULTIPLIER;
+    return (h ^ (h >>> (Integer.SIZE / 2))) & mask;
+  }
+}
@@ -0,0 +1,248 @@
+package nl.bransom.jdce.pdu;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import nl.bransom.jdce.rpc.UUID;
+
+/**
+ * Tracks the calls in flight of connectionless activities. An activity is identified by its activity id and can have
+ * only one call in progress; calls are numbered by increasing sequence numbers, which are compared modulo 2^32.
+ * 
+ * Each activity gets an activity hint, a small number that the receiver of PDUs of the activity sends to the peer in
+ * the <b>ahint</b> field of its own PDUs. When the peer echoes the hint, the activity is found by a single array lookup
+ * that doesn't even create a UUID; otherwise it is found by its activity id in a concurrent map. Activities that
+ * haven't received any PDUs for a while are removed by {@link #expire(long)}, which also frees their hints.
+ * 
+ * This class is thread-safe. Lookups don't block; the state of each activity is guarded by the activity itself.
+ * 
+ * @author Rob
+ */
+public class ActivityTable {
+
+  /** Activity hint that indicates that there is no hint. */
+  public static final short NO_HINT = (short) 0xffff;
+  /** Maximum number of activity hints. */
+  public static final int MAX_NUM_HINTS = NO_HINT & 0xffff;
+
+  private static final int UNSIGNED_SHORT_MASK = 0xffff;
+  // Maximum number of slots that are probed to find a free hint.
+  private static final int MAX_HINT_PROBES = 8;
+
+  private final long idleTimeoutMillis;
+  private final ConcurrentMap<UUID, Activity> activities;
+  private final AtomicReferenceArray<Activity> hints;
+  private final AtomicInteger nextHint = new AtomicInteger();
+
+  /**
+   * Constructor.
+   * 
+   * @param numHints
+   *          number of activity hints, at most {@link #MAX_NUM_HINTS}; activities beyond this number don't get a hint
+   * @param idleTimeoutMillis
+   *          time in milliseconds after which an idle activity is removed
+   */
+  public ActivityTable(final int numHints, final long idleTimeoutMillis) {
+    if (numHints < 0 || numHints > MAX_NUM_HINTS || idleTimeoutMillis < 0) {
+      throw new IllegalArgumentException("The number of hints must be in [0, " + MAX_NUM_HINTS
+          + "] and the timeout non-negative.");
+    }
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.activities = new ConcurrentHashMap<UUID, Activity>();
+    this.hints = new AtomicReferenceArray<Activity>(numHints);
+  }
+
+  /**
+   * Registers the sequence number of a received PDU, creating the activity if it isn't known yet. If the header carries
+   * a server boot time that differs from the one of the activity, the server has been restarted and the PDU is treated
+   * as the start of a new call.
+   * 
+   * @param header
+   *          header of the received PDU
+   * @param currentTimeMillis
+   *          current time in milliseconds
+   * @return status of the sequence number of the PDU; the activity can be obtained with {@link #get(UUID)}
+   */
+  public SequenceStatus accept(final PDUConnectionlessHeaderView header, final long currentTimeMillis) {
+    final int sequenceNumber = header.getSequenceNumber();
+    final int serverBootTime = header.getServerBootTime();
+    Activity activity = find(header);
+    while (true) {
+      if (activity == null) {
+        final Activity newActivity = new Activity(header.getActivityId(), sequenceNumber, serverBootTime,
+            currentTimeMillis);
+        activity = activities.putIfAbsent(newActivity.activityId, newActivity);
+        if (activity == null) {
+          assignHint(newActivity);
+          return SequenceStatus.NEW;
+        }
+      }
+      synchronized (activity) {
+        if (!activity.isRemoved) {
+          activity.lastAccessTime = currentTimeMillis;
+          return activity.update(sequenceNumber, serverBootTime);
+        }
+      }
+      // The activity expired concurrently; start afresh.
+      activity = null;
+    }
+  }
+
+  /**
+   * Returns the activity of a received PDU, using the activity hint of the header if it has one.
+   * 
+   * @param header
+   *          header of the received PDU
+   * @return the activity, or {@code null} if it is not known
+   */
+  public Activity get(final PDUConnectionlessHeaderView header) {
+    return find(header);
+  }
+
+  /**
+   * @param activityId
+   *          activity identifier
+   * @return the activity, or {@code null} if it is not known
+   */
+  public Activity get(final UUID activityId) {
+    return activities.get(activityId);
+  }
+
+  /**
+   * Removes all activities that haven't received any PDUs for the configured timeout.
+   * 
+   * @param currentTimeMillis
+   *          current time in milliseconds
+   * @return number of removed activities
+   */
+  public int expire(final long currentTimeMillis) {
+    int numExpired = 0;
+    final Iterator<Activity> iterator = activities.values().iterator();
+    while (iterator.hasNext()) {
+      final Activity activity = iterator.next();
+      synchronized (activity) {
+        if (currentTimeMillis - activity.lastAccessTime <= idleTimeoutMillis) {
+          continue;
+        }
+        activity.isRemoved = true;
+      }
+      activities.remove(activity.activityId, activity);
+      if (activity.hint != NO_HINT) {
+        hints.compareAndSet(activity.hint & UNSIGNED_SHORT_MASK, activity, null);
+      }
+      numExpired++;
+    }
+    return numExpired;
+  }
+
+  /**
+   * @return number of activities being tracked
+   */
+  public int size() {
+    return activities.size();
+  }
+
+  private Activity find(final PDUConnectionlessHeaderView header) {
+    final int hint = header.getActivityHint() & UNSIGNED_SHORT_MASK;
+    if (hint < hints.length()) {
+      final Activity activity = hints.get(hint);
+      if (activity != null && !activity.isRemoved && header.hasActivityId(activity.activityId)) {
+        return activity;
+      }
+    }
+    return activities.get(header.getActivityId());
+  }
+
+  private void assignHint(final Activity activity) {
+    final int numHints = hints.length();
+    if (numHints == 0) {
+      return;
+    }
+    for (int i = 0; i < MAX_HINT_PROBES; i++) {
+      final int hint = (nextHint.getAndIncrement() & Integer.MAX_VALUE) % numHints;
+      if (hints.compareAndSet(hint, null, activity)) {
+        activity.hint = (short) hint;
+        if (activity.isRemoved) {
+          // The activity expired meanwhile, possibly without seeing its hint.
+          hints.compareAndSet(hint, activity, null);
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * State of one activity.
+   */
+  public static final class Activity {
+
+    private final UUID activityId;
+    private volatile short hint = NO_HINT;
+    private int sequenceNumber;
+    private int serverBootTime;
+    private long lastAccessTime;
+    private volatile boolean isRemoved;
+
+    /**
+     * Constructor.
+     * 
+     * @param activityId
+     *          activity identifier
+     * @param sequenceNumber
+     *          sequence number of the first call
+     * @param serverBootTime
+     *          server boot time, zero if not known yet
+     * @param lastAccessTime
+     *          time in milliseconds of the first PDU
+     */
+    Activity(final UUID activityId, final int sequenceNumber, final int serverBootTime, final long lastAccessTime) {
+      this.activityId = activityId;
+      this.sequenceNumber = sequenceNumber;
+      this.serverBootTime = serverBootTime;
+      this.lastAccessTime = lastAccessTime;
+    }
+
+    public UUID getActivityId() {
+      return activityId;
+    }
+
+    /**
+     * @return activity hint to send to the peer, or {@link ActivityTable#NO_HINT} if all hints were taken
+     */
+    public short getHint() {
+      return hint;
+    }
+
+    /**
+     * @return sequence number of the current call
+     */
+    public synchronized int getSequenceNumber() {
+      return sequenceNumber;
+    }
+
+    public synchronized int getServerBootTime() {
+      return serverBootTime;
+    }
+
+    private SequenceStatus update(final int newSequenceNumber, final int newServerBootTime) {
+      if (newServerBootTime != 0 && newServerBootTime != serverBootTime) {
+        final boolean isRestarted = serverBootTime != 0;
+        serverBootTime = newServerBootTime;
+        if (isRestarted) {
+          sequenceNumber = newSequenceNumber;
+          return SequenceStatus.NEW;
+        }
+      }
+      // Sequence numbers are compared modulo 2^32.
+      final int difference = newSequenceNumber - sequenceNumber;
+      if (difference > 0) {
+        sequenceNumber = newSequenceNumber;
+        return SequenceStatus.NEW;
+      }
+      return (difference == 0) ? SequenceStatus.CURRENT : SequenceStatus.STALE;
+    }
+  }
+}
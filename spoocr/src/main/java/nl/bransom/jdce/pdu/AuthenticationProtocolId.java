@@ -11,6 +11,15 @@ public enum AuthenticationProtocolId {
   /** OSF DCE private key authentication. */
   OSF_DCE_PRIVATE_KEY_AUTHENTICATION(1);
 
+  private static final int BYTE_MASK = 0xff;
+  private static final AuthenticationProtocolId[] BY_VALUE = new AuthenticationProtocolId[BYTE_MASK + 1];
+
+  static {
+    for (AuthenticationProtocolId authenticationProtocolId : values()) {
+      BY_VALUE[authenticationProtocolId.value & BYTE_MASK] = authenticationProtocolId;
+    }
+  }
+
   private byte value;
 
   /**
@@ -32,13 +41,26 @@ public enum AuthenticationProtocolId {
    * @param value
    *          byte value
    * @return the authentication protocol identifier
+   * @throws IllegalArgumentException
+   *           if {@code value} does not denote an authentication protocol
    */
   public static AuthenticationProtocolId parse(final byte value) {
-    for (AuthenticationProtocolId authenticationProtocolId : AuthenticationProtocolId.values()) {
-      if (authenticationProtocolId.getValue() == value) {
-        return authenticationProtocolId;
-      }
+    final AuthenticationProtocolId authenticationProtocolId = lookup(value);
+    if (authenticationProtocolId == null) {
+      throw new IllegalArgumentException("Unknown authentication protocol binary value "
+          + String.format("%02x", value));
     }
-    throw new IllegalArgumentException("Unknown PDU type binary value " + String.format("%02x", value));
+    return authenticationProtocolId;
+  }
+
+  /**
+   * Looks up the AuthenticationProtocolId of the byte value, without throwing on unknown values.
+   * 
+   * @param value
+   *          byte value
+   * @return the authentication protocol identifier, or {@code null} if {@code value} is unknown
+   */
+  public static AuthenticationProtocolId lookup(final byte value) {
+    return BY_VALUE[value & BYTE_MASK];
   }
 }
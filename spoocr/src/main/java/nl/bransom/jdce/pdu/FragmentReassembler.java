@@ -0,0 +1,322 @@
+package nl.bransom.jdce.pdu;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import nl.bransom.jdce.ndr.NDRBufferPool;
+import nl.bransom.jdce.rpc.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reassembles the bodies of fragmented connectionless PDUs. Fragments are identified by the activity id, sequence
+ * number and fragment number of their header; they may arrive in any order and are copied straight to their final
+ * position in a single buffer, taken from an {@link NDRBufferPool}. An activity can have only one call in progress, so
+ * a fragment of a newer call discards the unfinished reassembly of an older call.
+ * 
+ * All fragments of a call, except the last one, are expected to have the same body length. The memory of each
+ * activity is capped and reassemblies that don't receive fragments for a while are discarded by
+ * {@link #expire(long)}. After each fragment that doesn't have the {@link PDUFlag1#NOFACK} flag set, the receiver can
+ * compose a <b>fack</b> PDU with {@link #fillFack(UUID, PDUFackBody)}.
+ * 
+ * This class is thread-safe.
+ * 
+ * @author Rob
+ */
+public class FragmentReassembler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FragmentReassembler.class);
+  private static final int UNSIGNED_SHORT_MASK = 0xffff;
+
+  private final NDRBufferPool bufferPool;
+  private final int maxBytesPerActivity;
+  private final long timeoutMillis;
+  private final Map<UUID, Reassembly> reassemblies;
+
+  /**
+   * Constructor.
+   * 
+   * @param bufferPool
+   *          pool that provides the buffers for the reassembled PDU bodies
+   * @param maxBytesPerActivity
+   *          maximum size in bytes of a reassembled PDU body
+   * @param timeoutMillis
+   *          time in milliseconds after which an idle reassembly is discarded
+   */
+  public FragmentReassembler(final NDRBufferPool bufferPool, final int maxBytesPerActivity, final long timeoutMillis) {
+    this.bufferPool = bufferPool;
+    this.maxBytesPerActivity = maxBytesPerActivity;
+    this.timeoutMillis = timeoutMillis;
+    this.reassemblies = new HashMap<UUID, Reassembly>();
+  }
+
+  /**
+   * Stores the body of a fragment. The body is taken from {@code fragmentBody}, whose position is advanced by the
+   * PDU body length of the header, whatever the outcome.
+   * 
+   * @param header
+   *          header of the fragment
+   * @param fragmentBody
+   *          buffer containing the body of the fragment at its current position
+   * @param currentTimeMillis
+   *          current time in milliseconds
+   * @return status of the reassembly; if {@link FragmentStatus#COMPLETE}, the reassembled body can be obtained with
+   *         {@link #takeCompleted(UUID)}
+   */
+  public synchronized FragmentStatus accept(final PDUConnectionlessHeaderView header, final ByteBuffer fragmentBody,
+      final long currentTimeMillis) {
+    final UUID activityId = header.getActivityId();
+    final int sequenceNumber = header.getSequenceNumber();
+    final int bodyEnd = Math.min(fragmentBody.limit(), fragmentBody.position()
+        + (header.getPDUBodyLength() & UNSIGNED_SHORT_MASK));
+    try {
+      return accept(header, fragmentBody, activityId, sequenceNumber, currentTimeMillis);
+    } finally {
+      fragmentBody.position(bodyEnd);
+    }
+  }
+
+  private FragmentStatus accept(final PDUConnectionlessHeaderView header, final ByteBuffer fragmentBody,
+      final UUID activityId, final int sequenceNumber, final long currentTimeMillis) {
+    Reassembly reassembly = reassemblies.get(activityId);
+    if (reassembly != null && reassembly.sequenceNumber != sequenceNumber) {
+      // Sequence numbers are compared modulo 2^32.
+      if (sequenceNumber - reassembly.sequenceNumber < 0) {
+        return FragmentStatus.STALE;
+      }
+      LOG.debug("Call {} of activity {} supersedes unfinished call {}.", new Object[] { sequenceNumber, activityId,
+          reassembly.sequenceNumber });
+      discard(activityId);
+      reassembly = null;
+    }
+    if (reassembly == null) {
+      reassembly = new Reassembly(sequenceNumber);
+      reassemblies.put(activityId, reassembly);
+    }
+    reassembly.lastAccessTime = currentTimeMillis;
+    final FragmentStatus status = reassembly.store(header, fragmentBody);
+    if (status == FragmentStatus.REJECTED) {
+      LOG.debug("Rejected fragment {} of call {} of activity {}.", new Object[] {
+          header.getFragmentNumber() & UNSIGNED_SHORT_MASK, sequenceNumber, activityId });
+      discard(activityId);
+    }
+    return status;
+  }
+
+  /**
+   * Hands out the reassembled PDU body of the current call of {@code activityId}. The reassembly is remembered until
+   * it expires, so retransmitted fragments are recognized as duplicates.
+   * 
+   * @param activityId
+   *          activity identifier
+   * @return buffer holding the PDU body between position zero and its limit, or {@code null} if no call of the activity
+   *         has been completed; pass it to {@link NDRBufferPool#release(ByteBuffer)} when done
+   */
+  public synchronized ByteBuffer takeCompleted(final UUID activityId) {
+    final Reassembly reassembly = reassemblies.get(activityId);
+    if (reassembly == null || !reassembly.isComplete() || reassembly.buffer == null) {
+      return null;
+    }
+    final ByteBuffer completed = reassembly.buffer;
+    reassembly.buffer = null;
+    completed.limit(reassembly.totalLength);
+    completed.position(0);
+    return completed;
+  }
+
+  /**
+   * Fills the serial number and the selective acknowledgements of {@code fackBody} for the current call of
+   * {@code activityId}. The window size and the transfer sizes are left to the caller.
+   * 
+   * @param activityId
+   *          activity identifier
+   * @param fackBody
+   *          body of the fack PDU to be sent
+   * @return fragment number for the header of the fack PDU, i.e. the highest fragment number up to which all fragments
+   *         have been received; -1 if fragment 0 hasn't been received yet
+   */
+  public synchronized int fillFack(final UUID activityId, final PDUFackBody fackBody) {
+    final Reassembly reassembly = reassemblies.get(activityId);
+    if (reassembly == null) {
+      return -1;
+    }
+    final int fragmentNumber = reassembly.received.nextClearBit(0) - 1;
+    // Bit n of the selective acks stands for fragment fragmentNumber + 1 + n, see PDUFackBody.
+    final int firstSelective = fragmentNumber + 1;
+    final int numSelective = Math.max(0, reassembly.received.length() - firstSelective);
+    final int[] selectiveAcks = new int[(numSelective + Integer.SIZE - 1) / Integer.SIZE];
+    for (int i = reassembly.received.nextSetBit(firstSelective); i >= 0; i = reassembly.received.nextSetBit(i + 1)) {
+      selectiveAcks[(i - firstSelective) / Integer.SIZE] |= 1 << ((i - firstSelective) % Integer.SIZE);
+    }
+    fackBody.setSerialNumber(reassembly.lastSerialNumber);
+    fackBody.setSelectiveAcks(selectiveAcks);
+    return fragmentNumber;
+  }
+
+  /**
+   * Discards all reassemblies that haven't received any fragments for the configured timeout.
+   * 
+   * @param currentTimeMillis
+   *          current time in milliseconds
+   * @return number of discarded reassemblies
+   */
+  public synchronized int expire(final long currentTimeMillis) {
+    int numExpired = 0;
+    final Iterator<Map.Entry<UUID, Reassembly>> iterator = reassemblies.entrySet().iterator();
+    while (iterator.hasNext()) {
+      final Map.Entry<UUID, Reassembly> entry = iterator.next();
+      if (currentTimeMillis - entry.getValue().lastAccessTime > timeoutMillis) {
+        entry.getValue().releaseBuffer();
+        iterator.remove();
+        numExpired++;
+      }
+    }
+    return numExpired;
+  }
+
+  /**
+   * @return number of activities being tracked
+   */
+  public synchronized int size() {
+    return reassemblies.size();
+  }
+
+  private void discard(final UUID activityId) {
+    final Reassembly reassembly = reassemblies.remove(activityId);
+    if (reassembly != null) {
+      reassembly.releaseBuffer();
+    }
+  }
+
+  /**
+   * State of the reassembly of one call.
+   */
+  private final class Reassembly {
+
+    private final int sequenceNumber;
+    private final BitSet received = new BitSet();
+    private ByteBuffer buffer;
+    // Number of bytes from the start of the buffer that may contain fragment data.
+    private int highWaterMark;
+    // Body length of all fragments except the last one; -1 if not known yet.
+    private int fragmentSize = -1;
+    private int lastFragmentNumber = -1;
+    private int totalLength = -1;
+    // Last fragment that arrived before the fragment size was known.
+    private byte[] pendingLastFragment;
+    private short lastSerialNumber;
+    private long lastAccessTime;
+
+    /**
+     * Constructor.
+     * 
+     * @param sequenceNumber
+     *          sequence number of the call
+     */
+    Reassembly(final int sequenceNumber) {
+      this.sequenceNumber = sequenceNumber;
+    }
+
+    boolean isComplete() {
+      return totalLength >= 0;
+    }
+
+    FragmentStatus store(final PDUConnectionlessHeaderView header, final ByteBuffer fragmentBody) {
+      final int fragmentNumber = header.getFragmentNumber() & UNSIGNED_SHORT_MASK;
+      final int length = header.getPDUBodyLength() & UNSIGNED_SHORT_MASK;
+      final boolean isLast = !header.isSet(PDUFlag1.FRAG) || header.isSet(PDUFlag1.LASTFRAG);
+      if (isComplete() || received.get(fragmentNumber)) {
+        return FragmentStatus.DUPLICATE;
+      }
+      if (fragmentBody.remaining() < length) {
+        return FragmentStatus.REJECTED;
+      }
+      if (isLast) {
+        if (lastFragmentNumber >= 0 || fragmentNumber < received.length() - 1
+            || (fragmentSize >= 0 && length > fragmentSize)) {
+          return FragmentStatus.REJECTED;
+        }
+        lastFragmentNumber = fragmentNumber;
+      } else {
+        if ((lastFragmentNumber >= 0 && fragmentNumber > lastFragmentNumber) || length == 0
+            || (fragmentSize >= 0 && length != fragmentSize)) {
+          return FragmentStatus.REJECTED;
+        }
+      }
+
+      if (isLast && fragmentNumber > 0 && fragmentSize < 0) {
+        // The position of the last fragment is unknown until another fragment has been received.
+        pendingLastFragment = new byte[length];
+        fragmentBody.get(pendingLastFragment);
+      } else {
+        if (!isLast && fragmentSize < 0) {
+          fragmentSize = length;
+          if (pendingLastFragment != null) {
+            if (pendingLastFragment.length > fragmentSize
+                || !copy(ByteBuffer.wrap(pendingLastFragment), lastFragmentNumber, pendingLastFragment.length)) {
+              return FragmentStatus.REJECTED;
+            }
+          }
+        }
+        if (!copy(fragmentBody, fragmentNumber, length)) {
+          return FragmentStatus.REJECTED;
+        }
+      }
+      received.set(fragmentNumber);
+      lastSerialNumber = header.getSerialNumber();
+
+      if (lastFragmentNumber >= 0 && received.nextClearBit(0) > lastFragmentNumber) {
+        totalLength = highWaterMark;
+        pendingLastFragment = null;
+        return FragmentStatus.COMPLETE;
+      }
+      return FragmentStatus.INCOMPLETE;
+    }
+
+    /**
+     * Copies {@code length} bytes of {@code source} to the position of fragment {@code fragmentNumber}.
+     * 
+     * @return {@code false} if the memory cap would be exceeded
+     */
+    private boolean copy(final ByteBuffer source, final int fragmentNumber, final int length) {
+      final long offset = (fragmentNumber == 0) ? 0L : (long) fragmentNumber * fragmentSize;
+      if (offset + length > maxBytesPerActivity) {
+        return false;
+      }
+      ensureCapacity((int) offset + length);
+      final int sourceLimit = source.limit();
+      source.limit(source.position() + length);
+      buffer.position((int) offset);
+      buffer.put(source);
+      source.limit(sourceLimit);
+      highWaterMark = Math.max(highWaterMark, (int) offset + length);
+      return true;
+    }
+
+    private void ensureCapacity(final int requiredCapacity) {
+      if (buffer == null) {
+        buffer = bufferPool.acquire(requiredCapacity);
+      } else if (buffer.capacity() < requiredCapacity) {
+        final ByteBuffer biggerBuffer = bufferPool.acquire(Math.max(requiredCapacity,
+            Math.min(2 * buffer.capacity(), maxBytesPerActivity)));
+        buffer.position(0);
+        buffer.limit(highWaterMark);
+        biggerBuffer.put(buffer);
+        bufferPool.release(buffer);
+        buffer = biggerBuffer;
+      }
+      buffer.limit(buffer.capacity());
+    }
+
+    void releaseBuffer() {
+      if (buffer != null) {
+        bufferPool.release(buffer);
+        buffer = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package nl.bransom.jdce.pdu;
+
+/**
+ * Outcome of offering a PDU fragment to a {@link FragmentReassembler}.
+ * 
+ * @author Rob
+ */
+public enum FragmentStatus {
+  /** The fragment has been stored; more fragments are needed. */
+  INCOMPLETE,
+  /** The fragment has been stored and completes the PDU body. */
+  COMPLETE,
+  /** The fragment had already been received; it has been ignored. */
+  DUPLICATE,
+  /** The fragment belongs to an older call of the activity; it has been ignored. */
+  STALE,
+  /** The fragment is inconsistent or exceeds the memory cap of the activity; the reassembly has been discarded. */
+  REJECTED
+}
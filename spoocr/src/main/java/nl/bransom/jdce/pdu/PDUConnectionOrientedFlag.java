@@ -0,0 +1,44 @@
+package nl.bransom.jdce.pdu;
+
+/**
+ * Enum type for the {@code pfc_flags} of connection-oriented PDU's.
+ * 
+ * @author Rob
+ */
+public enum PDUConnectionOrientedFlag {
+  /** If set, the PDU is the first fragment of a multi-PDU transmission. */
+  FIRST_FRAG(0x01),
+  /** If set, the PDU is the last fragment of a multi-PDU transmission. */
+  LAST_FRAG(0x02),
+  /** Cancel was pending at sender. */
+  PENDING_CANCEL(0x04),
+  /** Reserved for use by implementations. */
+  RESERVED_1(0x08),
+  /** Supports concurrent multiplexing of a single connection. */
+  CONC_MPX(0x10),
+  /**
+   * Only meaningful on a <b>fault</b> PDU. If set, the call did not execute, so it is safe to retry it, even if it is
+   * not idempotent.
+   */
+  DID_NOT_EXECUTE(0x20),
+  /** If set, the PDU is for a maybe request. */
+  MAYBE(0x40),
+  /** If set, a non-nil object UUID follows the common header. */
+  OBJECT_UUID(0x80);
+
+  private byte mask;
+
+  /**
+   * Hidden constructor.
+   * 
+   * @param mask
+   *          byte mask value
+   */
+  private PDUConnectionOrientedFlag(final int mask) {
+    this.mask = (byte) mask;
+  }
+
+  public byte getMask() {
+    return mask;
+  }
+}
@@ -0,0 +1,220 @@
+package nl.bransom.jdce.pdu;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import nl.bransom.jdce.ndr.FormatLabel;
+import nl.bransom.jdce.ndr.FormatLabelInteger;
+import nl.bransom.jdce.ndr.NDRConstants;
+import nl.bransom.jdce.ndr.NDRReader;
+import nl.bransom.jdce.ndr.NDRSerializable;
+import nl.bransom.jdce.ndr.NDRWriter;
+
+/**
+ * Implements NDR support for the common header of connection-oriented RPC PDU's. Each PDU on a connection starts with
+ * this header; {@code frag_length} tells where the next PDU starts and {@code call_id} tells to which call it belongs.
+ * 
+ * <pre>
+ * typedef struct {
+ *   unsigned small rpc_vers = 5; // RPC protocol major version
+ *   unsigned small rpc_vers_minor; // RPC protocol minor version
+ *   unsigned small PTYPE; // Packet type
+ *   unsigned small pfc_flags; // Packet flags
+ *   byte packed_drep[4]; // Data representation format label
+ *   unsigned short frag_length; // Total length of fragment, including this header
+ *   unsigned short auth_length; // Length of auth_value
+ *   unsigned long call_id; // Call identifier
+ * } rpcconn_common_hdr_t;
+ * </pre>
+ * 
+ * @author Rob
+ */
+public class PDUConnectionOrientedHeader implements NDRSerializable {
+
+  /** Supported RPC main version. */
+  public static final byte RPC_VERSION = 5;
+  /** Supported RPC minor version. */
+  public static final byte RPC_VERSION_MINOR = 0;
+  /** Length in bytes of the common header. */
+  public static final int HEADER_LENGTH = 16;
+  /** Byte offset of {@code PTYPE} within the common header. */
+  public static final int OFFSET_PDU_TYPE = 2;
+  /** Byte offset of {@code pfc_flags} within the common header. */
+  public static final int OFFSET_FLAGS = 3;
+  /** Byte offset of {@code packed_drep} within the common header. */
+  public static final int OFFSET_FORMAT_LABEL = 4;
+  /** Byte offset of {@code frag_length} within the common header. */
+  public static final int OFFSET_FRAGMENT_LENGTH = 8;
+  /** Byte offset of {@code call_id} within the common header. */
+  public static final int OFFSET_CALL_ID = 12;
+
+  private static final int UNSIGNED_SHORT_MASK = 0xffff;
+
+  private byte rpcVersion;
+  private byte rpcVersionMinor;
+  private PDUType pduType;
+  private byte flags;
+  // Data representation format label
+  private FormatLabel formatLabel;
+  // Total length of the PDU, including this header
+  private short fragmentLength;
+  private short authenticationLength;
+  private int callId;
+
+  /**
+   * Default constructor.
+   */
+  public PDUConnectionOrientedHeader() {
+    rpcVersion = RPC_VERSION;
+    rpcVersionMinor = RPC_VERSION_MINOR;
+    formatLabel = new FormatLabel();
+  }
+
+  public byte getRpcVersion() {
+    return rpcVersion;
+  }
+
+  public void setRpcVersion(final byte rpcVersion) {
+    this.rpcVersion = rpcVersion;
+  }
+
+  public byte getRpcVersionMinor() {
+    return rpcVersionMinor;
+  }
+
+  public void setRpcVersionMinor(final byte rpcVersionMinor) {
+    this.rpcVersionMinor = rpcVersionMinor;
+  }
+
+  public PDUType getPDUType() {
+    return pduType;
+  }
+
+  public void setPDUType(final PDUType pduType) {
+    this.pduType = pduType;
+  }
+
+  /**
+   * Tests if {@code flag} is set.
+   * 
+   * @param flag
+   *          binary flag to test
+   * @return {@code true} if set, {@code false} if not.
+   */
+  public boolean isSet(final PDUConnectionOrientedFlag flag) {
+    return (flags & flag.getMask()) != 0x00;
+  }
+
+  /**
+   * Sets the given {@code flag}.
+   * 
+   * @param flag
+   *          binary flag to set
+   */
+  public void set(final PDUConnectionOrientedFlag flag) {
+    flags |= flag.getMask();
+  }
+
+  /**
+   * Unsets the given {@code flag}.
+   * 
+   * @param flag
+   *          binary flag to unset
+   */
+  public void unset(final PDUConnectionOrientedFlag flag) {
+    flags &= ~flag.getMask();
+  }
+
+  /**
+   * @return modifiable Format Label of this header; changes apply to this header
+   */
+  public FormatLabel getFormatLabel() {
+    // Deserialized headers share a canonical instance; copy it only when a caller may change it.
+    if (formatLabel != null) {
+      formatLabel = formatLabel.toModifiable();
+    }
+    return formatLabel;
+  }
+
+  public void setFormatLabel(final FormatLabel formatLabel) {
+    this.formatLabel = formatLabel;
+  }
+
+  public short getFragmentLength() {
+    return fragmentLength;
+  }
+
+  public void setFragmentLength(final short fragmentLength) {
+    this.fragmentLength = fragmentLength;
+  }
+
+  public short getAuthenticationLength() {
+    return authenticationLength;
+  }
+
+  public void setAuthenticationLength(final short authenticationLength) {
+    this.authenticationLength = authenticationLength;
+  }
+
+  public int getCallId() {
+    return callId;
+  }
+
+  public void setCallId(final int callId) {
+    this.callId = callId;
+  }
+
+  /**
+   * Determines the byte order of a serialized common header without deserializing it.
+   * 
+   * @param buffer
+   *          buffer containing a common header at its current position; neither its position nor its byte order are
+   *          changed
+   * @return byte order of the integers in the PDU
+   */
+  public static ByteOrder peekByteOrder(final ByteBuffer buffer) {
+    return FormatLabelInteger.parse(buffer.get(buffer.position() + OFFSET_FORMAT_LABEL)).getByteOrder();
+  }
+
+  /**
+   * Determines the {@code frag_length} of a serialized common header without deserializing it, so a byte stream can
+   * be split into PDU's.
+   * 
+   * @param buffer
+   *          buffer containing a common header at its current position; neither its position nor its byte order are
+   *          changed
+   * @return total length of the PDU in bytes
+   */
+  public static int peekFragmentLength(final ByteBuffer buffer) {
+    final ByteBuffer header = buffer.duplicate().order(peekByteOrder(buffer));
+    return header.getShort(buffer.position() + OFFSET_FRAGMENT_LENGTH) & UNSIGNED_SHORT_MASK;
+  }
+
+  @Override
+  public void ndrSerialize(final NDRWriter ndrWriter) throws IOException {
+    ndrWriter.setFormatLabel(formatLabel);
+    ndrWriter.writeByte(rpcVersion);
+    ndrWriter.writeByte(rpcVersionMinor);
+    ndrWriter.writeByte(pduType.getValue());
+    ndrWriter.writeByte(flags);
+    ndrWriter.writeFormatLabel(NDRConstants.FORMAT_LABEL_LENGTH);
+    ndrWriter.writeShort(fragmentLength);
+    ndrWriter.writeShort(authenticationLength);
+    ndrWriter.writeInt(callId);
+  }
+
+  @Override
+  public void ndrDeserialize(final NDRReader ndrReader) throws IOException {
+    rpcVersion = ndrReader.readByte();
+    rpcVersionMinor = ndrReader.readByte();
+    pduType = PDUType.parse(ndrReader.readByte());
+    flags = ndrReader.readByte();
+    // Read the NDR format label and apply it to the ndrReader.
+    ndrReader.readFormatLabel(NDRConstants.FORMAT_LABEL_LENGTH);
+    formatLabel = ndrReader.getFormatLabel();
+    fragmentLength = ndrReader.readShort();
+    authenticationLength = ndrReader.readShort();
+    callId = ndrReader.readInt();
+  }
+}
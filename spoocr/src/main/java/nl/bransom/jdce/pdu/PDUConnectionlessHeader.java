@@ -100,7 +100,14 @@ public class PDUConnectionlessHeader implements NDRSerializable {
     this.pduFlags = pduFlags;
   }
 
+  /**
+   * @return modifiable Format Label of this header; changes apply to this header
+   */
   public FormatLabel getFormatLabel() {
+    // Deserialized headers share a canonical instance; copy it only when a caller may change it.
+    if (formatLabel != null) {
+      formatLabel = formatLabel.toModifiable();
+    }
     return formatLabel;
   }
 
@@ -257,6 +264,6 @@ public class PDUConnectionlessHeader implements NDRSerializable {
     pduBodyLength = ndrReader.readShort();
     fragmentNumber = ndrReader.readShort();
     authenticationProtocolId = AuthenticationProtocolId.parse(ndrReader.readByte());
-    serialNumber |= ndrReader.readByte();
+    serialNumber |= ndrReader.readByte() & NDRConstants.BYTE_MASK;
   }
 }
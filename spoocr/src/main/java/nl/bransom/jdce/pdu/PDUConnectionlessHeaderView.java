@@ -0,0 +1,288 @@
+package nl.bransom.jdce.pdu;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import nl.bransom.jdce.ndr.FormatLabel;
+import nl.bransom.jdce.ndr.FormatLabelInteger;
+import nl.bransom.jdce.ndr.NDRConstants;
+import nl.bransom.jdce.ndr.NDRReader;
+import nl.bransom.jdce.rpc.UUID;
+
+/**
+ * Flyweight view of a connectionless PDU header (see {@link PDUConnectionlessHeader}) in a ByteBuffer. The header has
+ * a fixed layout of {@value #HEADER_LENGTH} bytes, so each field is read lazily at its fixed offset, using the integer
+ * byte order of the header's own NDR Format Label. Nothing is decoded or allocated that the caller doesn't ask for.
+ * 
+ * A single instance can be reused for many PDUs by calling {@link #wrap(ByteBuffer)} again. The view reads the buffer
+ * with absolute gets, so the position, limit and byte order of the buffer are never changed. Note that the buffer
+ * content must not change while it is being viewed.
+ * 
+ * @author Rob
+ */
+public class PDUConnectionlessHeaderView {
+
+  /** Length in bytes of a connectionless PDU header. */
+  public static final int HEADER_LENGTH = 80;
+
+  private static final int OFFSET_RPC_VERSION = 0;
+  private static final int OFFSET_PDU_TYPE = 1;
+  private static final int OFFSET_FLAGS1 = 2;
+  private static final int OFFSET_FLAGS2 = 3;
+  private static final int OFFSET_FORMAT_LABEL = 4;
+  private static final int OFFSET_SERIAL_HIGH = 7;
+  private static final int OFFSET_OBJECT_ID = 8;
+  private static final int OFFSET_INTERFACE_ID = 24;
+  private static final int OFFSET_ACTIVITY_ID = 40;
+  private static final int OFFSET_SERVER_BOOT_TIME = 56;
+  private static final int OFFSET_INTERFACE_VERSION = 60;
+  private static final int OFFSET_SEQUENCE_NUMBER = 64;
+  private static final int OFFSET_OPERATION_NUMBER = 68;
+  private static final int OFFSET_INTERFACE_HINT = 70;
+  private static final int OFFSET_ACTIVITY_HINT = 72;
+  private static final int OFFSET_PDU_BODY_LENGTH = 74;
+  private static final int OFFSET_FRAGMENT_NUMBER = 76;
+  private static final int OFFSET_AUTHENTICATION_PROTOCOL_ID = 78;
+  private static final int OFFSET_SERIAL_LOW = 79;
+  // Offsets of the fields of a UUID.
+  private static final int UUID_OFFSET_TIME_MID = 4;
+  private static final int UUID_OFFSET_TIME_HIGH_AND_VERSION = 6;
+  private static final int UUID_OFFSET_CLOCK_SEQ = 8;
+  private static final long UNSIGNED_SHORT_MASK = 0xffffL;
+  private static final long INT_MASK = 0xffffffffL;
+
+  private ByteBuffer byteBuffer;
+  private int offset;
+  // True if the byte order of the header differs from the byte order of the buffer.
+  private boolean swapBytes;
+
+  /**
+   * Default constructor; call {@link #wrap(ByteBuffer)} before reading any fields.
+   */
+  public PDUConnectionlessHeaderView() {
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param byteBuffer
+   *          buffer containing a connectionless PDU header at its current position
+   */
+  public PDUConnectionlessHeaderView(final ByteBuffer byteBuffer) {
+    wrap(byteBuffer);
+  }
+
+  /**
+   * Points this view to the header at the current position of {@code byteBuffer}.
+   * 
+   * @param byteBuffer
+   *          buffer containing a connectionless PDU header at its current position
+   * @return this view
+   * @throws IllegalArgumentException
+   *           if fewer than {@value #HEADER_LENGTH} bytes remain in {@code byteBuffer}
+   */
+  public PDUConnectionlessHeaderView wrap(final ByteBuffer byteBuffer) {
+    if (byteBuffer.remaining() < HEADER_LENGTH) {
+      throw new IllegalArgumentException("A connectionless PDU header requires " + HEADER_LENGTH
+          + " bytes, but only " + byteBuffer.remaining() + " bytes are available.");
+    }
+    final ByteOrder headerOrder = FormatLabelInteger.parse(byteBuffer.get(byteBuffer.position() + OFFSET_FORMAT_LABEL))
+        .getByteOrder();
+    this.byteBuffer = byteBuffer;
+    this.offset = byteBuffer.position();
+    this.swapBytes = headerOrder != byteBuffer.order();
+    return this;
+  }
+
+  /**
+   * Checks, without throwing, if the current position of {@code byteBuffer} holds a header that can be viewed: it must
+   * be complete, have a supported integer format and a known PDU type. Use this on the receive path to drop malformed
+   * datagrams before calling {@link #wrap(ByteBuffer)}.
+   * 
+   * @param byteBuffer
+   *          buffer containing a connectionless PDU header at its current position
+   * @return {@code true} if {@link #wrap(ByteBuffer)} and {@link #getPDUType()} will succeed
+   */
+  public static boolean isSupported(final ByteBuffer byteBuffer) {
+    final int position = byteBuffer.position();
+    return byteBuffer.remaining() >= HEADER_LENGTH
+        && FormatLabelInteger.lookup(byteBuffer.get(position + OFFSET_FORMAT_LABEL)) != null
+        && PDUType.lookup(byteBuffer.get(position + OFFSET_PDU_TYPE)) != null;
+  }
+
+  /**
+   * Overwrites the serial number of the header at the current position of {@code byteBuffer}, e.g. to retransmit a
+   * composed PDU with a new serial number. Both halves of the serial number are single bytes, so the byte order of the
+   * header doesn't matter. The position of the buffer is not changed.
+   * 
+   * @param byteBuffer
+   *          buffer containing a connectionless PDU header at its current position
+   * @param serialNumber
+   *          new serial number
+   */
+  public static void putSerialNumber(final ByteBuffer byteBuffer, final short serialNumber) {
+    final int position = byteBuffer.position();
+    byteBuffer.put(position + OFFSET_SERIAL_HIGH, (byte) (serialNumber >>> NDRConstants.NUM_BITS_PER_BYTE));
+    byteBuffer.put(position + OFFSET_SERIAL_LOW, (byte) serialNumber);
+  }
+
+  public byte getRpcVersion() {
+    return getByte(OFFSET_RPC_VERSION);
+  }
+
+  public PDUType getPDUType() {
+    return PDUType.parse(getByte(OFFSET_PDU_TYPE));
+  }
+
+  /**
+   * Tests if {@code pduFlag1} is set, without creating a {@link PDUFlags} object.
+   * 
+   * @param pduFlag1
+   *          binary flag to test
+   * @return {@code true} if set, {@code false} if not.
+   */
+  public boolean isSet(final PDUFlag1 pduFlag1) {
+    return (getByte(OFFSET_FLAGS1) & pduFlag1.getMask()) != 0x00;
+  }
+
+  /**
+   * Tests if {@code pduFlag2} is set, without creating a {@link PDUFlags} object.
+   * 
+   * @param pduFlag2
+   *          binary flag to test
+   * @return {@code true} if set, {@code false} if not.
+   */
+  public boolean isSet(final PDUFlag2 pduFlag2) {
+    return (getByte(OFFSET_FLAGS2) & pduFlag2.getMask()) != 0x00;
+  }
+
+  public PDUFlags getPDUFlags() {
+    final PDUFlags pduFlags = new PDUFlags();
+    pduFlags.flags1 = getByte(OFFSET_FLAGS1);
+    pduFlags.flags2 = getByte(OFFSET_FLAGS2);
+    return pduFlags;
+  }
+
+  /**
+   * @return shared, unmodifiable canonical instance of the Format Label
+   */
+  public FormatLabel getFormatLabel() {
+    return FormatLabel.parse(getByte(OFFSET_FORMAT_LABEL), getByte(OFFSET_FORMAT_LABEL + 1));
+  }
+
+  public short getSerialNumber() {
+    return (short) ((getByte(OFFSET_SERIAL_HIGH) << NDRConstants.NUM_BITS_PER_BYTE)
+        | (getByte(OFFSET_SERIAL_LOW) & NDRConstants.BYTE_MASK));
+  }
+
+  public UUID getObjectId() {
+    return getUUID(OFFSET_OBJECT_ID);
+  }
+
+  public UUID getInterfaceId() {
+    return getUUID(OFFSET_INTERFACE_ID);
+  }
+
+  public UUID getActivityId() {
+    return getUUID(OFFSET_ACTIVITY_ID);
+  }
+
+  public int getServerBootTime() {
+    return getInt(OFFSET_SERVER_BOOT_TIME);
+  }
+
+  public int getInterfaceVersion() {
+    return getInt(OFFSET_INTERFACE_VERSION);
+  }
+
+  public int getSequenceNumber() {
+    return getInt(OFFSET_SEQUENCE_NUMBER);
+  }
+
+  public short getOperationNumber() {
+    return getShort(OFFSET_OPERATION_NUMBER);
+  }
+
+  public short getInterfaceHint() {
+    return getShort(OFFSET_INTERFACE_HINT);
+  }
+
+  public short getActivityHint() {
+    return getShort(OFFSET_ACTIVITY_HINT);
+  }
+
+  public short getPDUBodyLength() {
+    return getShort(OFFSET_PDU_BODY_LENGTH);
+  }
+
+  public short getFragmentNumber() {
+    return getShort(OFFSET_FRAGMENT_NUMBER);
+  }
+
+  public AuthenticationProtocolId getAuthenticationProtocolId() {
+    return AuthenticationProtocolId.parse(getByte(OFFSET_AUTHENTICATION_PROTOCOL_ID));
+  }
+
+  /**
+   * Decodes all fields of the header, for the rare cases that the full header is needed.
+   * 
+   * @return newly created header
+   * @throws IOException
+   *           if the header cannot be decoded
+   */
+  public PDUConnectionlessHeader toHeader() throws IOException {
+    final ByteBuffer headerBuffer = getByteBuffer().duplicate();
+    headerBuffer.position(offset);
+    return new NDRReader(headerBuffer).read(PDUConnectionlessHeader.class);
+  }
+
+  /**
+   * Compares the activity identifier of the header with {@code activityId}, without creating a UUID.
+   * 
+   * @param activityId
+   *          activity identifier to compare with
+   * @return {@code true} if the header carries {@code activityId}
+   */
+  boolean hasActivityId(final UUID activityId) {
+    return getUUIDLeastSignificantBits(OFFSET_ACTIVITY_ID) == activityId.getLeastSignificantBits()
+        && getUUIDMostSignificantBits(OFFSET_ACTIVITY_ID) == activityId.getMostSignificantBits();
+  }
+
+  private UUID getUUID(final int uuidOffset) {
+    return UUID.valueOf(getUUIDMostSignificantBits(uuidOffset), getUUIDLeastSignificantBits(uuidOffset));
+  }
+
+  private long getUUIDMostSignificantBits(final int uuidOffset) {
+    return ((getInt(uuidOffset) & INT_MASK) << Integer.SIZE)
+        | ((getShort(uuidOffset + UUID_OFFSET_TIME_MID) & UNSIGNED_SHORT_MASK) << Short.SIZE)
+        | (getShort(uuidOffset + UUID_OFFSET_TIME_HIGH_AND_VERSION) & UNSIGNED_SHORT_MASK);
+  }
+
+  private long getUUIDLeastSignificantBits(final int uuidOffset) {
+    // The clock sequence and the node are bytes, so they are read most significant byte first in any byte order.
+    final long bits = getByteBuffer().getLong(offset + uuidOffset + UUID_OFFSET_CLOCK_SEQ);
+    return (getByteBuffer().order() == ByteOrder.BIG_ENDIAN) ? bits : Long.reverseBytes(bits);
+  }
+
+  private byte getByte(final int fieldOffset) {
+    return getByteBuffer().get(offset + fieldOffset);
+  }
+
+  private short getShort(final int fieldOffset) {
+    final short value = getByteBuffer().getShort(offset + fieldOffset);
+    return swapBytes ? Short.reverseBytes(value) : value;
+  }
+
+  private int getInt(final int fieldOffset) {
+    final int value = getByteBuffer().getInt(offset + fieldOffset);
+    return swapBytes ? Integer.reverseBytes(value) : value;
+  }
+
+  private ByteBuffer getByteBuffer() {
+    if (byteBuffer == null) {
+      throw new IllegalStateException("No ByteBuffer has been wrapped yet.");
+    }
+    return byteBuffer;
+  }
+}
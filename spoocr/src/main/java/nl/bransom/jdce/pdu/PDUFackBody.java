@@ -0,0 +1,136 @@
+package nl.bransom.jdce.pdu;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import nl.bransom.jdce.ndr.NDRReader;
+import nl.bransom.jdce.ndr.NDRSerializable;
+import nl.bransom.jdce.ndr.NDRWriter;
+
+/**
+ * Implements NDR support for the body of a connectionless <b>fack</b> PDU.
+ * 
+ * <pre>
+ * typedef struct {
+ *   unsigned small vers; // Fack body version (0)
+ *   byte pad1;
+ *   unsigned short window_size; // Receive window size, in fragments
+ *   unsigned long max_tsdu; // Largest local TPDU size
+ *   unsigned long max_frag_size; // Largest fragment size that can be received
+ *   unsigned short serial_num; // Serial number of the fragment that induced this fack
+ *   unsigned short selack_len; // Number of elements in selack
+ *   unsigned long selack[selack_len]; // Selective acknowledgement bit masks
+ * } rpc_fack_body_t;
+ * </pre>
+ * 
+ * Bit {@code n} of the selective acknowledgement masks is set if fragment {@code fragnum + 1 + n} has been received,
+ * where {@code fragnum} is the fragment number in the header of the <b>fack</b> PDU.
+ * 
+ * @author Rob
+ */
+public class PDUFackBody implements NDRSerializable {
+
+  /** Supported fack body version. */
+  public static final byte FACK_VERSION = 0;
+
+  private byte version;
+  private short windowSize;
+  private int maxTsdu;
+  private int maxFragmentSize;
+  private short serialNumber;
+  private int[] selectiveAcks;
+
+  /**
+   * Default constructor.
+   */
+  public PDUFackBody() {
+    version = FACK_VERSION;
+    selectiveAcks = new int[0];
+  }
+
+  public byte getVersion() {
+    return version;
+  }
+
+  public short getWindowSize() {
+    return windowSize;
+  }
+
+  public void setWindowSize(final short windowSize) {
+    this.windowSize = windowSize;
+  }
+
+  public int getMaxTsdu() {
+    return maxTsdu;
+  }
+
+  public void setMaxTsdu(final int maxTsdu) {
+    this.maxTsdu = maxTsdu;
+  }
+
+  public int getMaxFragmentSize() {
+    return maxFragmentSize;
+  }
+
+  public void setMaxFragmentSize(final int maxFragmentSize) {
+    this.maxFragmentSize = maxFragmentSize;
+  }
+
+  public short getSerialNumber() {
+    return serialNumber;
+  }
+
+  public void setSerialNumber(final short serialNumber) {
+    this.serialNumber = serialNumber;
+  }
+
+  /**
+   * Getter for the {@code selectiveAcks} field.
+   * 
+   * @return a copy of the selective acknowledgement bit masks
+   */
+  public int[] getSelectiveAcks() {
+    return Arrays.copyOf(selectiveAcks, selectiveAcks.length);
+  }
+
+  /**
+   * Setter for the {@code selectiveAcks} field.
+   * 
+   * @param selectiveAcks
+   *          selective acknowledgement bit masks; the array is copied
+   */
+  public void setSelectiveAcks(final int[] selectiveAcks) {
+    if (selectiveAcks == null) {
+      throw new IllegalArgumentException("Array 'selectiveAcks' may not be null.");
+    }
+    this.selectiveAcks = Arrays.copyOf(selectiveAcks, selectiveAcks.length);
+  }
+
+  @Override
+  public void ndrSerialize(final NDRWriter ndrWriter) throws IOException {
+    ndrWriter.writeByte(version);
+    ndrWriter.writeByte((byte) 0x00);
+    ndrWriter.writeShort(windowSize);
+    ndrWriter.writeInt(maxTsdu);
+    ndrWriter.writeInt(maxFragmentSize);
+    ndrWriter.writeShort(serialNumber);
+    ndrWriter.writeShort((short) selectiveAcks.length);
+    for (int selectiveAck : selectiveAcks) {
+      ndrWriter.writeInt(selectiveAck);
+    }
+  }
+
+  @Override
+  public void ndrDeserialize(final NDRReader ndrReader) throws IOException {
+    version = ndrReader.readByte();
+    ndrReader.readByte();
+    windowSize = ndrReader.readShort();
+    maxTsdu = ndrReader.readInt();
+    maxFragmentSize = ndrReader.readInt();
+    serialNumber = ndrReader.readShort();
+    selectiveAcks = new int[ndrReader.readShort() & 0xffff];
+    for (int i = 0; i < selectiveAcks.length; i++) {
+      selectiveAcks[i] = ndrReader.readInt();
+    }
+  }
+}
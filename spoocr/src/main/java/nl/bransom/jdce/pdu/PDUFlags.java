@@ -4,6 +4,7 @@ import java.io.IOException;
 
 import nl.bransom.jdce.ndr.NDRReader;
 import nl.bransom.jdce.ndr.NDRSerializable;
+import nl.bransom.jdce.ndr.NDRStruct;
 import nl.bransom.jdce.ndr.NDRWriter;
 
 /**
@@ -11,10 +12,12 @@ import nl.bransom.jdce.ndr.NDRWriter;
  * 
  * @author Rob
  */
+@NDRStruct
 public class PDUFlags implements NDRSerializable {
 
-  private byte flags1;
-  private byte flags2;
+  // NDR members, (de)serialized by the generated PDUFlagsNDRCodec.
+  byte flags1;
+  byte flags2;
 
   /**
    * Default constructor.
@@ -85,15 +88,13 @@ public class PDUFlags implements NDRSerializable {
   }
 
   @Override
-  public void ndrSerialize(NDRWriter ndrWriter) throws IOException {
-    ndrWriter.writeByte(flags1);
-    ndrWriter.writeByte(flags2);
+  public void ndrSerialize(final NDRWriter ndrWriter) throws IOException {
+    PDUFlagsNDRCodec.INSTANCE.encode(this, ndrWriter);
   }
 
   @Override
-  public void ndrDeserialize(NDRReader ndrReader) throws IOException {
-    flags1 = ndrReader.readByte();
-    flags2 = ndrReader.readByte();
+  public void ndrDeserialize(final NDRReader ndrReader) throws IOException {
+    PDUFlagsNDRCodec.INSTANCE.decode(this, ndrReader);
   }
 
   @Override
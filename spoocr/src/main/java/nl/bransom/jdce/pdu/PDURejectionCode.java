@@ -44,6 +44,24 @@ public enum PDURejectionCode {
   /** Invalid CRC. */
   NCA_INVALID_CRC(0x1c000020);
 
+  // Open-addressing table of at most 50% load, keyed by the binary value.
+  private static final int TABLE_BITS = 6;
+  private static final int TABLE_MASK = (1 << TABLE_BITS) - 1;
+  private static final int HASH_MULTIPLIER = 0x9e3779b9;
+  private static final int[] TABLE_VALUES = new int[TABLE_MASK + 1];
+  private static final PDURejectionCode[] TABLE_CODES = new PDURejectionCode[TABLE_MASK + 1];
+
+  static {
+    for (PDURejectionCode pduRejectionCode : values()) {
+      int index = indexOf(pduRejectionCode.value);
+      while (TABLE_CODES[index] != null) {
+        index = (index + 1) & TABLE_MASK;
+      }
+      TABLE_VALUES[index] = pduRejectionCode.value;
+      TABLE_CODES[index] = pduRejectionCode;
+    }
+  }
+
   private int value;
 
   /**
@@ -66,13 +84,38 @@ public enum PDURejectionCode {
    * @param value
    *          NDR byte value
    * @return PDURejectionCode enum
+   * @throws IllegalArgumentException
+   *           if {@code value} is not a known rejection code
    */
   public static PDURejectionCode parse(final int value) {
-    for (PDURejectionCode pduRejectionCode : PDURejectionCode.values()) {
-      if (pduRejectionCode.getValue() == value) {
+    final PDURejectionCode pduRejectionCode = lookup(value);
+    if (pduRejectionCode == null) {
+      throw new IllegalArgumentException("Unknown PDU Rejection Code binary value " + String.format("%08x", value));
+    }
+    return pduRejectionCode;
+  }
+
+  /**
+   * Looks up the PDU RejectionCode of the binary value, without throwing on unknown values. Fault PDUs carry arbitrary
+   * status codes, so not finding a rejection code is not an error.
+   * 
+   * @param value
+   *          binary value
+   * @return PDURejectionCode enum, or {@code null} if {@code value} is not a known rejection code
+   */
+  public static PDURejectionCode lookup(final int value) {
+    int index = indexOf(value);
+    PDURejectionCode pduRejectionCode;
+    while ((pduRejectionCode = TABLE_CODES[index]) != null) {
+      if (TABLE_VALUES[index] == value) {
         return pduRejectionCode;
       }
+      index = (index + 1) & TABLE_MASK;
     }
-    throw new IllegalArgumentException("Unknown PDU Rejection Code binary value " + String.format("%08x", value));
+    return null;
+  }
+
+  private static int indexOf(final int value) {
+    return (value * HASH_MULTIPLIER) >>> (Integer.SIZE - TABLE_BITS);
   }
 }
@@ -45,6 +45,15 @@ public enum PDUType {
   /** orphaned */
   ORPHANED(19);
 
+  private static final int BYTE_MASK = 0xff;
+  private static final PDUType[] BY_VALUE = new PDUType[BYTE_MASK + 1];
+
+  static {
+    for (PDUType pduType : values()) {
+      BY_VALUE[pduType.value & BYTE_MASK] = pduType;
+    }
+  }
+
   private byte value;
 
   /**
@@ -70,13 +79,26 @@ public enum PDUType {
    * @param value
    *          NDR byte value
    * @return PDUType enum
+   * @throws IllegalArgumentException
+   *           if {@code value} does not denote a PDU type
    */
   public static PDUType parse(final byte value) {
-    for (PDUType pduType : PDUType.values()) {
-      if (pduType.getValue() == value) {
-        return pduType;
-      }
+    final PDUType pduType = lookup(value);
+    if (pduType == null) {
+      throw new IllegalArgumentException("Unknown PDU type binary value " + String.format("%02x", value));
     }
-    throw new IllegalArgumentException("Unknown PDU type binary value " + String.format("%02x", value));
+    return pduType;
+  }
+
+  /**
+   * Looks up the PDUType of the byte value. Unlike {@link #parse(byte)} this method does not throw on unknown values,
+   * so malformed packets can be dropped cheaply.
+   * 
+   * @param value
+   *          NDR byte value
+   * @return PDUType enum, or {@code null} if {@code value} does not denote a PDU type
+   */
+  public static PDUType lookup(final byte value) {
+    return BY_VALUE[value & BYTE_MASK];
   }
 }
@@ -0,0 +1,15 @@
+package nl.bransom.jdce.pdu;
+
+/**
+ * Outcome of offering the sequence number of a PDU to an {@link ActivityTable}.
+ * 
+ * @author Rob
+ */
+public enum SequenceStatus {
+  /** The PDU starts a new call of the activity. */
+  NEW,
+  /** The PDU belongs to the current call of the activity, e.g. a retransmission or another fragment. */
+  CURRENT,
+  /** The PDU belongs to an older call of the activity; it should be ignored. */
+  STALE
+}
@@ -0,0 +1,127 @@
+package nl.bransom.jdce.rpc;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Future of an asynchronous RPC operation that is completed by an I/O thread. The first call to
+ * {@link #complete(Object)}, {@link #fail(Throwable)} or {@link #cancel(boolean)} settles the outcome; later calls are
+ * ignored.
+ * 
+ * @param <T>
+ *          type of the result
+ * @author Rob
+ */
+class CallFuture<T> implements Future<T> {
+
+  private final RPCCallback<? super T> callback;
+  private final CountDownLatch done = new CountDownLatch(1);
+  private T result;
+  private Throwable error;
+
+  /**
+   * Constructor.
+   * 
+   * @param callback
+   *          optional callback that is notified once the outcome is settled, may be {@code null}
+   */
+  CallFuture(final RPCCallback<? super T> callback) {
+    this.callback = callback;
+  }
+
+  /**
+   * Settles the outcome with a result.
+   * 
+   * @param value
+   *          result of the operation
+   * @return {@code true} if the outcome was settled by this call, {@code false} if it had been settled before
+   */
+  boolean complete(final T value) {
+    synchronized (this) {
+      if (isDone()) {
+        return false;
+      }
+      result = value;
+      done.countDown();
+    }
+    if (callback != null) {
+      callback.completed(value);
+    }
+    return true;
+  }
+
+  /**
+   * Settles the outcome with an error.
+   * 
+   * @param cause
+   *          reason of the failure
+   * @return {@code true} if the outcome was settled by this call, {@code false} if it had been settled before
+   */
+  boolean fail(final Throwable cause) {
+    synchronized (this) {
+      if (isDone()) {
+        return false;
+      }
+      error = cause;
+      done.countDown();
+    }
+    if (callback != null) {
+      callback.failed(cause);
+    }
+    return true;
+  }
+
+  /**
+   * Hook that is invoked after the future has been cancelled, so subclasses can abandon the operation.
+   */
+  protected void cancelled() {
+  }
+
+  @Override
+  public boolean cancel(final boolean mayInterruptIfRunning) {
+    if (!fail(new CancellationException("The operation was cancelled."))) {
+      return false;
+    }
+    cancelled();
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return error instanceof CancellationException;
+  }
+
+  @Override
+  public boolean isDone() {
+    return done.getCount() == 0;
+  }
+
+  @Override
+  public T get() throws InterruptedException, ExecutionException {
+    done.await();
+    return getResult();
+  }
+
+  @Override
+  public T get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException,
+      TimeoutException {
+    if (!done.await(timeout, unit)) {
+      throw new TimeoutException("No result within " + timeout + " " + unit + ".");
+    }
+    return getResult();
+  }
+
+  private synchronized T getResult() throws ExecutionException {
+    if (error instanceof CancellationException) {
+      throw (CancellationException) error;
+    }
+    if (error != null) {
+      throw new ExecutionException(error);
+    }
+    return result;
+  }
+}
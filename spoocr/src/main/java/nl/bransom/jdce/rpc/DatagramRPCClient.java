@@ -0,0 +1,640 @@
+package nl.bransom.jdce.rpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+
+import nl.bransom.jdce.ndr.FormatLabel;
+import nl.bransom.jdce.ndr.FormatLabelCharacter;
+import nl.bransom.jdce.ndr.FormatLabelFloat;
+import nl.bransom.jdce.ndr.FormatLabelInteger;
+import nl.bransom.jdce.ndr.NDRBufferPool;
+import nl.bransom.jdce.ndr.NDRWriter;
+import nl.bransom.jdce.pdu.ActivityTable;
+import nl.bransom.jdce.pdu.FragmentReassembler;
+import nl.bransom.jdce.pdu.FragmentStatus;
+import nl.bransom.jdce.pdu.PDUConnectionlessHeader;
+import nl.bransom.jdce.pdu.PDUConnectionlessHeaderView;
+import nl.bransom.jdce.pdu.PDUFackBody;
+import nl.bransom.jdce.pdu.PDUFlag1;
+import nl.bransom.jdce.pdu.PDUFlags;
+import nl.bransom.jdce.pdu.PDUType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client for connectionless RPC over UDP.
+ * 
+ * All calls are multiplexed over a single {@link DatagramChannel} that is driven by one I/O thread, so thousands of
+ * calls can be in progress at the same time. Each call in progress has an activity of its own; activities are reused
+ * for later calls with increasing sequence numbers. Calls are non-idempotent: the client acknowledges each complete
+ * response with an <b>ack</b> PDU.
+ * 
+ * A <b>request</b> is retransmitted if the server doesn't reply in time. The time-out adapts to the measured round-trip
+ * times of the server and doubles with each retransmission. Once the server has confirmed the receipt of the request
+ * with a <b>working</b> or <b>fack</b> PDU, or with part of the response, the client sends <b>ping</b> PDUs instead,
+ * and retransmits the request only if the server answers with <b>nocall</b>. A call fails if the server doesn't reply
+ * to several transmissions in a row, or if the call doesn't complete within the call time-out.
+ * 
+ * @author Rob
+ */
+public final class DatagramRPCClient {
+
+  /** Default maximum duration of a call. */
+  public static final long DEFAULT_CALL_TIMEOUT_MILLIS = 30000L;
+  /** Default time to wait for a reply before retransmitting, until the round-trip time of a server is known. */
+  public static final long DEFAULT_INITIAL_RETRANSMIT_TIMEOUT_MILLIS = 1000L;
+  /** Maximum length of the body of a request fragment, so a fragment fits in a single Ethernet frame. */
+  public static final int MAX_FRAGMENT_BODY_LENGTH = 1392;
+
+  private static final Logger LOG = LoggerFactory.getLogger(DatagramRPCClient.class);
+  private static final int MAX_DATAGRAM_LENGTH = 65507;
+  private static final int MAX_RESPONSE_LENGTH = 1 << 24;
+  private static final long MIN_RETRANSMIT_TIMEOUT_MILLIS = 20L;
+  private static final long MAX_RETRANSMIT_TIMEOUT_MILLIS = 10000L;
+  // Number of consecutive transmissions without any reply after which a call fails.
+  private static final int MAX_UNANSWERED_TRANSMISSIONS = 6;
+  private static final int MAX_ESTIMATORS = 1024;
+  private static final long EXPIRE_INTERVAL_MILLIS = 1000L;
+  private static final short FACK_WINDOW_SIZE = 64;
+  private static final int STATUS_LENGTH = 4;
+  private static final int UNSIGNED_SHORT_MASK = 0xffff;
+  private static final String CLOSED_ERROR = "The datagram RPC client has been closed.";
+
+  private final long callTimeoutMillis;
+  private final long initialRetransmitTimeoutMillis;
+  private final Queue<Call> newCalls = new ConcurrentLinkedQueue<Call>();
+  private final Queue<Call> cancelledCalls = new ConcurrentLinkedQueue<Call>();
+  private final NDRBufferPool bufferPool = new NDRBufferPool(false);
+  private final FragmentReassembler reassembler;
+  // Only accessed by the I/O thread.
+  private final Map<UUID, Call> activeCalls = new HashMap<UUID, Call>();
+  private final TreeSet<Call> timers = new TreeSet<Call>();
+  private final Queue<Activity> idleActivities = new ArrayDeque<Activity>();
+  private final Map<InetSocketAddress, RTTEstimator> estimators;
+  private final PDUConnectionlessHeader header = new PDUConnectionlessHeader();
+  private final PDUConnectionlessHeaderView view = new PDUConnectionlessHeaderView();
+  private final PDUFackBody fackBody = new PDUFackBody();
+  private long callCounter;
+  private long nextExpireTime;
+  // Guarded by this, so no call is queued after the I/O thread has stopped.
+  private Selector selector;
+  private DatagramChannel channel;
+  private volatile boolean closed;
+
+  /**
+   * Default constructor.
+   */
+  public DatagramRPCClient() {
+    this(DEFAULT_CALL_TIMEOUT_MILLIS, DEFAULT_INITIAL_RETRANSMIT_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param callTimeoutMillis
+   *          maximum duration of a call
+   * @param initialRetransmitTimeoutMillis
+   *          time to wait for a reply before retransmitting, until the round-trip time of a server is known
+   */
+  public DatagramRPCClient(final long callTimeoutMillis, final long initialRetransmitTimeoutMillis) {
+    if (callTimeoutMillis <= 0 || initialRetransmitTimeoutMillis < MIN_RETRANSMIT_TIMEOUT_MILLIS
+        || initialRetransmitTimeoutMillis > MAX_RETRANSMIT_TIMEOUT_MILLIS) {
+      throw new IllegalArgumentException("The call time-out must be positive and the retransmit time-out in ["
+          + MIN_RETRANSMIT_TIMEOUT_MILLIS + ", " + MAX_RETRANSMIT_TIMEOUT_MILLIS + "] ms.");
+    }
+    this.callTimeoutMillis = callTimeoutMillis;
+    this.initialRetransmitTimeoutMillis = initialRetransmitTimeoutMillis;
+    this.reassembler = new FragmentReassembler(bufferPool, MAX_RESPONSE_LENGTH, callTimeoutMillis);
+    this.estimators = new LinkedHashMap<InetSocketAddress, RTTEstimator>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<InetSocketAddress, RTTEstimator> eldest) {
+        return size() > MAX_ESTIMATORS;
+      }
+    };
+    header.setFormatLabel(getFormatLabel());
+  }
+
+  /**
+   * @return the NDR Format Label of the stub data of requests: little-endian integers, ASCII characters and IEEE
+   *         floating point numbers
+   */
+  public static FormatLabel getFormatLabel() {
+    return new FormatLabel(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII, FormatLabelFloat.IEEE);
+  }
+
+  /**
+   * Invokes an operation of a remote RPC interface. The call fails with an {@link RPCFaultException} if the server
+   * answers with a <b>fault</b> or <b>reject</b> PDU, and with a {@link SocketTimeoutException} if the server doesn't
+   * reply or the call doesn't complete in time.
+   * 
+   * @param serverAddress
+   *          UDP address of the server
+   * @param interfaceId
+   *          identifier of the RPC interface
+   * @param interfaceVersion
+   *          major version in the lower 16 bits, minor version in the upper 16 bits
+   * @param operationNumber
+   *          number of the operation within the interface
+   * @param stub
+   *          NDR encoded input parameters, using the Format Label of {@link #getFormatLabel()}
+   * @param callback
+   *          optional callback, invoked on the I/O thread once the call completes; may be {@code null}
+   * @return future that yields the NDR encoded output parameters, in the integer byte order of the server's Format
+   *         Label
+   * @throws IOException
+   *           if this client has been closed or its socket cannot be opened
+   */
+  public Future<ByteBuffer> call(final InetSocketAddress serverAddress, final UUID interfaceId,
+      final int interfaceVersion, final int operationNumber, final byte[] stub, final RPCCallback<ByteBuffer> callback)
+      throws IOException {
+    if (serverAddress == null || interfaceId == null || stub == null) {
+      throw new IllegalArgumentException("Server address, interface id and stub must not be null.");
+    }
+    final Call call = new Call(serverAddress, interfaceId, interfaceVersion, (short) operationNumber, stub, callback);
+    if (serverAddress.isUnresolved()) {
+      call.fail(new UnknownHostException(serverAddress.getHostName()));
+      return call;
+    }
+    enqueue(call);
+    return call;
+  }
+
+  /**
+   * Stops the I/O thread and closes the socket. Pending calls fail with an IOException.
+   */
+  public synchronized void close() {
+    closed = true;
+    if (selector != null) {
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * Hands a call over to the I/O thread. Opens the socket and the selector and starts the I/O thread on first use.
+   */
+  private synchronized void enqueue(final Call call) throws IOException {
+    if (closed) {
+      throw new IOException(CLOSED_ERROR);
+    }
+    if (selector == null) {
+      channel = DatagramChannel.open();
+      try {
+        channel.configureBlocking(false);
+        channel.socket().bind(null);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+      final Thread ioThread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          runSelector();
+        }
+      }, getClass().getSimpleName());
+      ioThread.setDaemon(true);
+      ioThread.start();
+    }
+    newCalls.add(call);
+    selector.wakeup();
+  }
+
+  /**
+   * Drives all calls until the client is closed. A failure to send the PDUs of one call only fails that call. If the
+   * loop itself fails, the client is closed as well, so pending and later calls fail instead of waiting for an I/O
+   * thread that no longer runs.
+   */
+  private void runSelector() {
+    final ByteBuffer datagram = ByteBuffer.allocate(MAX_DATAGRAM_LENGTH);
+    Exception failure = null;
+    try {
+      while (!closed) {
+        startNewCalls();
+        finishCancelledCalls();
+        selector.select(fireTimers(System.currentTimeMillis()));
+        selector.selectedKeys().clear();
+        SocketAddress source = channel.receive(datagram);
+        while (source != null) {
+          datagram.flip();
+          try {
+            received(source, datagram, System.currentTimeMillis());
+          } catch (RuntimeException e) {
+            LOG.debug("Ignored invalid datagram from {}: {}", source, e.getMessage());
+          }
+          datagram.clear();
+          source = channel.receive(datagram);
+        }
+      }
+    } catch (IOException e) {
+      LOG.error(e.getMessage(), e);
+      failure = e;
+    } catch (RuntimeException e) {
+      LOG.error(e.getMessage(), e);
+      failure = e;
+    } finally {
+      synchronized (this) {
+        closed = true;
+      }
+      final IOException closedException = new IOException(CLOSED_ERROR, failure);
+      for (Call call : new ArrayList<Call>(activeCalls.values())) {
+        finish(call, closedException);
+      }
+      Call call = newCalls.poll();
+      while (call != null) {
+        call.fail(closedException);
+        call = newCalls.poll();
+      }
+      try {
+        channel.close();
+        selector.close();
+      } catch (IOException e) {
+        LOG.warn(e.getMessage(), e);
+      }
+    }
+  }
+
+  private void startNewCalls() {
+    Call call = newCalls.poll();
+    while (call != null) {
+      if (!call.isDone()) {
+        try {
+          start(call, System.currentTimeMillis());
+        } catch (IOException e) {
+          finish(call, e);
+        }
+      }
+      call = newCalls.poll();
+    }
+  }
+
+  private void finishCancelledCalls() {
+    Call call = cancelledCalls.poll();
+    while (call != null) {
+      if (activeCalls.get(call.activity.activityId) == call) {
+        finish(call, null);
+      }
+      call = cancelledCalls.poll();
+    }
+  }
+
+  /**
+   * Handles the calls whose time-out has passed.
+   * 
+   * @param now
+   *          current time in milliseconds
+   * @return number of milliseconds until the next time-out, or zero if no call is active
+   */
+  private long fireTimers(final long now) {
+    while (!timers.isEmpty() && timers.first().nextTimeout <= now) {
+      final Call call = timers.pollFirst();
+      try {
+        timeout(call, now);
+      } catch (IOException e) {
+        finish(call, e);
+      } catch (RuntimeException e) {
+        LOG.warn(e.getMessage(), e);
+      }
+    }
+    if (now >= nextExpireTime) {
+      reassembler.expire(now);
+      nextExpireTime = now + EXPIRE_INTERVAL_MILLIS;
+    }
+    return timers.isEmpty() ? 0L : Math.max(1L, timers.first().nextTimeout - now);
+  }
+
+  private void start(final Call call, final long now) throws IOException {
+    Activity activity = idleActivities.poll();
+    if (activity == null) {
+      final java.util.UUID random = java.util.UUID.randomUUID();
+      activity = new Activity(new UUID(random.getMostSignificantBits(), random.getLeastSignificantBits()));
+    }
+    call.activity = activity;
+    call.sequenceNumber = activity.nextSequenceNumber++;
+    call.id = callCounter++;
+    call.deadline = now + callTimeoutMillis;
+    call.estimator = estimators.get(call.serverAddress);
+    if (call.estimator == null) {
+      call.estimator = new RTTEstimator(initialRetransmitTimeoutMillis, MIN_RETRANSMIT_TIMEOUT_MILLIS,
+          MAX_RETRANSMIT_TIMEOUT_MILLIS);
+      estimators.put(call.serverAddress, call.estimator);
+    }
+    call.fragments = composeRequest(call);
+    activeCalls.put(activity.activityId, call);
+    call.firstSentTime = now;
+    sendRequest(call);
+    schedule(call, now + call.estimator.getTimeoutMillis(0));
+  }
+
+  private void timeout(final Call call, final long now) throws IOException {
+    if (call.isDone()) {
+      // Cancelled before the I/O thread noticed.
+      finish(call, null);
+    } else if (now >= call.deadline) {
+      finish(call, new SocketTimeoutException("The call to " + call.serverAddress + " did not complete within "
+          + callTimeoutMillis + " ms."));
+    } else if (call.numUnanswered >= MAX_UNANSWERED_TRANSMISSIONS) {
+      finish(call, new SocketTimeoutException("The server at " + call.serverAddress + " did not reply to "
+          + call.numUnanswered + " transmissions."));
+    } else {
+      if (call.isAcknowledged) {
+        send(call, compose(call, PDUType.PING, new PDUFlags(), 0, null, 0));
+      } else {
+        sendRequest(call);
+      }
+      call.numUnanswered++;
+      schedule(call, now + call.estimator.getTimeoutMillis(call.numUnanswered));
+    }
+  }
+
+  private void received(final SocketAddress source, final ByteBuffer datagram, final long now) {
+    if (!PDUConnectionlessHeaderView.isSupported(datagram)) {
+      LOG.debug("Ignored malformed datagram from {}.", source);
+      return;
+    }
+    view.wrap(datagram);
+    final PDUType pduType = view.getPDUType();
+    final Call call = activeCalls.get(view.getActivityId());
+    if (call == null || call.sequenceNumber != view.getSequenceNumber() || !call.serverAddress.equals(source)) {
+      LOG.debug("Ignored {} PDU from {} for no active call.", pduType, source);
+      return;
+    }
+    if (call.numTransmissions == 1 && !call.isRttSampled) {
+      // Only replies to requests that were sent once tell the round-trip time.
+      call.estimator.sample(now - call.firstSentTime);
+      call.isRttSampled = true;
+    }
+    call.numUnanswered = 0;
+    call.serverBootTime = view.getServerBootTime();
+    call.activityHint = view.getActivityHint();
+    datagram.position(datagram.position() + PDUConnectionlessHeaderView.HEADER_LENGTH);
+    try {
+      handle(call, pduType, datagram, now);
+    } catch (IOException e) {
+      finish(call, e);
+    }
+  }
+
+  private void handle(final Call call, final PDUType pduType, final ByteBuffer body, final long now)
+      throws IOException {
+    switch (pduType) {
+    case RESPONSE:
+      receivedResponse(call, body, now);
+      break;
+    case WORKING:
+    case FACK:
+      call.isAcknowledged = true;
+      schedule(call, now + call.estimator.getTimeoutMillis(0));
+      break;
+    case NOCALL:
+      call.isAcknowledged = false;
+      sendRequest(call);
+      schedule(call, now + call.estimator.getTimeoutMillis(0));
+      break;
+    case FAULT:
+      finish(call, new RPCFaultException(readStatus(body), false));
+      break;
+    case REJECT:
+      finish(call, new RPCFaultException(readStatus(body), true));
+      break;
+    default:
+      LOG.debug("Ignored unexpected {} PDU from {}.", pduType, call.serverAddress);
+      break;
+    }
+  }
+
+  private void receivedResponse(final Call call, final ByteBuffer fragmentBody, final long now) throws IOException {
+    call.isAcknowledged = true;
+    final FragmentStatus status = reassembler.accept(view, fragmentBody, now);
+    if (status == FragmentStatus.REJECTED) {
+      finish(call, new ProtocolException("The server at " + call.serverAddress + " sent inconsistent fragments."));
+      return;
+    }
+    if (view.isSet(PDUFlag1.FRAG) && !view.isSet(PDUFlag1.NOFACK) && status != FragmentStatus.COMPLETE) {
+      sendFack(call);
+    }
+    if (status == FragmentStatus.COMPLETE) {
+      final ByteBuffer body = reassembler.takeCompleted(call.activity.activityId);
+      final ByteOrder byteOrder = view.getFormatLabel().getFormatLabelInteger().getByteOrder();
+      final ByteBuffer result = ByteBuffer.allocate(body.remaining()).order(byteOrder);
+      result.put(body).flip();
+      bufferPool.release(body);
+      try {
+        send(call, compose(call, PDUType.ACK, new PDUFlags(), 0, null, 0));
+      } catch (IOException e) {
+        // The response is complete anyway; an ack that isn't sent is as good as lost.
+        LOG.debug("Cannot acknowledge the response of {}: {}", call.serverAddress, e.getMessage());
+      }
+      finish(call, null);
+      call.complete(result);
+    } else {
+      schedule(call, now + call.estimator.getTimeoutMillis(0));
+    }
+  }
+
+  private void sendFack(final Call call) throws IOException {
+    final int fragmentNumber = reassembler.fillFack(call.activity.activityId, fackBody);
+    if (fragmentNumber < 0) {
+      return;
+    }
+    fackBody.setWindowSize(FACK_WINDOW_SIZE);
+    fackBody.setMaxTsdu(MAX_DATAGRAM_LENGTH);
+    fackBody.setMaxFragmentSize(MAX_DATAGRAM_LENGTH);
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    final NDRWriter ndrWriter = new NDRWriter(bos);
+    ndrWriter.setFormatLabel(getFormatLabel());
+    fackBody.ndrSerialize(ndrWriter);
+    final byte[] body = bos.toByteArray();
+    send(call, compose(call, PDUType.FACK, new PDUFlags(), fragmentNumber, body, body.length));
+  }
+
+  private void sendRequest(final Call call) throws IOException {
+    for (final byte[] fragment : call.fragments) {
+      send(call, fragment);
+    }
+    call.numTransmissions++;
+  }
+
+  private void send(final Call call, final byte[] pdu) throws IOException {
+    // Each transmission gets a new serial number, so the server's facks tell which one arrived.
+    final ByteBuffer datagram = ByteBuffer.wrap(pdu);
+    PDUConnectionlessHeaderView.putSerialNumber(datagram, (short) call.serialNumber++);
+    // A datagram that doesn't fit in the send buffer is as good as lost; the time-outs take care of it.
+    channel.send(datagram, call.serverAddress);
+  }
+
+  private void schedule(final Call call, final long time) {
+    timers.remove(call);
+    call.nextTimeout = Math.min(time, call.deadline);
+    timers.add(call);
+  }
+
+  private void finish(final Call call, final Exception cause) {
+    activeCalls.remove(call.activity.activityId);
+    timers.remove(call);
+    idleActivities.add(call.activity);
+    if (cause != null) {
+      LOG.debug("Call to {} failed: {}", call.serverAddress, cause.getMessage());
+      call.fail(cause);
+    }
+  }
+
+  private byte[][] composeRequest(final Call call) throws IOException {
+    final int numFragments = Math.max(1, (call.stub.length + MAX_FRAGMENT_BODY_LENGTH - 1) / MAX_FRAGMENT_BODY_LENGTH);
+    final byte[][] fragments = new byte[numFragments][];
+    for (int i = 0; i < numFragments; i++) {
+      final PDUFlags pduFlags = new PDUFlags();
+      if (numFragments > 1) {
+        pduFlags.set(PDUFlag1.FRAG);
+        if (i == numFragments - 1) {
+          pduFlags.set(PDUFlag1.LASTFRAG);
+        } else {
+          pduFlags.set(PDUFlag1.NOFACK);
+        }
+      }
+      final int offset = i * MAX_FRAGMENT_BODY_LENGTH;
+      fragments[i] = compose(call, PDUType.REQUEST, pduFlags, i, call.stub, offset,
+          Math.min(MAX_FRAGMENT_BODY_LENGTH, call.stub.length - offset));
+    }
+    return fragments;
+  }
+
+  private byte[] compose(final Call call, final PDUType pduType, final PDUFlags pduFlags, final int fragmentNumber,
+      final byte[] body, final int bodyLength) throws IOException {
+    return compose(call, pduType, pduFlags, fragmentNumber, body, 0, bodyLength);
+  }
+
+  private byte[] compose(final Call call, final PDUType pduType, final PDUFlags pduFlags, final int fragmentNumber,
+      final byte[] body, final int bodyOffset, final int bodyLength) throws IOException {
+    header.setPDUType(pduType);
+    header.setPDUFlags(pduFlags);
+    // The serial number is set by send().
+    header.setSerialNumber((short) 0);
+    header.setObjectId(UUID.NIL);
+    header.setInterfaceId(call.interfaceId);
+    header.setActivityId(call.activity.activityId);
+    header.setServerBootTime(call.serverBootTime);
+    header.setInterfaceVersion(call.interfaceVersion);
+    header.setSequenceNumber(call.sequenceNumber);
+    header.setOperationNumber(call.operationNumber);
+    header.setInterfaceHint(ActivityTable.NO_HINT);
+    header.setActivityHint(call.activityHint);
+    header.setPDUBodyLength((short) bodyLength);
+    header.setFragmentNumber((short) fragmentNumber);
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream(PDUConnectionlessHeaderView.HEADER_LENGTH + bodyLength);
+    header.ndrSerialize(new NDRWriter(bos));
+    if (body != null) {
+      bos.write(body, bodyOffset, bodyLength);
+    }
+    return bos.toByteArray();
+  }
+
+  /**
+   * Reads the status code from the body of a <b>fault</b> or <b>reject</b> PDU.
+   */
+  private int readStatus(final ByteBuffer body) {
+    final int bodyLength = Math.min(body.remaining(), view.getPDUBodyLength() & UNSIGNED_SHORT_MASK);
+    if (bodyLength < STATUS_LENGTH) {
+      return 0;
+    }
+    final int status = body.getInt(body.position());
+    final ByteOrder byteOrder = view.getFormatLabel().getFormatLabelInteger().getByteOrder();
+    return (byteOrder == body.order()) ? status : Integer.reverseBytes(status);
+  }
+
+  /**
+   * Activity of the client, used by one call at a time.
+   */
+  private static final class Activity {
+
+    private final UUID activityId;
+    private int nextSequenceNumber;
+
+    /**
+     * Constructor.
+     * 
+     * @param activityId
+     *          activity identifier
+     */
+    Activity(final UUID activityId) {
+      this.activityId = activityId;
+    }
+  }
+
+  /**
+   * State of one call. Calls are ordered by their next time-out.
+   */
+  private final class Call extends CallFuture<ByteBuffer> implements Comparable<Call> {
+
+    private final InetSocketAddress serverAddress;
+    private final UUID interfaceId;
+    private final int interfaceVersion;
+    private final short operationNumber;
+    private final byte[] stub;
+    // The fields below are only accessed by the I/O thread.
+    private volatile Activity activity;
+    private long id;
+    private int sequenceNumber;
+    private int serialNumber;
+    private byte[][] fragments;
+    private RTTEstimator estimator;
+    private long deadline;
+    private long nextTimeout;
+    private long firstSentTime;
+    private int numTransmissions;
+    private int numUnanswered;
+    private boolean isRttSampled;
+    private boolean isAcknowledged;
+    private int serverBootTime;
+    private short activityHint = ActivityTable.NO_HINT;
+
+    private Call(final InetSocketAddress serverAddress, final UUID interfaceId, final int interfaceVersion,
+        final short operationNumber, final byte[] stub, final RPCCallback<ByteBuffer> callback) {
+      super(callback);
+      this.serverAddress = serverAddress;
+      this.interfaceId = interfaceId;
+      this.interfaceVersion = interfaceVersion;
+      this.operationNumber = operationNumber;
+      this.stub = stub;
+    }
+
+    @Override
+    protected void cancelled() {
+      // Let the I/O thread clean up.
+      if (activity != null) {
+        cancelledCalls.add(this);
+        selector.wakeup();
+      }
+    }
+
+    @Override
+    public int compareTo(final Call other) {
+      if (nextTimeout != other.nextTimeout) {
+        return (nextTimeout < other.nextTimeout) ? -1 : 1;
+      }
+      return (id < other.id) ? -1 : ((id == other.id) ? 0 : 1);
+    }
+  }
+}
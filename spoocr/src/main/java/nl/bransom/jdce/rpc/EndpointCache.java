@@ -0,0 +1,279 @@
+package nl.bransom.jdce.rpc;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the endpoints resolved by another {@link EndpointResolver}, so repeated operations on the same host and
+ * interface do not repeat the round-trip to the endpoint mapper.
+ * 
+ * Entries are keyed by endpoint mapper address, interface identifier and interface version. Successful lookups are
+ * kept for a configurable time-to-live. Lookups that fail because the host refuses the connection or because the
+ * endpoint mapper rejects the lookup are kept as well, for a (typically shorter) negative time-to-live; other failures,
+ * such as time-outs, are not cached. Concurrent lookups of the same key share a single lookup. The cache holds at most
+ * a given number of completed entries and evicts the least recently used one first; pending lookups are kept apart and
+ * are never evicted, so they remain shared until they complete.
+ * 
+ * @author Rob
+ */
+public class EndpointCache implements EndpointResolver {
+
+  private static final int HASH_PRIME = 31;
+
+  private final EndpointResolver resolver;
+  private final long ttlMillis;
+  private final long negativeTtlMillis;
+  // Completed lookups, in LRU order. Also serves as the lock of both maps.
+  private final Map<Key, CacheEntry> entries;
+  private final Map<Key, CacheEntry> pendingEntries = new HashMap<Key, CacheEntry>();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * Constructor.
+   * 
+   * @param resolver
+   *          resolver that performs the actual lookups, typically an {@link EndpointMapperClient}
+   * @param maxEntries
+   *          maximum number of cached entries
+   * @param ttlMillis
+   *          time-to-live of resolved endpoints
+   * @param negativeTtlMillis
+   *          time-to-live of failed lookups; zero disables negative caching
+   */
+  public EndpointCache(final EndpointResolver resolver, final int maxEntries, final long ttlMillis,
+      final long negativeTtlMillis) {
+    if (maxEntries <= 0 || ttlMillis < 0 || negativeTtlMillis < 0) {
+      throw new IllegalArgumentException("The cache size must be positive and time-to-live values non-negative.");
+    }
+    this.resolver = resolver;
+    this.ttlMillis = ttlMillis;
+    this.negativeTtlMillis = negativeTtlMillis;
+    this.entries = new LinkedHashMap<Key, CacheEntry>(Math.min(maxEntries, 1 << 10), 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Key, CacheEntry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Returns the cached endpoints if available, joins a pending lookup of the same key or else starts a new lookup. The
+   * returned future is shared by all callers of the same lookup, so it cannot be cancelled.
+   */
+  @Override
+  public Future<List<InetSocketAddress>> lookup(final InetSocketAddress mapperAddress, final UUID interfaceId,
+      final int interfaceVersion, final RPCCallback<List<InetSocketAddress>> callback) throws IOException {
+    final Key key = new Key(mapperAddress, interfaceId, interfaceVersion);
+    final CacheEntry entry;
+    boolean isNew = false;
+    synchronized (entries) {
+      final CacheEntry pendingEntry = pendingEntries.get(key);
+      if (pendingEntry != null) {
+        hitCount.incrementAndGet();
+        if (callback != null) {
+          pendingEntry.waiters.add(callback);
+        }
+        return pendingEntry.future;
+      }
+      final CacheEntry cachedEntry = entries.get(key);
+      if (cachedEntry != null && cachedEntry.expiresAt > currentTimeMillis()) {
+        hitCount.incrementAndGet();
+        entry = cachedEntry;
+      } else {
+        missCount.incrementAndGet();
+        if (cachedEntry != null) {
+          entries.remove(key);
+        }
+        entry = new CacheEntry(key);
+        if (callback != null) {
+          entry.waiters.add(callback);
+        }
+        pendingEntries.put(key, entry);
+        isNew = true;
+      }
+    }
+    if (isNew) {
+      try {
+        resolver.lookup(mapperAddress, interfaceId, interfaceVersion, entry);
+      } catch (IOException e) {
+        entry.failed(e);
+      }
+    } else if (callback != null) {
+      entry.notifyCallback(callback);
+    }
+    return entry.future;
+  }
+
+  /**
+   * @return number of lookups that were served from the cache or joined a pending lookup
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * @return number of lookups that were delegated to the underlying resolver
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * @return number of cached entries, including expired and pending ones
+   */
+  public int size() {
+    synchronized (entries) {
+      return entries.size() + pendingEntries.size();
+    }
+  }
+
+  /**
+   * Discards all cached entries. Pending lookups still complete for their callers.
+   */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+      pendingEntries.clear();
+    }
+  }
+
+  /**
+   * @return current time in milliseconds, used to expire entries
+   */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  private static boolean isCacheableFailure(final Throwable cause) {
+    return cause instanceof EndpointMapperException || cause instanceof ConnectException;
+  }
+
+  /**
+   * Cache key.
+   */
+  private static final class Key {
+
+    private final InetSocketAddress mapperAddress;
+    private final UUID interfaceId;
+    private final int interfaceVersion;
+
+    private Key(final InetSocketAddress mapperAddress, final UUID interfaceId, final int interfaceVersion) {
+      this.mapperAddress = mapperAddress;
+      this.interfaceId = interfaceId;
+      this.interfaceVersion = interfaceVersion;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (obj instanceof Key) {
+        final Key that = (Key) obj;
+        return this.interfaceVersion == that.interfaceVersion && this.interfaceId.equals(that.interfaceId)
+            && this.mapperAddress.equals(that.mapperAddress);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return (mapperAddress.hashCode() * HASH_PRIME + interfaceId.hashCode()) * HASH_PRIME + interfaceVersion;
+    }
+  }
+
+  /**
+   * Cached outcome of one lookup. While the lookup is pending, {@code waiters} collects the callbacks of the callers
+   * and the entry is kept in {@code pendingEntries}; once it completes, it moves to the LRU {@code entries}.
+   */
+  private final class CacheEntry implements RPCCallback<List<InetSocketAddress>> {
+
+    private final Key key;
+    private final CallFuture<List<InetSocketAddress>> future = new CallFuture<List<InetSocketAddress>>(null) {
+      @Override
+      public boolean cancel(final boolean mayInterruptIfRunning) {
+        return false;
+      }
+    };
+    private List<RPCCallback<List<InetSocketAddress>>> waiters =
+        new ArrayList<RPCCallback<List<InetSocketAddress>>>(1);
+    private long expiresAt = Long.MAX_VALUE;
+
+    private CacheEntry(final Key key) {
+      this.key = key;
+    }
+
+    @Override
+    public void completed(final List<InetSocketAddress> result) {
+      final List<RPCCallback<List<InetSocketAddress>>> callbacks;
+      synchronized (entries) {
+        if (waiters == null) {
+          return;
+        }
+        expiresAt = currentTimeMillis() + ttlMillis;
+        cache();
+        callbacks = waiters;
+        waiters = null;
+      }
+      future.complete(result);
+      for (RPCCallback<List<InetSocketAddress>> callback : callbacks) {
+        callback.completed(result);
+      }
+    }
+
+    @Override
+    public void failed(final Throwable cause) {
+      final List<RPCCallback<List<InetSocketAddress>>> callbacks;
+      synchronized (entries) {
+        if (waiters == null) {
+          return;
+        }
+        if (negativeTtlMillis > 0 && isCacheableFailure(cause)) {
+          expiresAt = currentTimeMillis() + negativeTtlMillis;
+          cache();
+        } else {
+          expiresAt = Long.MIN_VALUE;
+          if (pendingEntries.get(key) == this) {
+            pendingEntries.remove(key);
+          }
+        }
+        callbacks = waiters;
+        waiters = null;
+      }
+      future.fail(cause);
+      for (RPCCallback<List<InetSocketAddress>> callback : callbacks) {
+        callback.failed(cause);
+      }
+    }
+
+    /**
+     * Moves this entry from the pending lookups to the LRU cache, unless the cache has been cleared meanwhile. Must be
+     * called while holding the lock on {@code entries}.
+     */
+    private void cache() {
+      if (pendingEntries.get(key) == this) {
+        pendingEntries.remove(key);
+        entries.put(key, this);
+      }
+    }
+
+    /**
+     * Notifies a caller of the outcome of a completed lookup.
+     */
+    private void notifyCallback(final RPCCallback<List<InetSocketAddress>> callback) {
+      try {
+        callback.completed(future.get());
+      } catch (Exception e) {
+        callback.failed(e.getCause() != null ? e.getCause() : e);
+      }
+    }
+  }
+}
@@ -2,8 +2,24 @@ package nl.bransom.jdce.rpc;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+
+import nl.bransom.jdce.pdu.PDUConnectionOrientedHeader;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,13 +27,112 @@ import org.slf4j.LoggerFactory;
 /**
  * Use this class to access a (remote) RPC endpoint mapper service.
  * 
+ * Lookups resolve the dynamic TCP port of an RPC interface with the {@code ept_map} operation. They are non-blocking:
+ * a single I/O thread drives the connections of all pending lookups by means of a {@link Selector}, so many hosts can
+ * be resolved at the same time. Each lookup yields a {@link Future} and optionally notifies an {@link RPCCallback}.
+ * 
  * @author Rob
  */
-public final class EndpointMapperClient {
+public final class EndpointMapperClient implements EndpointResolver {
+
+  /** Default maximum duration of a lookup, including connection set-up. */
+  public static final long DEFAULT_LOOKUP_TIMEOUT_MILLIS = 5000L;
 
   private static final Logger LOG = LoggerFactory.getLogger(EndpointMapperClient.class);
   private static final int BUFFER_SIZE = 1024;
   private static final int TIMEOUT_MILLIS = 100;
+  private static final int BIND_CALL_ID = 1;
+  private static final int MAP_CALL_ID = 2;
+  private static final String CLOSED_ERROR = "The endpoint mapper client has been closed.";
+
+  private final long lookupTimeoutMillis;
+  private final Queue<Lookup> newLookups = new ConcurrentLinkedQueue<Lookup>();
+  // Only accessed by the I/O thread.
+  private final Set<Lookup> activeLookups = new HashSet<Lookup>();
+  // Guarded by this, so no lookup is queued after the I/O thread has stopped.
+  private Selector selector;
+  private volatile boolean closed;
+
+  /**
+   * Default constructor.
+   */
+  public EndpointMapperClient() {
+    this(DEFAULT_LOOKUP_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param lookupTimeoutMillis
+   *          maximum duration of a lookup, including connection set-up
+   */
+  public EndpointMapperClient(final long lookupTimeoutMillis) {
+    if (lookupTimeoutMillis <= 0) {
+      throw new IllegalArgumentException("The lookup time-out must be positive.");
+    }
+    this.lookupTimeoutMillis = lookupTimeoutMillis;
+  }
+
+  /**
+   * Looks up the TCP endpoints of an RPC interface at the endpoint mapper of the given host.
+   * 
+   * @param hostname
+   *          e.g. localhost
+   * @param interfaceId
+   *          identifier of the RPC interface
+   * @param interfaceVersion
+   *          major version in the lower 16 bits, minor version in the upper 16 bits
+   * @return future that yields the endpoints of the interface
+   * @throws IOException
+   *           if this client has been closed
+   */
+  public Future<List<InetSocketAddress>> lookup(final String hostname, final UUID interfaceId,
+      final int interfaceVersion) throws IOException {
+    return lookup(new InetSocketAddress(hostname, EndpointMapperProtocol.EPM_PORT), interfaceId, interfaceVersion,
+        null);
+  }
+
+  /**
+   * Looks up the TCP endpoints of an RPC interface at the given endpoint mapper. The lookup fails with an
+   * {@link EndpointMapperException} if the endpoint mapper does not know the interface, and with a
+   * {@link SocketTimeoutException} if it does not complete in time.
+   * 
+   * @param mapperAddress
+   *          address of the endpoint mapper, normally at port 135
+   * @param interfaceId
+   *          identifier of the RPC interface
+   * @param interfaceVersion
+   *          major version in the lower 16 bits, minor version in the upper 16 bits
+   * @param callback
+   *          optional callback, invoked on the I/O thread once the lookup completes; may be {@code null}
+   * @return future that yields the endpoints of the interface
+   * @throws IOException
+   *           if this client has been closed
+   */
+  @Override
+  public Future<List<InetSocketAddress>> lookup(final InetSocketAddress mapperAddress, final UUID interfaceId,
+      final int interfaceVersion, final RPCCallback<List<InetSocketAddress>> callback) throws IOException {
+    if (mapperAddress == null || interfaceId == null) {
+      throw new IllegalArgumentException("Mapper address and interface id must not be null.");
+    }
+    final Lookup lookup = new Lookup(mapperAddress, interfaceId, interfaceVersion, callback);
+    if (mapperAddress.isUnresolved()) {
+      lookup.fail(new UnknownHostException(mapperAddress.getHostName()));
+      return lookup;
+    }
+    enqueue(lookup);
+    return lookup;
+  }
+
+  /**
+   * Stops the I/O thread. Pending lookups fail with an IOException.
+   */
+  public synchronized void close() {
+    closed = true;
+    if (selector != null) {
+      selector.wakeup();
+    }
+  }
 
   /**
    * Sends a TCP request to the RPC <i>endpoint mapper</i> located at the given host and logs the response.
@@ -28,7 +143,9 @@ public final class EndpointMapperClient {
    *          e.g 8000
    * @throws IOException
    *           if network errors occur
+   * @deprecated use {@link #lookup(String, UUID, int)} instead
    */
+  @Deprecated
   public void go(final String hostname, final int port) throws IOException {
     Socket socket = null;
     try {
@@ -47,4 +164,226 @@ public final class EndpointMapperClient {
       }
     }
   }
+
+  /**
+   * Hands a lookup over to the I/O thread. Opens the selector and starts the I/O thread on first use.
+   */
+  private synchronized void enqueue(final Lookup lookup) throws IOException {
+    if (closed) {
+      throw new IOException(CLOSED_ERROR);
+    }
+    if (selector == null) {
+      selector = Selector.open();
+      final Thread ioThread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          runSelector();
+        }
+      }, getClass().getSimpleName());
+      ioThread.setDaemon(true);
+      ioThread.start();
+    }
+    newLookups.add(lookup);
+    selector.wakeup();
+  }
+
+  /**
+   * Drives all lookups until the client is closed. If the loop fails, the client is closed as well, so pending and
+   * later lookups fail instead of waiting for an I/O thread that no longer runs.
+   */
+  private void runSelector() {
+    Exception failure = null;
+    try {
+      while (!closed) {
+        startNewLookups();
+        selector.select(expireLookups(System.currentTimeMillis()));
+        final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          final SelectionKey key = it.next();
+          it.remove();
+          final Lookup lookup = (Lookup) key.attachment();
+          try {
+            lookup.handle(key);
+          } catch (Exception e) {
+            finish(lookup, e);
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOG.error(e.getMessage(), e);
+      failure = e;
+    } catch (RuntimeException e) {
+      LOG.error(e.getMessage(), e);
+      failure = e;
+    } finally {
+      synchronized (this) {
+        closed = true;
+      }
+      final IOException closedException = new IOException(CLOSED_ERROR, failure);
+      for (Lookup lookup : new ArrayList<Lookup>(activeLookups)) {
+        finish(lookup, closedException);
+      }
+      Lookup lookup = newLookups.poll();
+      while (lookup != null) {
+        lookup.fail(closedException);
+        lookup = newLookups.poll();
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        LOG.warn(e.getMessage(), e);
+      }
+    }
+  }
+
+  private void startNewLookups() {
+    Lookup lookup = newLookups.poll();
+    while (lookup != null) {
+      activeLookups.add(lookup);
+      try {
+        lookup.start();
+      } catch (Exception e) {
+        finish(lookup, e);
+      }
+      lookup = newLookups.poll();
+    }
+  }
+
+  /**
+   * Cleans up lookups that are cancelled or have timed out.
+   * 
+   * @param now
+   *          current time in milliseconds
+   * @return number of milliseconds until the next lookup times out, or zero if no lookup is active
+   */
+  private long expireLookups(final long now) {
+    long nextDeadline = Long.MAX_VALUE;
+    for (Lookup lookup : new ArrayList<Lookup>(activeLookups)) {
+      if (lookup.isDone()) {
+        finish(lookup, null);
+      } else if (now >= lookup.deadline) {
+        finish(lookup, new SocketTimeoutException("The lookup at " + lookup.mapperAddress + " did not complete within "
+            + lookupTimeoutMillis + " ms."));
+      } else {
+        nextDeadline = Math.min(nextDeadline, lookup.deadline);
+      }
+    }
+    return (nextDeadline == Long.MAX_VALUE) ? 0L : Math.max(1L, nextDeadline - now);
+  }
+
+  private void finish(final Lookup lookup, final Exception cause) {
+    activeLookups.remove(lookup);
+    lookup.closeChannel();
+    if (cause != null) {
+      LOG.debug("Lookup at {} failed: {}", lookup.mapperAddress, cause.getMessage());
+      lookup.fail(cause);
+    }
+  }
+
+  /**
+   * State of one lookup: connect, send a <b>bind</b>, await the <b>bind_ack</b>, send the {@code ept_map}
+   * <b>request</b> and await the <b>response</b>.
+   */
+  private final class Lookup extends CallFuture<List<InetSocketAddress>> {
+
+    private final InetSocketAddress mapperAddress;
+    private final UUID interfaceId;
+    private final int interfaceVersion;
+    private final List<ByteBuffer> responseFragments = new ArrayList<ByteBuffer>(1);
+    private long deadline;
+    private SocketChannel channel;
+    private ByteBuffer output;
+    private ByteBuffer input;
+    private boolean bound;
+
+    private Lookup(final InetSocketAddress mapperAddress, final UUID interfaceId, final int interfaceVersion,
+        final RPCCallback<List<InetSocketAddress>> callback) {
+      super(callback);
+      this.mapperAddress = mapperAddress;
+      this.interfaceId = interfaceId;
+      this.interfaceVersion = interfaceVersion;
+    }
+
+    @Override
+    protected void cancelled() {
+      // Let the I/O thread clean up.
+      selector.wakeup();
+    }
+
+    private void start() throws IOException {
+      deadline = System.currentTimeMillis() + lookupTimeoutMillis;
+      output = EndpointMapperProtocol.composeBind(BIND_CALL_ID);
+      input = ByteBuffer.allocate(BUFFER_SIZE);
+      channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      final int interestOps = channel.connect(mapperAddress) ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT;
+      channel.register(selector, interestOps, this);
+    }
+
+    private void handle(final SelectionKey key) throws IOException {
+      if (key.isConnectable() && channel.finishConnect()) {
+        key.interestOps(SelectionKey.OP_WRITE);
+      } else if (key.isWritable()) {
+        channel.write(output);
+        if (!output.hasRemaining()) {
+          key.interestOps(SelectionKey.OP_READ);
+        }
+      } else if (key.isReadable()) {
+        if (!input.hasRemaining()) {
+          final ByteBuffer biggerInput = ByteBuffer.allocate(2 * input.capacity());
+          input.flip();
+          input = biggerInput.put(input);
+        }
+        if (channel.read(input) < 0) {
+          throw new IOException("The endpoint mapper at " + mapperAddress + " closed the connection.");
+        }
+        input.flip();
+        while (!isDone() && input.remaining() >= PDUConnectionOrientedHeader.HEADER_LENGTH) {
+          final int fragmentLength = PDUConnectionOrientedHeader.peekFragmentLength(input);
+          if (fragmentLength < PDUConnectionOrientedHeader.HEADER_LENGTH) {
+            throw new IOException("Invalid PDU fragment length " + fragmentLength + ".");
+          }
+          if (input.remaining() < fragmentLength) {
+            break;
+          }
+          final ByteBuffer pdu = ByteBuffer.allocate(fragmentLength);
+          pdu.order(PDUConnectionOrientedHeader.peekByteOrder(input));
+          final ByteBuffer fragment = input.duplicate();
+          fragment.limit(fragment.position() + fragmentLength);
+          pdu.put(fragment);
+          pdu.flip();
+          input.position(input.position() + fragmentLength);
+          received(key, pdu);
+        }
+        input.compact();
+      }
+    }
+
+    private void received(final SelectionKey key, final ByteBuffer pdu) throws IOException {
+      if (!bound) {
+        EndpointMapperProtocol.verifyBindAck(pdu);
+        bound = true;
+        output = EndpointMapperProtocol.composeMapRequest(MAP_CALL_ID, interfaceId, interfaceVersion);
+        key.interestOps(SelectionKey.OP_WRITE);
+      } else {
+        responseFragments.add(pdu);
+        if (EndpointMapperProtocol.isLastFragment(pdu)) {
+          final List<InetSocketAddress> endpoints = EndpointMapperProtocol.parseMapResponse(responseFragments,
+              mapperAddress.getAddress());
+          finish(this, null);
+          complete(endpoints);
+        }
+      }
+    }
+
+    private void closeChannel() {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          LOG.warn(e.getMessage(), e);
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,35 @@
+package nl.bransom.jdce.rpc;
+
+import java.io.IOException;
+
+/**
+ * Signals that an endpoint mapper has rejected or failed a lookup, as opposed to a network error.
+ * 
+ * @author Rob
+ */
+public class EndpointMapperException extends IOException {
+
+  /** Status returned by {@code ept_map} if no endpoint is registered for the interface. */
+  public static final int EPT_S_NOT_REGISTERED = 0x16c9a0d6;
+
+  private static final long serialVersionUID = 1L;
+
+  private final int status;
+
+  /**
+   * Constructor.
+   * 
+   * @param message
+   *          description of the error
+   * @param status
+   *          status code returned by the endpoint mapper, or the status of a <b>fault</b> or <b>bind_nack</b> PDU
+   */
+  public EndpointMapperException(final String message, final int status) {
+    super(message + " (status 0x" + Integer.toHexString(status) + ")");
+    this.status = status;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+}
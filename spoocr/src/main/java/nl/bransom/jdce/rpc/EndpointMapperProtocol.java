@@ -0,0 +1,390 @@
+package nl.bransom.jdce.rpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import nl.bransom.jdce.ndr.FormatLabel;
+import nl.bransom.jdce.ndr.FormatLabelCharacter;
+import nl.bransom.jdce.ndr.FormatLabelFloat;
+import nl.bransom.jdce.ndr.FormatLabelInteger;
+import nl.bransom.jdce.ndr.NDRConstants;
+import nl.bransom.jdce.ndr.NDRReader;
+import nl.bransom.jdce.ndr.NDRWriter;
+import nl.bransom.jdce.pdu.PDUConnectionOrientedFlag;
+import nl.bransom.jdce.pdu.PDUConnectionOrientedHeader;
+import nl.bransom.jdce.pdu.PDUType;
+
+/**
+ * Composes and parses the connection-oriented PDU's of an {@code ept_map} lookup: a <b>bind</b> to the endpoint mapper
+ * interface, followed by a <b>request</b> carrying a protocol tower for ncacn_ip_tcp.
+ * 
+ * <pre>
+ * void ept_map(
+ *   [in] handle_t h,
+ *   [in, ptr] uuid_p_t object,
+ *   [in, ptr] twr_p_t map_tower,
+ *   [in, out] ept_lookup_handle_t *entry_handle,
+ *   [in, range(0,500)] unsigned32 max_towers,
+ *   [out] unsigned32 *num_towers,
+ *   [out, ptr, size_is(max_towers), length_is(*num_towers)] twr_p_t *towers,
+ *   [out] error_status_t *status);
+ * </pre>
+ * 
+ * @author Rob
+ */
+final class EndpointMapperProtocol {
+
+  /** Well-known TCP port of the endpoint mapper. */
+  static final int EPM_PORT = 135;
+  /** Interface identifier of the endpoint mapper. */
+  static final UUID EPM_INTERFACE_ID = UUID.parse("e1af8308-5d1f-11c9-91a4-08002b14a0fa").intern();
+  /** Interface version 3.0 of the endpoint mapper. */
+  static final int EPM_INTERFACE_VERSION = 3;
+  /** Identifier of the NDR transfer syntax. */
+  static final UUID NDR_TRANSFER_SYNTAX_ID = UUID.parse("8a885d04-1ceb-11c9-9fe8-08002b104860").intern();
+  /** Version 2.0 of the NDR transfer syntax. */
+  static final int NDR_TRANSFER_SYNTAX_VERSION = 2;
+  /** Maximum number of towers requested per lookup. */
+  static final int MAX_TOWERS = 4;
+
+  private static final short MAX_FRAGMENT_SIZE = 4280;
+  private static final short EPT_MAP_OPNUM = 3;
+  // Length of the request and response headers, including the common header.
+  private static final int CALL_HEADER_LENGTH = 24;
+  private static final int BIND_LENGTH = 72;
+  private static final int BIND_ACK_SEC_ADDR_OFFSET = 24;
+  private static final int FAULT_STATUS_OFFSET = 24;
+  private static final int CONTEXT_HANDLE_LENGTH = 20;
+
+  private static final byte PROTOCOL_UUID = 0x0d;
+  private static final byte PROTOCOL_CONNECTION_ORIENTED = 0x0b;
+  private static final byte PROTOCOL_TCP = 0x07;
+  private static final byte PROTOCOL_IP = 0x09;
+  private static final int NUM_FLOORS = 5;
+  private static final int UUID_LENGTH = 16;
+  private static final int IPV4_ADDRESS_LENGTH = 4;
+  private static final int UNSIGNED_SHORT_MASK = 0xffff;
+  private static final int VERSION_BITS = 16;
+
+  /**
+   * Hidden constructor.
+   */
+  private EndpointMapperProtocol() {
+  }
+
+  /**
+   * Composes a <b>bind</b> PDU that sets up presentation context 0 for the endpoint mapper interface.
+   * 
+   * @param callId
+   *          call identifier
+   * @return buffer containing the complete PDU
+   * @throws IOException
+   *           never, because the PDU is composed in memory
+   */
+  static ByteBuffer composeBind(final int callId) throws IOException {
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream(BIND_LENGTH);
+    final NDRWriter ndrWriter = new NDRWriter(bos);
+    newHeader(PDUType.BIND, callId, BIND_LENGTH).ndrSerialize(ndrWriter);
+    ndrWriter.writeShort(MAX_FRAGMENT_SIZE);
+    ndrWriter.writeShort(MAX_FRAGMENT_SIZE);
+    // assoc_group_id
+    ndrWriter.writeInt(0);
+    // n_context_elem, reserved, reserved2
+    ndrWriter.writeByte((byte) 1);
+    ndrWriter.writeByte((byte) 0);
+    ndrWriter.writeShort((short) 0);
+    // p_cont_id, n_transfer_syn, reserved
+    ndrWriter.writeShort((short) 0);
+    ndrWriter.writeByte((byte) 1);
+    ndrWriter.writeByte((byte) 0);
+    ndrWriter.write(EPM_INTERFACE_ID);
+    ndrWriter.writeInt(EPM_INTERFACE_VERSION);
+    ndrWriter.write(NDR_TRANSFER_SYNTAX_ID);
+    ndrWriter.writeInt(NDR_TRANSFER_SYNTAX_VERSION);
+    return ByteBuffer.wrap(bos.toByteArray());
+  }
+
+  /**
+   * Composes the <b>request</b> PDU of an {@code ept_map} call for the ncacn_ip_tcp endpoints of an interface.
+   * 
+   * @param callId
+   *          call identifier
+   * @param interfaceId
+   *          identifier of the interface to look up
+   * @param interfaceVersion
+   *          major version in the lower 16 bits, minor version in the upper 16 bits
+   * @return buffer containing the complete PDU
+   * @throws IOException
+   *           never, because the PDU is composed in memory
+   */
+  static ByteBuffer composeMapRequest(final int callId, final UUID interfaceId, final int interfaceVersion)
+      throws IOException {
+    final byte[] tower = composeTower(interfaceId, interfaceVersion);
+    final ByteArrayOutputStream stubStream = new ByteArrayOutputStream();
+    final NDRWriter stubWriter = new NDRWriter(stubStream);
+    stubWriter.setFormatLabel(stubFormatLabel());
+    // object: any
+    stubWriter.writeInt(1);
+    stubWriter.write(UUID.NIL);
+    // map_tower: conformant struct twr_t with max_count, tower_length and tower_octet_string
+    stubWriter.writeInt(2);
+    stubWriter.writeInt(tower.length);
+    stubWriter.writeInt(tower.length);
+    stubWriter.writeBytesFixed(tower, 0, tower.length);
+    // entry_handle: nil context handle
+    stubWriter.writeInt(0);
+    stubWriter.write(UUID.NIL);
+    stubWriter.writeInt(MAX_TOWERS);
+    final byte[] stub = stubStream.toByteArray();
+
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream(CALL_HEADER_LENGTH + stub.length);
+    final NDRWriter ndrWriter = new NDRWriter(bos);
+    newHeader(PDUType.REQUEST, callId, CALL_HEADER_LENGTH + stub.length).ndrSerialize(ndrWriter);
+    // alloc_hint, p_cont_id, opnum
+    ndrWriter.writeInt(stub.length);
+    ndrWriter.writeShort((short) 0);
+    ndrWriter.writeShort(EPT_MAP_OPNUM);
+    ndrWriter.writeBytesFixed(stub, 0, stub.length);
+    return ByteBuffer.wrap(bos.toByteArray());
+  }
+
+  /**
+   * Verifies that the endpoint mapper has accepted the presentation context of the <b>bind</b>.
+   * 
+   * @param pdu
+   *          complete PDU, in the byte order of its format label
+   * @throws IOException
+   *           if the PDU is not a <b>bind_ack</b> or if the presentation context was rejected
+   */
+  static void verifyBindAck(final ByteBuffer pdu) throws IOException {
+    final PDUType pduType = pduTypeOf(pdu);
+    if (pduType == PDUType.BIND_NACK) {
+      throw new EndpointMapperException("The endpoint mapper rejected the bind.",
+          pdu.getShort(pdu.position() + PDUConnectionOrientedHeader.HEADER_LENGTH) & UNSIGNED_SHORT_MASK);
+    }
+    if (pduType != PDUType.BIND_ACK) {
+      throw new IOException("Expected a " + PDUType.BIND_ACK + " PDU instead of " + pduType + ".");
+    }
+    try {
+      // Skip the secondary address and its alignment, then check the result of the first presentation context.
+      final int secAddrLength = pdu.getShort(pdu.position() + BIND_ACK_SEC_ADDR_OFFSET) & UNSIGNED_SHORT_MASK;
+      final int resultListOffset = align(BIND_ACK_SEC_ADDR_OFFSET + 2 + secAddrLength, 4);
+      final int numResults = pdu.get(pdu.position() + resultListOffset) & NDRConstants.BYTE_MASK;
+      final int result = pdu.getShort(pdu.position() + resultListOffset + 4) & UNSIGNED_SHORT_MASK;
+      if (numResults < 1 || result != 0) {
+        throw new EndpointMapperException("The endpoint mapper did not accept the presentation context.", result);
+      }
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Truncated " + PDUType.BIND_ACK + " PDU.", e);
+    }
+  }
+
+  /**
+   * @param pdu
+   *          complete PDU, in the byte order of its format label
+   * @return {@code true} if the PDU has the {@link PDUConnectionOrientedFlag#LAST_FRAG} flag set
+   */
+  static boolean isLastFragment(final ByteBuffer pdu) {
+    final byte flags = pdu.get(pdu.position() + PDUConnectionOrientedHeader.OFFSET_FLAGS);
+    return (flags & PDUConnectionOrientedFlag.LAST_FRAG.getMask()) != 0x00;
+  }
+
+  /**
+   * Extracts the endpoints from the <b>response</b> of an {@code ept_map} call.
+   * 
+   * @param fragments
+   *          all response PDU's, each in the byte order of its format label
+   * @param mapperAddress
+   *          address of the endpoint mapper, used for towers that do not specify a host address
+   * @return the TCP endpoints; never empty
+   * @throws IOException
+   *           if the call failed, if no endpoint is registered or if the response is corrupt
+   */
+  static List<InetSocketAddress> parseMapResponse(final List<ByteBuffer> fragments, final InetAddress mapperAddress)
+      throws IOException {
+    // Concatenate the stub data of all fragments.
+    int stubLength = 0;
+    for (ByteBuffer fragment : fragments) {
+      final PDUType pduType = pduTypeOf(fragment);
+      if (pduType == PDUType.FAULT) {
+        throw new EndpointMapperException("The ept_map call failed.",
+            fragment.getInt(fragment.position() + FAULT_STATUS_OFFSET));
+      }
+      if (pduType != PDUType.RESPONSE) {
+        throw new IOException("Expected a " + PDUType.RESPONSE + " PDU instead of " + pduType + ".");
+      }
+      stubLength += fragment.remaining() - CALL_HEADER_LENGTH;
+    }
+    final ByteBuffer stub = ByteBuffer.allocate(stubLength);
+    for (ByteBuffer fragment : fragments) {
+      final ByteBuffer fragmentStub = fragment.duplicate();
+      fragmentStub.position(fragment.position() + CALL_HEADER_LENGTH);
+      stub.put(fragmentStub);
+    }
+    stub.flip();
+
+    final ByteBuffer firstFragment = fragments.get(0);
+    final byte[] formatLabelBytes = new byte[NDRConstants.FORMAT_LABEL_LENGTH];
+    for (int i = 0; i < formatLabelBytes.length; i++) {
+      formatLabelBytes[i] = firstFragment.get(firstFragment.position() + PDUConnectionOrientedHeader.OFFSET_FORMAT_LABEL
+          + i);
+    }
+    final NDRReader ndrReader = new NDRReader(stub);
+    ndrReader.setFormatLabel(FormatLabel.parse(formatLabelBytes, 0));
+    try {
+      return parseMapStub(ndrReader, mapperAddress);
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated ept_map response.", e);
+    }
+  }
+
+  private static List<InetSocketAddress> parseMapStub(final NDRReader ndrReader, final InetAddress mapperAddress)
+      throws IOException {
+    ndrReader.readBytesFixed(new byte[CONTEXT_HANDLE_LENGTH], 0, CONTEXT_HANDLE_LENGTH);
+    ndrReader.readInt();
+    // Conformant varying array of tower pointers: max_count, offset, actual_count, referent IDs.
+    ndrReader.readInt();
+    ndrReader.readInt();
+    final int numTowers = ndrReader.readInt();
+    if (numTowers < 0 || numTowers > MAX_TOWERS) {
+      throw new IOException("Invalid number of towers " + numTowers + ".");
+    }
+    final int[] referentIds = new int[numTowers];
+    for (int i = 0; i < numTowers; i++) {
+      referentIds[i] = ndrReader.readInt();
+    }
+    final List<InetSocketAddress> endpoints = new ArrayList<InetSocketAddress>(numTowers);
+    for (int referentId : referentIds) {
+      if (referentId == 0) {
+        continue;
+      }
+      // twr_t: max_count, tower_length, tower_octet_string
+      ndrReader.readInt();
+      final int towerLength = ndrReader.readInt();
+      if (towerLength < 0 || towerLength > MAX_FRAGMENT_SIZE) {
+        throw new IOException("Invalid tower length " + towerLength + ".");
+      }
+      final byte[] tower = new byte[towerLength];
+      ndrReader.readBytesFixed(tower, 0, towerLength);
+      final InetSocketAddress endpoint = parseTower(tower, mapperAddress);
+      if (endpoint != null) {
+        endpoints.add(endpoint);
+      }
+    }
+    final int status = ndrReader.readInt();
+    if (status != 0) {
+      throw new EndpointMapperException("The endpoint mapper could not map the interface.", status);
+    }
+    if (endpoints.isEmpty()) {
+      throw new EndpointMapperException("The endpoint mapper returned no TCP endpoints.",
+          EndpointMapperException.EPT_S_NOT_REGISTERED);
+    }
+    return Collections.unmodifiableList(endpoints);
+  }
+
+  /**
+   * Composes the protocol tower of an ncacn_ip_tcp endpoint of an interface, with an unspecified port and host.
+   * 
+   * @param interfaceId
+   *          identifier of the interface
+   * @param interfaceVersion
+   *          major version in the lower 16 bits, minor version in the upper 16 bits
+   * @return tower octets
+   */
+  static byte[] composeTower(final UUID interfaceId, final int interfaceVersion) {
+    final ByteBuffer tower = ByteBuffer.allocate(MAX_FRAGMENT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    tower.putShort((short) NUM_FLOORS);
+    putUUIDFloor(tower, interfaceId, interfaceVersion);
+    putUUIDFloor(tower, NDR_TRANSFER_SYNTAX_ID, NDR_TRANSFER_SYNTAX_VERSION);
+    putFloor(tower, PROTOCOL_CONNECTION_ORIENTED, new byte[2]);
+    putFloor(tower, PROTOCOL_TCP, new byte[2]);
+    putFloor(tower, PROTOCOL_IP, new byte[IPV4_ADDRESS_LENGTH]);
+    final byte[] towerBytes = new byte[tower.position()];
+    tower.flip();
+    tower.get(towerBytes);
+    return towerBytes;
+  }
+
+  /**
+   * Extracts the TCP endpoint from a protocol tower.
+   * 
+   * @param towerBytes
+   *          tower octets
+   * @param defaultAddress
+   *          address to use if the tower does not specify a host address
+   * @return the endpoint, or {@code null} if the tower does not describe a TCP endpoint
+   * @throws IOException
+   *           if the tower is corrupt
+   */
+  static InetSocketAddress parseTower(final byte[] towerBytes, final InetAddress defaultAddress) throws IOException {
+    final ByteBuffer tower = ByteBuffer.wrap(towerBytes).order(ByteOrder.LITTLE_ENDIAN);
+    int port = -1;
+    InetAddress address = defaultAddress;
+    try {
+      final int numFloors = tower.getShort() & UNSIGNED_SHORT_MASK;
+      for (int i = 0; i < numFloors; i++) {
+        final byte[] lhs = new byte[tower.getShort() & UNSIGNED_SHORT_MASK];
+        tower.get(lhs);
+        final byte[] rhs = new byte[tower.getShort() & UNSIGNED_SHORT_MASK];
+        tower.get(rhs);
+        if (lhs.length == 1 && lhs[0] == PROTOCOL_TCP && rhs.length == 2) {
+          port = ByteBuffer.wrap(rhs).getShort() & UNSIGNED_SHORT_MASK;
+        } else if (lhs.length == 1 && lhs[0] == PROTOCOL_IP && rhs.length == IPV4_ADDRESS_LENGTH
+            && (rhs[0] | rhs[1] | rhs[2] | rhs[3]) != 0) {
+          address = InetAddress.getByAddress(rhs);
+        }
+      }
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated protocol tower.", e);
+    }
+    return (port > 0) ? new InetSocketAddress(address, port) : null;
+  }
+
+  private static void putUUIDFloor(final ByteBuffer tower, final UUID uuid, final int version) {
+    tower.putShort((short) (1 + UUID_LENGTH + 2));
+    tower.put(PROTOCOL_UUID);
+    uuid.writeTo(tower, ByteOrder.LITTLE_ENDIAN);
+    tower.putShort((short) version);
+    tower.putShort((short) 2);
+    tower.putShort((short) (version >>> VERSION_BITS));
+  }
+
+  private static void putFloor(final ByteBuffer tower, final byte protocolId, final byte[] rhs) {
+    tower.putShort((short) 1);
+    tower.put(protocolId);
+    tower.putShort((short) rhs.length);
+    tower.put(rhs);
+  }
+
+  private static PDUType pduTypeOf(final ByteBuffer pdu) {
+    return PDUType.parse(pdu.get(pdu.position() + PDUConnectionOrientedHeader.OFFSET_PDU_TYPE));
+  }
+
+  private static PDUConnectionOrientedHeader newHeader(final PDUType pduType, final int callId,
+      final int fragmentLength) {
+    final PDUConnectionOrientedHeader header = new PDUConnectionOrientedHeader();
+    header.setPDUType(pduType);
+    header.set(PDUConnectionOrientedFlag.FIRST_FRAG);
+    header.set(PDUConnectionOrientedFlag.LAST_FRAG);
+    header.setFormatLabel(stubFormatLabel());
+    header.setFragmentLength((short) fragmentLength);
+    header.setCallId(callId);
+    return header;
+  }
+
+  private static FormatLabel stubFormatLabel() {
+    return FormatLabel.valueOf(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII, FormatLabelFloat.IEEE);
+  }
+
+  private static int align(final int offset, final int alignment) {
+    return (offset + alignment - 1) / alignment * alignment;
+  }
+}
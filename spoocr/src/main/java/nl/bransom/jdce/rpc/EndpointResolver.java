@@ -0,0 +1,32 @@
+package nl.bransom.jdce.rpc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Resolves the TCP endpoints of an RPC interface by asking the endpoint mapper of a host.
+ * 
+ * @author Rob
+ */
+public interface EndpointResolver {
+
+  /**
+   * Looks up the TCP endpoints of an RPC interface at the given endpoint mapper.
+   * 
+   * @param mapperAddress
+   *          address of the endpoint mapper, normally at port 135
+   * @param interfaceId
+   *          identifier of the RPC interface
+   * @param interfaceVersion
+   *          major version in the lower 16 bits, minor version in the upper 16 bits
+   * @param callback
+   *          optional callback, invoked once the lookup completes; may be {@code null}
+   * @return future that yields the endpoints of the interface
+   * @throws IOException
+   *           if the resolver cannot accept lookups anymore
+   */
+  Future<List<InetSocketAddress>> lookup(InetSocketAddress mapperAddress, UUID interfaceId, int interfaceVersion,
+      RPCCallback<List<InetSocketAddress>> callback) throws IOException;
+}
@@ -0,0 +1,238 @@
+package nl.bransom.jdce.rpc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.bransom.jdce.ndr.FormatLabelInteger;
+import nl.bransom.jdce.pdu.PDUConnectionOrientedFlag;
+import nl.bransom.jdce.pdu.PDUConnectionOrientedHeader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Carries any number of concurrent connection-oriented RPC calls over a single TCP connection (ncacn_ip_tcp). The
+ * connection is set up, and typically bound, once; each subsequent call only costs its own PDU's.
+ * 
+ * Callers compose complete PDU's, including the common header, with a call identifier obtained from
+ * {@link #nextCallId()}. A dedicated reader thread splits the incoming byte stream into PDU's by means of the
+ * {@code frag_length} in their common header and routes them by {@code call_id} to the outstanding call. A call is
+ * complete when a PDU with {@link PDUConnectionOrientedFlag#LAST_FRAG} arrives, e.g. the last <b>response</b>
+ * fragment, a <b>fault</b> or a <b>bind_ack</b>.
+ * 
+ * @author Rob
+ */
+public class MultiplexedConnection {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MultiplexedConnection.class);
+
+  private final SocketChannel socketChannel;
+  private final Object writeLock = new Object();
+  private final AtomicInteger lastCallId = new AtomicInteger();
+  private final ConcurrentMap<Integer, PendingCall> pendingCalls = new ConcurrentHashMap<Integer, PendingCall>();
+  private final Thread readerThread;
+  private volatile IOException failure;
+
+  /**
+   * Constructor. Starts a daemon thread that reads PDU's from {@code socketChannel} until it is closed. The channel is
+   * closed as soon as reading fails, e.g. because the peer sends a corrupt PDU.
+   * 
+   * @param socketChannel
+   *          connected, blocking channel
+   */
+  public MultiplexedConnection(final SocketChannel socketChannel) {
+    if (!socketChannel.isConnected() || !socketChannel.isBlocking()) {
+      throw new IllegalArgumentException("The socket channel must be connected and blocking.");
+    }
+    this.socketChannel = socketChannel;
+    this.readerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        readPDUs();
+      }
+    }, getClass().getSimpleName() + "-" + socketChannel.socket().getRemoteSocketAddress());
+    readerThread.setDaemon(true);
+    readerThread.start();
+  }
+
+  /**
+   * @return a call identifier that is unique for this connection
+   */
+  public int nextCallId() {
+    return lastCallId.incrementAndGet();
+  }
+
+  /**
+   * @return number of calls that are waiting for (the remainder of) their response
+   */
+  public int getNumPendingCalls() {
+    return pendingCalls.size();
+  }
+
+  /**
+   * Sends the PDU fragments of one call and returns immediately. The fragments are written in one go, normally with a
+   * single gathering write, so they are not interleaved with those of other calls.
+   * 
+   * @param callId
+   *          identifier of the call, as set in the {@code call_id} of each fragment
+   * @param pduFragments
+   *          complete PDU's, each starting with a common header, or the segments of such PDU's as obtained from
+   *          {@link nl.bransom.jdce.ndr.AlignedOutputSegments#getSegments()}
+   * @return future that yields the response PDU's of the call, in order of arrival
+   * @throws IOException
+   *           if the connection has failed or errors occur while writing
+   */
+  public Future<List<ByteBuffer>> call(final int callId, final ByteBuffer... pduFragments) throws IOException {
+    final PendingCall pendingCall = new PendingCall(callId);
+    if (pendingCalls.putIfAbsent(Integer.valueOf(callId), pendingCall) != null) {
+      throw new IllegalArgumentException("Call " + callId + " is already pending.");
+    }
+    if (failure != null || !socketChannel.isOpen()) {
+      pendingCalls.remove(Integer.valueOf(callId));
+      throw new IOException("The connection is closed.", failure);
+    }
+    try {
+      synchronized (writeLock) {
+        final ByteBuffer[] fragments = new ByteBuffer[pduFragments.length];
+        long numBytesToWrite = 0;
+        for (int i = 0; i < fragments.length; i++) {
+          fragments[i] = pduFragments[i].duplicate();
+          numBytesToWrite += fragments[i].remaining();
+        }
+        while (numBytesToWrite > 0) {
+          numBytesToWrite -= socketChannel.write(fragments);
+        }
+      }
+    } catch (IOException e) {
+      pendingCalls.remove(Integer.valueOf(callId));
+      throw e;
+    }
+    return pendingCall;
+  }
+
+  /**
+   * Closes the connection. Calls that are still pending fail with an IOException.
+   * 
+   * @throws IOException
+   *           when errors occur while closing the socket channel
+   */
+  public void close() throws IOException {
+    socketChannel.close();
+  }
+
+  private void readPDUs() {
+    IOException cause = null;
+    try {
+      ByteBuffer pdu = readPDU();
+      while (pdu != null) {
+        dispatch(pdu);
+        pdu = readPDU();
+      }
+    } catch (IOException e) {
+      cause = e;
+    } catch (RuntimeException e) {
+      cause = new IOException("Failed to process a PDU.", e);
+    } finally {
+      failure = (cause != null) ? cause : new IOException("The connection was closed by the peer.");
+      try {
+        socketChannel.close();
+      } catch (IOException e) {
+        LOG.debug("Failed to close the connection: {}", e.getMessage());
+      }
+      final Iterator<Map.Entry<Integer, PendingCall>> it = pendingCalls.entrySet().iterator();
+      while (it.hasNext()) {
+        final PendingCall pendingCall = it.next().getValue();
+        it.remove();
+        pendingCall.fail(failure);
+      }
+      LOG.debug("Stopped reading PDU's: {}", failure.getMessage());
+    }
+  }
+
+  /**
+   * Reads the next PDU from the socket channel.
+   * 
+   * @return buffer containing the complete PDU, in the byte order of its format label; {@code null} if the peer has
+   *         closed the connection
+   * @throws IOException
+   *           when errors occur while reading or if the stream is corrupt
+   */
+  private ByteBuffer readPDU() throws IOException {
+    final ByteBuffer header = ByteBuffer.allocate(PDUConnectionOrientedHeader.HEADER_LENGTH);
+    if (!readFully(header)) {
+      if (header.position() == 0) {
+        return null;
+      }
+      throw new IOException("Connection closed while reading a PDU header.");
+    }
+    header.flip();
+    final byte integerCode = header.get(PDUConnectionOrientedHeader.OFFSET_FORMAT_LABEL);
+    if (FormatLabelInteger.lookup(integerCode) == null) {
+      throw new IOException("Unsupported NDR format label code '" + integerCode + "' in PDU header.");
+    }
+    final int fragmentLength = PDUConnectionOrientedHeader.peekFragmentLength(header);
+    if (fragmentLength < PDUConnectionOrientedHeader.HEADER_LENGTH) {
+      throw new IOException("Invalid PDU fragment length " + fragmentLength + ".");
+    }
+    final ByteBuffer pdu = ByteBuffer.allocate(fragmentLength).order(PDUConnectionOrientedHeader.peekByteOrder(header));
+    pdu.put(header);
+    if (!readFully(pdu)) {
+      throw new IOException("Connection closed while reading a PDU of " + fragmentLength + " bytes.");
+    }
+    pdu.flip();
+    return pdu;
+  }
+
+  private boolean readFully(final ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (socketChannel.read(buffer) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void dispatch(final ByteBuffer pdu) {
+    final int callId = pdu.getInt(PDUConnectionOrientedHeader.OFFSET_CALL_ID);
+    final PendingCall pendingCall = pendingCalls.get(Integer.valueOf(callId));
+    if (pendingCall == null) {
+      LOG.warn("Dropping PDU of {} bytes for unknown call {}.", pdu.remaining(), callId);
+      return;
+    }
+    pendingCall.fragments.add(pdu);
+    final byte flags = pdu.get(PDUConnectionOrientedHeader.OFFSET_FLAGS);
+    if ((flags & PDUConnectionOrientedFlag.LAST_FRAG.getMask()) != 0x00) {
+      pendingCalls.remove(Integer.valueOf(callId));
+      pendingCall.complete(Collections.unmodifiableList(pendingCall.fragments));
+    }
+  }
+
+  /**
+   * Future of one outstanding call. The fragments are only touched by the reader thread until the call completes.
+   */
+  private final class PendingCall extends CallFuture<List<ByteBuffer>> {
+
+    private final int callId;
+    private final List<ByteBuffer> fragments = new ArrayList<ByteBuffer>(1);
+
+    private PendingCall(final int callId) {
+      super(null);
+      this.callId = callId;
+    }
+
+    @Override
+    protected void cancelled() {
+      pendingCalls.remove(Integer.valueOf(callId), this);
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package nl.bransom.jdce.rpc;
+
+/**
+ * Receives the outcome of an asynchronous RPC operation. Implementations are invoked on the I/O thread of the
+ * operation, so they must return quickly and must not block.
+ * 
+ * @param <T>
+ *          type of the result
+ * @author Rob
+ */
+public interface RPCCallback<T> {
+
+  /**
+   * Invoked when the operation has completed successfully.
+   * 
+   * @param result
+   *          result of the operation
+   */
+  void completed(T result);
+
+  /**
+   * Invoked when the operation has failed or was cancelled.
+   * 
+   * @param cause
+   *          reason of the failure
+   */
+  void failed(Throwable cause);
+}
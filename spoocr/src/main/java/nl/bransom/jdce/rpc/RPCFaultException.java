@@ -0,0 +1,57 @@
+package nl.bransom.jdce.rpc;
+
+import java.io.IOException;
+
+import nl.bransom.jdce.pdu.PDURejectionCode;
+
+/**
+ * Signals that a server answered a call with a <b>fault</b> or <b>reject</b> PDU, as opposed to a network error.
+ * 
+ * @author Rob
+ */
+public class RPCFaultException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int status;
+  private final boolean rejected;
+
+  /**
+   * Constructor.
+   * 
+   * @param status
+   *          status code in the body of the <b>fault</b> or <b>reject</b> PDU
+   * @param rejected
+   *          {@code true} if the call was rejected, i.e. the server manager routine was not executed
+   */
+  public RPCFaultException(final int status, final boolean rejected) {
+    super(describe(status, rejected));
+    this.status = status;
+    this.rejected = rejected;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public boolean isRejected() {
+    return rejected;
+  }
+
+  /**
+   * @return the rejection code of the status, or {@code null} if it isn't a known rejection code
+   */
+  public PDURejectionCode getRejectionCode() {
+    return PDURejectionCode.lookup(status);
+  }
+
+  private static String describe(final int status, final boolean rejected) {
+    final StringBuilder message = new StringBuilder(rejected ? "The call was rejected" : "The call failed");
+    message.append(" (status 0x").append(Integer.toHexString(status));
+    final PDURejectionCode rejectionCode = PDURejectionCode.lookup(status);
+    if (rejectionCode != null) {
+      message.append(", ").append(rejectionCode);
+    }
+    return message.append(").").toString();
+  }
+}
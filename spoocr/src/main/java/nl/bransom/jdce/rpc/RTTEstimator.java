@@ -0,0 +1,87 @@
+package nl.bransom.jdce.rpc;
+
+/**
+ * Estimates the retransmission time-out of a peer from measured round-trip times, following the algorithm of Jacobson
+ * and Karels that TCP uses (RFC 6298). The smoothed round-trip time and its mean deviation are kept as scaled integers;
+ * the time-out is the smoothed round-trip time plus four times the deviation, doubled for each retransmission.
+ * 
+ * Callers must only sample round-trip times of requests that were not retransmitted (Karn's algorithm), because the
+ * reply to a retransmitted request may answer any of its transmissions.
+ * 
+ * This class is not thread-safe.
+ * 
+ * @author Rob
+ */
+class RTTEstimator {
+
+  // The smoothed round-trip time is scaled by 8, the deviation by 4, so the gains 1/8 and 1/4 become shifts.
+  private static final int SMOOTHED_RTT_SHIFT = 3;
+  private static final int RTT_DEVIATION_SHIFT = 2;
+  private static final int MAX_BACKOFF_SHIFT = 6;
+
+  private final long initialTimeoutMillis;
+  private final long minTimeoutMillis;
+  private final long maxTimeoutMillis;
+  private long scaledSmoothedRtt = -1L;
+  private long scaledRttDeviation;
+
+  /**
+   * Constructor.
+   * 
+   * @param initialTimeoutMillis
+   *          time-out until the first round-trip time has been measured
+   * @param minTimeoutMillis
+   *          lower bound of the time-out
+   * @param maxTimeoutMillis
+   *          upper bound of the time-out, also after back-off
+   */
+  RTTEstimator(final long initialTimeoutMillis, final long minTimeoutMillis, final long maxTimeoutMillis) {
+    if (minTimeoutMillis <= 0 || initialTimeoutMillis < minTimeoutMillis || maxTimeoutMillis < initialTimeoutMillis) {
+      throw new IllegalArgumentException("Time-outs must be positive and min <= initial <= max.");
+    }
+    this.initialTimeoutMillis = initialTimeoutMillis;
+    this.minTimeoutMillis = minTimeoutMillis;
+    this.maxTimeoutMillis = maxTimeoutMillis;
+  }
+
+  /**
+   * Adds a measured round-trip time to the estimate.
+   * 
+   * @param rttMillis
+   *          round-trip time in milliseconds of a request that was sent only once
+   */
+  void sample(final long rttMillis) {
+    final long rtt = Math.max(0L, rttMillis);
+    if (scaledSmoothedRtt < 0) {
+      scaledSmoothedRtt = rtt << SMOOTHED_RTT_SHIFT;
+      scaledRttDeviation = (rtt << RTT_DEVIATION_SHIFT) >> 1;
+    } else {
+      final long delta = rtt - (scaledSmoothedRtt >> SMOOTHED_RTT_SHIFT);
+      scaledSmoothedRtt += delta;
+      scaledRttDeviation += Math.abs(delta) - (scaledRttDeviation >> RTT_DEVIATION_SHIFT);
+    }
+  }
+
+  /**
+   * @return smoothed round-trip time in milliseconds, or -1 if no round-trip time has been measured yet
+   */
+  long getSmoothedRttMillis() {
+    return (scaledSmoothedRtt < 0) ? -1L : scaledSmoothedRtt >> SMOOTHED_RTT_SHIFT;
+  }
+
+  /**
+   * Returns the time to wait for a reply before retransmitting.
+   * 
+   * @param numRetransmissions
+   *          number of times the request has been retransmitted already; the time-out doubles each time
+   * @return time-out in milliseconds
+   */
+  long getTimeoutMillis(final int numRetransmissions) {
+    long timeout = initialTimeoutMillis;
+    if (scaledSmoothedRtt >= 0) {
+      timeout = (scaledSmoothedRtt >> SMOOTHED_RTT_SHIFT) + scaledRttDeviation;
+    }
+    timeout = Math.max(minTimeoutMillis, Math.min(maxTimeoutMillis, timeout));
+    return Math.min(maxTimeoutMillis, timeout << Math.min(Math.max(0, numRetransmissions), MAX_BACKOFF_SHIFT));
+  }
+}
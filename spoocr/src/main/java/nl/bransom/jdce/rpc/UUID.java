@@ -1,8 +1,15 @@
 package nl.bransom.jdce.rpc;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import nl.bransom.jdce.ndr.IntegerCodec;
 import nl.bransom.jdce.ndr.NDRConstants;
 import nl.bransom.jdce.ndr.NDRReader;
 import nl.bransom.jdce.ndr.NDRSerializable;
@@ -23,6 +30,14 @@ import nl.bransom.jdce.ndr.NDRWriter;
  * } uuid_t;
  * </pre>
  * 
+ * The fields are packed into two longs: {@code time_low}, {@code time_mid} and {@code time_hi_and_version} form the
+ * most significant bits, the clock sequence and the node form the least significant bits, both in the order of the
+ * string representation. Comparing two UUIDs therefore takes two long comparisons.
+ * 
+ * Once constructed, a UUID is immutable. The only exception is deserialization into an existing instance, which is
+ * refused for interned instances. Frequently used UUIDs can be {@link #intern() interned}, so they are shared and
+ * {@link #valueOf(long, long)} returns the shared instance instead of a new one.
+ * 
  * @author Rob
  */
 public class UUID implements NDRSerializable {
@@ -32,22 +47,57 @@ public class UUID implements NDRSerializable {
    */
   public static final int NODE_LENGTH = 6;
 
-  private static final int HEX_RADIX = 16;
-  private static final int[] PART_LENGTHS = { 8, 4, 4, 4, 2 * NODE_LENGTH };
+  /**
+   * Number of bytes of a UUID in its NDR wire form.
+   */
+  public static final int NUM_BYTES = 16;
+
+  // Pool of interned UUIDs; must be initialized before the well-known UUIDs below.
+  private static final ConcurrentMap<UUID, UUID> POOL = new ConcurrentHashMap<UUID, UUID>();
+
+  /** The nil UUID, which has all bits set to zero. */
+  public static final UUID NIL = new UUID(0L, 0L).intern();
+
   private static final int UUID_STRING_LENGTH = 36;
+  // Bit i is set if the string representation has a hyphen at index i.
+  private static final long HYPHEN_POSITIONS = (1L << 8) | (1L << 13) | (1L << 18) | (1L << 23);
+  // Index of the first character of the string representation that is part of the least significant bits.
+  private static final int LEAST_SIGNIFICANT_BITS_INDEX = 19;
+  private static final int BITS_PER_HEX_DIGIT = 4;
+  private static final int HEX_DIGIT_MASK = 0xf;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  // Value of each hexadecimal digit character, or -1 for other characters.
+  private static final byte[] HEX_VALUES = new byte['f' + 1];
+  private static final int OFFSET_TIME_MID = 4;
+  private static final int OFFSET_TIME_HIGH_AND_VERSION = 6;
+  private static final int OFFSET_CLOCK_SEQ = 8;
+  private static final int TIME_MID_SHIFT = Short.SIZE;
+  private static final int CLOCK_SEQ_HIGH_SHIFT = Long.SIZE - NDRConstants.NUM_BITS_PER_BYTE;
+  private static final int CLOCK_SEQ_LOW_SHIFT = Long.SIZE - 2 * NDRConstants.NUM_BITS_PER_BYTE;
+  private static final long SHORT_MASK = 0xffffL;
+  private static final long INT_MASK = 0xffffffffL;
+  // Constants of the 64-bit finalizer of MurmurHash3.
+  private static final int MIX_SHIFT = 33;
+  private static final long MIX_MULTIPLIER_1 = 0xff51afd7ed558ccdL;
+  private static final long MIX_MULTIPLIER_2 = 0xc4ceb9fe1a85ec53L;
+
+  static {
+    Arrays.fill(HEX_VALUES, (byte) -1);
+    for (int i = 0; i < HEX_DIGITS.length; i++) {
+      HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+      HEX_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+    }
+  }
 
-  private int timeLow;
-  private short timeMid;
-  private short timeHighAndVersion;
-  private byte clockSeqHighAndReserved;
-  private byte clockSeqLow;
-  private byte[] node;
+  // Packed fields, (de)serialized by UUIDNDRCodec.
+  long mostSignificantBits;
+  long leastSignificantBits;
+  boolean isInterned;
 
   /**
    * Default constructor, used for deserialization.
    */
   public UUID() {
-    node = new byte[NODE_LENGTH];
   }
 
   /**
@@ -76,41 +126,108 @@ public class UUID implements NDRSerializable {
           + node.length + ".");
     }
 
-    this.timeLow = timeLow;
-    this.timeMid = timeMid;
-    this.timeHighAndVersion = timeHighAndVersion;
-    this.clockSeqHighAndReserved = clockSeqHighAndReserved;
-    this.clockSeqLow = clockSeqLow;
-    this.node = Arrays.copyOf(node, node.length);
+    this.mostSignificantBits = toMostSignificantBits(timeLow, timeMid, timeHighAndVersion);
+    long bits = ((clockSeqHighAndReserved & NDRConstants.BYTE_MASK) << NDRConstants.NUM_BITS_PER_BYTE)
+        | (clockSeqLow & NDRConstants.BYTE_MASK);
+    for (final byte nodeByte : node) {
+      bits = (bits << NDRConstants.NUM_BITS_PER_BYTE) | (nodeByte & NDRConstants.BYTE_MASK);
+    }
+    this.leastSignificantBits = bits;
+  }
+
+  /**
+   * Constructor to instantiate immutable UUID objects from their packed fields.
+   * 
+   * @param mostSignificantBits
+   *          time_low, time_mid and time_hi_and_version, most significant byte first
+   * @param leastSignificantBits
+   *          clock_seq_high_and_reserved, clock_seq_low and node, most significant byte first
+   */
+  public UUID(final long mostSignificantBits, final long leastSignificantBits) {
+    this.mostSignificantBits = mostSignificantBits;
+    this.leastSignificantBits = leastSignificantBits;
+  }
+
+  /**
+   * Returns the interned UUID with the given packed fields if there is one, or else a new UUID. Unlike
+   * {@link #intern()}, this method never adds UUIDs to the pool, so it is safe to use on untrusted input.
+   * 
+   * @param mostSignificantBits
+   *          time_low, time_mid and time_hi_and_version, most significant byte first
+   * @param leastSignificantBits
+   *          clock_seq_high_and_reserved, clock_seq_low and node, most significant byte first
+   * @return an instance of class UUID
+   */
+  public static UUID valueOf(final long mostSignificantBits, final long leastSignificantBits) {
+    final UUID uuid = new UUID(mostSignificantBits, leastSignificantBits);
+    final UUID interned = POOL.get(uuid);
+    return (interned != null) ? interned : uuid;
+  }
+
+  /**
+   * Returns the shared instance that is equal to this UUID, adding a copy of this UUID to the pool if it was not
+   * interned yet. Interned UUIDs are never released, so only well-known UUIDs, such as interface identifiers, should be
+   * interned.
+   * 
+   * @return the interned instance that is equal to this UUID
+   */
+  public UUID intern() {
+    if (isInterned) {
+      return this;
+    }
+    UUID interned = POOL.get(this);
+    if (interned == null) {
+      final UUID copy = new UUID(mostSignificantBits, leastSignificantBits);
+      copy.isInterned = true;
+      interned = POOL.putIfAbsent(copy, copy);
+      if (interned == null) {
+        interned = copy;
+      }
+    }
+    return interned;
+  }
+
+  public long getMostSignificantBits() {
+    return mostSignificantBits;
+  }
+
+  public long getLeastSignificantBits() {
+    return leastSignificantBits;
   }
 
   public int getTimeLow() {
-    return timeLow;
+    return (int) (mostSignificantBits >>> Integer.SIZE);
   }
 
   public short getTimeMid() {
-    return timeMid;
+    return (short) (mostSignificantBits >>> TIME_MID_SHIFT);
   }
 
   public short getTimeHighAndVersion() {
-    return timeHighAndVersion;
+    return (short) mostSignificantBits;
   }
 
   public byte getClockSeqHighAndReserved() {
-    return clockSeqHighAndReserved;
+    return (byte) (leastSignificantBits >>> CLOCK_SEQ_HIGH_SHIFT);
   }
 
   public byte getClockSeqLow() {
-    return clockSeqLow;
+    return (byte) (leastSignificantBits >>> CLOCK_SEQ_LOW_SHIFT);
   }
 
   /**
    * Getter for the {@code node} field.
    * 
-   * @return a copy of the {@code node} byte array
+   * @return a new {@code node} byte array
    */
   public byte[] getNode() {
-    return Arrays.copyOf(node, node.length);
+    final byte[] node = new byte[NODE_LENGTH];
+    long bits = leastSignificantBits;
+    for (int i = NODE_LENGTH - 1; i >= 0; i--) {
+      node[i] = (byte) bits;
+      bits >>>= NDRConstants.NUM_BITS_PER_BYTE;
+    }
+    return node;
   }
 
   /**
@@ -151,76 +268,201 @@ public class UUID implements NDRSerializable {
    * @return an instance of class UUID
    */
   public static UUID parse(final String uuidString) {
-    if (uuidString == null || uuidString.trim().length() != UUID_STRING_LENGTH) {
+    if (uuidString == null) {
       throw new IllegalArgumentException("Input must not be null.");
     }
-    final String[] uuidParts = uuidString.trim().split("-");
-    if (uuidParts.length != PART_LENGTHS.length) {
+    // Ignore leading and trailing white space, like String.trim() does.
+    int begin = 0;
+    int end = uuidString.length();
+    while (begin < end && uuidString.charAt(begin) <= ' ') {
+      begin++;
+    }
+    while (end > begin && uuidString.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    if (end - begin != UUID_STRING_LENGTH) {
       throw new IllegalArgumentException("Incorrect or unsupported UUID string length.");
     }
-    for (int i = 0; i < PART_LENGTHS.length; i++) {
-      if (uuidParts[i].length() != PART_LENGTHS[i]) {
+
+    long mostSignificantBits = 0L;
+    long leastSignificantBits = 0L;
+    for (int i = 0; i < UUID_STRING_LENGTH; i++) {
+      final char c = uuidString.charAt(begin + i);
+      if (isHyphenPosition(i)) {
+        if (c != '-') {
+          throw new IllegalArgumentException("Incorrect or unsupported UUID format.");
+        }
+        continue;
+      }
+      final int digit = (c < HEX_VALUES.length) ? HEX_VALUES[c] : -1;
+      if (digit < 0) {
         throw new IllegalArgumentException("Incorrect or unsupported UUID format.");
       }
+      if (i < LEAST_SIGNIFICANT_BITS_INDEX) {
+        mostSignificantBits = (mostSignificantBits << BITS_PER_HEX_DIGIT) | digit;
+      } else {
+        leastSignificantBits = (leastSignificantBits << BITS_PER_HEX_DIGIT) | digit;
+      }
     }
+    return valueOf(mostSignificantBits, leastSignificantBits);
+  }
 
-    final int timeLow = (int) Long.parseLong(uuidParts[0], HEX_RADIX);
-    final short timeMid = (short) Integer.parseInt(uuidParts[1], HEX_RADIX);
-    final short timeHighAndVersion = (short) Integer.parseInt(uuidParts[2], HEX_RADIX);
-    final short clockSeq = (short) Integer.parseInt(uuidParts[3], HEX_RADIX);
-    final byte[] node = new byte[NODE_LENGTH];
-    for (int i = 0; i < node.length; i++) {
-      node[i] = (byte) Short.parseShort(uuidParts[4].substring(2 * i, 2 * i + 2), HEX_RADIX);
+  /**
+   * Reads a UUID in its NDR wire form from the current position of {@code byteBuffer}, advancing the position by
+   * {@link #NUM_BYTES}. The byte order of {@code byteBuffer} itself is ignored and left unchanged.
+   * 
+   * @param byteBuffer
+   *          buffer to read from
+   * @param byteOrder
+   *          byte order of the integer fields, as specified by the NDR Format Label
+   * @return an instance of class UUID
+   * @throws BufferUnderflowException
+   *           if fewer than {@link #NUM_BYTES} bytes remain
+   */
+  public static UUID readFrom(final ByteBuffer byteBuffer, final ByteOrder byteOrder) {
+    if (byteBuffer.remaining() < NUM_BYTES) {
+      throw new BufferUnderflowException();
+    }
+    final int position = byteBuffer.position();
+    final boolean swapBytes = byteBuffer.order() != byteOrder;
+    final int timeLow = byteBuffer.getInt(position);
+    final short timeMid = byteBuffer.getShort(position + OFFSET_TIME_MID);
+    final short timeHighAndVersion = byteBuffer.getShort(position + OFFSET_TIME_HIGH_AND_VERSION);
+    final long clockSeqAndNode = byteBuffer.getLong(position + OFFSET_CLOCK_SEQ);
+    byteBuffer.position(position + NUM_BYTES);
+    // The clock sequence and the node are bytes, so they are stored most significant byte first in any byte order.
+    return valueOf(toMostSignificantBits(swapBytes ? Integer.reverseBytes(timeLow) : timeLow,
+        swapBytes ? Short.reverseBytes(timeMid) : timeMid,
+        swapBytes ? Short.reverseBytes(timeHighAndVersion) : timeHighAndVersion),
+        byteBuffer.order() == ByteOrder.BIG_ENDIAN ? clockSeqAndNode : Long.reverseBytes(clockSeqAndNode));
+  }
+
+  /**
+   * Writes this UUID in its NDR wire form to {@code bytes}.
+   * 
+   * @param bytes
+   *          array to write to
+   * @param offset
+   *          index of the first byte to write
+   * @param byteOrder
+   *          byte order of the integer fields, as specified by the NDR Format Label
+   */
+  public void writeTo(final byte[] bytes, final int offset, final ByteOrder byteOrder) {
+    if (offset < 0 || offset > bytes.length - NUM_BYTES) {
+      throw new IllegalArgumentException("No room for " + NUM_BYTES + " bytes at offset " + offset + ".");
+    }
+    writeTo(bytes, offset, byteOrder == ByteOrder.BIG_ENDIAN ? IntegerCodec.BIG_ENDIAN : IntegerCodec.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Writes this UUID in its NDR wire form at the current position of {@code byteBuffer}, advancing the position by
+   * {@link #NUM_BYTES}. The byte order of {@code byteBuffer} itself is ignored and left unchanged.
+   * 
+   * @param byteBuffer
+   *          buffer to write to
+   * @param byteOrder
+   *          byte order of the integer fields, as specified by the NDR Format Label
+   * @throws BufferOverflowException
+   *           if fewer than {@link #NUM_BYTES} bytes remain
+   */
+  public void writeTo(final ByteBuffer byteBuffer, final ByteOrder byteOrder) {
+    if (byteBuffer.remaining() < NUM_BYTES) {
+      throw new BufferOverflowException();
     }
-    return new UUID(timeLow, timeMid, timeHighAndVersion, (byte) (clockSeq >>> NDRConstants.NUM_BITS_PER_BYTE),
-        (byte) clockSeq, node);
+    final boolean swapBytes = byteBuffer.order() != byteOrder;
+    final int timeLow = getTimeLow();
+    final short timeMid = getTimeMid();
+    final short timeHighAndVersion = getTimeHighAndVersion();
+    byteBuffer.putInt(swapBytes ? Integer.reverseBytes(timeLow) : timeLow);
+    byteBuffer.putShort(swapBytes ? Short.reverseBytes(timeMid) : timeMid);
+    byteBuffer.putShort(swapBytes ? Short.reverseBytes(timeHighAndVersion) : timeHighAndVersion);
+    byteBuffer.putLong(byteBuffer.order() == ByteOrder.BIG_ENDIAN ? leastSignificantBits : Long
+        .reverseBytes(leastSignificantBits));
   }
 
   @Override
   public void ndrSerialize(final NDRWriter ndrWriter) throws IOException {
-    ndrWriter.writeInt(timeLow);
-    ndrWriter.writeShort(timeMid);
-    ndrWriter.writeShort(timeHighAndVersion);
-    ndrWriter.writeByte(clockSeqHighAndReserved);
-    ndrWriter.writeByte(clockSeqLow);
-    ndrWriter.writeBytesFixed(node, 0, NODE_LENGTH);
+    UUIDNDRCodec.INSTANCE.encode(this, ndrWriter);
   }
 
   @Override
   public void ndrDeserialize(final NDRReader ndrReader) throws IOException {
-    timeLow = ndrReader.readInt();
-    timeMid = ndrReader.readShort();
-    timeHighAndVersion = ndrReader.readShort();
-    clockSeqHighAndReserved = ndrReader.readByte();
-    clockSeqLow = ndrReader.readByte();
-    ndrReader.readBytesFixed(node, 0, NODE_LENGTH);
+    UUIDNDRCodec.INSTANCE.decode(this, ndrReader);
   }
 
   @Override
   public String toString() {
-    return String.format("%08x-%04x-%04x-%02x%02x-%02x%02x%02x%02x%02x%02x", timeLow, timeMid, timeHighAndVersion,
-        clockSeqHighAndReserved, clockSeqLow, node[0], node[1], node[2], node[3], node[4], node[5]);
+    final char[] chars = new char[UUID_STRING_LENGTH];
+    long bits = leastSignificantBits;
+    for (int i = UUID_STRING_LENGTH - 1; i >= 0; i--) {
+      if (isHyphenPosition(i)) {
+        chars[i] = '-';
+        if (i == LEAST_SIGNIFICANT_BITS_INDEX - 1) {
+          bits = mostSignificantBits;
+        }
+      } else {
+        chars[i] = HEX_DIGITS[(int) bits & HEX_DIGIT_MASK];
+        bits >>>= BITS_PER_HEX_DIGIT;
+      }
+    }
+    return new String(chars);
   }
 
   @Override
   public boolean equals(final Object obj) {
-    boolean isEqual = false;
     if (obj instanceof UUID) {
       final UUID that = (UUID) obj;
-      isEqual = true;
-      isEqual &= this.timeLow == that.timeLow;
-      isEqual &= this.timeMid == that.timeMid;
-      isEqual &= this.timeHighAndVersion == that.timeHighAndVersion;
-      isEqual &= this.clockSeqHighAndReserved == that.clockSeqHighAndReserved;
-      isEqual &= this.clockSeqLow == that.clockSeqLow;
-      isEqual &= Arrays.equals(this.node, that.node);
+      return this.mostSignificantBits == that.mostSignificantBits
+          && this.leastSignificantBits == that.leastSignificantBits;
     }
-    return isEqual;
+    return false;
   }
 
+  /**
+   * Mixes all 128 bits, so UUIDs that differ in a single field, such as consecutive time-based activity identifiers,
+   * still spread evenly over hash buckets.
+   */
   @Override
   public int hashCode() {
-    return timeLow + timeMid + timeHighAndVersion + clockSeqHighAndReserved + clockSeqLow + clockSeqLow
-        + Arrays.hashCode(node);
+    final long hash = mix(mostSignificantBits ^ mix(leastSignificantBits));
+    return (int) (hash ^ (hash >>> Integer.SIZE));
+  }
+
+  static long toMostSignificantBits(final int timeLow, final short timeMid, final short timeHighAndVersion) {
+    return ((timeLow & INT_MASK) << Integer.SIZE) | ((timeMid & SHORT_MASK) << TIME_MID_SHIFT)
+        | (timeHighAndVersion & SHORT_MASK);
+  }
+
+  /**
+   * Writes this UUID in its NDR wire form to {@code bytes}, without checking the bounds.
+   */
+  void writeTo(final byte[] bytes, final int offset, final IntegerCodec integerCodec) {
+    integerCodec.encodeInt(getTimeLow(), bytes, offset);
+    integerCodec.encodeShort(getTimeMid(), bytes, offset + OFFSET_TIME_MID);
+    integerCodec.encodeShort(getTimeHighAndVersion(), bytes, offset + OFFSET_TIME_HIGH_AND_VERSION);
+    IntegerCodec.BIG_ENDIAN.encodeLong(leastSignificantBits, bytes, offset + OFFSET_CLOCK_SEQ);
+  }
+
+  /**
+   * Sets the fields of this UUID from its NDR wire form in {@code bytes}, without checking the bounds.
+   */
+  void readFrom(final byte[] bytes, final int offset, final IntegerCodec integerCodec) {
+    mostSignificantBits = toMostSignificantBits(integerCodec.decodeInt(bytes, offset), integerCodec.decodeShort(bytes,
+        offset + OFFSET_TIME_MID), integerCodec.decodeShort(bytes, offset + OFFSET_TIME_HIGH_AND_VERSION));
+    leastSignificantBits = IntegerCodec.BIG_ENDIAN.decodeLong(bytes, offset + OFFSET_CLOCK_SEQ);
+  }
+
+  private static boolean isHyphenPosition(final int index) {
+    return (HYPHEN_POSITIONS & (1L << index)) != 0;
+  }
+
+  private static long mix(final long value) {
+    long hash = value;
+    hash ^= hash >>> MIX_SHIFT;
+    hash *= MIX_MULTIPLIER_1;
+    hash ^= hash >>> MIX_SHIFT;
+    hash *= MIX_MULTIPLIER_2;
+    hash ^= hash >>> MIX_SHIFT;
+    return hash;
   }
 }
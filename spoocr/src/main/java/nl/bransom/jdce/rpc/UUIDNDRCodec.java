@@ -0,0 +1,47 @@
+package nl.bransom.jdce.rpc;
+
+import java.io.IOException;
+
+import nl.bransom.jdce.ndr.NDRCodec;
+import nl.bransom.jdce.ndr.NDRFactory;
+import nl.bransom.jdce.ndr.NDRReader;
+import nl.bransom.jdce.ndr.NDRWriter;
+
+/**
+ * Hand-written {@link NDRCodec} for {@link UUID}, which stores its fields packed into two longs and is therefore not an
+ * NDRStruct. Like generated codecs, it is found by {@link nl.bransom.jdce.ndr.NDRFactories} by its name.
+ * 
+ * @author Rob
+ */
+public final class UUIDNDRCodec implements NDRCodec<UUID>, NDRFactory<UUID> {
+
+  /** Singleton instance. */
+  public static final UUIDNDRCodec INSTANCE = new UUIDNDRCodec();
+
+  private static final int ALIGNMENT = 4;
+
+  /**
+   * Hidden constructor.
+   */
+  private UUIDNDRCodec() {
+  }
+
+  @Override
+  public UUID newInstance() {
+    return new UUID();
+  }
+
+  @Override
+  public void encode(final UUID value, final NDRWriter ndrWriter) throws IOException {
+    value.writeTo(ndrWriter.getBlock(UUID.NUM_BYTES), 0, ndrWriter.getIntegerCodec());
+    ndrWriter.writeBlock(ALIGNMENT, UUID.NUM_BYTES);
+  }
+
+  @Override
+  public void decode(final UUID value, final NDRReader ndrReader) throws IOException {
+    if (value.isInterned) {
+      throw new IllegalArgumentException("Interned UUID " + value + " may not be modified.");
+    }
+    value.readFrom(ndrReader.readBlock(ALIGNMENT, UUID.NUM_BYTES), 0, ndrReader.getIntegerCodec());
+  }
+}
@@ -0,0 +1,117 @@
+package nl.bransom.jdce.ndr;
+
+import java.io.ByteArrayInputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.Pipe;
+
+import nl.bransom.jdce.pdu.PDUConnectionlessHeader;
+import nl.bransom.jdce.pdu.PDUType;
+import nl.bransom.jdce.rpc.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link AlignedOutputBuffer}
+ * 
+ * @author Rob
+ */
+public class AlignedOutputBufferTest {
+
+  @Test
+  public void testWriteAndGrow() throws Exception {
+    final FormatLabel formatLabel = new FormatLabel(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE);
+    final byte[] bigBytes = new byte[3 * NDRBufferPool.MIN_BUFFER_SIZE];
+    for (int i = 0; i < bigBytes.length; i++) {
+      bigBytes[i] = (byte) i;
+    }
+
+    final AlignedOutputBuffer outputBuffer = new AlignedOutputBuffer(new NDRBufferPool(false), 1);
+    final NDRWriter ndrWriter = new NDRWriter(outputBuffer);
+    ndrWriter.setFormatLabel(formatLabel);
+    ndrWriter.writeByte((byte) 0x7f);
+    ndrWriter.writeLong(0x0102030405060708L);
+    ndrWriter.writeBytesFixed(bigBytes, 0, bigBytes.length);
+    ndrWriter.writeShort((short) 0x1234);
+    Assert.assertEquals("Incorrect size", 16 + bigBytes.length + 2, outputBuffer.size());
+
+    final NDRReader ndrReader = new NDRReader(outputBuffer.getContent());
+    ndrReader.setFormatLabel(formatLabel);
+    Assert.assertEquals("Incorrect value", (byte) 0x7f, ndrReader.readByte());
+    Assert.assertEquals("Incorrect value", 0x0102030405060708L, ndrReader.readLong());
+    final byte[] testBytes = new byte[bigBytes.length];
+    ndrReader.readBytesFixed(testBytes, 0, testBytes.length);
+    Assert.assertArrayEquals("Incorrect value", bigBytes, testBytes);
+    Assert.assertEquals("Incorrect value", (short) 0x1234, ndrReader.readShort());
+
+    outputBuffer.clear();
+    Assert.assertEquals("Incorrect size", 0, outputBuffer.size());
+    outputBuffer.release();
+    try {
+      outputBuffer.write((byte) 0x00);
+      Assert.fail("Method must fail after release.");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testWriteToChannel() throws Exception {
+    final byte[] data = { (byte) 0x0a, (byte) 0x0b, (byte) 0x0c };
+    final AlignedOutputBuffer outputBuffer = new AlignedOutputBuffer(new NDRBufferPool(true), data.length);
+    outputBuffer.write(data, 0, data.length);
+
+    final Pipe pipe = Pipe.open();
+    try {
+      Assert.assertEquals("Incorrect number of bytes written", data.length, outputBuffer.writeTo(pipe.sink()));
+      Assert.assertEquals("Content must be kept", data.length, outputBuffer.size());
+      final ByteBuffer received = ByteBuffer.allocate(data.length);
+      while (received.hasRemaining()) {
+        pipe.source().read(received);
+      }
+      Assert.assertArrayEquals("Incorrect bytes", data, received.array());
+    } finally {
+      pipe.sink().close();
+      pipe.source().close();
+      outputBuffer.release();
+    }
+  }
+
+  @Test
+  public void testSendTo() throws Exception {
+    final PDUConnectionlessHeader header = new PDUConnectionlessHeader();
+    header.getFormatLabel().set(FormatLabelInteger.BIG_ENDIAN, FormatLabelCharacter.ASCII, FormatLabelFloat.IEEE);
+    header.setPDUType(PDUType.PING);
+    header.setObjectId(new UUID());
+    header.setInterfaceId(new UUID());
+    header.setActivityId(UUID.parse("6737c286-1ef7-11d1-bcd9-00609792d26c"));
+    header.setSequenceNumber(0x42);
+
+    final AlignedOutputBuffer outputBuffer = new AlignedOutputBuffer(new NDRBufferPool(true), 0);
+    new NDRWriter(outputBuffer).write(header);
+
+    final DatagramChannel receiver = DatagramChannel.open();
+    final DatagramChannel sender = DatagramChannel.open();
+    try {
+      receiver.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+      final int numBytesSent = outputBuffer.sendTo(sender, receiver.socket().getLocalSocketAddress());
+      Assert.assertEquals("Incorrect number of bytes sent", outputBuffer.size(), numBytesSent);
+
+      final ByteBuffer received = ByteBuffer.allocate(numBytesSent);
+      receiver.receive(received);
+      received.flip();
+      final PDUConnectionlessHeader receivedHeader = new PDUConnectionlessHeader();
+      new NDRReader(new ByteArrayInputStream(received.array())).read(receivedHeader);
+      Assert.assertEquals("Incorrect field value", header.getActivityId(), receivedHeader.getActivityId());
+      Assert.assertEquals("Incorrect field value", header.getSequenceNumber(), receivedHeader.getSequenceNumber());
+    } finally {
+      sender.close();
+      receiver.close();
+      outputBuffer.release();
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package nl.bransom.jdce.ndr;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+
+import nl.bransom.jdce.pdu.PDUConnectionlessHeader;
+import nl.bransom.jdce.pdu.PDUConnectionlessHeaderView;
+import nl.bransom.jdce.pdu.PDUType;
+import nl.bransom.jdce.rpc.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link AlignedOutputSegments}
+ * 
+ * @author Rob
+ */
+public class AlignedOutputSegmentsTest {
+
+  private static final int MIN_REFERENCED_LENGTH = 64;
+
+  @Test
+  public void testSegments() throws Exception {
+    final PDUConnectionlessHeader header = new PDUConnectionlessHeader();
+    header.getFormatLabel().set(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII, FormatLabelFloat.IEEE);
+    header.setPDUType(PDUType.REQUEST);
+    header.setObjectId(new UUID());
+    header.setInterfaceId(new UUID());
+    header.setActivityId(UUID.parse("6737c286-1ef7-11d1-bcd9-00609792d26c"));
+    final byte[] body = new byte[5 * NDRBufferPool.MIN_BUFFER_SIZE];
+    for (int i = 0; i < body.length; i++) {
+      body[i] = (byte) i;
+    }
+    final byte[] smallBytes = { 0x01, 0x02, 0x03 };
+
+    final AlignedOutputSegments outputSegments = new AlignedOutputSegments(new NDRBufferPool(false),
+        PDUConnectionlessHeaderView.HEADER_LENGTH, MIN_REFERENCED_LENGTH);
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    write(new NDRWriter(outputSegments), header, body, smallBytes);
+    write(new NDRWriter(bos), header, body, smallBytes);
+    Assert.assertEquals("Incorrect size", bos.size(), outputSegments.size());
+
+    // Header, body and the remaining small fields.
+    final ByteBuffer[] segments = outputSegments.getSegments();
+    Assert.assertEquals("Incorrect number of segments", 3, segments.length);
+    Assert.assertEquals("Incorrect header segment", PDUConnectionlessHeaderView.HEADER_LENGTH, segments[0].remaining());
+    Assert.assertEquals("Incorrect body segment", body.length, segments[1].remaining());
+    Assert.assertArrayEquals("Incorrect content", bos.toByteArray(), concatenate(segments));
+    Assert.assertArrayEquals("Segments must be reusable", bos.toByteArray(),
+        concatenate(outputSegments.getSegments()));
+
+    // The body is referenced, not copied.
+    body[0] = (byte) 0xff;
+    Assert.assertEquals("Incorrect body segment", (byte) 0xff, outputSegments.getSegments()[1].get(0));
+
+    outputSegments.clear();
+    Assert.assertEquals("Incorrect size", 0, outputSegments.size());
+    Assert.assertEquals("Incorrect number of segments", 0, outputSegments.getSegments().length);
+    outputSegments.release();
+    try {
+      outputSegments.write((byte) 0x00);
+      Assert.fail("Method must fail after release.");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSpanBuffers() throws Exception {
+    final FormatLabel formatLabel = FormatLabel.valueOf(FormatLabelInteger.BIG_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE);
+    final byte[] smallBytes = new byte[MIN_REFERENCED_LENGTH - 1];
+    final AlignedOutputSegments outputSegments = new AlignedOutputSegments(new NDRBufferPool(true), 0,
+        MIN_REFERENCED_LENGTH);
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    final NDRWriter[] ndrWriters = { new NDRWriter(outputSegments), new NDRWriter(bos) };
+    for (NDRWriter ndrWriter : ndrWriters) {
+      ndrWriter.setFormatLabel(formatLabel);
+      for (int i = 0; i < 3 * NDRBufferPool.MIN_BUFFER_SIZE; i++) {
+        ndrWriter.writeByte((byte) i);
+        ndrWriter.writeLong(i);
+        ndrWriter.writeBytesFixed(smallBytes, 0, smallBytes.length);
+      }
+    }
+    final ByteBuffer[] segments = outputSegments.getSegments();
+    Assert.assertTrue("Content must span several buffers", segments.length > 1);
+    Assert.assertArrayEquals("Incorrect content", bos.toByteArray(), concatenate(segments));
+
+    final Pipe pipe = Pipe.open();
+    try {
+      final ByteBuffer received = ByteBuffer.allocate(outputSegments.size());
+      pipe.source().configureBlocking(false);
+      long numBytesWritten = 0;
+      // The pipe can't hold all content at once, so write and read in turns.
+      final ByteBuffer[] views = outputSegments.getSegments();
+      while (received.hasRemaining()) {
+        if (numBytesWritten < outputSegments.size()) {
+          numBytesWritten += pipe.sink().write(views);
+        }
+        pipe.source().read(received);
+      }
+      Assert.assertArrayEquals("Incorrect bytes", bos.toByteArray(), received.array());
+    } finally {
+      pipe.sink().close();
+      pipe.source().close();
+      outputSegments.release();
+    }
+  }
+
+  @Test
+  public void testWriteTo() throws Exception {
+    final byte[] body = new byte[MIN_REFERENCED_LENGTH];
+    body[1] = 0x11;
+    final AlignedOutputSegments outputSegments = new AlignedOutputSegments(new NDRBufferPool(false), 16,
+        MIN_REFERENCED_LENGTH);
+    outputSegments.write((byte) 0x7f);
+    outputSegments.write(body, 0, body.length);
+
+    final Pipe pipe = Pipe.open();
+    try {
+      Assert.assertEquals("Incorrect number of bytes written", 1 + body.length, outputSegments.writeTo(pipe.sink()));
+      Assert.assertEquals("Content must be kept", 1 + body.length, outputSegments.size());
+      final ByteBuffer received = ByteBuffer.allocate(1 + body.length);
+      while (received.hasRemaining()) {
+        pipe.source().read(received);
+      }
+      Assert.assertEquals("Incorrect byte", 0x7f, received.get(0));
+      Assert.assertEquals("Incorrect byte", 0x11, received.get(2));
+    } finally {
+      pipe.sink().close();
+      pipe.source().close();
+      outputSegments.release();
+    }
+  }
+
+  @Test
+  public void testInternalBlocks() throws Exception {
+    // Strings, UUIDs and number arrays pass through arrays that the writer reuses; these must be copied.
+    final FormatLabel formatLabel = FormatLabel.valueOf(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE);
+    final AlignedOutputSegments outputSegments = new AlignedOutputSegments(new NDRBufferPool(false), 80, 16);
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    final NDRWriter[] ndrWriters = { new NDRWriter(outputSegments), new NDRWriter(bos) };
+    for (NDRWriter ndrWriter : ndrWriters) {
+      ndrWriter.setFormatLabel(formatLabel);
+      ndrWriter.writeStringConformantVarying("The first string of text", 32, 0);
+      ndrWriter.writeStringVarying("The second string of text", 0);
+      ndrWriter.write(UUID.parse("6737c286-1ef7-11d1-bcd9-00609792d26c"));
+      ndrWriter.write(UUID.parse("e1af8308-5d1f-11c9-91a4-08002b14a0fa"));
+      ndrWriter.writeIntsConformant(new int[] { 1, 2, 3, 4, 5, 6, 7, 8 }, 0, 8, 8);
+      ndrWriter.writeIntsConformant(new int[] { 9, 10, 11, 12, 13, 14, 15, 16 }, 0, 8, 8);
+    }
+    try {
+      Assert.assertArrayEquals("Incorrect content", bos.toByteArray(), concatenate(outputSegments.getSegments()));
+    } finally {
+      outputSegments.release();
+    }
+  }
+
+  private static void write(final NDRWriter ndrWriter, final PDUConnectionlessHeader header, final byte[] body,
+      final byte[] smallBytes) throws Exception {
+    ndrWriter.write(header);
+    ndrWriter.setFormatLabel(header.getFormatLabel());
+    ndrWriter.writeBytesFixed(body, 0, body.length);
+    ndrWriter.writeInt(0x12345678);
+    ndrWriter.writeBytesConformant(smallBytes, 0, smallBytes.length, smallBytes.length);
+  }
+
+  private static byte[] concatenate(final ByteBuffer[] segments) {
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    for (ByteBuffer segment : segments) {
+      final byte[] bytes = new byte[segment.remaining()];
+      segment.duplicate().get(bytes);
+      bos.write(bytes, 0, bytes.length);
+    }
+    return bos.toByteArray();
+  }
+}
@@ -0,0 +1,67 @@
+package nl.bransom.jdce.ndr;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link CharacterCodec}
+ * 
+ * @author Rob
+ */
+public class CharacterCodecTest {
+
+  @Test
+  public void testConstructor() {
+    try {
+      new CharacterCodec(Charset.forName("UTF-8"));
+      Assert.fail("Multi-byte character set not detected.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testDecode() {
+    final byte[] allBytes = new byte[256];
+    for (int i = 0; i < allBytes.length; i++) {
+      allBytes[i] = (byte) i;
+    }
+    for (FormatLabelCharacter formatLabelCharacter : FormatLabelCharacter.values()) {
+      final CharacterCodec characterCodec = formatLabelCharacter.getCharacterCodec();
+      final String reference = new String(allBytes, formatLabelCharacter.getCharset());
+      Assert.assertEquals("Incorrect decoding", reference, characterCodec.decode(ByteBuffer.wrap(allBytes)));
+      Assert.assertEquals("Incorrect decoding", reference.substring(3, 9), characterCodec.decode(ByteBuffer.wrap(
+          allBytes, 3, 6).asReadOnlyBuffer()));
+      for (int i = 0; i < allBytes.length; i++) {
+        Assert.assertEquals("Incorrect decoding", reference.charAt(i), characterCodec.decode(allBytes[i]));
+      }
+    }
+  }
+
+  @Test
+  public void testEncode() {
+    final StringBuilder allChars = new StringBuilder();
+    for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+      if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+        allChars.append((char) c);
+      }
+    }
+    // A surrogate pair is a single character.
+    allChars.append("\ud83d\ude00");
+    final String text = allChars.toString();
+
+    for (FormatLabelCharacter formatLabelCharacter : FormatLabelCharacter.values()) {
+      final CharacterCodec characterCodec = formatLabelCharacter.getCharacterCodec();
+      final byte[] reference = text.getBytes(formatLabelCharacter.getCharset());
+      final byte[] encoded = new byte[text.length() + 2];
+      final int numBytes = characterCodec.encode(text, encoded, 2);
+      Assert.assertEquals("Incorrect length", reference.length, numBytes);
+      for (int i = 0; i < numBytes; i++) {
+        Assert.assertEquals("Incorrect encoding of char " + i, reference[i], encoded[i + 2]);
+      }
+    }
+  }
+}
@@ -145,4 +145,59 @@ public class FormatLabelTest {
     Assert.assertTrue("Incorrect result;", !formatLabel1.equals(formatLabel2));
     Assert.assertTrue("Incorrect result;", formatLabel1.hashCode() != formatLabel2.hashCode());
   }
+  @Test
+  public void testLookup() {
+    Assert.assertEquals("Incorrect FormatLabel", new FormatLabel(FormatLabelInteger.LITTLE_ENDIAN,
+        FormatLabelCharacter.EBCDIC, FormatLabelFloat.VAX), FormatLabel.lookup(new byte[] { 0x11, 0x01, 0x00 }, 0));
+    Assert.assertEquals("Incorrect FormatLabel", new FormatLabel(FormatLabelInteger.BIG_ENDIAN,
+        FormatLabelCharacter.ASCII, FormatLabelFloat.IEEE), FormatLabel.lookup(new byte[] { 0x7f, 0x00, 0x00, 0x00 },
+        1));
+    Assert.assertNull("Unsupported integer format not detected", FormatLabel.lookup(new byte[] { 0x20, 0x00, 0x00 },
+        0));
+    Assert.assertNull("Unsupported character format not detected", FormatLabel.lookup(new byte[] { 0x02, 0x00, 0x00 },
+        0));
+    Assert.assertNull("Unsupported float format not detected", FormatLabel.lookup(new byte[] { 0x00, 0x04, 0x00 }, 0));
+    Assert.assertNull("Short input not detected", FormatLabel.lookup(new byte[] { 0x00 }, 0));
+    Assert.assertNull("Null input not detected", FormatLabel.lookup(null, 0));
+  }
+
+  @Test
+  public void testCanonical() {
+    final FormatLabel parsed = FormatLabel.parse(new byte[] { 0x10, 0x00, 0x00, 0x00 }, 0);
+    Assert.assertTrue("Parsed instance must be canonical", parsed.isCanonical());
+    Assert.assertSame("Incorrect instance", parsed, FormatLabel.parse(new byte[] { 0x10, 0x00, 0x00 }, 0));
+    Assert.assertSame("Incorrect instance", parsed, FormatLabel.parse((byte) 0x10, (byte) 0x00));
+    Assert.assertSame("Incorrect instance", parsed, FormatLabel.valueOf(FormatLabelInteger.LITTLE_ENDIAN,
+        FormatLabelCharacter.ASCII, FormatLabelFloat.IEEE));
+    Assert.assertNotSame("Incorrect instance", parsed, FormatLabel.valueOf(FormatLabelInteger.LITTLE_ENDIAN,
+        FormatLabelCharacter.EBCDIC, FormatLabelFloat.IEEE));
+    try {
+      parsed.set(FormatLabelInteger.BIG_ENDIAN, FormatLabelCharacter.ASCII, FormatLabelFloat.IEEE);
+      Assert.fail("Change of canonical instance not detected.");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    final FormatLabel copy = parsed.toModifiable();
+    Assert.assertNotSame("Incorrect instance", parsed, copy);
+    Assert.assertEquals("Incorrect FormatLabel", parsed, copy);
+    copy.set(FormatLabelInteger.BIG_ENDIAN, FormatLabelCharacter.ASCII, FormatLabelFloat.IEEE);
+    Assert.assertSame("Incorrect instance", copy, copy.toModifiable());
+
+    final FormatLabel formatLabel = new FormatLabel();
+    Assert.assertFalse("New instance must not be canonical", formatLabel.isCanonical());
+    Assert.assertSame("Incorrect instance", formatLabel, formatLabel.toCanonical());
+    formatLabel.set(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII, FormatLabelFloat.IEEE);
+    Assert.assertEquals("Incorrect FormatLabel", parsed, formatLabel);
+    Assert.assertSame("Incorrect instance", parsed, formatLabel.toCanonical());
+    Assert.assertSame("Incorrect integer codec", IntegerCodec.LITTLE_ENDIAN, formatLabel.getIntegerCodec());
+    Assert.assertSame("Incorrect character codec", FormatLabelCharacter.ASCII.getCharacterCodec(),
+        formatLabel.getCharacterCodec());
+    try {
+      FormatLabel.valueOf(null, FormatLabelCharacter.ASCII, FormatLabelFloat.IEEE);
+      Assert.fail("Incomplete FormatLabel not detected.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
 }
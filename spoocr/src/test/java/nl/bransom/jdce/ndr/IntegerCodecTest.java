@@ -0,0 +1,59 @@
+package nl.bransom.jdce.ndr;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link IntegerCodec}
+ * 
+ * @author Rob
+ */
+public class IntegerCodecTest {
+
+  @Test
+  public void testDecode() {
+    final byte[] bytes = { (byte) 0xee, (byte) 0x81, (byte) 0x02, (byte) 0xf3, (byte) 0x04, (byte) 0x95, (byte) 0x06,
+        (byte) 0xa7, (byte) 0x08 };
+    final int offset = 1;
+
+    for (IntegerCodec integerCodec : IntegerCodec.values()) {
+      final ByteBuffer refBuffer = ByteBuffer.wrap(bytes).order(integerCodec.getByteOrder());
+      Assert.assertEquals("Incorrect short value", refBuffer.getShort(offset),
+          integerCodec.decodeShort(bytes, offset));
+      Assert.assertEquals("Incorrect int value", refBuffer.getInt(offset), integerCodec.decodeInt(bytes, offset));
+      Assert.assertEquals("Incorrect long value", refBuffer.getLong(offset), integerCodec.decodeLong(bytes, offset));
+    }
+  }
+
+  @Test
+  public void testEncode() {
+    final short shortValue = (short) 0x81f2;
+    final int intValue = 0x8102f304;
+    final long longValue = 0x8102f30495a6b7c8L;
+    final int offset = 1;
+
+    for (IntegerCodec integerCodec : IntegerCodec.values()) {
+      final byte[] bytes = new byte[offset + Long.SIZE / NDRConstants.NUM_BITS_PER_BYTE];
+      final ByteBuffer refBuffer = ByteBuffer.allocate(bytes.length).order(integerCodec.getByteOrder());
+      integerCodec.encodeShort(shortValue, bytes, offset);
+      refBuffer.putShort(offset, shortValue);
+      Assert.assertArrayEquals("Incorrect short bytes", refBuffer.array(), bytes);
+      integerCodec.encodeInt(intValue, bytes, offset);
+      refBuffer.putInt(offset, intValue);
+      Assert.assertArrayEquals("Incorrect int bytes", refBuffer.array(), bytes);
+      integerCodec.encodeLong(longValue, bytes, offset);
+      refBuffer.putLong(offset, longValue);
+      Assert.assertArrayEquals("Incorrect long bytes", refBuffer.array(), bytes);
+      Assert.assertEquals("Inconsistent long coding", longValue, integerCodec.decodeLong(bytes, offset));
+    }
+  }
+
+  @Test
+  public void testFormatLabelInteger() {
+    Assert.assertEquals("Incorrect codec", IntegerCodec.BIG_ENDIAN, FormatLabelInteger.BIG_ENDIAN.getIntegerCodec());
+    Assert.assertEquals("Incorrect codec", IntegerCodec.LITTLE_ENDIAN,
+        FormatLabelInteger.LITTLE_ENDIAN.getIntegerCodec());
+  }
+}
@@ -0,0 +1,52 @@
+package nl.bransom.jdce.ndr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link NDRBufferPool}
+ * 
+ * @author Rob
+ */
+public class NDRBufferPoolTest {
+
+  @Test
+  public void testAcquireAndRelease() {
+    final NDRBufferPool bufferPool = new NDRBufferPool(false);
+
+    final ByteBuffer buffer0 = bufferPool.acquire(1);
+    Assert.assertEquals("Incorrect capacity", NDRBufferPool.MIN_BUFFER_SIZE, buffer0.capacity());
+    final ByteBuffer buffer1 = bufferPool.acquire(NDRBufferPool.MIN_BUFFER_SIZE + 1);
+    Assert.assertEquals("Incorrect capacity", 2 * NDRBufferPool.MIN_BUFFER_SIZE, buffer1.capacity());
+    Assert.assertFalse("Unexpected direct buffer", buffer1.isDirect());
+
+    buffer1.order(ByteOrder.LITTLE_ENDIAN).putLong(0L);
+    bufferPool.release(buffer1);
+    final ByteBuffer buffer2 = bufferPool.acquire(2 * NDRBufferPool.MIN_BUFFER_SIZE);
+    Assert.assertSame("Released buffer must be reused", buffer1, buffer2);
+    Assert.assertEquals("Reused buffer must be cleared", 0, buffer2.position());
+    Assert.assertEquals("Reused buffer must be big-endian", ByteOrder.BIG_ENDIAN, buffer2.order());
+
+    bufferPool.release(ByteBuffer.allocate(NDRBufferPool.MIN_BUFFER_SIZE + 1));
+    Assert.assertNotSame("Foreign buffers must not be pooled", buffer0, bufferPool.acquire(1));
+
+    final int hugeSize = NDRBufferPool.MAX_POOLED_BUFFER_SIZE + 1;
+    Assert.assertEquals("Incorrect capacity", hugeSize, bufferPool.acquire(hugeSize).capacity());
+  }
+
+  @Test
+  public void testMaxIdleBuffers() {
+    final NDRBufferPool bufferPool = new NDRBufferPool(true, 1);
+    final ByteBuffer buffer0 = bufferPool.acquire(1);
+    final ByteBuffer buffer1 = bufferPool.acquire(1);
+    Assert.assertTrue("Expected a direct buffer", buffer0.isDirect());
+
+    bufferPool.release(buffer0);
+    bufferPool.release(buffer1);
+    Assert.assertSame("Released buffer must be reused", buffer0, bufferPool.acquire(1));
+    Assert.assertNotSame("Surplus buffer must be discarded", buffer1, bufferPool.acquire(1));
+  }
+}
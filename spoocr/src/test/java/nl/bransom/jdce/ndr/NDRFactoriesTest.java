@@ -0,0 +1,97 @@
+package nl.bransom.jdce.ndr;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import nl.bransom.jdce.pdu.PDUFlags;
+import nl.bransom.jdce.rpc.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link NDRFactories}
+ * 
+ * @author Rob
+ */
+public class NDRFactoriesTest {
+
+  /**
+   * NDRSerializable without generated codec.
+   */
+  public static class PlainSerializable implements NDRSerializable {
+
+    byte value;
+
+    @Override
+    public void ndrSerialize(final NDRWriter ndrWriter) throws IOException {
+      ndrWriter.writeByte(value);
+    }
+
+    @Override
+    public void ndrDeserialize(final NDRReader ndrReader) throws IOException {
+      value = ndrReader.readByte();
+    }
+  }
+
+  /**
+   * NDRSerializable that cannot be instantiated without a factory.
+   */
+  public static class RegisteredSerializable extends PlainSerializable {
+
+    public RegisteredSerializable(final int unused) {
+    }
+  }
+
+  /**
+   * NDRSerializable that cannot be instantiated at all.
+   */
+  public static class InvalidSerializable extends PlainSerializable {
+
+    public InvalidSerializable(final int unused) {
+    }
+  }
+
+  @Test
+  public void testGeneratedFactory() {
+    final NDRFactory<UUID> factory = NDRFactories.get(UUID.class);
+    Assert.assertTrue("The generated codec must be used", factory instanceof NDRCodec);
+    Assert.assertSame("The factory must be cached", factory, NDRFactories.get(UUID.class));
+    final UUID uuid = factory.newInstance();
+    Assert.assertNotNull("Incorrect instance", uuid);
+    Assert.assertNotSame("Instances must not be shared", uuid, factory.newInstance());
+    Assert.assertTrue("The generated codec must be used", NDRFactories.get(PDUFlags.class) instanceof NDRCodec);
+  }
+
+  @Test
+  public void testConstructorFactory() {
+    final NDRFactory<PlainSerializable> factory = NDRFactories.get(PlainSerializable.class);
+    Assert.assertSame("The factory must be cached", factory, NDRFactories.get(PlainSerializable.class));
+    Assert.assertEquals("Incorrect class", PlainSerializable.class, factory.newInstance().getClass());
+    try {
+      NDRFactories.get(InvalidSerializable.class);
+      Assert.fail("Method must fail on classes without no-arg constructor.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRegister() throws Exception {
+    NDRFactories.register(RegisteredSerializable.class, new NDRFactory<RegisteredSerializable>() {
+      @Override
+      public RegisteredSerializable newInstance() {
+        return new RegisteredSerializable(0);
+      }
+    });
+    final NDRReader ndrReader = new NDRReader(new ByteArrayInputStream(new byte[] { (byte) 0xab }));
+    final RegisteredSerializable registered = ndrReader.read(RegisteredSerializable.class);
+    Assert.assertEquals("Incorrect value", (byte) 0xab, registered.value);
+    try {
+      NDRFactories.register(RegisteredSerializable.class, null);
+      Assert.fail("Method must fail on illegal input.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package nl.bransom.jdce.ndr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link NDRIncrementalReader}
+ * 
+ * @author Rob
+ */
+public class NDRIncrementalReaderTest {
+
+  private static final FormatLabel FORMAT_LABEL = FormatLabel.valueOf(FormatLabelInteger.BIG_ENDIAN,
+      FormatLabelCharacter.ASCII, FormatLabelFloat.IEEE);
+  private static final int NUM_MESSAGES = 50;
+
+  @Test
+  public void testReadChunks() throws Exception {
+    final byte[] bytes = writeMessages();
+    for (int chunkSize = 1; chunkSize < 40; chunkSize += 3) {
+      final NDRIncrementalReader reader = new NDRIncrementalReader(FORMAT_LABEL);
+      final Message message = new Message();
+      int numMessagesRead = 0;
+      for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+        reader.append(ByteBuffer.wrap(bytes, offset, Math.min(chunkSize, bytes.length - offset)));
+        while (reader.read(message)) {
+          assertMessage(numMessagesRead++, message);
+        }
+      }
+      Assert.assertEquals("Incorrect number of messages", NUM_MESSAGES, numMessagesRead);
+      Assert.assertEquals("Incorrect number of bytes left", 0, reader.available());
+      Assert.assertFalse("No more messages expected", reader.read(message));
+    }
+  }
+
+  @Test
+  public void testReadChannel() throws Exception {
+    final byte[] bytes = writeMessages();
+    final Pipe pipe = Pipe.open();
+    pipe.source().configureBlocking(false);
+    final NDRIncrementalReader reader = new NDRIncrementalReader(FORMAT_LABEL);
+    final Message message = new Message();
+    Assert.assertEquals("Nothing must be read yet", 0, reader.append(pipe.source()));
+    Assert.assertFalse("Message must be incomplete", reader.read(message));
+
+    int numMessagesRead = 0;
+    final int chunkSize = 333;
+    for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+      final int numBytes = Math.min(chunkSize, bytes.length - offset);
+      pipe.sink().write(ByteBuffer.wrap(bytes, offset, numBytes));
+      Assert.assertEquals("Incorrect number of bytes read", numBytes, reader.append(pipe.source()));
+      while (reader.read(message)) {
+        assertMessage(numMessagesRead++, message);
+      }
+    }
+    pipe.sink().close();
+    Assert.assertEquals("End-of-stream expected", -1, reader.append(pipe.source()));
+    Assert.assertEquals("Incorrect number of messages", NUM_MESSAGES, numMessagesRead);
+  }
+
+  @Test
+  public void testCorruptData() throws Exception {
+    final NDRIncrementalReader reader = new NDRIncrementalReader(FORMAT_LABEL);
+    // A negative length is corrupt data, not incomplete data.
+    reader.append(ByteBuffer.wrap(new byte[] { 0x00, 0x00, 0x00, 0x01, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+        (byte) 0xff }));
+    try {
+      reader.read(new Message());
+      Assert.fail("Corrupt data not detected.");
+    } catch (NDRUnderflowException e) {
+      Assert.fail("Corrupt data reported as incomplete.");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSharedReferent() throws Exception {
+    // Each message points to the same referent, so each one must carry it in full.
+    final Item shared = new Item();
+    shared.value = 42;
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    final NDRWriter ndrWriter = new NDRWriter(bos);
+    ndrWriter.setFormatLabel(FORMAT_LABEL);
+    for (int i = 0; i < 3; i++) {
+      final Item item = new Item();
+      item.value = i;
+      item.next = shared;
+      ndrWriter.write(item);
+      ndrWriter.clearEmbeddedReferents();
+    }
+    final byte[] bytes = bos.toByteArray();
+
+    final NDRIncrementalReader reader = new NDRIncrementalReader(FORMAT_LABEL);
+    int numItemsRead = 0;
+    for (int offset = 0; offset < bytes.length; offset++) {
+      reader.append(ByteBuffer.wrap(bytes, offset, 1));
+      final Item item = new Item();
+      while (reader.read(item)) {
+        Assert.assertEquals("Incorrect value", numItemsRead++, item.value);
+        Assert.assertEquals("Incorrect referent", 42, item.next.value);
+      }
+    }
+    Assert.assertEquals("Incorrect number of items", 3, numItemsRead);
+  }
+
+  private static byte[] writeMessages() throws IOException {
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    final NDRWriter ndrWriter = new NDRWriter(bos);
+    ndrWriter.setFormatLabel(FORMAT_LABEL);
+    for (int i = 0; i < NUM_MESSAGES; i++) {
+      final Message message = new Message();
+      message.number = i;
+      message.text = "Message number " + i;
+      message.numValues = i;
+      for (int j = 0; j < i; j++) {
+        message.values[j] = (long) i << Integer.SIZE | j;
+      }
+      ndrWriter.write(message);
+      ndrWriter.clearEmbeddedReferents();
+    }
+    return bos.toByteArray();
+  }
+
+  private static void assertMessage(final int i, final Message message) {
+    Assert.assertEquals("Incorrect number", i, message.number);
+    Assert.assertEquals("Incorrect text", "Message number " + i, message.text);
+    Assert.assertEquals("Incorrect number of values", i, message.numValues);
+    for (int j = 0; j < i; j++) {
+      Assert.assertEquals("Incorrect value", (long) i << Integer.SIZE | j, message.values[j]);
+    }
+  }
+
+  /**
+   * Object with an embedded pointer.
+   */
+  public static final class Item implements NDRSerializable {
+
+    private int value;
+    private Item next;
+
+    @Override
+    public void ndrSerialize(final NDRWriter ndrWriter) throws IOException {
+      ndrWriter.writeInt(value);
+      ndrWriter.writeEmbeddedReference(next);
+    }
+
+    @Override
+    public void ndrDeserialize(final NDRReader ndrReader) throws IOException {
+      value = ndrReader.readInt();
+      next = ndrReader.readEmbeddedReference(Item.class);
+    }
+  }
+
+  /**
+   * Message with fields of varying size and alignment.
+   */
+  private static final class Message implements NDRSerializable {
+
+    private int number;
+    private final long[] values = new long[NUM_MESSAGES];
+    private int numValues;
+    private String text;
+
+    @Override
+    public void ndrSerialize(final NDRWriter ndrWriter) throws IOException {
+      ndrWriter.writeInt(number);
+      ndrWriter.writeLongsConformant(values, 0, numValues, numValues);
+      ndrWriter.writeStringConformantVarying(text, text.length() + 1, 0);
+    }
+
+    @Override
+    public void ndrDeserialize(final NDRReader ndrReader) throws IOException {
+      number = ndrReader.readInt();
+      numValues = ndrReader.readLongsConformant(values, 0);
+      text = ndrReader.readStringConformantVarying();
+    }
+  }
+}
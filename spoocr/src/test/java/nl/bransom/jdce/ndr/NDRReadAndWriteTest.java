@@ -2,6 +2,8 @@ package nl.bransom.jdce.ndr;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -112,4 +114,199 @@ public class NDRReadAndWriteTest {
     }
     Assert.assertEquals("Incorrect value", long1, ndrReader.readLong());
   }
+
+  @Test
+  public void testEmbeddedReferences() throws Exception {
+    final FormatLabel formatLabel = FormatLabel.valueOf(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE);
+    // Both child nodes point to the same grandchild.
+    final Node grandchild = new Node(4, null, null);
+    final Node root = new Node(1, new Node(2, grandchild, null), new Node(3, grandchild, null));
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    NDRWriter ndrWriter = new NDRWriter(bos);
+    ndrWriter.setFormatLabel(formatLabel);
+    ndrWriter.write(root);
+    ndrWriter.writeInt(5);
+
+    // Referents follow their outermost object, each one directly followed by its own referents.
+    final int[] expectedInts = { 1, 1, 2, 2, 3, 0, 4, 0, 0, 3, 3, 0, 5 };
+    NDRReader ndrReader = new NDRReader(ByteBuffer.wrap(bos.toByteArray()));
+    ndrReader.setFormatLabel(formatLabel);
+    for (int expectedInt : expectedInts) {
+      Assert.assertEquals("Incorrect NDR order", expectedInt, ndrReader.readInt());
+    }
+
+    ndrReader = new NDRReader(ByteBuffer.wrap(bos.toByteArray()));
+    ndrReader.setFormatLabel(formatLabel);
+    final Node readRoot = ndrReader.read(Node.class);
+    Assert.assertEquals("Incorrect value", 1, readRoot.value);
+    Assert.assertEquals("Incorrect value", 2, readRoot.first.value);
+    Assert.assertEquals("Incorrect value", 3, readRoot.second.value);
+    Assert.assertEquals("Incorrect value", 4, readRoot.first.first.value);
+    Assert.assertSame("Incorrect link", readRoot.first.first, readRoot.second.first);
+    Assert.assertNull("Incorrect null pointer", readRoot.first.second);
+    Assert.assertEquals("Incorrect value", 5, ndrReader.readInt());
+  }
+
+  @Test
+  public void testEmbeddedReferencesPerMessage() throws Exception {
+    final FormatLabel formatLabel = FormatLabel.valueOf(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE);
+    // Both messages point to the same object.
+    final Node shared = new Node(4, null, null);
+    final Node message1 = new Node(1, shared, null);
+    final Node message2 = new Node(2, shared, null);
+
+    final ByteArrayOutputStream refStream = new ByteArrayOutputStream();
+    final NDRWriter refWriter = new NDRWriter(refStream);
+    refWriter.setFormatLabel(formatLabel);
+    refWriter.write(message2);
+
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    final NDRWriter ndrWriter = new NDRWriter(bos);
+    ndrWriter.setFormatLabel(formatLabel);
+    ndrWriter.write(message1);
+    final int message1Length = bos.size();
+    ndrWriter.clearEmbeddedReferents();
+    ndrWriter.write(message2);
+    final byte[] bytes = bos.toByteArray();
+    Assert.assertArrayEquals("Second message must be self-contained", refStream.toByteArray(),
+        Arrays.copyOfRange(bytes, message1Length, bytes.length));
+
+    final NDRReader ndrReader = new NDRReader(ByteBuffer.wrap(bytes));
+    ndrReader.setFormatLabel(formatLabel);
+    final Node readMessage1 = ndrReader.read(Node.class);
+    ndrReader.clearEmbeddedReferents();
+    final Node readMessage2 = ndrReader.read(Node.class);
+    Assert.assertEquals("Incorrect value", 4, readMessage1.first.value);
+    Assert.assertEquals("Incorrect value", 2, readMessage2.value);
+    Assert.assertEquals("Incorrect value", 4, readMessage2.first.value);
+    Assert.assertNotSame("Messages must not share referents", readMessage1.first, readMessage2.first);
+  }
+
+  @Test
+  public void testEmbeddedReferencesDeep() throws Exception {
+    final FormatLabel formatLabel = FormatLabel.valueOf(FormatLabelInteger.BIG_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE);
+    final int numNodes = 100000;
+    final Node head = new Node(0, null, null);
+    Node tail = head;
+    for (int i = 1; i < numNodes; i++) {
+      tail.second = new Node(i, null, null);
+      tail = tail.second;
+    }
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    NDRWriter ndrWriter = new NDRWriter(bos);
+    ndrWriter.setFormatLabel(formatLabel);
+    ndrWriter.write(head);
+
+    NDRReader ndrReader = new NDRReader(ByteBuffer.wrap(bos.toByteArray()));
+    ndrReader.setFormatLabel(formatLabel);
+    Node node = ndrReader.read(Node.class);
+    for (int i = 0; i < numNodes; i++) {
+      Assert.assertEquals("Incorrect value", i, node.value);
+      node = node.second;
+    }
+    Assert.assertNull("Incorrect end of list", node);
+  }
+
+  @Test
+  public void testNumberArrays() throws Exception {
+    // More values than fit in one bulk block.
+    final int numValues = 5000;
+    final short[] shorts = new short[numValues];
+    final int[] ints = new int[numValues];
+    final long[] longs = new long[numValues];
+    final float[] floats = new float[numValues];
+    final double[] doubles = new double[numValues];
+    for (int i = 0; i < numValues; i++) {
+      shorts[i] = (short) (i * 0x3b);
+      ints[i] = i * 0x3b5a1f;
+      longs[i] = i * 0x3b5a1f27c9L;
+      floats[i] = i / 7.0F;
+      doubles[i] = -i / 13.0;
+    }
+
+    for (FormatLabelInteger formatLabelInteger : FormatLabelInteger.values()) {
+      final FormatLabel formatLabel = FormatLabel.valueOf(formatLabelInteger, FormatLabelCharacter.ASCII,
+          FormatLabelFloat.IEEE);
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      NDRWriter ndrWriter = new NDRWriter(bos);
+      ndrWriter.setFormatLabel(formatLabel);
+      ndrWriter.writeByte((byte) 0x01);
+      ndrWriter.writeShortsConformant(shorts, 0, numValues, numValues + 1);
+      ndrWriter.writeByte((byte) 0x02);
+      ndrWriter.writeIntsVarying(ints, 1, numValues - 1, 1);
+      ndrWriter.writeByte((byte) 0x03);
+      ndrWriter.writeLongsConformantVarying(longs, 0, numValues, numValues, 0);
+      ndrWriter.writeByte((byte) 0x04);
+      ndrWriter.writeFloatsConformant(floats, 0, numValues, numValues);
+      ndrWriter.writeDoublesVarying(doubles, 0, numValues, 0);
+      ndrWriter.writeLong(long.class.hashCode());
+
+      // Read from a stream as well as from a buffer.
+      final byte[] transmittedBytes = bos.toByteArray();
+      for (int i = 0; i < 2; i++) {
+        NDRReader ndrReader = (i == 0) ? new NDRReader(new ByteArrayInputStream(transmittedBytes)) : new NDRReader(
+            ByteBuffer.wrap(transmittedBytes));
+        ndrReader.setFormatLabel(formatLabel);
+        Assert.assertEquals("Incorrect value", 0x01, ndrReader.readByte());
+        final short[] testShorts = new short[numValues + 1];
+        Assert.assertEquals("Incorrect length", numValues + 1, ndrReader.readShortsConformant(testShorts, 0));
+        Assert.assertArrayEquals("Incorrect values", shorts, Arrays.copyOf(testShorts, numValues));
+        Assert.assertEquals("Incorrect padding", 0, testShorts[numValues]);
+        Assert.assertEquals("Incorrect value", 0x02, ndrReader.readByte());
+        final int[] testInts = new int[numValues];
+        Assert.assertEquals("Incorrect length", numValues, ndrReader.readIntsVarying(testInts, 0));
+        Assert.assertArrayEquals("Incorrect values", ints, testInts);
+        Assert.assertEquals("Incorrect value", 0x03, ndrReader.readByte());
+        final long[] testLongs = new long[numValues];
+        Assert.assertEquals("Incorrect length", numValues, ndrReader.readLongsConformantVarying(testLongs, 0));
+        Assert.assertArrayEquals("Incorrect values", longs, testLongs);
+        Assert.assertEquals("Incorrect value", 0x04, ndrReader.readByte());
+        final float[] testFloats = new float[numValues];
+        Assert.assertEquals("Incorrect length", numValues, ndrReader.readFloatsConformant(testFloats, 0));
+        Assert.assertArrayEquals("Incorrect values", floats, testFloats, 0.0F);
+        final double[] testDoubles = new double[numValues];
+        Assert.assertEquals("Incorrect length", numValues, ndrReader.readDoublesVarying(testDoubles, 0));
+        Assert.assertArrayEquals("Incorrect values", doubles, testDoubles, 0.0);
+        Assert.assertEquals("Incorrect value", long.class.hashCode(), ndrReader.readLong());
+      }
+    }
+  }
+
+  /**
+   * Binary tree node, of which the children are referenced by embedded pointers.
+   */
+  public static final class Node implements NDRSerializable {
+
+    private int value;
+    private Node first;
+    private Node second;
+
+    public Node() {
+    }
+
+    private Node(final int value, final Node first, final Node second) {
+      this.value = value;
+      this.first = first;
+      this.second = second;
+    }
+
+    @Override
+    public void ndrSerialize(final NDRWriter ndrWriter) throws IOException {
+      ndrWriter.writeInt(value);
+      ndrWriter.writeEmbeddedReference(first);
+      ndrWriter.writeEmbeddedReference(second);
+    }
+
+    @Override
+    public void ndrDeserialize(final NDRReader ndrReader) throws IOException {
+      value = ndrReader.readInt();
+      first = ndrReader.readEmbeddedReference(Node.class);
+      second = ndrReader.readEmbeddedReference(Node.class);
+    }
+  }
 }
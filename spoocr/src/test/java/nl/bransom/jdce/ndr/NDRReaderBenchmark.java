@@ -0,0 +1,105 @@
+package nl.bransom.jdce.ndr;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import nl.bransom.jdce.pdu.PDUConnectionlessHeader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Simple throughput benchmark for {@link NDRReader}. It repeatedly decodes a connectionless PDU header and a block of
+ * long primitives, both from an InputStream and from a ByteBuffer, and logs the number of decodes per second.
+ * 
+ * This is not a unit test; run its main method on the test classpath.
+ * 
+ * @author Rob
+ */
+public final class NDRReaderBenchmark {
+
+  private static final Logger LOG = LoggerFactory.getLogger(NDRReaderBenchmark.class);
+  private static final String PACKET_HEX = "040B0800100000000000000000000000000000000000000000B84A9F4D1C7DCF11"
+      + "861E0020AF6E7C5786C23767F71ED111BCD900609792D26C79BE01340000000000000000000000FFFFFFFF680000000100";
+  private static final int NUM_LONGS = 64;
+  private static final int NUM_WARMUP_ROUNDS = 3;
+  private static final int NUM_ROUNDS = 5;
+  private static final int NUM_DECODES_PER_ROUND = 2000000;
+  private static final int NUM_LONG_BLOCKS_PER_ROUND = 100000;
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  /**
+   * Hidden constructor.
+   */
+  private NDRReaderBenchmark() {
+  }
+
+  /**
+   * Runs the benchmark.
+   * 
+   * @param args
+   *          not used
+   * @throws IOException
+   *           if decoding fails
+   */
+  public static void main(final String[] args) throws IOException {
+    final byte[] packetBytes = new byte[PACKET_HEX.length() / 2];
+    for (int i = 0; i < packetBytes.length; i++) {
+      packetBytes[i] = (byte) Short.parseShort(PACKET_HEX.substring(2 * i, 2 * i + 2), 16);
+    }
+    final ByteBuffer packetBuffer = ByteBuffer.allocateDirect(packetBytes.length);
+    packetBuffer.put(packetBytes).flip();
+
+    final byte[] longBytes = new byte[NDRConstants.MAX_NUM_ALIGNMENT_BYTES + NUM_LONGS * Long.SIZE / Byte.SIZE];
+    FormatLabelInteger.LITTLE_ENDIAN.patchFormatLabel(longBytes, 0);
+    final ByteBuffer longBuffer = ByteBuffer.wrap(longBytes);
+
+    long checksum = 0;
+    for (int round = 0; round < NUM_WARMUP_ROUNDS + NUM_ROUNDS; round++) {
+      final boolean isWarmup = round < NUM_WARMUP_ROUNDS;
+      long startNanos = System.nanoTime();
+      for (int i = 0; i < NUM_DECODES_PER_ROUND; i++) {
+        new NDRReader(new ByteArrayInputStream(packetBytes)).read(new PDUConnectionlessHeader());
+      }
+      report("header from InputStream", isWarmup, NUM_DECODES_PER_ROUND, System.nanoTime() - startNanos);
+
+      startNanos = System.nanoTime();
+      for (int i = 0; i < NUM_DECODES_PER_ROUND; i++) {
+        new NDRReader(packetBuffer).read(new PDUConnectionlessHeader());
+      }
+      report("header from ByteBuffer", isWarmup, NUM_DECODES_PER_ROUND, System.nanoTime() - startNanos);
+
+      startNanos = System.nanoTime();
+      for (int i = 0; i < NUM_LONG_BLOCKS_PER_ROUND; i++) {
+        checksum += readLongs(new NDRReader(new ByteArrayInputStream(longBytes)));
+      }
+      report("long from InputStream", isWarmup, NUM_LONG_BLOCKS_PER_ROUND * NUM_LONGS,
+          System.nanoTime() - startNanos);
+
+      startNanos = System.nanoTime();
+      for (int i = 0; i < NUM_LONG_BLOCKS_PER_ROUND; i++) {
+        checksum += readLongs(new NDRReader(longBuffer));
+      }
+      report("long from ByteBuffer", isWarmup, NUM_LONG_BLOCKS_PER_ROUND * NUM_LONGS,
+          System.nanoTime() - startNanos);
+    }
+    LOG.debug("checksum {}", checksum);
+  }
+
+  private static long readLongs(final NDRReader ndrReader) throws IOException {
+    ndrReader.readFormatLabel(NDRConstants.FORMAT_LABEL_LENGTH);
+    long sum = 0;
+    for (int i = 0; i < NUM_LONGS; i++) {
+      sum += ndrReader.readLong();
+    }
+    return sum;
+  }
+
+  private static void report(final String subject, final boolean isWarmup, final int numDecodes,
+      final long elapsedNanos) {
+    if (!isWarmup) {
+      LOG.info("{}: {} decodes/s", subject, (long) (numDecodes * NANOS_PER_SECOND / elapsedNanos));
+    }
+  }
+}
@@ -1,10 +1,15 @@
 package nl.bransom.jdce.ndr;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.util.HashMap;
 import java.util.Map;
 
+import nl.bransom.jdce.rpc.UUID;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -55,12 +60,13 @@ public class NDRReaderTest {
 
   @Test
   public void testReadByte() throws Exception {
-    final byte[] bytes = { (byte) 0xab, (byte) 0xcd, (byte) 0xef };
+    final byte[] bytes = { (byte) 0xab, (byte) 0xcd, (byte) 0xef, (byte) 0xff };
 
     NDRReader ndrReader = new NDRReader(new ByteArrayInputStream(bytes));
     Assert.assertEquals("Incorrect value", (byte) 0xab, (byte) ndrReader.readByte());
     Assert.assertEquals("Incorrect value", (byte) 0xcd, (byte) ndrReader.readByte());
     Assert.assertEquals("Incorrect value", (byte) 0xef, (byte) ndrReader.readByte());
+    Assert.assertEquals("Incorrect value", (byte) 0xff, (byte) ndrReader.readByte());
     try {
       ndrReader.readByte();
       Assert.fail("Method readByte() must fail when reading beyond EOF.");
@@ -167,6 +173,82 @@ public class NDRReaderTest {
     Assert.assertEquals("Wrong Double value IEEE little endian", refData, ndrReader.readDouble(), Double.MIN_VALUE);
   }
 
+  @Test
+  public void testReadFromByteBuffer() throws Exception {
+    final byte[] bytesLE = { (byte) 0xee, (byte) 0x10, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0xdd, (byte) 0x00,
+        (byte) 0xc1, (byte) 0x24, (byte) 0x78, (byte) 0x56, (byte) 0x34, (byte) 0x12, (byte) 0x00, (byte) 0x00,
+        (byte) 0x00, (byte) 0x00, (byte) 0xef, (byte) 0xcd, (byte) 0xab, (byte) 0x90, (byte) 0x78, (byte) 0x56,
+        (byte) 0x34, (byte) 0x12 };
+    final int startPosition = 1;
+
+    final ByteBuffer heapBuffer = ByteBuffer.wrap(bytesLE);
+    heapBuffer.position(startPosition);
+    final ByteBuffer directBuffer = ByteBuffer.allocateDirect(bytesLE.length);
+    directBuffer.put(bytesLE);
+    directBuffer.position(startPosition);
+    for (ByteBuffer byteBuffer : new ByteBuffer[] { heapBuffer, directBuffer }) {
+      final NDRReader ndrReader = new NDRReader(byteBuffer);
+      ndrReader.readFormatLabel(NDRConstants.FORMAT_LABEL_LENGTH);
+      Assert.assertEquals("Incorrect value", (byte) 0xdd, ndrReader.readByte());
+      Assert.assertEquals("Incorrect value", (short) 0x24c1, ndrReader.readShort());
+      Assert.assertEquals("Incorrect value", 0x12345678, ndrReader.readInt());
+      Assert.assertEquals("Incorrect value", 0x1234567890abcdefL, ndrReader.readLong());
+      try {
+        ndrReader.readByte();
+        Assert.fail("Method readByte() must fail when reading beyond the buffer limit.");
+      } catch (IOException e) {
+        // expected
+      }
+      Assert.assertEquals("The position of the buffer must not change", startPosition, byteBuffer.position());
+      Assert.assertEquals("The byte order of the buffer must not change", ByteBuffer.allocate(0).order(),
+          byteBuffer.order());
+    }
+  }
+
+  @Test
+  public void testSkipAlignment() throws Exception {
+    final byte[] bytes = { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0xdd, (byte) 0x00, (byte) 0x00,
+        (byte) 0x00, (byte) 0x12, (byte) 0x34, (byte) 0x56, (byte) 0x78, (byte) 0xee, (byte) 0x00, (byte) 0x00 };
+
+    // A stream that refuses to skip, so alignment must fall back to reading.
+    final NDRReader ndrReader = new NDRReader(new ByteArrayInputStream(bytes) {
+      @Override
+      public synchronized long skip(final long n) {
+        return 0;
+      }
+    });
+    ndrReader.readFormatLabel(NDRConstants.FORMAT_LABEL_LENGTH);
+    Assert.assertEquals("Incorrect value", (byte) 0xdd, (byte) ndrReader.readByte());
+    Assert.assertEquals("Incorrect value", 0x12345678, ndrReader.readInt());
+    Assert.assertEquals("Incorrect value", (byte) 0xee, (byte) ndrReader.readByte());
+    try {
+      ndrReader.readInt();
+      Assert.fail("Method readInt() must fail when the alignment bytes exceed EOF.");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testReadReusable() throws Exception {
+    final byte[] bytes = { (byte) 0x2f, (byte) 0xac, (byte) 0x12, (byte) 0x34, (byte) 0x31, (byte) 0xf8, (byte) 0x11,
+        (byte) 0xb4, (byte) 0xa2, (byte) 0x22, (byte) 0x08, (byte) 0x00, (byte) 0x2b, (byte) 0x34, (byte) 0xc0,
+        (byte) 0x03, (byte) 0x2f, (byte) 0xac, (byte) 0x12, (byte) 0x34, (byte) 0x31, (byte) 0xf8, (byte) 0x11,
+        (byte) 0xb4, (byte) 0xa2, (byte) 0x22, (byte) 0x08, (byte) 0x00, (byte) 0x2b, (byte) 0x34, (byte) 0xc0,
+        (byte) 0x03 };
+    final UUID refUUID = UUID.parse("2fac1234-31f8-11b4-a222-08002b34c003");
+
+    final NDRReader ndrReader = new NDRReader(new ByteArrayInputStream(bytes));
+    ndrReader.setFormatLabel(new FormatLabel(FormatLabelInteger.BIG_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE));
+    final UUID reusable = new UUID();
+    Assert.assertSame("The reusable instance must be returned", reusable, ndrReader.read(UUID.class, reusable));
+    Assert.assertEquals("Incorrect value", refUUID, reusable);
+    final UUID created = ndrReader.read(UUID.class, null);
+    Assert.assertNotSame("A new instance must be created", reusable, created);
+    Assert.assertEquals("Incorrect value", refUUID, created);
+  }
+
   @Test
   public void testReadBytesFixed() throws Exception {
     final byte[] dataBytes = { (byte) 0x0a, (byte) 0xb0, (byte) 0x0c };
@@ -520,4 +602,88 @@ public class NDRReaderTest {
     testReferent = ndrReader.readReference(referentMap, refBytes2.length);
     Assert.assertArrayEquals("Incorrect referent", refBytes2, testReferent);
   }
+
+  @Test
+  public void testReadViews() throws Exception {
+    final byte[] payload = { (byte) 0x0a, (byte) 0xb0, (byte) 0x0c };
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    final NDRWriter ndrWriter = new NDRWriter(bos);
+    ndrWriter.setFormatLabel(FormatLabel.valueOf(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.EBCDIC,
+        FormatLabelFloat.IEEE));
+    ndrWriter.writeFormatLabel(NDRConstants.FORMAT_LABEL_LENGTH);
+    ndrWriter.writeBytesConformant(payload, 0, payload.length, payload.length);
+    ndrWriter.writeBytesVarying(payload, 1, 2, 0);
+    ndrWriter.writeBytesConformantVarying(payload, 0, 1, 5, 0);
+    ndrWriter.writeStringVarying("Hello", 0);
+    ndrWriter.writeStringConformantVarying("", 4, 0);
+    ndrWriter.writeStringVarying("x", 1);
+    final byte[] bytes = bos.toByteArray();
+
+    for (NDRReader ndrReader : new NDRReader[] { new NDRReader(ByteBuffer.wrap(bytes)),
+        new NDRReader(new ByteArrayInputStream(bytes)) }) {
+      ndrReader.readFormatLabel(NDRConstants.FORMAT_LABEL_LENGTH);
+      final ByteBuffer conformant = ndrReader.readBytesConformant();
+      Assert.assertTrue("View must be read-only", conformant.isReadOnly());
+      Assert.assertEquals("Incorrect view", ByteBuffer.wrap(payload), conformant);
+      try {
+        conformant.put(0, (byte) 0x00);
+        Assert.fail("Modification of view not detected.");
+      } catch (ReadOnlyBufferException e) {
+        // expected
+      }
+      Assert.assertEquals("Incorrect view", ByteBuffer.wrap(payload, 1, 2), ndrReader.readBytesVarying());
+      Assert.assertEquals("Incorrect view", ByteBuffer.wrap(payload, 0, 1), ndrReader.readBytesConformantVarying());
+
+      final NDRString text = ndrReader.readCharsVarying();
+      Assert.assertEquals("Incorrect length", 5, text.length());
+      Assert.assertEquals("Incorrect encoded length", 5, text.getEncodedBytes().remaining());
+      Assert.assertEquals("Incorrect character", 'e', text.charAt(1));
+      Assert.assertEquals("Incorrect text", "ell", text.subSequence(1, 4).toString());
+      Assert.assertEquals("Incorrect text", "Hello", text.toString());
+      Assert.assertSame("Text must be decoded once", text.toString(), text.toString());
+      Assert.assertEquals("Incorrect text", "", ndrReader.readCharsConformantVarying().toString());
+      try {
+        ndrReader.readCharsVarying();
+        Assert.fail("Non-zero offset not detected.");
+      } catch (UnsupportedOperationException e) {
+        // expected
+      }
+    }
+
+    // Views of a buffer share its content.
+    final NDRReader ndrReader = new NDRReader(ByteBuffer.wrap(bytes));
+    ndrReader.readFormatLabel(NDRConstants.FORMAT_LABEL_LENGTH);
+    final ByteBuffer conformant = ndrReader.readBytesConformant();
+    bytes[NDRConstants.FORMAT_LABEL_LENGTH + 4] = (byte) 0x77;
+    Assert.assertEquals("View must not be a copy", (byte) 0x77, conformant.get(0));
+  }
+
+  @Test
+  public void testReadViewsInput() throws Exception {
+    // Format label, followed by a conformant array with a negative length and an unterminated string.
+    final byte[] bytes = { (byte) 0x10, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+        (byte) 0xff, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x01, (byte) 0x00, (byte) 0x00,
+        (byte) 0x00, (byte) 0x41 };
+    final NDRReader ndrReader = new NDRReader(ByteBuffer.wrap(bytes));
+    ndrReader.readFormatLabel(NDRConstants.FORMAT_LABEL_LENGTH);
+    try {
+      ndrReader.readBytesConformant();
+      Assert.fail("Negative length not detected.");
+    } catch (IOException e) {
+      // expected
+    }
+    try {
+      ndrReader.readCharsVarying();
+      Assert.fail("Missing terminator not detected.");
+    } catch (IOException e) {
+      // expected
+    }
+    try {
+      new NDRReader(ByteBuffer.wrap(bytes, 0, 6)).readBytesConformant();
+      Assert.fail("Missing format label not detected.");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
 }
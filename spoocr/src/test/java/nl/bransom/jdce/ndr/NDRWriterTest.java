@@ -1,6 +1,8 @@
 package nl.bransom.jdce.ndr;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -460,4 +462,75 @@ public class NDRWriterTest {
       // expected
     }
   }
+
+  @Test
+  public void testBulkWriteNumbers() throws Exception {
+    final FormatLabel formatLabel = new FormatLabel(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE);
+    final byte[] ref = { (byte) 0xcd, (byte) 0xab, (byte) 0x00, (byte) 0x00, (byte) 0x78, (byte) 0x56, (byte) 0x34,
+        (byte) 0x12, (byte) 0x08, (byte) 0x07, (byte) 0x06, (byte) 0x05, (byte) 0x04, (byte) 0x03, (byte) 0x02,
+        (byte) 0x01 };
+
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    final int[] numWrites = new int[1];
+    final OutputStream countingStream = new OutputStream() {
+      @Override
+      public void write(final int b) throws IOException {
+        numWrites[0]++;
+        bos.write(b);
+      }
+
+      @Override
+      public void write(final byte[] b, final int off, final int len) throws IOException {
+        numWrites[0]++;
+        bos.write(b, off, len);
+      }
+    };
+    NDRWriter ndrWriter = new NDRWriter(countingStream);
+    ndrWriter.setFormatLabel(formatLabel);
+    ndrWriter.writeShort((short) 0xabcd);
+    Assert.assertEquals("A short must be written in one go", 1, numWrites[0]);
+    ndrWriter.writeInt(0x12345678);
+    Assert.assertEquals("Alignment bytes must be written in one go", 3, numWrites[0]);
+    ndrWriter.writeLong(0x0102030405060708L);
+    Assert.assertArrayEquals("Incorrect NDR data", ref, bos.toByteArray());
+  }
+
+  @Test
+  public void testWriteNumberArrays() throws Exception {
+    final FormatLabel formatLabel = new FormatLabel(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE);
+    final int[] ints = { 0x11223344, 0x55667788, 0x99aabbcc };
+    final long[] longs = { 0x0102030405060708L };
+    final int[] ref = { 0x01, 0x00, 0x00, 0x00, 0x03, 0x00, 0x00, 0x00, 0x88, 0x77, 0x66, 0x55, 0xcc, 0xbb, 0xaa, 0x99,
+        0x00, 0x00, 0x00, 0x00, 0x07, 0x00, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x08, 0x07,
+        0x06, 0x05, 0x04, 0x03, 0x02, 0x01 };
+
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    final NDRWriter ndrWriter = new NDRWriter(bos);
+    ndrWriter.setFormatLabel(formatLabel);
+    ndrWriter.writeByte((byte) 0x01);
+    // Two of the three ints, padded to a maximum of three.
+    ndrWriter.writeIntsConformant(ints, 1, 2, 3);
+    // The long is aligned at 8 bytes, after the offset and actual length.
+    ndrWriter.writeLongsVarying(longs, 0, 1, 7);
+    final byte[] bytes = bos.toByteArray();
+    Assert.assertEquals("Incorrect byte length", ref.length, bytes.length);
+    for (int i = 0; i < ref.length; i++) {
+      Assert.assertEquals("Incorrect byte " + i, (byte) ref[i], bytes[i]);
+    }
+
+    try {
+      ndrWriter.writeShortsConformant(new short[2], 0, 3, 3);
+      Assert.fail("Insufficient array length not detected.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      ndrWriter.writeDoublesConformantVarying(new double[4], 0, 4, 3, 0);
+      Assert.fail("Exceeding ndrMaxLength not detected.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
 }
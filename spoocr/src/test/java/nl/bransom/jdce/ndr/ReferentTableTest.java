@@ -0,0 +1,119 @@
+package nl.bransom.jdce.ndr;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link ReferentTable}
+ * 
+ * @author Rob
+ */
+public class ReferentTableTest {
+
+  @Test
+  public void testAddAndGet() {
+    final ReferentTable<byte[]> referents = new ReferentTable<byte[]>();
+    final byte[] referent0 = { 0x01 };
+    final byte[] referent1 = { 0x01 };
+    Assert.assertEquals("Incorrect reference ID", 0, referents.getReferenceID(referent0));
+    Assert.assertEquals("Incorrect reference ID", 1, referents.add(referent0));
+    Assert.assertEquals("Incorrect reference ID", 2, referents.add(referent1));
+    Assert.assertEquals("Incorrect reference ID", 1, referents.getReferenceID(referent0));
+    Assert.assertEquals("Referents must be compared by identity", 2, referents.getReferenceID(referent1));
+    Assert.assertSame("Incorrect referent", referent1, referents.get(2));
+    Assert.assertNull("Incorrect referent", referents.get(0));
+    Assert.assertNull("Incorrect referent", referents.get(3));
+    Assert.assertEquals("Incorrect size", 2, referents.size());
+
+    // IDs of a peer can be arbitrary; add() skips IDs that are in use.
+    final byte[] referent2 = { 0x02 };
+    referents.put(3, referent2);
+    referents.put(0x00020004, new byte[0]);
+    Assert.assertEquals("Incorrect reference ID", 4, referents.add(new byte[0]));
+    Assert.assertSame("Incorrect referent", referent2, referents.get(3));
+
+    referents.clear();
+    Assert.assertEquals("Incorrect size", 0, referents.size());
+    Assert.assertEquals("Incorrect reference ID", 0, referents.getReferenceID(referent0));
+    Assert.assertNull("Incorrect referent", referents.get(1));
+    Assert.assertEquals("Incorrect reference ID", 1, referents.add(referent1));
+  }
+
+  @Test
+  public void testInput() {
+    final ReferentTable<byte[]> referents = new ReferentTable<byte[]>();
+    final byte[] referent = { 0x01 };
+    referents.put(7, referent);
+    try {
+      referents.put(7, new byte[0]);
+      Assert.fail("Duplicate reference ID not detected.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      referents.add(referent);
+      Assert.fail("Duplicate referent not detected.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      referents.put(0, new byte[0]);
+      Assert.fail("Zero reference ID not detected.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      referents.add(null);
+      Assert.fail("Null referent not detected.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testReadAndWriteReferences() throws Exception {
+    final int numReferents = 10000;
+    final byte[][] data = new byte[numReferents][];
+    for (int i = 0; i < numReferents; i++) {
+      data[i] = new byte[] { (byte) i, (byte) (i >>> 8) };
+    }
+
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    final NDRWriter ndrWriter = new NDRWriter(bos);
+    ndrWriter.setFormatLabel(FormatLabel.valueOf(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE));
+    final ReferentTable<byte[]> writtenReferents = new ReferentTable<byte[]>();
+    // Every referent is pointed to twice, the second time by a link.
+    for (int pass = 0; pass < 2; pass++) {
+      for (int i = 0; i < numReferents; i++) {
+        if (ndrWriter.writeReference(writtenReferents, data[i])) {
+          Assert.assertEquals("Referent must be new in the first pass only", 0, pass);
+          ndrWriter.writeBytesFixed(data[i], 0, data[i].length);
+        }
+      }
+    }
+    Assert.assertFalse("Null pointer has no referent", ndrWriter.writeReference(writtenReferents, null));
+    Assert.assertEquals("Incorrect size", numReferents, writtenReferents.size());
+
+    final NDRReader ndrReader = new NDRReader(ByteBuffer.wrap(bos.toByteArray()));
+    ndrReader.setFormatLabel(FormatLabel.valueOf(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE));
+    final ReferentTable<byte[]> readReferents = new ReferentTable<byte[]>();
+    final byte[][] firstPass = new byte[numReferents][];
+    for (int pass = 0; pass < 2; pass++) {
+      for (int i = 0; i < numReferents; i++) {
+        final byte[] referent = ndrReader.readReference(readReferents, 2);
+        Assert.assertArrayEquals("Incorrect referent", data[i], referent);
+        if (pass == 0) {
+          firstPass[i] = referent;
+        } else {
+          Assert.assertSame("Link must refer to the same referent", firstPass[i], referent);
+        }
+      }
+    }
+    Assert.assertEquals("Incorrect null referent", 0, ndrReader.readReference(readReferents, 2).length);
+  }
+}
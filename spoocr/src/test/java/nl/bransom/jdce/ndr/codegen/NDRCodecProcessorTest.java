@@ -0,0 +1,333 @@
+package nl.bransom.jdce.ndr.codegen;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import nl.bransom.jdce.ndr.FormatLabel;
+import nl.bransom.jdce.ndr.FormatLabelCharacter;
+import nl.bransom.jdce.ndr.FormatLabelFloat;
+import nl.bransom.jdce.ndr.FormatLabelInteger;
+import nl.bransom.jdce.ndr.NDRReader;
+import nl.bransom.jdce.ndr.NDRSerializable;
+import nl.bransom.jdce.ndr.NDRWriter;
+import nl.bransom.jdce.rpc.UUID;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link NDRCodecProcessor}
+ * 
+ * @author Rob
+ */
+public class NDRCodecProcessorTest {
+
+  private static final String SAMPLE_SOURCE = "" //
+      + "package sample;\n" //
+      + "import java.io.IOException;\n" //
+      + "import nl.bransom.jdce.ndr.*;\n" //
+      + "@NDRStruct\n" //
+      + "public class Sample implements NDRSerializable {\n" //
+      + "  public static final int IGNORED_CONSTANT = 1;\n" //
+      + "  byte tag;\n" //
+      + "  long id;\n" //
+      + "  boolean flag;\n" //
+      + "  short count;\n" //
+      + "  @NDRFixedLength(3)\n" //
+      + "  byte[] code;\n" //
+      + "  double ratio;\n" //
+      + "  int last;\n" //
+      + "  nl.bransom.jdce.rpc.UUID uuid;\n" //
+      + "  transient int ignored;\n" //
+      + "  public static Sample create(final nl.bransom.jdce.rpc.UUID uuid) {\n" //
+      + "    final Sample sample = new Sample();\n" //
+      + "    sample.tag = (byte) 0xab;\n" //
+      + "    sample.id = 0x0102030405060708L;\n" //
+      + "    sample.flag = true;\n" //
+      + "    sample.count = (short) 0x1234;\n" //
+      + "    sample.code = new byte[] { 0x0a, 0x0b, 0x0c };\n" //
+      + "    sample.ratio = -7184.00951;\n" //
+      + "    sample.last = 0x11223344;\n" //
+      + "    sample.uuid = uuid;\n" //
+      + "    return sample;\n" //
+      + "  }\n" //
+      + "  public void ndrSerialize(final NDRWriter ndrWriter) throws IOException {\n" //
+      + "    SampleNDRCodec.INSTANCE.encode(this, ndrWriter);\n" //
+      + "  }\n" //
+      + "  public void ndrDeserialize(final NDRReader ndrReader) throws IOException {\n" //
+      + "    SampleNDRCodec.INSTANCE.decode(this, ndrReader);\n" //
+      + "  }\n" //
+      + "}\n";
+
+  private static final String MIXED_SOURCE = "" //
+      + "package sample;\n" //
+      + "import java.io.IOException;\n" //
+      + "import nl.bransom.jdce.ndr.*;\n" //
+      + "@NDRStruct\n" //
+      + "public class Mixed implements NDRSerializable {\n" //
+      + "  byte tag;\n" //
+      + "  int number;\n" //
+      + "  boolean flag;\n" //
+      + "  short count;\n" //
+      + "  long id;\n" //
+      + "  short last;\n" //
+      + "  public static Mixed create() {\n" //
+      + "    final Mixed mixed = new Mixed();\n" //
+      + "    mixed.tag = (byte) 0x07;\n" //
+      + "    mixed.number = 0x11223344;\n" //
+      + "    mixed.flag = true;\n" //
+      + "    mixed.count = (short) 0x1234;\n" //
+      + "    mixed.id = 0x0102030405060708L;\n" //
+      + "    mixed.last = (short) 0x5678;\n" //
+      + "    return mixed;\n" //
+      + "  }\n" //
+      + "  public void ndrSerialize(final NDRWriter ndrWriter) throws IOException {\n" //
+      + "    MixedNDRCodec.INSTANCE.encode(this, ndrWriter);\n" //
+      + "  }\n" //
+      + "  public void ndrDeserialize(final NDRReader ndrReader) throws IOException {\n" //
+      + "    MixedNDRCodec.INSTANCE.decode(this, ndrReader);\n" //
+      + "  }\n" //
+      + "}\n";
+
+  private static final String NESTED_SOURCE = "" //
+      + "package sample;\n" //
+      + "import java.io.IOException;\n" //
+      + "import nl.bransom.jdce.ndr.*;\n" //
+      + "@NDRStruct\n" //
+      + "public class Nested implements NDRSerializable {\n" //
+      + "  Part part;\n" //
+      + "  nl.bransom.jdce.rpc.UUID uuid;\n" //
+      + "  public static Nested create(final int number, final nl.bransom.jdce.rpc.UUID uuid) {\n" //
+      + "    final Nested nested = new Nested();\n" //
+      + "    nested.part = new Part();\n" //
+      + "    nested.part.number = number;\n" //
+      + "    nested.uuid = uuid;\n" //
+      + "    return nested;\n" //
+      + "  }\n" //
+      + "  public void ndrSerialize(final NDRWriter ndrWriter) throws IOException {\n" //
+      + "    NestedNDRCodec.INSTANCE.encode(this, ndrWriter);\n" //
+      + "  }\n" //
+      + "  public void ndrDeserialize(final NDRReader ndrReader) throws IOException {\n" //
+      + "    NestedNDRCodec.INSTANCE.decode(this, ndrReader);\n" //
+      + "  }\n" //
+      + "}\n" //
+      + "@NDRStruct\n" //
+      + "class Part implements NDRSerializable {\n" //
+      + "  int number;\n" //
+      + "  public void ndrSerialize(final NDRWriter ndrWriter) throws IOException {\n" //
+      + "    PartNDRCodec.INSTANCE.encode(this, ndrWriter);\n" //
+      + "  }\n" //
+      + "  public void ndrDeserialize(final NDRReader ndrReader) throws IOException {\n" //
+      + "    PartNDRCodec.INSTANCE.decode(this, ndrReader);\n" //
+      + "  }\n" //
+      + "}\n";
+
+  private static final String INVALID_SOURCE = "" //
+      + "package sample;\n" //
+      + "@nl.bransom.jdce.ndr.NDRStruct\n" //
+      + "public class Invalid {\n" //
+      + "  private int hidden;\n" //
+      + "  byte[] unbounded;\n" //
+      + "  String text;\n" //
+      + "}\n";
+
+  @Test
+  public void testGeneratedCodec() throws Exception {
+    final File outputDir = createOutputDir();
+    final DiagnosticCollector<JavaFileObject> diagnostics = compile("sample.Sample", SAMPLE_SOURCE, outputDir);
+    Assert.assertTrue("Compilation failed: " + diagnostics.getDiagnostics(), diagnostics.getDiagnostics().isEmpty());
+
+    final ClassLoader classLoader = new URLClassLoader(new URL[] { outputDir.toURI().toURL() }, getClass()
+        .getClassLoader());
+    final Class<?> sampleClass = classLoader.loadClass("sample.Sample");
+    final UUID uuid = UUID.parse("2fac1234-31f8-11b4-a222-08002b34c003");
+    final NDRSerializable sample = (NDRSerializable) sampleClass.getMethod("create", UUID.class).invoke(null, uuid);
+
+    for (FormatLabelInteger formatLabelInteger : FormatLabelInteger.values()) {
+      final FormatLabel formatLabel = new FormatLabel(formatLabelInteger, FormatLabelCharacter.ASCII,
+          FormatLabelFloat.IEEE);
+
+      // Compose the reference data field by field.
+      final ByteArrayOutputStream refStream = new ByteArrayOutputStream();
+      final NDRWriter refWriter = new NDRWriter(refStream);
+      refWriter.setFormatLabel(formatLabel);
+      refWriter.writeByte((byte) 0xab);
+      refWriter.writeLong(0x0102030405060708L);
+      refWriter.writeBoolean(true);
+      refWriter.writeShort((short) 0x1234);
+      refWriter.writeBytesFixed(new byte[] { 0x0a, 0x0b, 0x0c }, 0, 3);
+      refWriter.writeDouble(-7184.00951);
+      refWriter.writeInt(0x11223344);
+      refWriter.write(uuid);
+      final byte[] refBytes = refStream.toByteArray();
+
+      final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      final NDRWriter ndrWriter = new NDRWriter(bos);
+      ndrWriter.setFormatLabel(formatLabel);
+      ndrWriter.write(sample);
+      Assert.assertArrayEquals("Incorrect NDR data", refBytes, bos.toByteArray());
+
+      final NDRReader ndrReader = new NDRReader(new ByteArrayInputStream(refBytes));
+      ndrReader.setFormatLabel(formatLabel);
+      final NDRSerializable decoded = ndrReader.read(sampleClass.asSubclass(NDRSerializable.class));
+      final ByteArrayOutputStream decodedStream = new ByteArrayOutputStream();
+      final NDRWriter decodedWriter = new NDRWriter(decodedStream);
+      decodedWriter.setFormatLabel(formatLabel);
+      decodedWriter.write(decoded);
+      Assert.assertArrayEquals("Incorrect decoded data", refBytes, decodedStream.toByteArray());
+    }
+  }
+
+  @Test
+  public void testUnalignedStart() throws Exception {
+    final File outputDir = createOutputDir();
+    final DiagnosticCollector<JavaFileObject> diagnostics = compile("sample.Mixed", MIXED_SOURCE, outputDir);
+    Assert.assertTrue("Compilation failed: " + diagnostics.getDiagnostics(), diagnostics.getDiagnostics().isEmpty());
+
+    final ClassLoader classLoader = new URLClassLoader(new URL[] { outputDir.toURI().toURL() }, getClass()
+        .getClassLoader());
+    final Class<?> mixedClass = classLoader.loadClass("sample.Mixed");
+    final NDRSerializable mixed = (NDRSerializable) mixedClass.getMethod("create").invoke(null);
+    final FormatLabel formatLabel = FormatLabel.valueOf(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE);
+
+    // Members must be aligned to the stream, not to the start of the struct.
+    for (int numLeadingBytes = 0; numLeadingBytes < 8; numLeadingBytes++) {
+      final ByteArrayOutputStream refStream = new ByteArrayOutputStream();
+      final NDRWriter refWriter = new NDRWriter(refStream);
+      refWriter.setFormatLabel(formatLabel);
+      refWriter.writeBytesFixed(new byte[numLeadingBytes], 0, numLeadingBytes);
+      refWriter.writeByte((byte) 0x07);
+      refWriter.writeInt(0x11223344);
+      refWriter.writeBoolean(true);
+      refWriter.writeShort((short) 0x1234);
+      refWriter.writeLong(0x0102030405060708L);
+      refWriter.writeShort((short) 0x5678);
+      final byte[] refBytes = refStream.toByteArray();
+
+      final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      final NDRWriter ndrWriter = new NDRWriter(bos);
+      ndrWriter.setFormatLabel(formatLabel);
+      ndrWriter.writeBytesFixed(new byte[numLeadingBytes], 0, numLeadingBytes);
+      ndrWriter.write(mixed);
+      Assert.assertArrayEquals("Incorrect NDR data after " + numLeadingBytes + " bytes", refBytes, bos.toByteArray());
+
+      final NDRReader ndrReader = new NDRReader(new ByteArrayInputStream(refBytes));
+      ndrReader.setFormatLabel(formatLabel);
+      ndrReader.readBytesFixed(new byte[numLeadingBytes], 0, numLeadingBytes);
+      final NDRSerializable decoded = ndrReader.read(mixedClass.asSubclass(NDRSerializable.class));
+      final ByteArrayOutputStream decodedStream = new ByteArrayOutputStream();
+      final NDRWriter decodedWriter = new NDRWriter(decodedStream);
+      decodedWriter.setFormatLabel(formatLabel);
+      decodedWriter.writeBytesFixed(new byte[numLeadingBytes], 0, numLeadingBytes);
+      decodedWriter.write(decoded);
+      Assert.assertArrayEquals("Incorrect decoded data after " + numLeadingBytes + " bytes", refBytes,
+          decodedStream.toByteArray());
+    }
+  }
+
+  @Test
+  public void testReuseNested() throws Exception {
+    final File outputDir = createOutputDir();
+    final DiagnosticCollector<JavaFileObject> diagnostics = compile("sample.Nested", NESTED_SOURCE, outputDir);
+    Assert.assertTrue("Compilation failed: " + diagnostics.getDiagnostics(), diagnostics.getDiagnostics().isEmpty());
+
+    final ClassLoader classLoader = new URLClassLoader(new URL[] { outputDir.toURI().toURL() }, getClass()
+        .getClassLoader());
+    final Class<? extends NDRSerializable> nestedClass = classLoader.loadClass("sample.Nested").asSubclass(
+        NDRSerializable.class);
+    final Field partField = nestedClass.getDeclaredField("part");
+    final Field uuidField = nestedClass.getDeclaredField("uuid");
+    partField.setAccessible(true);
+    uuidField.setAccessible(true);
+    final Field numberField = partField.getType().getDeclaredField("number");
+    numberField.setAccessible(true);
+    final FormatLabel formatLabel = FormatLabel.valueOf(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE);
+    final UUID uuid1 = UUID.parse("2fac1234-31f8-11b4-a222-08002b34c003");
+    final UUID uuid2 = UUID.parse("6737c286-1ef7-11d1-bcd9-00609792d26c");
+
+    final NDRSerializable decoded = decode(nestedClass, nestedClass.getMethod("create", int.class, UUID.class)
+        .invoke(null, 1, uuid1), formatLabel, null);
+    final Object part = partField.get(decoded);
+    final Object uuid = uuidField.get(decoded);
+    Assert.assertEquals("Incorrect number", 1, numberField.get(part));
+    Assert.assertEquals("Incorrect UUID", uuid1.toString(), uuid.toString());
+
+    // A second decode must overwrite the first instance, including its nested instances.
+    Assert.assertSame("Struct not reused", decoded, decode(nestedClass, nestedClass.getMethod("create", int.class,
+        UUID.class).invoke(null, 2, uuid2), formatLabel, decoded));
+    Assert.assertSame("Generated nested struct not reused", part, partField.get(decoded));
+    Assert.assertSame("Nested struct not reused", uuid, uuidField.get(decoded));
+    Assert.assertEquals("Incorrect number", 2, numberField.get(part));
+    Assert.assertEquals("Incorrect UUID", uuid2.toString(), uuid.toString());
+  }
+
+  @Test
+  public void testInvalidStruct() throws Exception {
+    final DiagnosticCollector<JavaFileObject> diagnostics = compile("sample.Invalid", INVALID_SOURCE,
+        createOutputDir());
+    final List<String> errors = new ArrayList<String>();
+    for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+      if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+        errors.add(diagnostic.getMessage(null));
+      }
+    }
+    Assert.assertEquals("Incorrect number of errors: " + errors, 3, errors.size());
+  }
+
+  private static <T extends NDRSerializable> T decode(final Class<T> ndrSerializableClass, final Object value,
+      final FormatLabel formatLabel, final NDRSerializable reusable) throws Exception {
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    final NDRWriter ndrWriter = new NDRWriter(bos);
+    ndrWriter.setFormatLabel(formatLabel);
+    ndrWriter.write(ndrSerializableClass.cast(value));
+    final NDRReader ndrReader = new NDRReader(new ByteArrayInputStream(bos.toByteArray()));
+    ndrReader.setFormatLabel(formatLabel);
+    return ndrReader.read(ndrSerializableClass, ndrSerializableClass.cast(reusable));
+  }
+
+  private static DiagnosticCollector<JavaFileObject> compile(final String className, final String source,
+      final File outputDir) {
+    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    Assume.assumeNotNull(compiler);
+    final JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/')
+        + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+        return source;
+      }
+    };
+    final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+    final List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-d",
+        outputDir.getPath(), "-s", outputDir.getPath());
+    final JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options, null,
+        Arrays.asList(sourceFile));
+    task.setProcessors(Arrays.asList(new NDRCodecProcessor()));
+    task.call();
+    return diagnostics;
+  }
+
+  private static File createOutputDir() throws Exception {
+    final File outputDir = File.createTempFile("ndrcodec", "");
+    Assert.assertTrue("Cannot create directory", outputDir.delete() && outputDir.mkdir());
+    outputDir.deleteOnExit();
+    return outputDir;
+  }
+}
@@ -0,0 +1,161 @@
+package nl.bransom.jdce.pdu;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.bransom.jdce.ndr.FormatLabel;
+import nl.bransom.jdce.ndr.FormatLabelCharacter;
+import nl.bransom.jdce.ndr.FormatLabelFloat;
+import nl.bransom.jdce.ndr.FormatLabelInteger;
+import nl.bransom.jdce.ndr.NDRWriter;
+import nl.bransom.jdce.rpc.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link ActivityTable}
+ * 
+ * @author Rob
+ */
+public class ActivityTableTest {
+
+  private static final UUID ACTIVITY_ID = UUID.parse("6737c286-1ef7-11d1-bcd9-00609792d26c");
+  private static final long TIMEOUT = 1000L;
+  private static final short NO = ActivityTable.NO_HINT;
+
+  @Test
+  public void testSequenceNumbers() throws Exception {
+    final ActivityTable table = new ActivityTable(16, TIMEOUT);
+    Assert.assertEquals("Incorrect status", SequenceStatus.NEW, table.accept(header(ACTIVITY_ID, 5, 0, NO), 0L));
+    Assert.assertEquals("Incorrect status", SequenceStatus.CURRENT, table.accept(header(ACTIVITY_ID, 5, 0, NO), 0L));
+    Assert.assertEquals("Incorrect status", SequenceStatus.STALE, table.accept(header(ACTIVITY_ID, 4, 0, NO), 0L));
+    Assert.assertEquals("Incorrect status", SequenceStatus.NEW, table.accept(header(ACTIVITY_ID, 6, 0, NO), 0L));
+    Assert.assertEquals("Incorrect sequence number", 6, table.get(ACTIVITY_ID).getSequenceNumber());
+
+    // Sequence numbers wrap around.
+    final UUID otherId = UUID.parse("6737c286-1ef7-11d1-bcd9-00609792d26d");
+    Assert.assertEquals("Incorrect status", SequenceStatus.NEW, table.accept(header(otherId, -1, 0, NO), 0L));
+    Assert.assertEquals("Incorrect status", SequenceStatus.NEW, table.accept(header(otherId, 0, 0, NO), 0L));
+    Assert.assertEquals("Incorrect status", SequenceStatus.STALE, table.accept(header(otherId, -1, 0, NO), 0L));
+    Assert.assertEquals("Incorrect number of activities", 2, table.size());
+  }
+
+  @Test
+  public void testServerBootTime() throws Exception {
+    final ActivityTable table = new ActivityTable(16, TIMEOUT);
+    Assert.assertEquals("Incorrect status", SequenceStatus.NEW, table.accept(header(ACTIVITY_ID, 5, 0, NO), 0L));
+    Assert.assertEquals("Incorrect status", SequenceStatus.CURRENT,
+        table.accept(header(ACTIVITY_ID, 5, 1234, NO), 0L));
+    Assert.assertEquals("Incorrect boot time", 1234, table.get(ACTIVITY_ID).getServerBootTime());
+    Assert.assertEquals("A restarted server must start a new call", SequenceStatus.NEW,
+        table.accept(header(ACTIVITY_ID, 1, 5678, NO), 0L));
+    Assert.assertEquals("Incorrect sequence number", 1, table.get(ACTIVITY_ID).getSequenceNumber());
+  }
+
+  @Test
+  public void testHints() throws Exception {
+    final ActivityTable table = new ActivityTable(2, TIMEOUT);
+    final Set<Short> hints = new HashSet<Short>();
+    for (int i = 0; i < 3; i++) {
+      final UUID activityId = new UUID(ACTIVITY_ID.getMostSignificantBits(), i);
+      table.accept(header(activityId, 1, 0, NO), 0L);
+      hints.add(table.get(activityId).getHint());
+    }
+    Assert.assertEquals("Each hint must be assigned once", 3, hints.size());
+    Assert.assertTrue("The third activity must not get a hint", hints.contains(ActivityTable.NO_HINT));
+
+    final UUID activityId = new UUID(ACTIVITY_ID.getMostSignificantBits(), 0);
+    final ActivityTable.Activity activity = table.get(activityId);
+    Assert.assertSame("Incorrect activity", activity, table.get(header(activityId, 1, 0, activity.getHint())));
+    Assert.assertSame("A wrong hint must be ignored", activity,
+        table.get(header(activityId, 1, 0, (short) (1 - activity.getHint()))));
+    Assert.assertNull("Unknown activity", table.get(header(ACTIVITY_ID, 1, 0, activity.getHint())));
+    Assert.assertEquals("Incorrect status", SequenceStatus.CURRENT,
+        table.accept(header(activityId, 1, 0, activity.getHint()), 0L));
+  }
+
+  @Test
+  public void testExpire() throws Exception {
+    final ActivityTable table = new ActivityTable(1, TIMEOUT);
+    table.accept(header(ACTIVITY_ID, 1, 0, NO), 0L);
+    final short hint = table.get(ACTIVITY_ID).getHint();
+    Assert.assertEquals("Incorrect hint", 0, hint);
+    table.accept(header(ACTIVITY_ID, 1, 0, hint), TIMEOUT);
+    Assert.assertEquals("Nothing must expire yet", 0, table.expire(2 * TIMEOUT));
+    Assert.assertEquals("The activity must expire", 1, table.expire(2 * TIMEOUT + 1));
+    Assert.assertEquals("Incorrect number of activities", 0, table.size());
+    Assert.assertNull("The activity must be removed", table.get(header(ACTIVITY_ID, 1, 0, hint)));
+
+    // The hint is free again and an old call is new to a forgotten activity.
+    final UUID otherId = UUID.parse("6737c286-1ef7-11d1-bcd9-00609792d26d");
+    table.accept(header(otherId, 1, 0, NO), 0L);
+    Assert.assertEquals("The hint must be reused", 0, table.get(otherId).getHint());
+    Assert.assertEquals("Incorrect status", SequenceStatus.NEW, table.accept(header(ACTIVITY_ID, 0, 0, NO), 0L));
+  }
+
+  @Test
+  public void testConcurrentActivities() throws Exception {
+    final int numThreads = 4;
+    final int numActivities = 5000;
+    final ActivityTable table = new ActivityTable(ActivityTable.MAX_NUM_HINTS, TIMEOUT);
+    final AtomicInteger numNew = new AtomicInteger();
+    final Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            final PDUConnectionlessHeaderView view = new PDUConnectionlessHeaderView();
+            for (int i = 0; i < numActivities; i++) {
+              view.wrap(headerBytes(new UUID(ACTIVITY_ID.getMostSignificantBits(), i), 1, 0, NO));
+              if (table.accept(view, 0L) == SequenceStatus.NEW) {
+                numNew.incrementAndGet();
+              }
+            }
+          } catch (IOException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals("Each activity must be created once", numActivities, numNew.get());
+    Assert.assertEquals("Incorrect number of activities", numActivities, table.size());
+    final Set<Short> hints = new HashSet<Short>();
+    for (int i = 0; i < numActivities; i++) {
+      hints.add(table.get(new UUID(ACTIVITY_ID.getMostSignificantBits(), i)).getHint());
+    }
+    Assert.assertEquals("Each activity must have its own hint", numActivities, hints.size());
+  }
+
+  private static PDUConnectionlessHeaderView header(final UUID activityId, final int sequenceNumber,
+      final int serverBootTime, final short activityHint) throws IOException {
+    return new PDUConnectionlessHeaderView(headerBytes(activityId, sequenceNumber, serverBootTime, activityHint));
+  }
+
+  private static ByteBuffer headerBytes(final UUID activityId, final int sequenceNumber, final int serverBootTime,
+      final short activityHint) throws IOException {
+    final PDUConnectionlessHeader header = new PDUConnectionlessHeader();
+    header.setPDUType(PDUType.REQUEST);
+    header.setPDUFlags(new PDUFlags());
+    header.setFormatLabel(new FormatLabel(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE));
+    header.setObjectId(UUID.NIL);
+    header.setInterfaceId(UUID.parse("4d9f4ab8-7d1c-11cf-861e-0020af6e7c57"));
+    header.setActivityId(activityId);
+    header.setServerBootTime(serverBootTime);
+    header.setSequenceNumber(sequenceNumber);
+    header.setActivityHint(activityHint);
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    header.ndrSerialize(new NDRWriter(bos));
+    return ByteBuffer.wrap(bos.toByteArray());
+  }
+}
@@ -0,0 +1,125 @@
+package nl.bransom.jdce.pdu;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import nl.bransom.jdce.ndr.FormatLabel;
+import nl.bransom.jdce.ndr.FormatLabelCharacter;
+import nl.bransom.jdce.ndr.FormatLabelFloat;
+import nl.bransom.jdce.ndr.FormatLabelInteger;
+import nl.bransom.jdce.ndr.NDRBufferPool;
+import nl.bransom.jdce.ndr.NDRWriter;
+import nl.bransom.jdce.rpc.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link FragmentReassembler}
+ * 
+ * @author Rob
+ */
+public class FragmentReassemblerTest {
+
+  private static final UUID ACTIVITY_ID = UUID.parse("6737c286-1ef7-11d1-bcd9-00609792d26c");
+  private static final byte[] BODY = { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09 };
+  private static final int FRAGMENT_SIZE = 4;
+  private static final long TIMEOUT = 1000L;
+
+  private final NDRBufferPool bufferPool = new NDRBufferPool(false);
+  private final PDUConnectionlessHeaderView view = new PDUConnectionlessHeaderView();
+
+  @Test
+  public void testOutOfOrder() throws Exception {
+    final FragmentReassembler reassembler = new FragmentReassembler(bufferPool, 1024, TIMEOUT);
+    Assert.assertEquals("Incorrect status", FragmentStatus.INCOMPLETE, offer(reassembler, 1, 2, 0L));
+    Assert.assertEquals("Incorrect status", FragmentStatus.INCOMPLETE, offer(reassembler, 1, 0, 0L));
+    Assert.assertNull("The body is not complete yet", reassembler.takeCompleted(ACTIVITY_ID));
+    Assert.assertEquals("Incorrect status", FragmentStatus.DUPLICATE, offer(reassembler, 1, 0, 0L));
+    Assert.assertEquals("Incorrect status", FragmentStatus.COMPLETE, offer(reassembler, 1, 1, 0L));
+
+    final ByteBuffer completed = reassembler.takeCompleted(ACTIVITY_ID);
+    Assert.assertNotNull("The body must be complete", completed);
+    final byte[] body = new byte[completed.remaining()];
+    completed.get(body);
+    Assert.assertArrayEquals("Incorrect body", BODY, body);
+    bufferPool.release(completed);
+    Assert.assertNull("The body can be taken only once", reassembler.takeCompleted(ACTIVITY_ID));
+    Assert.assertEquals("Incorrect status", FragmentStatus.DUPLICATE, offer(reassembler, 1, 1, 0L));
+  }
+
+  @Test
+  public void testFack() throws Exception {
+    final FragmentReassembler reassembler = new FragmentReassembler(bufferPool, 1024, TIMEOUT);
+    final PDUFackBody fackBody = new PDUFackBody();
+    Assert.assertEquals("Incorrect fragment number", -1, reassembler.fillFack(ACTIVITY_ID, fackBody));
+    offer(reassembler, 1, 2, 0L);
+    Assert.assertEquals("Incorrect fragment number", -1, reassembler.fillFack(ACTIVITY_ID, fackBody));
+    Assert.assertArrayEquals("Incorrect selective acks", new int[] { 0x04 }, fackBody.getSelectiveAcks());
+    Assert.assertEquals("Incorrect serial number", 2, fackBody.getSerialNumber());
+    offer(reassembler, 1, 0, 0L);
+    Assert.assertEquals("Incorrect fragment number", 0, reassembler.fillFack(ACTIVITY_ID, fackBody));
+    Assert.assertArrayEquals("Incorrect selective acks", new int[] { 0x02 }, fackBody.getSelectiveAcks());
+    Assert.assertEquals("Incorrect serial number", 0, fackBody.getSerialNumber());
+  }
+
+  @Test
+  public void testSequenceNumbers() throws Exception {
+    final FragmentReassembler reassembler = new FragmentReassembler(bufferPool, 1024, TIMEOUT);
+    Assert.assertEquals("Incorrect status", FragmentStatus.INCOMPLETE, offer(reassembler, 2, 0, 0L));
+    Assert.assertEquals("Incorrect status", FragmentStatus.STALE, offer(reassembler, 1, 1, 0L));
+    Assert.assertEquals("Incorrect status", FragmentStatus.INCOMPLETE, offer(reassembler, 3, 1, 0L));
+    Assert.assertEquals("Incorrect status", FragmentStatus.INCOMPLETE, offer(reassembler, 3, 2, 0L));
+    Assert.assertEquals("Incorrect status", FragmentStatus.COMPLETE, offer(reassembler, 3, 0, 0L));
+    Assert.assertEquals("Incorrect number of activities", 1, reassembler.size());
+  }
+
+  @Test
+  public void testMemoryCapAndTimeout() throws Exception {
+    final FragmentReassembler reassembler = new FragmentReassembler(bufferPool, FRAGMENT_SIZE + 2, TIMEOUT);
+    Assert.assertEquals("Incorrect status", FragmentStatus.INCOMPLETE, offer(reassembler, 1, 0, 0L));
+    Assert.assertEquals("Incorrect status", FragmentStatus.REJECTED, offer(reassembler, 1, 1, 0L));
+    Assert.assertEquals("The reassembly must be discarded", 0, reassembler.size());
+
+    Assert.assertEquals("Incorrect status", FragmentStatus.INCOMPLETE, offer(reassembler, 2, 0, 0L));
+    Assert.assertEquals("Nothing must expire yet", 0, reassembler.expire(TIMEOUT));
+    Assert.assertEquals("The reassembly must expire", 1, reassembler.expire(TIMEOUT + 1));
+    Assert.assertEquals("Incorrect number of activities", 0, reassembler.size());
+  }
+
+  /**
+   * Offers fragment {@code fragmentNumber} of {@link #BODY} to {@code reassembler}.
+   */
+  private FragmentStatus offer(final FragmentReassembler reassembler, final int sequenceNumber,
+      final int fragmentNumber, final long currentTimeMillis) throws Exception {
+    final int offset = fragmentNumber * FRAGMENT_SIZE;
+    final int length = Math.min(FRAGMENT_SIZE, BODY.length - offset);
+    final PDUFlags pduFlags = new PDUFlags();
+    pduFlags.set(PDUFlag1.FRAG);
+    if (offset + length == BODY.length) {
+      pduFlags.set(PDUFlag1.LASTFRAG);
+    }
+    final PDUConnectionlessHeader header = new PDUConnectionlessHeader();
+    header.setPDUType(PDUType.REQUEST);
+    header.setPDUFlags(pduFlags);
+    header.setFormatLabel(new FormatLabel(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE));
+    header.setSerialNumber((short) fragmentNumber);
+    header.setObjectId(UUID.parse("00000000-0000-0000-0000-000000000000"));
+    header.setInterfaceId(UUID.parse("4d9f4ab8-7d1c-11cf-861e-0020af6e7c57"));
+    header.setActivityId(ACTIVITY_ID);
+    header.setSequenceNumber(sequenceNumber);
+    header.setPDUBodyLength((short) length);
+    header.setFragmentNumber((short) fragmentNumber);
+
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    header.ndrSerialize(new NDRWriter(bos));
+    bos.write(BODY, offset, length);
+    final ByteBuffer datagram = ByteBuffer.wrap(bos.toByteArray());
+    view.wrap(datagram);
+    datagram.position(PDUConnectionlessHeaderView.HEADER_LENGTH);
+    final FragmentStatus status = reassembler.accept(view, datagram, currentTimeMillis);
+    Assert.assertFalse("The fragment body must be consumed", datagram.hasRemaining());
+    return status;
+  }
+}
@@ -0,0 +1,65 @@
+package nl.bransom.jdce.pdu;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import nl.bransom.jdce.ndr.FormatLabel;
+import nl.bransom.jdce.ndr.FormatLabelCharacter;
+import nl.bransom.jdce.ndr.FormatLabelFloat;
+import nl.bransom.jdce.ndr.FormatLabelInteger;
+import nl.bransom.jdce.ndr.NDRReader;
+import nl.bransom.jdce.ndr.NDRWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link PDUConnectionOrientedHeader}
+ * 
+ * @author Rob
+ */
+public class PDUConnectionOrientedHeaderTest {
+
+  // Common header of a bind PDU: first and last fragment, little-endian, 72 bytes, call 2.
+  private static final byte[] BIND_HEADER = { 0x05, 0x00, 0x0b, 0x03, 0x10, 0x00, 0x00, 0x00, 0x48, 0x00, 0x00, 0x00,
+      0x02, 0x00, 0x00, 0x00 };
+
+  @Test
+  public void testNDRSerialize() throws IOException {
+    final PDUConnectionOrientedHeader header = new PDUConnectionOrientedHeader();
+    header.setPDUType(PDUType.BIND);
+    header.set(PDUConnectionOrientedFlag.FIRST_FRAG);
+    header.set(PDUConnectionOrientedFlag.LAST_FRAG);
+    header.setFormatLabel(new FormatLabel(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE));
+    header.setFragmentLength((short) 0x48);
+    header.setCallId(2);
+
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    header.ndrSerialize(new NDRWriter(bos));
+    Assert.assertArrayEquals("Incorrect NDR data", BIND_HEADER, bos.toByteArray());
+    Assert.assertEquals("Incorrect length", PDUConnectionOrientedHeader.HEADER_LENGTH, bos.size());
+  }
+
+  @Test
+  public void testNDRDeserialize() throws IOException {
+    final PDUConnectionOrientedHeader header = new PDUConnectionOrientedHeader();
+    header.ndrDeserialize(new NDRReader(new ByteArrayInputStream(BIND_HEADER)));
+    Assert.assertEquals("Incorrect value", PDUConnectionOrientedHeader.RPC_VERSION, header.getRpcVersion());
+    Assert.assertEquals("Incorrect value", PDUConnectionOrientedHeader.RPC_VERSION_MINOR,
+        header.getRpcVersionMinor());
+    Assert.assertEquals("Incorrect value", PDUType.BIND, header.getPDUType());
+    Assert.assertTrue("Flag not set", header.isSet(PDUConnectionOrientedFlag.FIRST_FRAG));
+    Assert.assertTrue("Flag not set", header.isSet(PDUConnectionOrientedFlag.LAST_FRAG));
+    Assert.assertFalse("Flag set", header.isSet(PDUConnectionOrientedFlag.CONC_MPX));
+    Assert.assertEquals("Incorrect value", FormatLabelInteger.LITTLE_ENDIAN,
+        header.getFormatLabel().getFormatLabelInteger());
+    Assert.assertEquals("Incorrect value", 0x48, header.getFragmentLength());
+    Assert.assertEquals("Incorrect value", 0, header.getAuthenticationLength());
+    Assert.assertEquals("Incorrect value", 2, header.getCallId());
+
+    header.unset(PDUConnectionOrientedFlag.FIRST_FRAG);
+    Assert.assertFalse("Flag set", header.isSet(PDUConnectionOrientedFlag.FIRST_FRAG));
+  }
+}
@@ -3,6 +3,7 @@ package nl.bransom.jdce.pdu;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import nl.bransom.jdce.ndr.FormatLabel;
 import nl.bransom.jdce.ndr.FormatLabelCharacter;
@@ -124,5 +125,42 @@ public class PDUConnectionlessHeaderTest {
     Assert.assertEquals("Incorrect field value;", pduBodyLenght, pduPacketHeader.getPDUBodyLength());
     Assert.assertEquals("Incorrect field value;", fragmentNumber, pduPacketHeader.getFragmentNumber());
     Assert.assertEquals("Incorrect field value;", authProtocolId, pduPacketHeader.getAuthenticationProtocolId());
+
+    // The Format Label of a deserialized header can still be changed in place.
+    pduPacketHeader.getFormatLabel().set(FormatLabelInteger.BIG_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE);
+    Assert.assertEquals("Incorrect field value;", FormatLabelInteger.BIG_ENDIAN, pduPacketHeader.getFormatLabel()
+        .getFormatLabelInteger());
+    Assert.assertEquals("Canonical instance changed", FormatLabelInteger.LITTLE_ENDIAN, FormatLabel.parse((byte) 0x10,
+        (byte) 0x00).getFormatLabelInteger());
+  }
+
+  @Test
+  public void testNDRDeserializeFromByteBuffer() throws IOException {
+    final String packetString = "04 0B 08 00 10 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 B8 4A 9F 4D 1C"
+        + "7D CF 11 86 1E 00 20 AF 6E 7C 57 86 C2 37 67 F7 1E D1 11 BC D9 00 60 97 92 D2 6C 79 BE 01 34 00 00 00 00"
+        + "00 00 00 00 00 00 FF FF FF FF 68 00 00 00 01 00";
+    final UUID interfaceId = UUID.parse("4d9f4ab8-7d1c-11cf-861e-0020af6e7c57");
+    final UUID activityId = UUID.parse("6737c286-1ef7-11d1-bcd9-00609792d26c");
+    final int serverBootTime = 0x3401be79;
+    final short pduBodyLenght = (short) 0x0068;
+
+    final String refHex = packetString.replace(" ", "");
+    final ByteBuffer refBuffer = ByteBuffer.allocateDirect(refHex.length() / 2);
+    for (int i = 0; i < refBuffer.capacity(); i++) {
+      refBuffer.put((byte) Short.parseShort(refHex.substring(2 * i, 2 * i + 2), 16));
+    }
+    refBuffer.flip();
+
+    NDRReader ndrReader = new NDRReader(refBuffer);
+    PDUConnectionlessHeader pduPacketHeader = new PDUConnectionlessHeader();
+    pduPacketHeader.ndrDeserialize(ndrReader);
+    Assert.assertEquals("Incorrect field value;", PDUType.BIND, pduPacketHeader.getPDUType());
+    Assert.assertEquals("Incorrect field value;", interfaceId, pduPacketHeader.getInterfaceId());
+    Assert.assertEquals("Incorrect field value;", activityId, pduPacketHeader.getActivityId());
+    Assert.assertEquals("Incorrect field value;", serverBootTime, pduPacketHeader.getServerBootTime());
+    Assert.assertEquals("Incorrect field value;", pduBodyLenght, pduPacketHeader.getPDUBodyLength());
+    Assert.assertEquals("Incorrect field value;", AuthenticationProtocolId.OSF_DCE_PRIVATE_KEY_AUTHENTICATION,
+        pduPacketHeader.getAuthenticationProtocolId());
   }
-}
\ No newline at end of file
+}
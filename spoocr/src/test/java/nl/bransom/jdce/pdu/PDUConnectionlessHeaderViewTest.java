@@ -0,0 +1,141 @@
+package nl.bransom.jdce.pdu;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import nl.bransom.jdce.ndr.FormatLabel;
+import nl.bransom.jdce.ndr.FormatLabelCharacter;
+import nl.bransom.jdce.ndr.FormatLabelFloat;
+import nl.bransom.jdce.ndr.FormatLabelInteger;
+import nl.bransom.jdce.ndr.NDRWriter;
+import nl.bransom.jdce.rpc.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link PDUConnectionlessHeaderView}
+ * 
+ * @author Rob
+ */
+public class PDUConnectionlessHeaderViewTest {
+
+  @Test
+  public void testView() throws Exception {
+    final int prefixLength = 3;
+    final PDUConnectionlessHeaderView view = new PDUConnectionlessHeaderView();
+
+    for (FormatLabelInteger formatLabelInteger : FormatLabelInteger.values()) {
+      final PDUConnectionlessHeader header = createHeader(new FormatLabel(formatLabelInteger,
+          FormatLabelCharacter.ASCII, FormatLabelFloat.IEEE));
+      final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      bos.write(new byte[prefixLength]);
+      final NDRWriter ndrWriter = new NDRWriter(bos);
+      header.ndrSerialize(ndrWriter);
+      final byte[] bytes = bos.toByteArray();
+      Assert.assertEquals("Incorrect header length", prefixLength + PDUConnectionlessHeaderView.HEADER_LENGTH,
+          bytes.length);
+
+      for (ByteOrder bufferOrder : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+        final ByteBuffer byteBuffer = ByteBuffer.wrap(bytes).order(bufferOrder);
+        byteBuffer.position(prefixLength);
+        Assert.assertSame("Incorrect view", view, view.wrap(byteBuffer));
+        Assert.assertEquals("Incorrect field value;", header.getRpcVersion(), view.getRpcVersion());
+        Assert.assertEquals("Incorrect field value;", header.getPDUType(), view.getPDUType());
+        Assert.assertEquals("Incorrect field value;", header.getPDUFlags(), view.getPDUFlags());
+        Assert.assertTrue("Incorrect flag value;", view.isSet(PDUFlag1.FRAG));
+        Assert.assertFalse("Incorrect flag value;", view.isSet(PDUFlag1.NOFACK));
+        Assert.assertTrue("Incorrect flag value;", view.isSet(PDUFlag2.CANCEL_PENDING));
+        Assert.assertEquals("Incorrect field value;", header.getFormatLabel(), view.getFormatLabel());
+        Assert.assertEquals("Incorrect field value;", header.getSerialNumber(), view.getSerialNumber());
+        Assert.assertEquals("Incorrect field value;", header.getObjectId(), view.getObjectId());
+        Assert.assertEquals("Incorrect field value;", header.getInterfaceId(), view.getInterfaceId());
+        Assert.assertEquals("Incorrect field value;", header.getActivityId(), view.getActivityId());
+        Assert.assertEquals("Incorrect field value;", header.getServerBootTime(), view.getServerBootTime());
+        Assert.assertEquals("Incorrect field value;", header.getInterfaceVersion(), view.getInterfaceVersion());
+        Assert.assertEquals("Incorrect field value;", header.getSequenceNumber(), view.getSequenceNumber());
+        Assert.assertEquals("Incorrect field value;", header.getOperationNumber(), view.getOperationNumber());
+        Assert.assertEquals("Incorrect field value;", header.getInterfaceHint(), view.getInterfaceHint());
+        Assert.assertEquals("Incorrect field value;", header.getActivityHint(), view.getActivityHint());
+        Assert.assertEquals("Incorrect field value;", header.getPDUBodyLength(), view.getPDUBodyLength());
+        Assert.assertEquals("Incorrect field value;", header.getFragmentNumber(), view.getFragmentNumber());
+        Assert.assertEquals("Incorrect field value;", header.getAuthenticationProtocolId(),
+            view.getAuthenticationProtocolId());
+        final PDUConnectionlessHeader fullHeader = view.toHeader();
+        Assert.assertEquals("Incorrect field value;", header.getActivityId(), fullHeader.getActivityId());
+        Assert.assertEquals("Incorrect field value;", header.getSerialNumber(), fullHeader.getSerialNumber());
+        Assert.assertEquals("The position of the buffer must not change", prefixLength, byteBuffer.position());
+        Assert.assertEquals("The byte order of the buffer must not change", bufferOrder, byteBuffer.order());
+      }
+
+      final ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+      byteBuffer.position(prefixLength);
+      PDUConnectionlessHeaderView.putSerialNumber(byteBuffer, (short) 0xc3d4);
+      Assert.assertEquals("Incorrect serial number", (short) 0xc3d4, view.wrap(byteBuffer).getSerialNumber());
+      Assert.assertEquals("The position of the buffer must not change", prefixLength, byteBuffer.position());
+    }
+  }
+
+  @Test
+  public void testIllegalState() {
+    try {
+      new PDUConnectionlessHeaderView().getPDUType();
+      Assert.fail("Method must fail if no buffer has been wrapped.");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      new PDUConnectionlessHeaderView(ByteBuffer.allocate(PDUConnectionlessHeaderView.HEADER_LENGTH - 1));
+      Assert.fail("Method must fail on illegal input.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testIsSupported() throws Exception {
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    createHeader(new FormatLabel(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII, FormatLabelFloat.IEEE))
+        .ndrSerialize(new NDRWriter(bos));
+    final byte[] bytes = bos.toByteArray();
+    Assert.assertTrue("Incorrect result", PDUConnectionlessHeaderView.isSupported(ByteBuffer.wrap(bytes)));
+    Assert.assertFalse("Short header not detected", PDUConnectionlessHeaderView.isSupported(ByteBuffer.wrap(bytes, 0,
+        bytes.length - 1)));
+
+    final byte[] unknownType = bytes.clone();
+    unknownType[1] = (byte) 0x7f;
+    Assert.assertFalse("Unknown PDU type not detected", PDUConnectionlessHeaderView.isSupported(ByteBuffer
+        .wrap(unknownType)));
+
+    final byte[] unknownFormat = bytes.clone();
+    unknownFormat[4] = (byte) 0x20;
+    Assert.assertFalse("Unsupported format not detected", PDUConnectionlessHeaderView.isSupported(ByteBuffer
+        .wrap(unknownFormat)));
+  }
+
+  private static PDUConnectionlessHeader createHeader(final FormatLabel formatLabel) {
+    final PDUFlags pduFlags = new PDUFlags();
+    pduFlags.set(PDUFlag1.FRAG);
+    pduFlags.set(PDUFlag2.CANCEL_PENDING);
+
+    final PDUConnectionlessHeader header = new PDUConnectionlessHeader();
+    header.setPDUType(PDUType.REQUEST);
+    header.setPDUFlags(pduFlags);
+    header.setFormatLabel(formatLabel);
+    header.setSerialNumber((short) 0x12ab);
+    header.setObjectId(UUID.parse("00000000-0000-0000-0000-000000000000"));
+    header.setInterfaceId(UUID.parse("4d9f4ab8-7d1c-11cf-861e-0020af6e7c57"));
+    header.setActivityId(UUID.parse("6737c286-1ef7-11d1-bcd9-00609792d26c"));
+    header.setServerBootTime(0x3401be79);
+    header.setInterfaceVersion(0x00030001);
+    header.setSequenceNumber(0x01020304);
+    header.setOperationNumber((short) 0x0005);
+    header.setInterfaceHint((short) 0xffff);
+    header.setActivityHint((short) 0x1234);
+    header.setPDUBodyLength((short) 0x0068);
+    header.setFragmentNumber((short) 0x0102);
+    header.setAuthenticationProtocolId(AuthenticationProtocolId.NONE);
+    return header;
+  }
+}
@@ -0,0 +1,53 @@
+package nl.bransom.jdce.pdu;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import nl.bransom.jdce.ndr.FormatLabel;
+import nl.bransom.jdce.ndr.FormatLabelCharacter;
+import nl.bransom.jdce.ndr.FormatLabelFloat;
+import nl.bransom.jdce.ndr.FormatLabelInteger;
+import nl.bransom.jdce.ndr.NDRReader;
+import nl.bransom.jdce.ndr.NDRWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link PDUFackBody}
+ * 
+ * @author Rob
+ */
+public class PDUFackBodyTest {
+
+  @Test
+  public void testNDRSerializeAndDeserialize() throws Exception {
+    final byte[] refBytes = { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x08, (byte) 0x00, (byte) 0x00,
+        (byte) 0x10, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x05, (byte) 0xb4, (byte) 0x00, (byte) 0x03,
+        (byte) 0x00, (byte) 0x01, (byte) 0x80, (byte) 0x00, (byte) 0x00, (byte) 0x05 };
+    final FormatLabel formatLabel = new FormatLabel(FormatLabelInteger.BIG_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE);
+
+    final PDUFackBody fackBody = new PDUFackBody();
+    fackBody.setWindowSize((short) 8);
+    fackBody.setMaxTsdu(0x1000);
+    fackBody.setMaxFragmentSize(0x05b4);
+    fackBody.setSerialNumber((short) 3);
+    fackBody.setSelectiveAcks(new int[] { 0x80000005 });
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    final NDRWriter ndrWriter = new NDRWriter(bos);
+    ndrWriter.setFormatLabel(formatLabel);
+    fackBody.ndrSerialize(ndrWriter);
+    Assert.assertArrayEquals("Incorrect NDR data;", refBytes, bos.toByteArray());
+
+    final NDRReader ndrReader = new NDRReader(new ByteArrayInputStream(refBytes));
+    ndrReader.setFormatLabel(formatLabel);
+    final PDUFackBody decoded = ndrReader.read(PDUFackBody.class);
+    Assert.assertEquals("Incorrect field value;", PDUFackBody.FACK_VERSION, decoded.getVersion());
+    Assert.assertEquals("Incorrect field value;", 8, decoded.getWindowSize());
+    Assert.assertEquals("Incorrect field value;", 0x1000, decoded.getMaxTsdu());
+    Assert.assertEquals("Incorrect field value;", 0x05b4, decoded.getMaxFragmentSize());
+    Assert.assertEquals("Incorrect field value;", 3, decoded.getSerialNumber());
+    Assert.assertArrayEquals("Incorrect field value;", new int[] { 0x80000005 }, decoded.getSelectiveAcks());
+  }
+}
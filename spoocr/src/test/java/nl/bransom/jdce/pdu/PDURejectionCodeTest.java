@@ -32,4 +32,14 @@ public class PDURejectionCodeTest {
     }
   }
 
+  @Test
+  public void testLookup() {
+    for (PDURejectionCode pduRejectionCode : PDURejectionCode.values()) {
+      Assert.assertSame("Incorrect value", pduRejectionCode, PDURejectionCode.lookup(pduRejectionCode.getValue()));
+    }
+    for (int value : new int[] { 0, -1, 0x1c000007, 0x1c010001, 0x1c000021, Integer.MIN_VALUE }) {
+      Assert.assertNull("Unknown value must not be found", PDURejectionCode.lookup(value));
+    }
+  }
+
 }
@@ -31,4 +31,13 @@ public class PDUTypeTest {
     }
   }
 
+  @Test
+  public void testLookup() {
+    for (PDUType pduType : PDUType.values()) {
+      Assert.assertSame("Incorrect value", pduType, PDUType.lookup(pduType.getValue()));
+    }
+    Assert.assertNull("Unknown value must not be found", PDUType.lookup((byte) 16));
+    Assert.assertNull("Unknown value must not be found", PDUType.lookup((byte) 0xff));
+  }
+
 }
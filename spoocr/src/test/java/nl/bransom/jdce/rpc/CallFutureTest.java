@@ -0,0 +1,78 @@
+package nl.bransom.jdce.rpc;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link CallFuture}
+ * 
+ * @author Rob
+ */
+public class CallFutureTest {
+
+  @Test
+  public void testComplete() throws Exception {
+    final StringBuilder log = new StringBuilder();
+    final CallFuture<String> future = new CallFuture<String>(new RPCCallback<String>() {
+      @Override
+      public void completed(final String result) {
+        log.append("completed:").append(result);
+      }
+
+      @Override
+      public void failed(final Throwable cause) {
+        log.append("failed");
+      }
+    });
+    try {
+      future.get(1, TimeUnit.MILLISECONDS);
+      Assert.fail("Time-out not detected.");
+    } catch (TimeoutException e) {
+      // expected
+    }
+    Assert.assertTrue("Not settled", future.complete("x"));
+    Assert.assertFalse("Settled twice", future.fail(new IOException()));
+    Assert.assertFalse("Cancelled after completion", future.cancel(true));
+    Assert.assertTrue("Not done", future.isDone());
+    Assert.assertFalse("Cancelled", future.isCancelled());
+    Assert.assertEquals("Incorrect result", "x", future.get());
+    Assert.assertEquals("Incorrect callback", "completed:x", log.toString());
+  }
+
+  @Test
+  public void testFailAndCancel() throws Exception {
+    final CallFuture<String> failed = new CallFuture<String>(null);
+    final IOException cause = new IOException();
+    Assert.assertTrue("Not settled", failed.fail(cause));
+    try {
+      failed.get();
+      Assert.fail("Failure not detected.");
+    } catch (ExecutionException e) {
+      Assert.assertSame("Incorrect cause", cause, e.getCause());
+    }
+
+    final boolean[] hookCalled = new boolean[1];
+    final CallFuture<String> cancelled = new CallFuture<String>(null) {
+      @Override
+      protected void cancelled() {
+        hookCalled[0] = true;
+      }
+    };
+    Assert.assertTrue("Not cancelled", cancelled.cancel(false));
+    Assert.assertTrue("Hook not called", hookCalled[0]);
+    Assert.assertTrue("Not cancelled", cancelled.isCancelled());
+    Assert.assertFalse("Completed after cancellation", cancelled.complete("x"));
+    try {
+      cancelled.get();
+      Assert.fail("Cancellation not detected.");
+    } catch (CancellationException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,336 @@
+package nl.bransom.jdce.rpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import nl.bransom.jdce.ndr.FormatLabel;
+import nl.bransom.jdce.ndr.FormatLabelCharacter;
+import nl.bransom.jdce.ndr.FormatLabelFloat;
+import nl.bransom.jdce.ndr.FormatLabelInteger;
+import nl.bransom.jdce.ndr.NDRWriter;
+import nl.bransom.jdce.pdu.PDUConnectionlessHeader;
+import nl.bransom.jdce.pdu.PDUConnectionlessHeaderView;
+import nl.bransom.jdce.pdu.PDUFlag1;
+import nl.bransom.jdce.pdu.PDUFlags;
+import nl.bransom.jdce.pdu.PDURejectionCode;
+import nl.bransom.jdce.pdu.PDUType;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link DatagramRPCClient}
+ * 
+ * @author Rob
+ */
+public class DatagramRPCClientTest {
+
+  private static final long TIMEOUT_SECONDS = 5;
+  private static final int SO_TIMEOUT_MILLIS = 5000;
+  private static final long RETRANSMIT_TIMEOUT_MILLIS = 50L;
+  private static final UUID INTERFACE_ID = UUID.parse("4d9f4ab8-7d1c-11cf-861e-0020af6e7c57");
+  private static final int INTERFACE_VERSION = 0x00010002;
+  private static final short OPERATION_NUMBER = 7;
+  private static final byte[] STUB = { 0x01, 0x02, 0x03, 0x04 };
+
+  private DatagramSocket server;
+  private InetSocketAddress serverAddress;
+  private DatagramRPCClient client;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new DatagramSocket(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+    server.setSoTimeout(SO_TIMEOUT_MILLIS);
+    serverAddress = (InetSocketAddress) server.getLocalSocketAddress();
+    client = new DatagramRPCClient(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS), RETRANSMIT_TIMEOUT_MILLIS);
+  }
+
+  @After
+  public void tearDown() {
+    client.close();
+    server.close();
+  }
+
+  @Test
+  public void testCall() throws Exception {
+    final Future<ByteBuffer> future = client.call(serverAddress, INTERFACE_ID, INTERFACE_VERSION, OPERATION_NUMBER,
+        STUB, null);
+    final Received request = receive(PDUType.REQUEST);
+    Assert.assertEquals("Incorrect interface", INTERFACE_ID, request.header.getInterfaceId());
+    Assert.assertEquals("Incorrect interface version", INTERFACE_VERSION, request.header.getInterfaceVersion());
+    Assert.assertEquals("Incorrect operation", OPERATION_NUMBER, request.header.getOperationNumber());
+    Assert.assertFalse("A single fragment is expected", request.header.getPDUFlags().isSet(PDUFlag1.FRAG));
+    Assert.assertArrayEquals("Incorrect stub", STUB, request.body);
+
+    reply(request, PDUType.RESPONSE, new PDUFlags(), 0, new byte[] { 0x2a, 0x00, 0x00, 0x00 });
+    final ByteBuffer result = future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    Assert.assertEquals("Incorrect byte order", ByteOrder.LITTLE_ENDIAN, result.order());
+    Assert.assertEquals("Incorrect result", 42, result.getInt());
+    final Received ack = receive(PDUType.ACK);
+    Assert.assertEquals("Incorrect activity", request.header.getActivityId(), ack.header.getActivityId());
+    Assert.assertEquals("Incorrect sequence number", request.header.getSequenceNumber(),
+        ack.header.getSequenceNumber());
+
+    // The activity is reused for the next call.
+    client.call(serverAddress, INTERFACE_ID, INTERFACE_VERSION, OPERATION_NUMBER, STUB, null);
+    final Received nextRequest = receive(PDUType.REQUEST);
+    Assert.assertEquals("Incorrect activity", request.header.getActivityId(), nextRequest.header.getActivityId());
+    Assert.assertEquals("Incorrect sequence number", request.header.getSequenceNumber() + 1,
+        nextRequest.header.getSequenceNumber());
+  }
+
+  @Test
+  public void testRetransmission() throws Exception {
+    final Future<ByteBuffer> future = client.call(serverAddress, INTERFACE_ID, INTERFACE_VERSION, OPERATION_NUMBER,
+        STUB, null);
+    final Received request = receive(PDUType.REQUEST);
+    // Ignore the request, as if it were lost.
+    final Received retransmission = receive(PDUType.REQUEST);
+    Assert.assertEquals("Incorrect activity", request.header.getActivityId(), retransmission.header.getActivityId());
+    Assert.assertEquals("Incorrect sequence number", request.header.getSequenceNumber(),
+        retransmission.header.getSequenceNumber());
+    Assert.assertEquals("Incorrect serial number", 0, request.header.getSerialNumber());
+    Assert.assertEquals("Serial number not incremented", 1, retransmission.header.getSerialNumber());
+    reply(retransmission, PDUType.RESPONSE, new PDUFlags(), 0, new byte[0]);
+    Assert.assertEquals("Incorrect result", 0, future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).remaining());
+  }
+
+  @Test
+  public void testWorkingAndPing() throws Exception {
+    final Future<ByteBuffer> future = client.call(serverAddress, INTERFACE_ID, INTERFACE_VERSION, OPERATION_NUMBER,
+        STUB, null);
+    final Received request = receive(PDUType.REQUEST);
+    reply(request, PDUType.WORKING, new PDUFlags(), 0, new byte[0]);
+    // After a working PDU, the client must ping rather than retransmit.
+    final Received ping = receive(PDUType.PING);
+    // A nocall reply makes the client retransmit the request.
+    reply(ping, PDUType.NOCALL, new PDUFlags(), 0, new byte[0]);
+    final Received retransmission = receive(PDUType.REQUEST);
+    Assert.assertArrayEquals("Incorrect stub", STUB, retransmission.body);
+    reply(retransmission, PDUType.WORKING, new PDUFlags(), 0, new byte[0]);
+    reply(receive(PDUType.PING), PDUType.RESPONSE, new PDUFlags(), 0, new byte[] { 0x01 });
+    Assert.assertEquals("Incorrect result", 1, future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).remaining());
+  }
+
+  @Test
+  public void testFragments() throws Exception {
+    final byte[] stub = new byte[DatagramRPCClient.MAX_FRAGMENT_BODY_LENGTH + 10];
+    Arrays.fill(stub, (byte) 0x55);
+    final Future<ByteBuffer> future = client.call(serverAddress, INTERFACE_ID, INTERFACE_VERSION, OPERATION_NUMBER,
+        stub, null);
+    final Received first = receive(PDUType.REQUEST);
+    final Received last = receive(PDUType.REQUEST);
+    final PDUFlags firstRequestFlags = first.header.getPDUFlags();
+    Assert.assertTrue("Incorrect flags", firstRequestFlags.isSet(PDUFlag1.FRAG)
+        && firstRequestFlags.isSet(PDUFlag1.NOFACK) && !firstRequestFlags.isSet(PDUFlag1.LASTFRAG));
+    final PDUFlags lastRequestFlags = last.header.getPDUFlags();
+    Assert.assertTrue("Incorrect flags", lastRequestFlags.isSet(PDUFlag1.FRAG)
+        && lastRequestFlags.isSet(PDUFlag1.LASTFRAG));
+    Assert.assertEquals("Incorrect fragment number", 1, last.header.getFragmentNumber());
+    Assert.assertEquals("Incorrect serial number", 1, last.header.getSerialNumber());
+    Assert.assertEquals("Incorrect stub length", stub.length, first.body.length + last.body.length);
+
+    // Respond in two fragments; the client must fack the first one.
+    final PDUFlags firstFlags = new PDUFlags();
+    firstFlags.set(PDUFlag1.FRAG);
+    reply(last, PDUType.RESPONSE, firstFlags, 0, new byte[] { 0x01, 0x02 });
+    final Received fack = receive(PDUType.FACK);
+    Assert.assertEquals("Incorrect fragment number", 0, fack.header.getFragmentNumber());
+    Assert.assertTrue("Serial number not incremented", fack.header.getSerialNumber() > last.header.getSerialNumber());
+    final PDUFlags lastFlags = new PDUFlags();
+    lastFlags.set(PDUFlag1.FRAG);
+    lastFlags.set(PDUFlag1.LASTFRAG);
+    reply(last, PDUType.RESPONSE, lastFlags, 1, new byte[] { 0x03 });
+    final ByteBuffer result = future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    final byte[] resultBytes = new byte[result.remaining()];
+    result.get(resultBytes);
+    Assert.assertArrayEquals("Incorrect result", new byte[] { 0x01, 0x02, 0x03 }, resultBytes);
+  }
+
+  @Test
+  public void testFaultAndReject() throws Exception {
+    final Future<ByteBuffer> faultFuture = client.call(serverAddress, INTERFACE_ID, INTERFACE_VERSION,
+        OPERATION_NUMBER, STUB, null);
+    reply(receive(PDUType.REQUEST), PDUType.FAULT, new PDUFlags(), 0, new byte[] { 0x05, 0x00, 0x00, 0x00 });
+    try {
+      faultFuture.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      Assert.fail("Fault not detected.");
+    } catch (ExecutionException e) {
+      Assert.assertTrue("Incorrect cause", e.getCause() instanceof RPCFaultException);
+      Assert.assertEquals("Incorrect status", 5, ((RPCFaultException) e.getCause()).getStatus());
+      Assert.assertFalse("Incorrect kind of fault", ((RPCFaultException) e.getCause()).isRejected());
+    }
+
+    final Future<ByteBuffer> rejectFuture = client.call(serverAddress, INTERFACE_ID, INTERFACE_VERSION,
+        OPERATION_NUMBER, STUB, null);
+    final ByteBuffer status = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    status.putInt(PDURejectionCode.NCA_UNK_IF.getValue());
+    reply(receive(PDUType.REQUEST), PDUType.REJECT, new PDUFlags(), 0, status.array());
+    try {
+      rejectFuture.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      Assert.fail("Rejection not detected.");
+    } catch (ExecutionException e) {
+      Assert.assertTrue("Incorrect cause", e.getCause() instanceof RPCFaultException);
+      Assert.assertTrue("Incorrect kind of fault", ((RPCFaultException) e.getCause()).isRejected());
+      Assert.assertEquals("Incorrect rejection code", PDURejectionCode.NCA_UNK_IF,
+          ((RPCFaultException) e.getCause()).getRejectionCode());
+    }
+  }
+
+  @Test
+  public void testMultiplexedCalls() throws Exception {
+    final int numCalls = 100;
+    final List<Future<ByteBuffer>> futures = new ArrayList<Future<ByteBuffer>>();
+    for (int i = 0; i < numCalls; i++) {
+      futures.add(client.call(serverAddress, INTERFACE_ID, INTERFACE_VERSION, OPERATION_NUMBER, new byte[] {
+          (byte) i }, null));
+    }
+    final List<Received> requests = new ArrayList<Received>();
+    while (requests.size() < numCalls) {
+      final Received request = receive(PDUType.REQUEST);
+      boolean isRetransmission = false;
+      for (Received other : requests) {
+        isRetransmission |= other.header.getActivityId().equals(request.header.getActivityId());
+      }
+      if (!isRetransmission) {
+        requests.add(request);
+      }
+    }
+    // Respond in reverse order, echoing the stub.
+    for (int i = numCalls - 1; i >= 0; i--) {
+      reply(requests.get(i), PDUType.RESPONSE, new PDUFlags(), 0, requests.get(i).body);
+    }
+    for (int i = 0; i < numCalls; i++) {
+      Assert.assertEquals("Incorrect result", (byte) i, futures.get(i).get(TIMEOUT_SECONDS, TimeUnit.SECONDS).get());
+    }
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    final DatagramRPCClient impatientClient = new DatagramRPCClient(200L, RETRANSMIT_TIMEOUT_MILLIS);
+    // The server never responds.
+    final Future<ByteBuffer> future = impatientClient.call(serverAddress, INTERFACE_ID, INTERFACE_VERSION,
+        OPERATION_NUMBER, STUB, null);
+    try {
+      future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      Assert.fail("Time-out not detected.");
+    } catch (ExecutionException e) {
+      Assert.assertTrue("Incorrect cause", e.getCause() instanceof SocketTimeoutException);
+    }
+    impatientClient.close();
+    try {
+      impatientClient.call(serverAddress, INTERFACE_ID, INTERFACE_VERSION, OPERATION_NUMBER, STUB, null);
+      Assert.fail("Closed client not detected.");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSendFailure() throws Exception {
+    final Future<ByteBuffer> future = client.call(serverAddress, INTERFACE_ID, INTERFACE_VERSION, OPERATION_NUMBER,
+        STUB, null);
+    final Received request = receive(PDUType.REQUEST);
+    // Without SO_BROADCAST, sending to the broadcast address fails right away.
+    final InetSocketAddress broadcastAddress = new InetSocketAddress(InetAddress.getByName("255.255.255.255"), 135);
+    final Future<ByteBuffer> failingFuture = client.call(broadcastAddress, INTERFACE_ID, INTERFACE_VERSION,
+        OPERATION_NUMBER, STUB, null);
+    try {
+      failingFuture.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      Assert.fail("Send failure not detected.");
+    } catch (ExecutionException e) {
+      Assert.assertTrue("Incorrect cause", e.getCause() instanceof IOException
+          && !(e.getCause() instanceof SocketTimeoutException));
+    }
+
+    // Other calls are not affected.
+    reply(request, PDUType.RESPONSE, new PDUFlags(), 0, new byte[] { 0x01 });
+    Assert.assertEquals("Incorrect result", 1, future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).remaining());
+    final Future<ByteBuffer> nextFuture = client.call(serverAddress, INTERFACE_ID, INTERFACE_VERSION,
+        OPERATION_NUMBER, STUB, null);
+    Received nextRequest = receive(PDUType.REQUEST);
+    // Skip retransmissions of the first request.
+    while (nextRequest.header.getActivityId().equals(request.header.getActivityId())
+        && nextRequest.header.getSequenceNumber() == request.header.getSequenceNumber()) {
+      nextRequest = receive(PDUType.REQUEST);
+    }
+    reply(nextRequest, PDUType.RESPONSE, new PDUFlags(), 0, new byte[] { 0x02 });
+    Assert.assertEquals("Incorrect result", 1, nextFuture.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).remaining());
+  }
+
+  /**
+   * Received PDU.
+   */
+  private static final class Received {
+
+    private final SocketAddress source;
+    private final PDUConnectionlessHeader header;
+    private final byte[] body;
+
+    private Received(final SocketAddress source, final PDUConnectionlessHeader header, final byte[] body) {
+      this.source = source;
+      this.header = header;
+      this.body = body;
+    }
+  }
+
+  /**
+   * Receives datagrams until one of the given type arrives.
+   */
+  private Received receive(final PDUType pduType) throws IOException {
+    final byte[] buffer = new byte[2048];
+    while (true) {
+      final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+      server.receive(packet);
+      final ByteBuffer datagram = ByteBuffer.wrap(buffer, 0, packet.getLength());
+      final PDUConnectionlessHeader header = new PDUConnectionlessHeaderView(datagram).toHeader();
+      if (header.getPDUType() == pduType) {
+        return new Received(packet.getSocketAddress(), header, Arrays.copyOfRange(buffer,
+            PDUConnectionlessHeaderView.HEADER_LENGTH, packet.getLength()));
+      }
+    }
+  }
+
+  /**
+   * Sends a PDU of the call of {@code request} back to the client.
+   */
+  private void reply(final Received request, final PDUType pduType, final PDUFlags pduFlags,
+      final int fragmentNumber, final byte[] body) throws IOException {
+    final PDUConnectionlessHeader header = new PDUConnectionlessHeader();
+    header.setPDUType(pduType);
+    header.setPDUFlags(pduFlags);
+    header.setFormatLabel(new FormatLabel(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE));
+    header.setSerialNumber((short) fragmentNumber);
+    header.setObjectId(UUID.NIL);
+    header.setInterfaceId(request.header.getInterfaceId());
+    header.setActivityId(request.header.getActivityId());
+    header.setServerBootTime(1234);
+    header.setInterfaceVersion(request.header.getInterfaceVersion());
+    header.setSequenceNumber(request.header.getSequenceNumber());
+    header.setOperationNumber(request.header.getOperationNumber());
+    header.setPDUBodyLength((short) body.length);
+    header.setFragmentNumber((short) fragmentNumber);
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    header.ndrSerialize(new NDRWriter(bos));
+    bos.write(body);
+    final byte[] pdu = bos.toByteArray();
+    server.send(new DatagramPacket(pdu, pdu.length, request.source));
+  }
+}
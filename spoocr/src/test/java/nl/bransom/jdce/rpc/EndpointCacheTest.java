@@ -0,0 +1,161 @@
+package nl.bransom.jdce.rpc;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link EndpointCache}
+ * 
+ * @author Rob
+ */
+public class EndpointCacheTest {
+
+  private static final long TTL = 1000L;
+  private static final long NEGATIVE_TTL = 100L;
+  private static final UUID INTERFACE_ID = UUID.parse("12345778-1234-abcd-ef00-0123456789ac");
+
+  private final List<RPCCallback<List<InetSocketAddress>>> pendingLookups =
+      new ArrayList<RPCCallback<List<InetSocketAddress>>>();
+  private final EndpointResolver resolver = new EndpointResolver() {
+    @Override
+    public Future<List<InetSocketAddress>> lookup(final InetSocketAddress mapperAddress, final UUID interfaceId,
+        final int interfaceVersion, final RPCCallback<List<InetSocketAddress>> callback) {
+      pendingLookups.add(callback);
+      return new CallFuture<List<InetSocketAddress>>(null);
+    }
+  };
+  private long now;
+  private EndpointCache cache;
+  private InetSocketAddress host1;
+  private InetSocketAddress host2;
+  private List<InetSocketAddress> endpoints;
+
+  @Before
+  public void setUp() throws IOException {
+    cache = new EndpointCache(resolver, 2, TTL, NEGATIVE_TTL) {
+      @Override
+      protected long currentTimeMillis() {
+        return now;
+      }
+    };
+    host1 = new InetSocketAddress(InetAddress.getByName("10.0.0.1"), 135);
+    host2 = new InetSocketAddress(InetAddress.getByName("10.0.0.2"), 135);
+    endpoints = Collections.singletonList(new InetSocketAddress(host1.getAddress(), 49154));
+  }
+
+  @Test
+  public void testSingleFlightAndTTL() throws Exception {
+    final List<String> log = new ArrayList<String>();
+    final Future<List<InetSocketAddress>> future1 = cache.lookup(host1, INTERFACE_ID, 1, newCallback(log));
+    final Future<List<InetSocketAddress>> future2 = cache.lookup(host1, INTERFACE_ID, 1, newCallback(log));
+    Assert.assertEquals("Lookup not shared", 1, pendingLookups.size());
+    Assert.assertFalse("Shared lookup cancelled", future1.cancel(true));
+    pendingLookups.get(0).completed(endpoints);
+    Assert.assertEquals("Incorrect result", endpoints, future1.get());
+    Assert.assertEquals("Incorrect result", endpoints, future2.get());
+    Assert.assertEquals("Incorrect callbacks", 2, log.size());
+
+    now += TTL - 1;
+    Assert.assertEquals("Incorrect result", endpoints, cache.lookup(host1, INTERFACE_ID, 1, newCallback(log)).get());
+    Assert.assertEquals("Callback not invoked", 3, log.size());
+    Assert.assertEquals("Unexpected lookup", 1, pendingLookups.size());
+    Assert.assertEquals("Incorrect hit count", 2, cache.getHitCount());
+    Assert.assertEquals("Incorrect miss count", 1, cache.getMissCount());
+
+    // Different version, then expiry.
+    cache.lookup(host1, INTERFACE_ID, 2, null);
+    Assert.assertEquals("Version ignored", 2, pendingLookups.size());
+    now += 1;
+    cache.lookup(host1, INTERFACE_ID, 1, null);
+    Assert.assertEquals("Expired entry used", 3, pendingLookups.size());
+    Assert.assertEquals("Incorrect miss count", 3, cache.getMissCount());
+  }
+
+  @Test
+  public void testNegativeCaching() throws Exception {
+    cache.lookup(host1, INTERFACE_ID, 1, null);
+    pendingLookups.get(0).failed(new ConnectException("Connection refused"));
+    final Future<List<InetSocketAddress>> future = cache.lookup(host1, INTERFACE_ID, 1, null);
+    Assert.assertEquals("Refusal not cached", 1, pendingLookups.size());
+    try {
+      future.get();
+      Assert.fail("Failure not cached.");
+    } catch (ExecutionException e) {
+      Assert.assertTrue("Incorrect cause", e.getCause() instanceof ConnectException);
+    }
+    now += NEGATIVE_TTL;
+    cache.lookup(host1, INTERFACE_ID, 1, null);
+    Assert.assertEquals("Refusal cached too long", 2, pendingLookups.size());
+
+    // Time-outs are not cached.
+    pendingLookups.get(1).failed(new SocketTimeoutException());
+    cache.lookup(host1, INTERFACE_ID, 1, null);
+    Assert.assertEquals("Time-out cached", 3, pendingLookups.size());
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    final InetSocketAddress host3 = new InetSocketAddress(InetAddress.getByName("10.0.0.3"), 135);
+    cache.lookup(host1, INTERFACE_ID, 1, null);
+    cache.lookup(host2, INTERFACE_ID, 1, null);
+    for (RPCCallback<List<InetSocketAddress>> pendingLookup : pendingLookups) {
+      pendingLookup.completed(endpoints);
+    }
+    // Touch host1, so host2 is the least recently used entry.
+    cache.lookup(host1, INTERFACE_ID, 1, null);
+    cache.lookup(host3, INTERFACE_ID, 1, null);
+    Assert.assertEquals("Incorrect size", 3, cache.size());
+    pendingLookups.get(2).completed(endpoints);
+    Assert.assertEquals("Incorrect size", 2, cache.size());
+    cache.lookup(host1, INTERFACE_ID, 1, null);
+    Assert.assertEquals("Recently used entry evicted", 3, pendingLookups.size());
+    cache.lookup(host2, INTERFACE_ID, 1, null);
+    Assert.assertEquals("Eldest entry not evicted", 4, pendingLookups.size());
+
+    cache.clear();
+    Assert.assertEquals("Incorrect size", 0, cache.size());
+  }
+
+  @Test
+  public void testPendingNotEvicted() throws Exception {
+    final InetSocketAddress host3 = new InetSocketAddress(InetAddress.getByName("10.0.0.3"), 135);
+    final Future<List<InetSocketAddress>> future = cache.lookup(host1, INTERFACE_ID, 1, null);
+    cache.lookup(host2, INTERFACE_ID, 1, null);
+    cache.lookup(host3, INTERFACE_ID, 1, null);
+    Assert.assertEquals("Incorrect size", 3, cache.size());
+    Assert.assertSame("Pending lookup not shared", future, cache.lookup(host1, INTERFACE_ID, 1, null));
+    Assert.assertEquals("Pending lookup repeated", 3, pendingLookups.size());
+
+    for (RPCCallback<List<InetSocketAddress>> pendingLookup : pendingLookups) {
+      pendingLookup.completed(endpoints);
+    }
+    Assert.assertEquals("Incorrect result", endpoints, future.get());
+    Assert.assertEquals("Incorrect size", 2, cache.size());
+  }
+
+  private static RPCCallback<List<InetSocketAddress>> newCallback(final List<String> log) {
+    return new RPCCallback<List<InetSocketAddress>>() {
+      @Override
+      public void completed(final List<InetSocketAddress> result) {
+        log.add("completed");
+      }
+
+      @Override
+      public void failed(final Throwable cause) {
+        log.add("failed");
+      }
+    };
+  }
+}
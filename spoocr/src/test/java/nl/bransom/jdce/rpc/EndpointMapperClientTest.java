@@ -1,6 +1,26 @@
 package nl.bransom.jdce.rpc;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nl.bransom.jdce.pdu.PDUConnectionOrientedHeader;
+
+import org.junit.After;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 
 /**
@@ -10,17 +30,172 @@ import org.junit.Test;
  */
 public class EndpointMapperClientTest {
 
+  private static final long TIMEOUT_SECONDS = 5;
+  private static final int PORT = 49154;
+
+  private ServerSocketChannel serverChannel;
+  private InetSocketAddress mapperAddress;
+  private EndpointMapperClient endpointMapperClient;
+  private final AtomicReference<Exception> serverFailure = new AtomicReference<Exception>();
+
+  @Before
+  public void setUp() throws IOException {
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+    mapperAddress = (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+    endpointMapperClient = new EndpointMapperClient(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    endpointMapperClient.close();
+    serverChannel.close();
+    Assert.assertNull("The fake endpoint mapper failed", serverFailure.get());
+  }
+
   @Test
+  @SuppressWarnings("deprecation")
   public void testGo() throws Exception {
-    final EndpointMapperClient endpointMapperClient = new EndpointMapperClient();
+    final EndpointMapperClient goClient = new EndpointMapperClient();
 
-    endpointMapperClient.go("localhost", 135);
+    goClient.go("localhost", 135);
     try {
-      endpointMapperClient.go(null, -1);
+      goClient.go(null, -1);
       Assert.fail("Invalid parameter not detected.");
     } catch (IllegalArgumentException e) {
       // expected
     }
   }
 
+  @Test
+  public void testLookup() throws Exception {
+    final Thread server = serve(PORT, 0, 2);
+    final CountDownLatch callbackLatch = new CountDownLatch(1);
+    final AtomicReference<List<InetSocketAddress>> callbackResult = new AtomicReference<List<InetSocketAddress>>();
+    final List<Future<List<InetSocketAddress>>> futures = new ArrayList<Future<List<InetSocketAddress>>>();
+    futures.add(endpointMapperClient.lookup(mapperAddress, EndpointMapperProtocolTest.INTERFACE_ID,
+        EndpointMapperProtocolTest.INTERFACE_VERSION, new RPCCallback<List<InetSocketAddress>>() {
+          @Override
+          public void completed(final List<InetSocketAddress> result) {
+            callbackResult.set(result);
+            callbackLatch.countDown();
+          }
+
+          @Override
+          public void failed(final Throwable cause) {
+            callbackLatch.countDown();
+          }
+        }));
+    futures.add(endpointMapperClient.lookup(mapperAddress, EndpointMapperProtocolTest.INTERFACE_ID,
+        EndpointMapperProtocolTest.INTERFACE_VERSION, null));
+
+    final List<InetSocketAddress> expected = Collections.singletonList(new InetSocketAddress(mapperAddress
+        .getAddress(), PORT));
+    for (Future<List<InetSocketAddress>> future : futures) {
+      Assert.assertEquals("Incorrect endpoints", expected, future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+    Assert.assertTrue("Callback not invoked", callbackLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    Assert.assertEquals("Incorrect endpoints", expected, callbackResult.get());
+    server.join();
+  }
+
+  @Test
+  public void testLookupNotRegistered() throws Exception {
+    final Thread server = serve(0, EndpointMapperException.EPT_S_NOT_REGISTERED, 1);
+    final Future<List<InetSocketAddress>> future = endpointMapperClient.lookup(mapperAddress,
+        EndpointMapperProtocolTest.INTERFACE_ID, EndpointMapperProtocolTest.INTERFACE_VERSION, null);
+    try {
+      future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      Assert.fail("Unregistered interface not detected.");
+    } catch (ExecutionException e) {
+      Assert.assertTrue("Incorrect cause", e.getCause() instanceof EndpointMapperException);
+      Assert.assertEquals("Incorrect status", EndpointMapperException.EPT_S_NOT_REGISTERED,
+          ((EndpointMapperException) e.getCause()).getStatus());
+    }
+    server.join();
+  }
+
+  @Test
+  public void testLookupTimeout() throws Exception {
+    final EndpointMapperClient impatientClient = new EndpointMapperClient(100L);
+    // The server accepts the connection, but never responds.
+    final Future<List<InetSocketAddress>> future = impatientClient.lookup(mapperAddress,
+        EndpointMapperProtocolTest.INTERFACE_ID, EndpointMapperProtocolTest.INTERFACE_VERSION, null);
+    try {
+      future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      Assert.fail("Time-out not detected.");
+    } catch (ExecutionException e) {
+      Assert.assertTrue("Incorrect cause", e.getCause() instanceof SocketTimeoutException);
+    }
+    impatientClient.close();
+    try {
+      impatientClient.lookup(mapperAddress, EndpointMapperProtocolTest.INTERFACE_ID,
+          EndpointMapperProtocolTest.INTERFACE_VERSION, null);
+      Assert.fail("Closed client not detected.");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Starts a fake endpoint mapper that serves {@code numLookups} connections. Responses are written in two chunks, to
+   * exercise partial reads.
+   */
+  private Thread serve(final int port, final int status, final int numLookups) {
+    final Thread server = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < numLookups; i++) {
+            final SocketChannel channel = serverChannel.accept();
+            try {
+              final int bindCallId = readPDU(channel).getInt(PDUConnectionOrientedHeader.OFFSET_CALL_ID);
+              writeInChunks(channel, EndpointMapperProtocolTest.composeBindAck(bindCallId));
+              final int mapCallId = readPDU(channel).getInt(PDUConnectionOrientedHeader.OFFSET_CALL_ID);
+              writeInChunks(channel, EndpointMapperProtocolTest.composeMapResponse(mapCallId, port, status));
+            } finally {
+              channel.close();
+            }
+          }
+        } catch (Exception e) {
+          serverFailure.set(e);
+        }
+      }
+    });
+    server.start();
+    return server;
+  }
+
+  private static ByteBuffer readPDU(final SocketChannel channel) throws IOException {
+    final ByteBuffer header = ByteBuffer.allocate(PDUConnectionOrientedHeader.HEADER_LENGTH);
+    readFully(channel, header);
+    header.flip();
+    final ByteBuffer pdu = ByteBuffer.allocate(PDUConnectionOrientedHeader.peekFragmentLength(header));
+    pdu.order(PDUConnectionOrientedHeader.peekByteOrder(header));
+    pdu.put(header);
+    readFully(channel, pdu);
+    pdu.flip();
+    return pdu;
+  }
+
+  private static void readFully(final SocketChannel channel, final ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new IOException("Unexpected end of stream.");
+      }
+    }
+  }
+
+  private static void writeInChunks(final SocketChannel channel, final ByteBuffer pdu) throws Exception {
+    final ByteBuffer firstChunk = pdu.duplicate();
+    firstChunk.limit(pdu.position() + pdu.remaining() / 2);
+    while (firstChunk.hasRemaining()) {
+      channel.write(firstChunk);
+    }
+    Thread.sleep(10);
+    pdu.position(firstChunk.position());
+    while (pdu.hasRemaining()) {
+      channel.write(pdu);
+    }
+  }
 }
@@ -0,0 +1,153 @@
+package nl.bransom.jdce.rpc;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import nl.bransom.jdce.pdu.PDUConnectionOrientedHeader;
+import nl.bransom.jdce.pdu.PDUType;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link EndpointMapperProtocol}
+ * 
+ * @author Rob
+ */
+public class EndpointMapperProtocolTest {
+
+  static final UUID INTERFACE_ID = UUID.parse("12345778-1234-abcd-ef00-0123456789ac");
+  static final int INTERFACE_VERSION = 1;
+  // Byte offsets of the TCP port and the IP address in a tower of five floors.
+  static final int TOWER_PORT_OFFSET = 64;
+  static final int TOWER_ADDRESS_OFFSET = 71;
+
+  @Test
+  public void testComposeBind() throws IOException {
+    final ByteBuffer bind = EndpointMapperProtocol.composeBind(7).order(ByteOrder.LITTLE_ENDIAN);
+    Assert.assertEquals("Incorrect length", 72, bind.remaining());
+    Assert.assertEquals("Incorrect length", 72, PDUConnectionOrientedHeader.peekFragmentLength(bind));
+    Assert.assertEquals("Incorrect PDU type", PDUType.BIND.getValue(),
+        bind.get(PDUConnectionOrientedHeader.OFFSET_PDU_TYPE));
+    Assert.assertEquals("Incorrect call ID", 7, bind.getInt(PDUConnectionOrientedHeader.OFFSET_CALL_ID));
+    // Abstract syntax: e1af8308-5d1f-11c9-91a4-08002b14a0fa version 3
+    Assert.assertEquals("Incorrect interface", 0xe1af8308, bind.getInt(32));
+    Assert.assertEquals("Incorrect version", 3, bind.getInt(48));
+    Assert.assertEquals("Incorrect transfer syntax", 0x8a885d04, bind.getInt(52));
+    Assert.assertEquals("Incorrect version", 2, bind.getInt(68));
+  }
+
+  @Test
+  public void testComposeMapRequest() throws IOException {
+    final ByteBuffer request = EndpointMapperProtocol.composeMapRequest(8, INTERFACE_ID, INTERFACE_VERSION).order(
+        ByteOrder.LITTLE_ENDIAN);
+    final byte[] tower = EndpointMapperProtocol.composeTower(INTERFACE_ID, INTERFACE_VERSION);
+    Assert.assertEquals("Incorrect length", request.remaining(), PDUConnectionOrientedHeader
+        .peekFragmentLength(request));
+    Assert.assertEquals("Incorrect PDU type", PDUType.REQUEST.getValue(),
+        request.get(PDUConnectionOrientedHeader.OFFSET_PDU_TYPE));
+    Assert.assertEquals("Incorrect alloc hint", request.remaining() - 24, request.getInt(16));
+    Assert.assertEquals("Incorrect opnum", 3, request.getShort(22));
+    // object pointer + nil UUID, tower pointer, max_count and tower_length
+    Assert.assertEquals("Incorrect tower length", tower.length, request.getInt(24 + 4 + 16 + 4));
+    Assert.assertEquals("Incorrect tower length", tower.length, request.getInt(24 + 4 + 16 + 8));
+    Assert.assertEquals("Incorrect max towers", EndpointMapperProtocol.MAX_TOWERS,
+        request.getInt(request.limit() - 4));
+  }
+
+  @Test
+  public void testTower() throws IOException {
+    final byte[] tower = EndpointMapperProtocol.composeTower(INTERFACE_ID, INTERFACE_VERSION);
+    Assert.assertEquals("Incorrect tower length", 75, tower.length);
+    final InetAddress defaultAddress = InetAddress.getByName("127.0.0.1");
+    Assert.assertNull("Unexpected endpoint", EndpointMapperProtocol.parseTower(tower, defaultAddress));
+
+    patchTower(tower, 49154, new byte[] { 10, 0, 0, 1 });
+    Assert.assertEquals("Incorrect endpoint", new InetSocketAddress(InetAddress.getByName("10.0.0.1"), 49154),
+        EndpointMapperProtocol.parseTower(tower, defaultAddress));
+    patchTower(tower, 49155, new byte[4]);
+    Assert.assertEquals("Incorrect endpoint", new InetSocketAddress(defaultAddress, 49155),
+        EndpointMapperProtocol.parseTower(tower, defaultAddress));
+    try {
+      EndpointMapperProtocol.parseTower(Arrays.copyOf(tower, 40), defaultAddress);
+      Assert.fail("Truncated tower not detected.");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testParseMapResponse() throws IOException {
+    final InetAddress mapperAddress = InetAddress.getByName("127.0.0.1");
+    final List<InetSocketAddress> endpoints = EndpointMapperProtocol.parseMapResponse(
+        Collections.singletonList(composeMapResponse(2, 49154, 0)), mapperAddress);
+    Assert.assertEquals("Incorrect endpoints", Collections.singletonList(new InetSocketAddress(mapperAddress, 49154)),
+        endpoints);
+    try {
+      EndpointMapperProtocol.parseMapResponse(
+          Collections.singletonList(composeMapResponse(2, 0, EndpointMapperException.EPT_S_NOT_REGISTERED)),
+          mapperAddress);
+      Assert.fail("Status not detected.");
+    } catch (EndpointMapperException e) {
+      Assert.assertEquals("Incorrect status", EndpointMapperException.EPT_S_NOT_REGISTERED, e.getStatus());
+    }
+  }
+
+  static void patchTower(final byte[] tower, final int port, final byte[] address) {
+    tower[TOWER_PORT_OFFSET] = (byte) (port >>> 8);
+    tower[TOWER_PORT_OFFSET + 1] = (byte) port;
+    System.arraycopy(address, 0, tower, TOWER_ADDRESS_OFFSET, address.length);
+  }
+
+  /**
+   * Composes an {@code ept_map} response PDU with one tower, or none if {@code port} is zero.
+   */
+  static ByteBuffer composeMapResponse(final int callId, final int port, final int status) throws IOException {
+    final byte[] tower = EndpointMapperProtocol.composeTower(INTERFACE_ID, INTERFACE_VERSION);
+    patchTower(tower, port, new byte[4]);
+    final int numTowers = (port != 0) ? 1 : 0;
+    final ByteBuffer pdu = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+    putHeader(pdu, PDUType.RESPONSE, callId);
+    pdu.position(24);
+    // entry_handle, num_towers, max_count, offset, actual_count
+    pdu.put(new byte[20]);
+    pdu.putInt(numTowers).putInt(EndpointMapperProtocol.MAX_TOWERS).putInt(0).putInt(numTowers);
+    if (numTowers > 0) {
+      pdu.putInt(3);
+      pdu.putInt(tower.length).putInt(tower.length).put(tower);
+      pdu.position((pdu.position() + 3) & ~3);
+    }
+    pdu.putInt(status);
+    pdu.putShort(PDUConnectionOrientedHeader.OFFSET_FRAGMENT_LENGTH, (short) pdu.position());
+    pdu.flip();
+    return pdu;
+  }
+
+  static ByteBuffer composeBindAck(final int callId) {
+    final ByteBuffer pdu = ByteBuffer.allocate(60).order(ByteOrder.LITTLE_ENDIAN);
+    putHeader(pdu, PDUType.BIND_ACK, callId);
+    pdu.putShort(PDUConnectionOrientedHeader.OFFSET_FRAGMENT_LENGTH, (short) pdu.capacity());
+    pdu.position(24);
+    pdu.putShort((short) 4).put(new byte[] { '1', '3', '5', 0 });
+    pdu.position(32);
+    pdu.put((byte) 1);
+    pdu.position(36);
+    // result and reason acceptance, followed by the transfer syntax
+    pdu.putShort((short) 0).putShort((short) 0);
+    pdu.position(pdu.capacity());
+    pdu.flip();
+    return pdu;
+  }
+
+  private static void putHeader(final ByteBuffer pdu, final PDUType pduType, final int callId) {
+    pdu.put(PDUConnectionOrientedHeader.RPC_VERSION).put((byte) 0).put(pduType.getValue()).put((byte) 0x03);
+    pdu.put(new byte[] { 0x10, 0, 0, 0 });
+    pdu.putShort((short) 0).putShort((short) 0).putInt(callId);
+  }
+}
@@ -0,0 +1,185 @@
+package nl.bransom.jdce.rpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import nl.bransom.jdce.ndr.FormatLabel;
+import nl.bransom.jdce.ndr.FormatLabelCharacter;
+import nl.bransom.jdce.ndr.FormatLabelFloat;
+import nl.bransom.jdce.ndr.FormatLabelInteger;
+import nl.bransom.jdce.ndr.NDRWriter;
+import nl.bransom.jdce.pdu.PDUConnectionOrientedFlag;
+import nl.bransom.jdce.pdu.PDUConnectionOrientedHeader;
+import nl.bransom.jdce.pdu.PDUType;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link MultiplexedConnection}
+ * 
+ * @author Rob
+ */
+public class MultiplexedConnectionTest {
+
+  private static final long TIMEOUT_SECONDS = 5;
+
+  private ServerSocketChannel serverChannel;
+  private SocketChannel clientChannel;
+  private SocketChannel peerChannel;
+
+  @Before
+  public void setUp() throws IOException {
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+    clientChannel = SocketChannel.open(serverChannel.socket().getLocalSocketAddress());
+    peerChannel = serverChannel.accept();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    clientChannel.close();
+    peerChannel.close();
+    serverChannel.close();
+  }
+
+  @Test
+  public void testInterleavedResponses() throws Exception {
+    final MultiplexedConnection connection = new MultiplexedConnection(clientChannel);
+    final int callId1 = connection.nextCallId();
+    final int callId2 = connection.nextCallId();
+    Assert.assertTrue("Call IDs must be unique", callId1 != callId2);
+
+    final Future<List<ByteBuffer>> future1 = connection.call(callId1, composePDU(PDUType.REQUEST, callId1, true, true,
+        1));
+    final Future<List<ByteBuffer>> future2 = connection.call(callId2, composePDU(PDUType.REQUEST, callId2, true, true,
+        2));
+    Assert.assertEquals("Incorrect number of pending calls", 2, connection.getNumPendingCalls());
+    readPeer(2 * (PDUConnectionOrientedHeader.HEADER_LENGTH + 1));
+
+    // Respond to call 2 in between the two fragments of the response to call 1.
+    writePeer(composePDU(PDUType.RESPONSE, callId1, true, false, 10));
+    writePeer(composePDU(PDUType.RESPONSE, callId2, true, true, 20));
+    final List<ByteBuffer> response2 = future2.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    Assert.assertFalse("Call 1 must still be pending", future1.isDone());
+    writePeer(composePDU(PDUType.RESPONSE, callId1, false, true, 11));
+    final List<ByteBuffer> response1 = future1.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+    Assert.assertEquals("Incorrect number of fragments", 1, response2.size());
+    Assert.assertEquals("Incorrect body", 20, response2.get(0).get(PDUConnectionOrientedHeader.HEADER_LENGTH));
+    Assert.assertEquals("Incorrect number of fragments", 2, response1.size());
+    Assert.assertEquals("Incorrect body", 10, response1.get(0).get(PDUConnectionOrientedHeader.HEADER_LENGTH));
+    Assert.assertEquals("Incorrect body", 11, response1.get(1).get(PDUConnectionOrientedHeader.HEADER_LENGTH));
+    Assert.assertEquals("Incorrect call ID", callId1,
+        response1.get(1).getInt(PDUConnectionOrientedHeader.OFFSET_CALL_ID));
+    Assert.assertEquals("Incorrect number of pending calls", 0, connection.getNumPendingCalls());
+    connection.close();
+  }
+
+  @Test
+  public void testPeerClose() throws Exception {
+    final MultiplexedConnection connection = new MultiplexedConnection(clientChannel);
+    final int callId = connection.nextCallId();
+    final Future<List<ByteBuffer>> future = connection.call(callId, composePDU(PDUType.REQUEST, callId, true, true,
+        1));
+    peerChannel.close();
+    try {
+      future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      Assert.fail("Closed connection not detected.");
+    } catch (ExecutionException e) {
+      Assert.assertTrue("Incorrect cause", e.getCause() instanceof IOException);
+    }
+    try {
+      connection.call(connection.nextCallId(), composePDU(PDUType.REQUEST, callId, true, true, 1));
+      Assert.fail("Closed connection not detected.");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testUnsupportedFormatLabel() throws Exception {
+    final MultiplexedConnection connection = new MultiplexedConnection(clientChannel);
+    final int callId = connection.nextCallId();
+    final Future<List<ByteBuffer>> future = connection.call(callId, composePDU(PDUType.REQUEST, callId, true, true,
+        1));
+    final ByteBuffer response = composePDU(PDUType.RESPONSE, callId, true, true, 1);
+    response.put(PDUConnectionOrientedHeader.OFFSET_FORMAT_LABEL, (byte) 0x20);
+    writePeer(response);
+    try {
+      future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      Assert.fail("Unsupported format label not detected.");
+    } catch (ExecutionException e) {
+      Assert.assertTrue("Incorrect cause", e.getCause() instanceof IOException);
+      Assert.assertTrue("Incorrect message", e.getCause().getMessage().contains("format label"));
+    }
+    Assert.assertFalse("Connection not closed", clientChannel.isOpen());
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    final MultiplexedConnection connection = new MultiplexedConnection(clientChannel);
+    final int callId = connection.nextCallId();
+    final Future<List<ByteBuffer>> future = connection.call(callId, composePDU(PDUType.REQUEST, callId, true, true,
+        1));
+    try {
+      connection.call(callId, composePDU(PDUType.REQUEST, callId, true, true, 1));
+      Assert.fail("Duplicate call ID not detected.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    Assert.assertTrue("Call not cancelled", future.cancel(false));
+    Assert.assertTrue("Call not cancelled", future.isCancelled());
+    Assert.assertEquals("Incorrect number of pending calls", 0, connection.getNumPendingCalls());
+
+    // A late response to the cancelled call is dropped.
+    writePeer(composePDU(PDUType.RESPONSE, callId, true, true, 1));
+    connection.close();
+  }
+
+  private static ByteBuffer composePDU(final PDUType pduType, final int callId, final boolean first,
+      final boolean last, final int body) throws IOException {
+    final PDUConnectionOrientedHeader header = new PDUConnectionOrientedHeader();
+    header.setPDUType(pduType);
+    if (first) {
+      header.set(PDUConnectionOrientedFlag.FIRST_FRAG);
+    }
+    if (last) {
+      header.set(PDUConnectionOrientedFlag.LAST_FRAG);
+    }
+    header.setFormatLabel(new FormatLabel(FormatLabelInteger.LITTLE_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE));
+    header.setFragmentLength((short) (PDUConnectionOrientedHeader.HEADER_LENGTH + 1));
+    header.setCallId(callId);
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    header.ndrSerialize(new NDRWriter(bos));
+    bos.write(body);
+    return ByteBuffer.wrap(bos.toByteArray());
+  }
+
+  private void readPeer(final int numBytes) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(numBytes);
+    while (buffer.hasRemaining()) {
+      if (peerChannel.read(buffer) < 0) {
+        Assert.fail("Unexpected end of stream.");
+      }
+    }
+  }
+
+  private void writePeer(final ByteBuffer pdu) throws IOException {
+    while (pdu.hasRemaining()) {
+      peerChannel.write(pdu);
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package nl.bransom.jdce.rpc;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test class for {@link RTTEstimator}
+ * 
+ * @author Rob
+ */
+public class RTTEstimatorTest {
+
+  @Test
+  public void testConstructor() {
+    try {
+      new RTTEstimator(100L, 0L, 1000L);
+      Assert.fail("Zero minimum not detected.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      new RTTEstimator(2000L, 10L, 1000L);
+      Assert.fail("Initial time-out above maximum not detected.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testTimeout() {
+    final RTTEstimator estimator = new RTTEstimator(1000L, 10L, 60000L);
+    Assert.assertEquals("Incorrect smoothed RTT", -1L, estimator.getSmoothedRttMillis());
+    Assert.assertEquals("Incorrect initial time-out", 1000L, estimator.getTimeoutMillis(0));
+
+    // First sample: SRTT = R, RTTVAR = R / 2, RTO = SRTT + 4 * RTTVAR.
+    estimator.sample(100L);
+    Assert.assertEquals("Incorrect smoothed RTT", 100L, estimator.getSmoothedRttMillis());
+    Assert.assertEquals("Incorrect time-out", 300L, estimator.getTimeoutMillis(0));
+
+    // Constant samples converge to the RTT itself, bounded by the minimum.
+    for (int i = 0; i < 100; i++) {
+      estimator.sample(100L);
+    }
+    Assert.assertEquals("Incorrect smoothed RTT", 100L, estimator.getSmoothedRttMillis());
+    Assert.assertTrue("Incorrect time-out", estimator.getTimeoutMillis(0) < 110L);
+  }
+
+  @Test
+  public void testBackoff() {
+    final RTTEstimator estimator = new RTTEstimator(100L, 50L, 1000L);
+    Assert.assertEquals("Incorrect time-out", 200L, estimator.getTimeoutMillis(1));
+    Assert.assertEquals("Incorrect time-out", 800L, estimator.getTimeoutMillis(3));
+    Assert.assertEquals("Incorrect time-out", 1000L, estimator.getTimeoutMillis(4));
+    Assert.assertEquals("Incorrect time-out", 1000L, estimator.getTimeoutMillis(Integer.MAX_VALUE));
+
+    estimator.sample(1L);
+    for (int i = 0; i < 100; i++) {
+      estimator.sample(1L);
+    }
+    Assert.assertEquals("Incorrect minimum time-out", 50L, estimator.getTimeoutMillis(0));
+  }
+}
@@ -3,6 +3,13 @@ package nl.bransom.jdce.rpc;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import nl.bransom.jdce.ndr.FormatLabel;
 import nl.bransom.jdce.ndr.FormatLabelCharacter;
@@ -54,6 +61,51 @@ public class UUIDTest {
     }
   }
 
+  @Test
+  public void testPackedConstructor() {
+    final byte[] node = new byte[] { (byte) 0x08, (byte) 0x00, (byte) 0x2b, (byte) 0x34, (byte) 0xc0, (byte) 0x03 };
+
+    UUID uuid = new UUID(0x2fac123431f811b4L, 0xa22208002b34c003L);
+    Assert.assertEquals("Incorrect field value;", 0x2fac1234, uuid.getTimeLow());
+    Assert.assertEquals("Incorrect field value;", (short) 0x31f8, uuid.getTimeMid());
+    Assert.assertEquals("Incorrect field value;", (short) 0x11b4, uuid.getTimeHighAndVersion());
+    Assert.assertEquals("Incorrect field value;", (byte) 0xa2, uuid.getClockSeqHighAndReserved());
+    Assert.assertEquals("Incorrect field value;", (byte) 0x22, uuid.getClockSeqLow());
+    Assert.assertArrayEquals("Incorrect field value;", node, uuid.getNode());
+    Assert.assertEquals("Incorrect value;", new UUID(0x2fac1234, (short) 0x31f8, (short) 0x11b4, (byte) 0xa2,
+        (byte) 0x22, node), uuid);
+    Assert.assertEquals("Incorrect field value;", 0x2fac123431f811b4L, uuid.getMostSignificantBits());
+    Assert.assertEquals("Incorrect field value;", 0xa22208002b34c003L, uuid.getLeastSignificantBits());
+  }
+
+  @Test
+  public void testIntern() throws IOException {
+    final UUID uuid = new UUID(0x1234567890abcdefL, 0x0fedcba987654321L);
+
+    Assert.assertNotSame("UUID must not be interned yet;", uuid,
+        UUID.valueOf(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+    final UUID interned = uuid.intern();
+    Assert.assertEquals("Incorrect value;", uuid, interned);
+    Assert.assertSame("Incorrect interned instance;", interned, interned.intern());
+    Assert.assertSame("Incorrect interned instance;", interned, new UUID(uuid.getMostSignificantBits(),
+        uuid.getLeastSignificantBits()).intern());
+    Assert.assertSame("Incorrect interned instance;", interned, UUID.valueOf(uuid.getMostSignificantBits(),
+        uuid.getLeastSignificantBits()));
+    Assert.assertSame("Incorrect interned instance;", UUID.NIL, UUID.parse("00000000-0000-0000-0000-000000000000"));
+
+    final NDRReader ndrReader = new NDRReader(new ByteArrayInputStream(new byte[2 * 16]));
+    ndrReader.setFormatLabel(new FormatLabel(FormatLabelInteger.BIG_ENDIAN, FormatLabelCharacter.ASCII,
+        FormatLabelFloat.IEEE));
+    try {
+      ndrReader.read(interned);
+      Assert.fail("Modification of interned UUID not detected.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    ndrReader.read(uuid);
+    Assert.assertEquals("Incorrect value;", UUID.NIL, uuid);
+  }
+
   @Test
   public void testNDRSerialize() throws IOException {
     final byte[] refBytes = { (byte) 0x2f, (byte) 0xac, (byte) 0x12, (byte) 0x34, (byte) 0x31, (byte) 0xf8,
@@ -149,6 +201,25 @@ public class UUIDTest {
     } catch (IllegalArgumentException e) {
       // expected
     }
+    try {
+      UUID.parse("2fac1234-31f8-11b4-a222-08002b34c0g3");
+      Assert.fail("Illegal argument not detected.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      UUID.parse("2fac1234-31f8-11b4-+222-08002b34c003");
+      Assert.fail("Illegal argument not detected.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      UUID.parse("2fac1234-31f8-11b4-a222-08002b34c\u00e9003".substring(0, 36));
+      Assert.fail("Illegal argument not detected.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    Assert.assertEquals("Incorrect value;", uuid, UUID.parse(" 2FAC1234-31F8-11B4-A222-08002B34C003\n"));
   }
 
   @Test
@@ -165,6 +236,70 @@ public class UUIDTest {
     Assert.assertEquals("Incorrect value;", ref, uuid.toString());
   }
 
+  @Test
+  public void testWriteTo() {
+    final byte[] refBytesBE = { (byte) 0x2f, (byte) 0xac, (byte) 0x12, (byte) 0x34, (byte) 0x31, (byte) 0xf8,
+        (byte) 0x11, (byte) 0xb4, (byte) 0xa2, (byte) 0x22, (byte) 0x08, (byte) 0x00, (byte) 0x2b, (byte) 0x34,
+        (byte) 0xc0, (byte) 0x03 };
+    final byte[] refBytesLE = { (byte) 0x34, (byte) 0x12, (byte) 0xac, (byte) 0x2f, (byte) 0xf8, (byte) 0x31,
+        (byte) 0xb4, (byte) 0x11, (byte) 0xa2, (byte) 0x22, (byte) 0x08, (byte) 0x00, (byte) 0x2b, (byte) 0x34,
+        (byte) 0xc0, (byte) 0x03 };
+    final UUID uuid = UUID.parse("2fac1234-31f8-11b4-a222-08002b34c003");
+
+    final byte[] bytes = new byte[UUID.NUM_BYTES + 1];
+    uuid.writeTo(bytes, 1, ByteOrder.BIG_ENDIAN);
+    Assert.assertArrayEquals("Incorrect bytes;", refBytesBE, Arrays.copyOfRange(bytes, 1, bytes.length));
+    uuid.writeTo(bytes, 0, ByteOrder.LITTLE_ENDIAN);
+    Assert.assertArrayEquals("Incorrect bytes;", refBytesLE, Arrays.copyOf(bytes, UUID.NUM_BYTES));
+    try {
+      uuid.writeTo(bytes, 2, ByteOrder.BIG_ENDIAN);
+      Assert.fail("Illegal argument not detected.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    // The byte order of the buffer must not matter.
+    for (final ByteOrder bufferOrder : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+      final ByteBuffer byteBuffer = ByteBuffer.allocate(UUID.NUM_BYTES * 2).order(bufferOrder);
+      uuid.writeTo(byteBuffer, ByteOrder.BIG_ENDIAN);
+      uuid.writeTo(byteBuffer, ByteOrder.LITTLE_ENDIAN);
+      Assert.assertEquals("Incorrect position;", UUID.NUM_BYTES * 2, byteBuffer.position());
+      Assert.assertEquals("Incorrect byte order;", bufferOrder, byteBuffer.order());
+      Assert.assertArrayEquals("Incorrect bytes;", refBytesBE, Arrays.copyOf(byteBuffer.array(), UUID.NUM_BYTES));
+      Assert.assertArrayEquals("Incorrect bytes;", refBytesLE,
+          Arrays.copyOfRange(byteBuffer.array(), UUID.NUM_BYTES, UUID.NUM_BYTES * 2));
+      try {
+        uuid.writeTo(byteBuffer, ByteOrder.BIG_ENDIAN);
+        Assert.fail("Buffer overflow not detected.");
+      } catch (BufferOverflowException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testReadFrom() {
+    final byte[] refBytes = { (byte) 0x2f, (byte) 0xac, (byte) 0x12, (byte) 0x34, (byte) 0x31, (byte) 0xf8,
+        (byte) 0x11, (byte) 0xb4, (byte) 0xa2, (byte) 0x22, (byte) 0x08, (byte) 0x00, (byte) 0x2b, (byte) 0x34,
+        (byte) 0xc0, (byte) 0x03, (byte) 0x34, (byte) 0x12, (byte) 0xac, (byte) 0x2f, (byte) 0xf8, (byte) 0x31,
+        (byte) 0xb4, (byte) 0x11, (byte) 0xa2, (byte) 0x22, (byte) 0x08, (byte) 0x00, (byte) 0x2b, (byte) 0x34,
+        (byte) 0xc0, (byte) 0x03 };
+    final UUID ref = UUID.parse("2fac1234-31f8-11b4-a222-08002b34c003");
+
+    for (final ByteOrder bufferOrder : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+      final ByteBuffer byteBuffer = ByteBuffer.wrap(refBytes).order(bufferOrder);
+      Assert.assertEquals("Incorrect value;", ref, UUID.readFrom(byteBuffer, ByteOrder.BIG_ENDIAN));
+      Assert.assertEquals("Incorrect value;", ref, UUID.readFrom(byteBuffer, ByteOrder.LITTLE_ENDIAN));
+      Assert.assertEquals("Incorrect byte order;", bufferOrder, byteBuffer.order());
+      try {
+        UUID.readFrom(byteBuffer, ByteOrder.BIG_ENDIAN);
+        Assert.fail("Buffer underflow not detected.");
+      } catch (BufferUnderflowException e) {
+        // expected
+      }
+    }
+  }
+
   @Test
   public void testEquals() {
     final int timeLow0 = 0x2fac1234;
@@ -244,4 +379,15 @@ public class UUIDTest {
     other = new UUID(timeLow0, timeMid0, timeHighAndVersion0, clockSeqHighAndReserved0, clockSeqLow0, node3);
     Assert.assertNotEquals("Incorrect value;", ref.hashCode(), other.hashCode());
   }
+
+  @Test
+  public void testHashCodeSpread() {
+    // Consecutive time-based UUIDs differ only in their lowest bits; their hash codes must still fill all buckets.
+    final int numBuckets = 64;
+    final Set<Integer> buckets = new HashSet<Integer>();
+    for (int i = 0; i < numBuckets * 16; i++) {
+      buckets.add(new UUID(0x2fac123431f811b4L + i, 0xa22208002b34c003L).hashCode() & (numBuckets - 1));
+    }
+    Assert.assertEquals("Poor hash code spread;", numBuckets, buckets.size());
+  }
 }